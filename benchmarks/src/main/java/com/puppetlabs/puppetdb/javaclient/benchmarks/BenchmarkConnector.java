@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.HttpClient;
+
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.util.Modules;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.RequestInterceptor;
+import com.puppetlabs.puppetdb.javaclient.cache.ResponseCache;
+import com.puppetlabs.puppetdb.javaclient.impl.DefaultClientMetrics;
+import com.puppetlabs.puppetdb.javaclient.impl.DefaultModule;
+import com.puppetlabs.puppetdb.javaclient.impl.HttpComponentsConnector;
+
+/**
+ * A connector that records posted form parameters instead of sending them, so that the complete
+ * client code path up to the HTTP request can be measured. It also gives the benchmarks access to
+ * the protected {@link HttpComponentsConnector#parseJson(Gson, java.io.InputStream, Type) parseJson}.
+ */
+@Singleton
+class BenchmarkConnector extends HttpComponentsConnector {
+	/**
+	 * @return An injector that binds the {@link HttpConnector} to a {@link BenchmarkConnector} and
+	 *         everything else as the {@link DefaultModule} does
+	 */
+	static Injector createInjector() {
+		// Nothing is sent but the endpoint must still be valid
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setServiceHostname("localhost");
+		return Guice.createInjector(Modules.override(new DefaultModule(preferences)).with(new AbstractModule() {
+			@Override
+			protected void configure() {
+				bind(HttpConnector.class).to(BenchmarkConnector.class);
+			}
+		}));
+	}
+
+	static <T> T parse(Gson gson, byte[] json, Type type) throws IOException {
+		return parseJson(gson, new ByteArrayInputStream(json), type);
+	}
+
+	private Map<String, String> posted;
+
+	/**
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 */
+	@Inject
+	BenchmarkConnector(Gson gson, Provider<HttpClient> httpClientProvider, APIPreferences preferences,
+			DefaultClientMetrics metrics, ResponseCache cache, List<RequestInterceptor> interceptors) {
+		super(gson, httpClientProvider, preferences, metrics, cache, interceptors);
+	}
+
+	/**
+	 * @return The parameters of the last post
+	 */
+	Map<String, String> getPosted() {
+		return posted;
+	}
+
+	@Override
+	public <V> V post(String uri, Map<String, String> params, Class<V> type) throws IOException {
+		posted = params;
+		return null;
+	}
+
+	@Override
+	public <V> V postForm(String uri, Map<String, String> params, String fileParam, Path file, Class<V> type) throws IOException {
+		posted = params;
+		return null;
+	}
+}
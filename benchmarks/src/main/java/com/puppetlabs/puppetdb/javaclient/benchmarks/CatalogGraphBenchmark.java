@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.puppetlabs.puppetdb.javaclient.index.CatalogGraph;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Edge;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Relationship;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.ResourceSpec;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+/**
+ * Measures building a {@link CatalogGraph} and the graph queries on large catalogs. The catalogs
+ * consist of classes that contain resources ordered by chains of <code>before</code> and
+ * <code>notifies</code> edges. The impact of a change is also computed by walking the edges by
+ * type and title as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogGraphBenchmark {
+	private static final String[] TYPES = { "File", "Package", "Service", "Exec", "User" };
+
+	private static String ref(ResourceSpec spec) {
+		return spec.getType() + '[' + spec.getTitle() + ']';
+	}
+
+	private static ResourceSpec spec(String type, String title) {
+		ResourceSpec spec = new ResourceSpec();
+		spec.setType(type);
+		spec.setTitle(title);
+		return spec;
+	}
+
+	@Param({ "1000", "10000", "50000" })
+	public int size;
+
+	private Catalog catalog;
+
+	private CatalogGraph graph;
+
+	private Map<String, List<String>> stringGraph;
+
+	private int[] starts;
+
+	private String[] startRefs;
+
+	private int next;
+
+	@Benchmark
+	public CatalogGraph build() {
+		return CatalogGraph.fromCatalog(catalog);
+	}
+
+	@Benchmark
+	public Map<String, List<String>> buildStringGraph() {
+		// Baseline, adjacency lists keyed by type and title
+		Map<String, List<String>> targets = new HashMap<String, List<String>>();
+		for(Edge edge : catalog.getData().getEdges()) {
+			String source = ref(edge.getSource());
+			List<String> list = targets.get(source);
+			if(list == null) {
+				list = new ArrayList<String>();
+				targets.put(source, list);
+			}
+			list.add(ref(edge.getTarget()));
+		}
+		return targets;
+	}
+
+	@Benchmark
+	public int[] findCycle() {
+		return graph.findCycle();
+	}
+
+	@Benchmark
+	public BitSet impact() {
+		return graph.getImpact(starts[next++ & (starts.length - 1)]);
+	}
+
+	@Benchmark
+	public int impactStrings() {
+		// Baseline, the same traversal as impact() with hashed type and title keys
+		String start = startRefs[next++ & (startRefs.length - 1)];
+		Set<String> seen = new HashSet<String>();
+		Deque<String> stack = new ArrayDeque<String>();
+		seen.add(start);
+		stack.push(start);
+		while(!stack.isEmpty()) {
+			List<String> list = stringGraph.get(stack.pop());
+			if(list != null)
+				for(String target : list)
+					if(seen.add(target))
+						stack.push(target);
+		}
+		return seen.size();
+	}
+
+	@Benchmark
+	public boolean reachable() {
+		int idx = next++ & (starts.length - 1);
+		return graph.isReachable(starts[idx], starts[(idx + 1) & (starts.length - 1)], Relationship.before, Relationship.notifies);
+	}
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		List<Resource> resources = new ArrayList<Resource>(size);
+		List<Edge> edges = new ArrayList<Edge>(size * 3);
+		ResourceSpec currentClass = null;
+		ResourceSpec previous = null;
+		for(int idx = 0; idx < size; ++idx) {
+			Resource resource = new Resource();
+			if(idx % 50 == 0) {
+				resource.setType("Class");
+				resource.setTitle("Profile::Class" + idx);
+				currentClass = spec(resource.getType(), resource.getTitle());
+				previous = null;
+			}
+			else {
+				resource.setType(TYPES[random.nextInt(TYPES.length)]);
+				resource.setTitle("/srv/app/" + idx);
+			}
+			resources.add(resource);
+			if(idx % 50 == 0)
+				continue;
+
+			ResourceSpec spec = spec(resource.getType(), resource.getTitle());
+			Edge contains = new Edge();
+			contains.setSource(currentClass);
+			contains.setTarget(spec);
+			contains.setRelationship(Relationship.contains);
+			edges.add(contains);
+			if(previous != null) {
+				Edge order = new Edge();
+				order.setSource(previous);
+				order.setTarget(spec);
+				order.setRelationship(random.nextInt(4) == 0
+						? Relationship.notifies
+						: Relationship.before);
+				edges.add(order);
+			}
+			previous = spec;
+
+			// Occasional dependencies on resources in earlier classes
+			if(idx > 100 && random.nextInt(10) == 0) {
+				Resource earlier = resources.get(random.nextInt(idx - 50));
+				Edge require = new Edge();
+				require.setSource(spec(earlier.getType(), earlier.getTitle()));
+				require.setTarget(spec);
+				require.setRelationship(Relationship.required_by);
+				edges.add(require);
+			}
+		}
+
+		Catalog.Data data = new Catalog.Data();
+		data.setName("node.example.com");
+		data.setResources(resources);
+		data.setEdges(edges);
+		catalog = new Catalog();
+		catalog.setData(data);
+		graph = CatalogGraph.fromCatalog(catalog);
+		stringGraph = buildStringGraph();
+
+		starts = new int[256];
+		startRefs = new String[starts.length];
+		for(int idx = 0; idx < starts.length; ++idx) {
+			Resource resource = resources.get(random.nextInt(size));
+			starts[idx] = graph.getId(resource.getType(), resource.getTitle());
+			startRefs[idx] = resource.getType() + '[' + resource.getTitle() + ']';
+		}
+	}
+
+	@Benchmark
+	public int[] topologicalOrder() {
+		return graph.getTopologicalOrder();
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Injector;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.command.CatalogWriter;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Edge;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+/**
+ * Measures how many commands per second the client turns into a payload and its checksum. The
+ * commands go through the complete {@link PuppetDBClient} code path and are recorded by a
+ * {@link BenchmarkConnector} instead of being sent. The catalog has <code>size</code> resources
+ * and edges and the report <code>size</code> events. The catalog is also written with a
+ * {@link CatalogWriter} as a baseline for the temporary file. Run with <code>-prof gc</code> to see
+ * the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+	@Param({ "100", "10000" })
+	public int size;
+
+	private BenchmarkConnector connector;
+
+	private PuppetDBClient client;
+
+	private Catalog catalog;
+
+	private Catalog header;
+
+	private Report report;
+
+	@Benchmark
+	public String replaceCatalog() throws IOException {
+		client.replaceCatalog(catalog);
+		return connector.getPosted().get("checksum");
+	}
+
+	@Benchmark
+	public String replaceCatalogStreamed() throws IOException {
+		CatalogWriter writer = client.newCatalogWriter(header);
+		for(Resource resource : catalog.getData().getResources())
+			writer.addResource(resource);
+		for(Edge edge : catalog.getData().getEdges())
+			writer.addEdge(edge);
+		writer.submit();
+		return connector.getPosted().get("checksum");
+	}
+
+	@Setup
+	public void setup() {
+		Injector injector = BenchmarkConnector.createInjector();
+		connector = injector.getInstance(BenchmarkConnector.class);
+		client = injector.getInstance(PuppetDBClient.class);
+
+		Random random = new Random(42);
+		catalog = Fixtures.catalog(random, size);
+		report = Fixtures.report(random, size);
+
+		Catalog.Data data = new Catalog.Data();
+		data.setName(catalog.getData().getName());
+		data.setVersion(catalog.getData().getVersion());
+		data.setTransactionUUID(catalog.getData().getTransactionUUID());
+		header = new Catalog();
+		header.setData(data);
+		header.setMetadata(catalog.getMetadata());
+	}
+
+	@Benchmark
+	public String storeReport() throws IOException {
+		client.storeReport(report);
+		return connector.getPosted().get("checksum");
+	}
+}
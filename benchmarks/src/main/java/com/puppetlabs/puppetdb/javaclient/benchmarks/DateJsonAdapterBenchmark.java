@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonPrimitive;
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider.DateJsonAdapter;
+
+/**
+ * Measures how many timestamps per second the {@link DateJsonAdapter} formats and parses. Both
+ * directions share one date format, so the contended variants show what concurrent requests pay
+ * for it. Timestamps in UTC and with an offset are parsed since they take different paths. Run
+ * with <code>-prof gc</code> to see the allocation rate. The scores are reported per timestamp.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateJsonAdapterBenchmark {
+	private static final int SIZE = 1024;
+
+	private static int length(Date[] dates) {
+		int length = 0;
+		for(Date date : dates)
+			length += DateJsonAdapter.dateToString(date).length();
+		return length;
+	}
+
+	private final DateJsonAdapter adapter = new DateJsonAdapter();
+
+	private final Date[] dates = new Date[SIZE];
+
+	private final JsonPrimitive[] utc = new JsonPrimitive[SIZE];
+
+	private final JsonPrimitive[] offset = new JsonPrimitive[SIZE];
+
+	private long parse(JsonPrimitive[] timestamps) {
+		long sum = 0;
+		for(JsonPrimitive timestamp : timestamps)
+			sum += adapter.deserialize(timestamp, Date.class, null).getTime();
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public int format() {
+		return length(dates);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	@Threads(4)
+	public int formatContended() {
+		return length(dates);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public long parseOffset() {
+		return parse(offset);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public long parseUTC() {
+		return parse(utc);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	@Threads(4)
+	public long parseUTCContended() {
+		return parse(utc);
+	}
+
+	@Setup
+	public void setup() {
+		// Formatted here so that the timestamps don't depend on the default time zone
+		SimpleDateFormat utcFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+		utcFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		TimeZone zone = TimeZone.getTimeZone("Europe/Stockholm");
+		SimpleDateFormat localFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+		localFormat.setTimeZone(zone);
+
+		Random random = new Random(42);
+		for(int idx = 0; idx < SIZE; ++idx) {
+			Date date = Fixtures.date(random);
+			dates[idx] = date;
+			utc[idx] = new JsonPrimitive(utcFormat.format(date) + 'Z');
+			int minutes = zone.getOffset(date.getTime()) / 60000;
+			offset[idx] = new JsonPrimitive(String.format(
+				"%s+%02d:%02d", localFormat.format(date), Integer.valueOf(minutes / 60), Integer.valueOf(minutes % 60)));
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Edge;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Relationship;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.ResourceSpec;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+/**
+ * Synthetic model objects for the benchmarks. The content is derived from the given random
+ * generator only, so the same seed always yields the same objects and the same JSON.
+ */
+final class Fixtures {
+	private static final String[] FACT_NAMES = {
+			"architecture", "ipaddress", "kernel", "memorysize_mb", "operatingsystem", "processorcount", "uptime", "virtual" };
+
+	private static final String[] FACT_VALUES = { "x86_64", "10.0.3.17", "Linux", "65536", "RedHat", "8", "12 days", "kvm" };
+
+	private static final String[] TYPES = { "File", "Package", "Service", "Exec", "User" };
+
+	// The start of 2014. Dates are spread over the following twelve hours
+	private static final long EPOCH = 1388534400000L;
+
+	static String certname(Random random) {
+		return "node" + random.nextInt(1000) + ".example.com";
+	}
+
+	static Catalog catalog(Random random, int size) {
+		List<Resource> resources = resources(random, size);
+		List<Edge> edges = new ArrayList<Edge>(size);
+		for(int idx = 1; idx < size; ++idx) {
+			Edge edge = new Edge();
+			edge.setSource(spec(resources.get(random.nextInt(idx))));
+			edge.setTarget(spec(resources.get(idx)));
+			edge.setRelationship(random.nextBoolean()
+					? Relationship.contains
+					: Relationship.before);
+			edges.add(edge);
+		}
+
+		Catalog.Data data = new Catalog.Data();
+		data.setName(certname(random));
+		data.setVersion(Long.toString(EPOCH / 1000));
+		data.setTransactionUUID("7b8e3a9c-27a0-4d1a-9a3e-0d6f1c1b5e42");
+		data.setResources(resources);
+		data.setEdges(edges);
+		Catalog.Metadata metadata = new Catalog.Metadata();
+		metadata.setApi_version(Integer.valueOf(1));
+		Catalog catalog = new Catalog();
+		catalog.setData(data);
+		catalog.setMetadata(metadata);
+		return catalog;
+	}
+
+	static Date date(Random random) {
+		return new Date(EPOCH + random.nextInt(12 * 3600 * 1000));
+	}
+
+	static Event event(Random random) {
+		Event event = new Event();
+		event.setCertname(certname(random));
+		event.setReport(Long.toHexString(random.nextLong()));
+		event.setStatus(Event.Status.values()[random.nextInt(Event.Status.values().length)]);
+		event.setTimestamp(date(random));
+		event.setRunStartTime(event.getTimestamp());
+		event.setRunEndTime(event.getTimestamp());
+		event.setReportReceiveTime(event.getTimestamp());
+		event.setResourceType(TYPES[random.nextInt(TYPES.length)]);
+		event.setResourceTitle("/srv/app/" + random.nextInt(10000));
+		event.setProperty("ensure");
+		event.setOldValue("absent");
+		event.setNewValue("present");
+		event.setMessage("defined 'ensure' as 'present'");
+		event.setFile("/etc/puppet/modules/app/manifests/init.pp");
+		event.setLine(1 + random.nextInt(200));
+		event.setContainingClass("App::Config");
+		event.setContainmentPath(Arrays.asList("Stage[main]", "App::Config", event.getResourceType() + '[' +
+				event.getResourceTitle() + ']'));
+		return event;
+	}
+
+	static List<Event> events(Random random, int size) {
+		List<Event> events = new ArrayList<Event>(size);
+		for(int idx = 0; idx < size; ++idx)
+			events.add(event(random));
+		return events;
+	}
+
+	static List<Fact> facts(Random random, int size) {
+		List<Fact> facts = new ArrayList<Fact>(size);
+		for(int idx = 0; idx < size; ++idx) {
+			Fact fact = new Fact();
+			int name = random.nextInt(FACT_NAMES.length);
+			fact.setCertname(certname(random));
+			fact.setName(FACT_NAMES[name]);
+			fact.setValue(FACT_VALUES[name]);
+			facts.add(fact);
+		}
+		return facts;
+	}
+
+	static List<Node> nodes(Random random, int size) {
+		List<Node> nodes = new ArrayList<Node>(size);
+		for(int idx = 0; idx < size; ++idx) {
+			Node node = new Node();
+			node.setName(certname(random));
+			node.setCatalogTimestamp(date(random));
+			node.setFactsTimestamp(date(random));
+			node.setReportTimestamp(date(random));
+			nodes.add(node);
+		}
+		return nodes;
+	}
+
+	static Report report(Random random, int events) {
+		Report report = new Report();
+		report.setCertname(certname(random));
+		report.setPuppetVersion("3.4.2");
+		report.setReportFormat(4);
+		report.setConfigurationVersion(Long.toString(EPOCH / 1000));
+		report.setStartTime(date(random));
+		report.setEndTime(report.getStartTime());
+		report.setReceiveTime(report.getStartTime());
+		report.setResourceEvents(events(random, events));
+		return report;
+	}
+
+	static List<Report> reports(Random random, int size) {
+		List<Report> reports = new ArrayList<Report>(size);
+		for(int idx = 0; idx < size; ++idx)
+			reports.add(report(random, 0));
+		return reports;
+	}
+
+	static List<Resource> resources(Random random, int size) {
+		List<Resource> resources = new ArrayList<Resource>(size);
+		for(int idx = 0; idx < size; ++idx) {
+			Resource resource = new Resource();
+			resource.setCertname(certname(random));
+			resource.setType(TYPES[random.nextInt(TYPES.length)]);
+			resource.setTitle("/srv/app/" + idx);
+			resource.setExported(Boolean.valueOf(random.nextInt(10) == 0));
+			resource.setFile("/etc/puppet/modules/app/manifests/init.pp");
+			resource.setLine(Integer.valueOf(1 + random.nextInt(200)));
+			resource.setTags(Arrays.asList("app", "app::config", resource.getType().toLowerCase()));
+			Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+			parameters.put("ensure", "present");
+			parameters.put("owner", "root");
+			parameters.put("mode", "0644");
+			parameters.put("content", "# Managed by Puppet\nlisten = \"0.0.0.0:" + (8000 + random.nextInt(1000)) + "\"\n");
+			resource.setParameters(parameters);
+			resources.add(resource);
+		}
+		return resources;
+	}
+
+	static ResourceSpec spec(Resource resource) {
+		ResourceSpec spec = new ResourceSpec();
+		spec.setType(resource.getType());
+		spec.setTitle(resource.getTitle());
+		return spec;
+	}
+
+	private Fixtures() {
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.security.KeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.puppetlabs.puppetdb.javaclient.ssl.KeySpecFactory;
+import com.puppetlabs.puppetdb.javaclient.ssl.KeySpecFactory.KeyType;
+
+/**
+ * Measures how many PEM encoded 2048 bit RSA keys per second the {@link KeySpecFactory} decodes into
+ * key specs. The key is generated from a fixed seed and encoded in each of the supported formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeySpecFactoryBenchmark {
+	private static int contentLength(byte[] der, int pos) {
+		int length = der[pos + 1] & 0xff;
+		if(length < 0x80)
+			return length;
+		int result = 0;
+		for(int idx = 0; idx < (length & 0x7f); ++idx)
+			result = result << 8 | der[pos + 2 + idx] & 0xff;
+		return result;
+	}
+
+	private static int headerLength(byte[] der, int pos) {
+		int length = der[pos + 1] & 0xff;
+		return length < 0x80
+				? 2
+				: 2 + (length & 0x7f);
+	}
+
+	private static String pem(String label, byte[] der) throws IOException {
+		return "-----BEGIN " + label + "-----\n" + new String(Base64.encodeBase64Chunked(der), "ASCII") + "-----END " + label +
+				"-----\n";
+	}
+
+	private static byte[] toPKCS1(byte[] pkcs8) {
+		// The PKCS#1 key is the octet string that follows the version and the algorithm
+		int pos = headerLength(pkcs8, 0);
+		pos += headerLength(pkcs8, pos) + contentLength(pkcs8, pos);
+		pos += headerLength(pkcs8, pos) + contentLength(pkcs8, pos);
+		int start = pos + headerLength(pkcs8, pos);
+		return Arrays.copyOfRange(pkcs8, start, start + contentLength(pkcs8, pos));
+	}
+
+	@Param({ "PKCS1", "PKCS8", "X509" })
+	public KeyType keyType;
+
+	private String pem;
+
+	@Benchmark
+	public KeySpec decode() throws IOException, KeyException {
+		return KeySpecFactory.readKeySpec(new BufferedReader(new StringReader(pem)), "benchmark");
+	}
+
+	@Setup
+	public void setup() throws GeneralSecurityException, IOException {
+		SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+		random.setSeed(42);
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048, random);
+		KeyPair keyPair = generator.generateKeyPair();
+		switch(keyType) {
+			case PKCS1:
+				pem = pem("RSA PRIVATE KEY", toPKCS1(keyPair.getPrivate().getEncoded()));
+				break;
+			case PKCS8:
+				pem = pem("PRIVATE KEY", keyPair.getPrivate().getEncoded());
+				break;
+			default:
+				pem = pem("PUBLIC KEY", keyPair.getPublic().getEncoded());
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.fact;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gt;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
+import com.puppetlabs.puppetdb.javaclient.impl.JsonLiteralWriter;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+
+/**
+ * Compares {@link JsonLiteralWriter} with the {@link GsonProvider#toJSON(Object)} that it
+ * replaces, and measures the serialization of a typical expression. Run with
+ * <code>-prof gc</code> to see the allocation rate. The literal scores are reported per literal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiteralEncodingBenchmark {
+	// The number of literals must match the OperationsPerInvocation
+	private static final Object[] LITERALS = {
+			"node17.example.com", "a \"quoted\" <value> & more", Integer.valueOf(64000), Double.valueOf(0.25), Boolean.TRUE,
+			new Date(1388534400000L), new String[] { "fact", "operatingsystem" }, "failure" };
+
+	private Expression<Node> expression;
+
+	private final StringBuilder bld = new StringBuilder(256);
+
+	@Benchmark
+	public int expression() {
+		bld.setLength(0);
+		expression.toJSON(bld);
+		return bld.length();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int expressionContended() {
+		// Gson serialization used to take a global lock
+		StringBuilder local = new StringBuilder(256);
+		expression.toJSON(local);
+		return local.length();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(8)
+	public int gson() {
+		bld.setLength(0);
+		for(Object literal : LITERALS)
+			bld.append(GsonProvider.toJSON(literal));
+		return bld.length();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(8)
+	public int writer() {
+		bld.setLength(0);
+		for(Object literal : LITERALS)
+			JsonLiteralWriter.appendLiteral(bld, literal);
+		return bld.length();
+	}
+
+	@Setup
+	public void setup() {
+		expression = and(
+			eq(Node.NAME, "node17.example.com"),
+			eq(fact("operatingsystem"), "RedHat"),
+			gt(fact("memorysize_mb"), 64000));
+	}
+}
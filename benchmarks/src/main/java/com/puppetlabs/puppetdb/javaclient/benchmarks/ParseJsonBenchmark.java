@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+/**
+ * Measures how many responses per second
+ * {@link com.puppetlabs.puppetdb.javaclient.impl.HttpComponentsConnector#parseJson(Gson, java.io.InputStream, Type)
+ * parseJson} turns into model objects. The responses are lists of each model type, or a catalog,
+ * with <code>size</code> entries. Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseJsonBenchmark {
+	@Param({ "catalog", "events", "facts", "nodes", "reports", "resources" })
+	public String model;
+
+	@Param({ "10", "1000", "10000" })
+	public int size;
+
+	private Gson gson;
+
+	private byte[] json;
+
+	private Type type;
+
+	@Benchmark
+	public Object parse() throws IOException {
+		return BenchmarkConnector.parse(gson, json, type);
+	}
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		Object response;
+		switch(model) {
+			case "catalog":
+				response = Fixtures.catalog(random, size);
+				type = Catalog.class;
+				break;
+			case "events":
+				response = Fixtures.events(random, size);
+				type = Event.LIST;
+				break;
+			case "facts":
+				response = Fixtures.facts(random, size);
+				type = Fact.LIST;
+				break;
+			case "nodes":
+				response = Fixtures.nodes(random, size);
+				type = Node.LIST;
+				break;
+			case "reports":
+				response = Fixtures.reports(random, size);
+				type = Report.LIST;
+				break;
+			case "resources":
+				response = Fixtures.resources(random, size);
+				type = Resource.LIST;
+				break;
+			default:
+				throw new IllegalArgumentException(model);
+		}
+		gson = new GsonProvider().get();
+		json = gson.toJson(response).getBytes(HttpConnector.UTF_8);
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.compile;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gt;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.match;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.not;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.query.Predicate;
+
+/**
+ * Measures how many objects per second a compiled {@link Predicate} can test. The score is
+ * reported per tested object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredicateBenchmark {
+	private static final int SIZE = 1024;
+
+	private static final String[] NAMES = { "kernel", "memorysize_mb", "operatingsystem", "uptime" };
+
+	private static final String[] VALUES = { "Linux", "RedHat", "Debian", "1 day", "2048", "65536", "131072" };
+
+	private Fact[] facts;
+
+	private Event[] events;
+
+	private Predicate<Fact> factPredicate;
+
+	private Predicate<Event> eventPredicate;
+
+	private Predicate<Fact> regexPredicate;
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public int events() {
+		int count = 0;
+		for(Event event : events)
+			if(eventPredicate.matches(event))
+				++count;
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public int facts() {
+		int count = 0;
+		for(Fact fact : facts)
+			if(factPredicate.matches(fact))
+				++count;
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public int factsHandWritten() {
+		// Baseline, the same condition as factPredicate written in Java
+		int count = 0;
+		for(Fact fact : facts) {
+			if("memorysize_mb".equals(fact.getName())) {
+				String value = fact.getValue();
+				if(value != null && !value.isEmpty() && Character.isDigit(value.charAt(0)) && Double.parseDouble(value) > 64000)
+					++count;
+			}
+			else if("operatingsystem".equals(fact.getName()) && !"Debian".equals(fact.getValue()))
+				++count;
+		}
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public int factsRegex() {
+		int count = 0;
+		for(Fact fact : facts)
+			if(regexPredicate.matches(fact))
+				++count;
+		return count;
+	}
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		facts = new Fact[SIZE];
+		events = new Event[SIZE];
+		Event.Status[] statuses = Event.Status.values();
+		for(int idx = 0; idx < SIZE; ++idx) {
+			Fact fact = new Fact();
+			fact.setCertname("node" + random.nextInt(100) + ".example.com");
+			fact.setName(NAMES[random.nextInt(NAMES.length)]);
+			fact.setValue(VALUES[random.nextInt(VALUES.length)]);
+			facts[idx] = fact;
+
+			Event event = new Event();
+			event.setCertname(fact.getCertname());
+			event.setStatus(statuses[random.nextInt(statuses.length)]);
+			event.setResourceType(random.nextBoolean()
+					? "File"
+					: "Package");
+			event.setTimestamp(new Date(random.nextInt(1000000)));
+			events[idx] = event;
+		}
+
+		factPredicate = compile(or(
+			and(eq(Fact.NAME, "memorysize_mb"), gt(Fact.VALUE, 64000)),
+			and(eq(Fact.NAME, "operatingsystem"), not(eq(Fact.VALUE, "Debian")))), Fact.class);
+		regexPredicate = compile(and(match(Fact.CERTNAME, "^node[1-3]\\d\\."), match(Fact.VALUE, "^[0-9]+$")), Fact.class);
+		eventPredicate = compile(and(
+			eq(Event.STATUS, "failure"),
+			eq(Event.RESOURCE_TYPE, "File"),
+			not(eq(Event.TIMESTAMP, new Date(0)))), Event.class);
+	}
+}
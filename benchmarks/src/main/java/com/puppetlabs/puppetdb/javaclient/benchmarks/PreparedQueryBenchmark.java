@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.placeholder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.PreparedQuery;
+
+/**
+ * Compares the cost of producing the query parameter for a recurring query shape with a new
+ * certname each time, by building the expression or by binding a {@link PreparedQuery}. The
+ * <code>memoized</code> benchmark measures resending an expression that has already been sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreparedQueryBenchmark {
+	private static final int NODES = 1024;
+
+	private final String[] certnames = new String[NODES];
+
+	private final Map<String, String> params = new HashMap<String, String>();
+
+	private PreparedQuery<Event> prepared;
+
+	private Expression<Event> sent;
+
+	private int next;
+
+	@Benchmark
+	public String bind() {
+		params.clear();
+		prepared.bind(nextCertname()).appendTo(params);
+		return params.get("query");
+	}
+
+	@Benchmark
+	public String build() {
+		params.clear();
+		and(eq(Event.CERTNAME, nextCertname()), eq(Event.STATUS, "failure")).appendTo(params);
+		return params.get("query");
+	}
+
+	@Benchmark
+	public String memoized() {
+		params.clear();
+		sent.appendTo(params);
+		return params.get("query");
+	}
+
+	private String nextCertname() {
+		return certnames[next++ & (NODES - 1)];
+	}
+
+	@Setup
+	public void setup() {
+		for(int idx = 0; idx < NODES; ++idx)
+			certnames[idx] = "node" + idx + ".example.com";
+		prepared = PreparedQuery.prepare(and(eq(Event.CERTNAME, placeholder("certname")), eq(Event.STATUS, "failure")));
+		sent = and(eq(Event.CERTNAME, certnames[0]), eq(Event.STATUS, "failure"));
+		sent.appendTo(params);
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.benchmarks;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gt;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.inFacts;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.orderByField;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.OrderBy;
+import com.puppetlabs.puppetdb.javaclient.query.Parameters;
+import com.puppetlabs.puppetdb.javaclient.query.Query;
+
+/**
+ * Measures how many queries per second are encoded into request parameters. The expression is an
+ * <code>or</code> of <code>terms</code> certnames combined with a fact sub-query, and is encoded
+ * alone, with an <code>order-by</code> and with paging on top of that. Run with
+ * <code>-prof gc</code> to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryEncodingBenchmark {
+	@Param({ "4", "64" })
+	public int terms;
+
+	private final StringBuilder bld = new StringBuilder(4096);
+
+	private final Map<String, String> params = new HashMap<String, String>();
+
+	private Expression<Event> expression;
+
+	private OrderBy<Event> orderBy;
+
+	private Parameters<Event> paging;
+
+	@Benchmark
+	public int expression() {
+		bld.setLength(0);
+		expression.toJSON(bld);
+		return bld.length();
+	}
+
+	@Benchmark
+	public String orderBy() {
+		params.clear();
+		orderBy.appendTo(params);
+		return params.get("order-by");
+	}
+
+	@Benchmark
+	public String paging() {
+		params.clear();
+		paging.appendTo(params);
+		return params.get("offset");
+	}
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		List<Expression<Event>> certnames = new ArrayList<Expression<Event>>(terms);
+		for(int idx = 0; idx < terms; ++idx)
+			certnames.add(eq(Event.CERTNAME, Fixtures.certname(random)));
+		expression = and(
+			or(certnames),
+			eq(Event.STATUS, "failure"),
+			inFacts(Event.CERTNAME, Fact.CERTNAME, and(eq(Fact.NAME, "memorysize_mb"), gt(Fact.VALUE, 64000))));
+		orderBy = Query.orderBy(expression, orderByField(Event.TIMESTAMP, true), orderByField(Event.RESOURCE_TITLE, false));
+		paging = Query.paging(orderBy, 5000, 1000, true);
+	}
+}
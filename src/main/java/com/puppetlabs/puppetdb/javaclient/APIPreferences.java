@@ -11,9 +11,13 @@
 package com.puppetlabs.puppetdb.javaclient;
 
 import java.io.File;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Preferences used when connecting to the PuppetDB instance
+ * Preferences used when connecting to the PuppetDB instance. Preferences are added to this
+ * interface as the client evolves, so implementations should extend {@link AbstractAPIPreferences}
+ * or {@link BasicAPIPreferences} rather than implement it directly.
  */
 public interface APIPreferences {
 	/**
@@ -23,6 +27,41 @@ public interface APIPreferences {
 	 */
 	File getCaCertPEM();
 
+	/**
+	 * The maximum estimated number of bytes held by the response cache. The estimate is based on
+	 * the size of the JSON responses.
+	 * 
+	 * @return A number of bytes
+	 */
+	long getCacheMaxBytes();
+
+	/**
+	 * The maximum number of responses held by the response cache. The least recently used
+	 * response is evicted when this number, or the {@link #getCacheMaxBytes() byte limit}, is exceeded.
+	 * 
+	 * @return A number of responses
+	 */
+	int getCacheMaxEntries();
+
+	/**
+	 * The time in milliseconds that an expired response may still be returned from the cache while
+	 * a single background request refreshes it. This prevents concurrent callers from all sending
+	 * requests when a popular response expires.
+	 * 
+	 * @return A millisecond interval or 0 to always wait for a fresh response
+	 */
+	int getCacheStaleTime();
+
+	/**
+	 * The time in milliseconds that responses from an end-point are cached, keyed by the end-point
+	 * path without API version, e.g. <code>/fact-names</code>. A key also applies to all paths below
+	 * it unless a more specific key exists. Responses from end-points that aren't present are never
+	 * cached. An empty map disables the cache.
+	 * 
+	 * @return The times to live keyed by end-point path. Can be empty but never <code>null</code>.
+	 */
+	Map<String, Integer> getCacheTimeToLive();
+
 	/**
 	 * Returns the path of the PEM file for the Certificate. This setting is mandatory when using SSL
 	 * 
@@ -30,6 +69,22 @@ public interface APIPreferences {
 	 */
 	File getCertPEM();
 
+	/**
+	 * Determines whether identical queries that are executed concurrently share one HTTP request.
+	 * 
+	 * @return The coalescing policy
+	 */
+	CoalescingPolicy getCoalescingPolicy();
+
+	/**
+	 * The maximum time in milliseconds that a request waits for a free slot when the adaptive
+	 * concurrency limit of its endpoint has been reached.
+	 * 
+	 * @return A millisecond timeout
+	 * @see #isAdaptiveConcurrency()
+	 */
+	int getConcurrencyQueueTimeout();
+
 	/**
 	 * Connection timeout in milliseconds
 	 * 
@@ -37,6 +92,130 @@ public interface APIPreferences {
 	 */
 	int getConnectTimeout();
 
+	/**
+	 * The number of consecutive failed requests or health probes after which an endpoint is
+	 * ejected from query routing. An ejected endpoint is re-admitted when a health probe succeeds.
+	 *
+	 * @return The ejection threshold
+	 */
+	int getEjectionThreshold();
+
+	/**
+	 * The number of milliseconds that each poll of an
+	 * {@link com.puppetlabs.puppetdb.javaclient.events.EventTail EventTail} reaches back behind the
+	 * point in time up to which events are believed to be complete. Reports that take longer than this
+	 * to be stored by PuppetDB may be missed.
+	 * 
+	 * @return A millisecond interval
+	 */
+	int getEventTailOverlap();
+
+	/**
+	 * Interval in milliseconds between the <code>/events</code> queries of an
+	 * {@link com.puppetlabs.puppetdb.javaclient.events.EventTail EventTail}.
+	 * 
+	 * @return A millisecond interval
+	 */
+	int getEventTailPollInterval();
+
+	/**
+	 * The maximum number of batches that an {@link com.puppetlabs.puppetdb.javaclient.events.EventTail
+	 * EventTail} holds for delivery. Polling pauses while the limit is reached.
+	 * 
+	 * @return The maximum number of undelivered batches
+	 */
+	int getEventTailQueueCapacity();
+
+	/**
+	 * Interval in milliseconds between the <code>/nodes</code> queries that the
+	 * {@link com.puppetlabs.puppetdb.javaclient.index.ExportedResourceIndex ExportedResourceIndex} uses
+	 * to find nodes whose catalog has changed.
+	 * 
+	 * @return A millisecond interval
+	 */
+	int getExportedResourceSyncInterval();
+
+	/**
+	 * Interval in milliseconds between the <code>/nodes</code> queries that the
+	 * {@link com.puppetlabs.puppetdb.javaclient.cache.FactReplica FactReplica} uses to find nodes
+	 * whose facts have changed.
+	 * 
+	 * @return A millisecond interval
+	 */
+	int getFactReplicaSyncInterval();
+
+	/**
+	 * Interval in milliseconds between health probes of the configured endpoints. Health
+	 * probes are only performed when replica endpoints are configured. A value that is
+	 * zero or negative disables health probes and ejection.
+	 *
+	 * @return A millisecond interval
+	 */
+	int getHealthCheckInterval();
+
+	/**
+	 * The maximum number of hedged requests, expressed as a percentage of the number of hedging
+	 * eligible queries. This caps the extra load that hedging puts on the PuppetDB instances.
+	 *
+	 * @return A percentage
+	 * @see #getHedgingPercentile()
+	 */
+	int getHedgingBudget();
+
+	/**
+	 * When greater than zero, a query that hasn't received a response within this percentile of
+	 * recently observed latencies of queries to the same path is duplicated and sent to another
+	 * endpoint. The response that arrives first is used and the other request is aborted.
+	 * Hedging requires that {@link #getReplicaEndpoints() replica endpoints} are configured.
+	 *
+	 * @return A percentile between 1 and 99, or 0 to disable hedging
+	 */
+	int getHedgingPercentile();
+
+	/**
+	 * The maximum number of pooled connections to each endpoint. Each endpoint has its own pool.
+	 *
+	 * @return The maximum number of connections per endpoint
+	 */
+	int getMaxConnectionsPerEndpoint();
+
+	/**
+	 * The maximum length of the URL encoded <code>query</code> parameter of a GET request. A larger
+	 * query that is a disjunction is split into several queries that are sent concurrently and whose
+	 * results are merged. A value that is zero or negative disables splitting, which is the default.
+	 * Splitting is opt-in since an ordered and paged split query is merged using Java's ordering of
+	 * the values, which may differ from the ordering of PuppetDB.
+	 * 
+	 * @return The maximum number of characters
+	 * @see com.puppetlabs.puppetdb.javaclient.query.QuerySplitter
+	 */
+	int getMaxQueryLength();
+
+	/**
+	 * Interval in milliseconds between the scrapes of a started
+	 * {@link com.puppetlabs.puppetdb.javaclient.metrics.MetricsPoller MetricsPoller}.
+	 * 
+	 * @return A millisecond interval
+	 */
+	int getMetricsPollInterval();
+
+	/**
+	 * The maximum number of MBeans that a
+	 * {@link com.puppetlabs.puppetdb.javaclient.metrics.MetricsPoller MetricsPoller} fetches concurrently.
+	 * 
+	 * @return The maximum number of concurrent requests per scrape
+	 */
+	int getMetricsPollParallelism();
+
+	/**
+	 * Interval in milliseconds between the <code>/nodes</code> queries that the
+	 * {@link com.puppetlabs.puppetdb.javaclient.cache.NodeCache NodeCache} uses to detect nodes
+	 * with new facts or catalogs.
+	 * 
+	 * @return A millisecond interval
+	 */
+	int getNodeCacheSweepInterval();
+
 	/**
 	 * Returns the path of the PEM file for the Private Key. This setting is mandatory when using SSL
 	 * 
@@ -45,14 +224,31 @@ public interface APIPreferences {
 	File getPrivateKeyPEM();
 
 	/**
-	 * Mandatory setting. The DNS name of the PuppetDB host
+	 * Optional read replicas. Queries are distributed among the primary host and these
+	 * endpoints in accordance with the {@link #getRoutingPolicy() routing policy}. Commands
+	 * are always sent to the primary host.
+	 *
+	 * @return The replica endpoints. Can be empty but never <code>null</code>.
+	 */
+	List<ServiceEndpoint> getReplicaEndpoints();
+
+	/**
+	 * The policy used when distributing queries among the primary host and the
+	 * {@link #getReplicaEndpoints() replica endpoints}.
+	 *
+	 * @return The routing policy
+	 */
+	RoutingPolicy getRoutingPolicy();
+
+	/**
+	 * Mandatory setting. The DNS name of the primary PuppetDB host
 	 * 
 	 * @return The DNS name of the host
 	 */
 	String getServiceHostname();
 
 	/**
-	 * Mandatory setting. The port of the PuppetDB host
+	 * Mandatory setting. The port of the primary PuppetDB host
 	 * 
 	 * @return A port number
 	 */
@@ -65,6 +261,25 @@ public interface APIPreferences {
 	 */
 	int getSoTimeout();
 
+	/**
+	 * The maximum number of concurrently executing requests when a query that exceeds the
+	 * {@link #getMaxQueryLength() maximum query length} is split.
+	 * 
+	 * @return The maximum number of concurrent requests per split query
+	 */
+	int getSplitQueryParallelism();
+
+	/**
+	 * If <code>true</code> then the number of concurrently executing requests to each endpoint
+	 * is limited. The limit is lowered automatically when the endpoint responds slower than usual
+	 * or fails, and raised again when it recovers. It never exceeds the
+	 * {@link #getMaxConnectionsPerEndpoint() maximum number of connections}. Requests in excess
+	 * of the limit are queued. The limit is disabled by default.
+	 * 
+	 * @return <code>true</code> to enable the adaptive concurrency limit
+	 */
+	boolean isAdaptiveConcurrency();
+
 	/**
 	 * If <code>true</code> then the SSL host name validation will be turned off.
 	 * 
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An adapter that provides the defaults of {@link BasicAPIPreferences} for all preferences except
+ * the connection settings. Implementations that extend this class instead of implementing
+ * {@link APIPreferences} directly keep compiling when new preferences are added.
+ */
+public abstract class AbstractAPIPreferences implements APIPreferences {
+	@Override
+	public long getCacheMaxBytes() {
+		return BasicAPIPreferences.DEFAULT_CACHE_MAX_BYTES;
+	}
+
+	@Override
+	public int getCacheMaxEntries() {
+		return BasicAPIPreferences.DEFAULT_CACHE_MAX_ENTRIES;
+	}
+
+	@Override
+	public int getCacheStaleTime() {
+		return BasicAPIPreferences.DEFAULT_CACHE_STALE_TIME;
+	}
+
+	/**
+	 * @return An empty map, i.e. no responses are cached
+	 */
+	@Override
+	public Map<String, Integer> getCacheTimeToLive() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public CoalescingPolicy getCoalescingPolicy() {
+		return CoalescingPolicy.NONE;
+	}
+
+	@Override
+	public int getConcurrencyQueueTimeout() {
+		return BasicAPIPreferences.DEFAULT_CONCURRENCY_QUEUE_TIMEOUT;
+	}
+
+	@Override
+	public int getEjectionThreshold() {
+		return BasicAPIPreferences.DEFAULT_EJECTION_THRESHOLD;
+	}
+
+	@Override
+	public int getEventTailOverlap() {
+		return BasicAPIPreferences.DEFAULT_EVENT_TAIL_OVERLAP;
+	}
+
+	@Override
+	public int getEventTailPollInterval() {
+		return BasicAPIPreferences.DEFAULT_EVENT_TAIL_POLL_INTERVAL;
+	}
+
+	@Override
+	public int getEventTailQueueCapacity() {
+		return BasicAPIPreferences.DEFAULT_EVENT_TAIL_QUEUE_CAPACITY;
+	}
+
+	@Override
+	public int getExportedResourceSyncInterval() {
+		return BasicAPIPreferences.DEFAULT_EXPORTED_RESOURCE_SYNC_INTERVAL;
+	}
+
+	@Override
+	public int getFactReplicaSyncInterval() {
+		return BasicAPIPreferences.DEFAULT_FACT_REPLICA_SYNC_INTERVAL;
+	}
+
+	@Override
+	public int getHealthCheckInterval() {
+		return BasicAPIPreferences.DEFAULT_HEALTH_CHECK_INTERVAL;
+	}
+
+	@Override
+	public int getHedgingBudget() {
+		return BasicAPIPreferences.DEFAULT_HEDGING_BUDGET;
+	}
+
+	/**
+	 * @return Zero, i.e. queries are not hedged
+	 */
+	@Override
+	public int getHedgingPercentile() {
+		return 0;
+	}
+
+	@Override
+	public int getMaxConnectionsPerEndpoint() {
+		return BasicAPIPreferences.DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+	}
+
+	@Override
+	public int getMaxQueryLength() {
+		return BasicAPIPreferences.DEFAULT_MAX_QUERY_LENGTH;
+	}
+
+	@Override
+	public int getMetricsPollInterval() {
+		return BasicAPIPreferences.DEFAULT_METRICS_POLL_INTERVAL;
+	}
+
+	@Override
+	public int getMetricsPollParallelism() {
+		return BasicAPIPreferences.DEFAULT_METRICS_POLL_PARALLELISM;
+	}
+
+	@Override
+	public int getNodeCacheSweepInterval() {
+		return BasicAPIPreferences.DEFAULT_NODE_CACHE_SWEEP_INTERVAL;
+	}
+
+	/**
+	 * @return An empty list, i.e. all requests are sent to the primary endpoint
+	 */
+	@Override
+	public List<ServiceEndpoint> getReplicaEndpoints() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public RoutingPolicy getRoutingPolicy() {
+		return RoutingPolicy.LEAST_OUTSTANDING;
+	}
+
+	@Override
+	public int getSplitQueryParallelism() {
+		return BasicAPIPreferences.DEFAULT_SPLIT_QUERY_PARALLELISM;
+	}
+
+	@Override
+	public boolean isAdaptiveConcurrency() {
+		return false;
+	}
+}
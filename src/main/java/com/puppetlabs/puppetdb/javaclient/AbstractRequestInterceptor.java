@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+/**
+ * A {@link RequestInterceptor} where all callbacks do nothing. Subclasses override the
+ * callbacks that they are interested in.
+ */
+public abstract class AbstractRequestInterceptor implements RequestInterceptor {
+	@Override
+	public void beforeSend(RequestContext context) {
+	}
+
+	@Override
+	public void onComplete(RequestContext context) {
+	}
+
+	@Override
+	public void onError(RequestContext context, Throwable error) {
+	}
+
+	@Override
+	public void onHeaders(RequestContext context) {
+	}
+}
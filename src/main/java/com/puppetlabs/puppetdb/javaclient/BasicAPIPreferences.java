@@ -11,11 +11,35 @@
 package com.puppetlabs.puppetdb.javaclient;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Default Guice Injection module
  */
 public class BasicAPIPreferences implements APIPreferences {
+	/**
+	 * Default maximum estimated number of bytes held by the response cache
+	 */
+	public static final long DEFAULT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Default maximum number of responses held by the response cache
+	 */
+	public static final int DEFAULT_CACHE_MAX_ENTRIES = 10000;
+
+	/**
+	 * Default time that an expired response may be returned while it is refreshed
+	 */
+	public static final int DEFAULT_CACHE_STALE_TIME = 10000;
+
+	/**
+	 * Default time that a request waits for a free slot when the concurrency limit has been reached
+	 */
+	public static final int DEFAULT_CONCURRENCY_QUEUE_TIMEOUT = 30000;
+
 	/**
 	 * Default connection timeout when establishing a new connection to the PuppetDB service
 	 */
@@ -26,10 +50,128 @@ public class BasicAPIPreferences implements APIPreferences {
 	 */
 	public static final int DEFAULT_READ_TIMEOUT = 5000;
 
+	/**
+	 * Default number of consecutive failures that will eject an endpoint
+	 */
+	public static final int DEFAULT_EJECTION_THRESHOLD = 3;
+
+	/**
+	 * Default interval between the node queries of the fact replica
+	 */
+	public static final int DEFAULT_FACT_REPLICA_SYNC_INTERVAL = 60000;
+
+	/**
+	 * Default interval between endpoint health probes
+	 */
+	public static final int DEFAULT_HEALTH_CHECK_INTERVAL = 10000;
+
+	/**
+	 * Default maximum percentage of queries that may be hedged
+	 */
+	public static final int DEFAULT_HEDGING_BUDGET = 10;
+
+	/**
+	 * Default maximum number of pooled connections to each endpoint
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 20;
+
+	/**
+	 * Default interval between the node queries of the node cache
+	 */
+	public static final int DEFAULT_NODE_CACHE_SWEEP_INTERVAL = 30000;
+
+	/**
+	 * Default maximum length of the encoded query parameter. Queries are not split by default.
+	 */
+	public static final int DEFAULT_MAX_QUERY_LENGTH = 0;
+
+	/**
+	 * Default maximum number of concurrent requests for a split query
+	 */
+	public static final int DEFAULT_SPLIT_QUERY_PARALLELISM = 4;
+
+	/**
+	 * Default interval between the synchronizations of the exported resource index
+	 */
+	public static final int DEFAULT_EXPORTED_RESOURCE_SYNC_INTERVAL = 30000;
+
+	/**
+	 * Default overlap between consecutive polls of an event tail
+	 */
+	public static final int DEFAULT_EVENT_TAIL_OVERLAP = 30000;
+
+	/**
+	 * Default interval between the polls of an event tail
+	 */
+	public static final int DEFAULT_EVENT_TAIL_POLL_INTERVAL = 10000;
+
+	/**
+	 * Default maximum number of undelivered batches of an event tail
+	 */
+	public static final int DEFAULT_EVENT_TAIL_QUEUE_CAPACITY = 16;
+
+	/**
+	 * Default interval between the scrapes of a metrics poller
+	 */
+	public static final int DEFAULT_METRICS_POLL_INTERVAL = 60000;
+
+	/**
+	 * Default maximum number of MBeans that a metrics poller fetches concurrently
+	 */
+	public static final int DEFAULT_METRICS_POLL_PARALLELISM = 4;
+
+	private int concurrencyQueueTimeout = DEFAULT_CONCURRENCY_QUEUE_TIMEOUT;
+
 	private int connectTimeout = DEFAULT_CONNECTION_TIMEOUT;
 
 	private int readTimeout = DEFAULT_READ_TIMEOUT;
 
+	private int ejectionThreshold = DEFAULT_EJECTION_THRESHOLD;
+
+	private int factReplicaSyncInterval = DEFAULT_FACT_REPLICA_SYNC_INTERVAL;
+
+	private int exportedResourceSyncInterval = DEFAULT_EXPORTED_RESOURCE_SYNC_INTERVAL;
+
+	private int eventTailOverlap = DEFAULT_EVENT_TAIL_OVERLAP;
+
+	private int eventTailPollInterval = DEFAULT_EVENT_TAIL_POLL_INTERVAL;
+
+	private int eventTailQueueCapacity = DEFAULT_EVENT_TAIL_QUEUE_CAPACITY;
+
+	private int healthCheckInterval = DEFAULT_HEALTH_CHECK_INTERVAL;
+
+	private int metricsPollInterval = DEFAULT_METRICS_POLL_INTERVAL;
+
+	private int metricsPollParallelism = DEFAULT_METRICS_POLL_PARALLELISM;
+
+	private int hedgingBudget = DEFAULT_HEDGING_BUDGET;
+
+	private int hedgingPercentile;
+
+	private int maxConnectionsPerEndpoint = DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+
+	private int nodeCacheSweepInterval = DEFAULT_NODE_CACHE_SWEEP_INTERVAL;
+
+	private int maxQueryLength = DEFAULT_MAX_QUERY_LENGTH;
+
+	private int splitQueryParallelism = DEFAULT_SPLIT_QUERY_PARALLELISM;
+
+	private RoutingPolicy routingPolicy = RoutingPolicy.LEAST_OUTSTANDING;
+
+	private CoalescingPolicy coalescingPolicy = CoalescingPolicy.NONE;
+
+	private final Map<String, Integer> cacheTimeToLive = new LinkedHashMap<String, Integer>();
+
+	private long cacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+
+	private int cacheMaxEntries = DEFAULT_CACHE_MAX_ENTRIES;
+
+	private int cacheStaleTime = DEFAULT_CACHE_STALE_TIME;
+
+	private final List<ServiceEndpoint> replicaEndpoints = new ArrayList<ServiceEndpoint>();
+
+	private boolean adaptiveConcurrency;
+
 	private boolean allowAllHosts = false;
 
 	private int serviceSSLPort;
@@ -42,6 +184,17 @@ public class BasicAPIPreferences implements APIPreferences {
 
 	private File privateKeyPEM;
 
+	/**
+	 * Adds a read replica that queries can be routed to.
+	 *
+	 * @param endpoint
+	 *            The replica endpoint to add
+	 */
+	public void addReplicaEndpoint(ServiceEndpoint endpoint) {
+		if(!replicaEndpoints.contains(endpoint))
+			replicaEndpoints.add(endpoint);
+	}
+
 	/**
 	 * @return the caCertPEM
 	 */
@@ -50,6 +203,38 @@ public class BasicAPIPreferences implements APIPreferences {
 		return caCertPEM;
 	}
 
+	/**
+	 * @return the cacheMaxBytes
+	 */
+	@Override
+	public long getCacheMaxBytes() {
+		return cacheMaxBytes;
+	}
+
+	/**
+	 * @return the cacheMaxEntries
+	 */
+	@Override
+	public int getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	/**
+	 * @return the cacheStaleTime
+	 */
+	@Override
+	public int getCacheStaleTime() {
+		return cacheStaleTime;
+	}
+
+	/**
+	 * @return the cacheTimeToLive
+	 */
+	@Override
+	public Map<String, Integer> getCacheTimeToLive() {
+		return cacheTimeToLive;
+	}
+
 	/**
 	 * @return the certPEM
 	 */
@@ -58,6 +243,22 @@ public class BasicAPIPreferences implements APIPreferences {
 		return certPEM;
 	}
 
+	/**
+	 * @return the coalescingPolicy
+	 */
+	@Override
+	public CoalescingPolicy getCoalescingPolicy() {
+		return coalescingPolicy;
+	}
+
+	/**
+	 * @return the concurrencyQueueTimeout
+	 */
+	@Override
+	public int getConcurrencyQueueTimeout() {
+		return concurrencyQueueTimeout;
+	}
+
 	/**
 	 * @return the connectTimeout
 	 */
@@ -66,6 +267,118 @@ public class BasicAPIPreferences implements APIPreferences {
 		return connectTimeout;
 	}
 
+	/**
+	 * @return the ejectionThreshold
+	 */
+	@Override
+	public int getEjectionThreshold() {
+		return ejectionThreshold;
+	}
+
+	/**
+	 * @return the eventTailOverlap
+	 */
+	@Override
+	public int getEventTailOverlap() {
+		return eventTailOverlap;
+	}
+
+	/**
+	 * @return the eventTailPollInterval
+	 */
+	@Override
+	public int getEventTailPollInterval() {
+		return eventTailPollInterval;
+	}
+
+	/**
+	 * @return the eventTailQueueCapacity
+	 */
+	@Override
+	public int getEventTailQueueCapacity() {
+		return eventTailQueueCapacity;
+	}
+
+	/**
+	 * @return the exportedResourceSyncInterval
+	 */
+	@Override
+	public int getExportedResourceSyncInterval() {
+		return exportedResourceSyncInterval;
+	}
+
+	/**
+	 * @return the factReplicaSyncInterval
+	 */
+	@Override
+	public int getFactReplicaSyncInterval() {
+		return factReplicaSyncInterval;
+	}
+
+	/**
+	 * @return the healthCheckInterval
+	 */
+	@Override
+	public int getHealthCheckInterval() {
+		return healthCheckInterval;
+	}
+
+	/**
+	 * @return the hedgingBudget
+	 */
+	@Override
+	public int getHedgingBudget() {
+		return hedgingBudget;
+	}
+
+	/**
+	 * @return the hedgingPercentile
+	 */
+	@Override
+	public int getHedgingPercentile() {
+		return hedgingPercentile;
+	}
+
+	/**
+	 * @return the maxConnectionsPerEndpoint
+	 */
+	@Override
+	public int getMaxConnectionsPerEndpoint() {
+		return maxConnectionsPerEndpoint;
+	}
+
+	/**
+	 * @return the maxQueryLength
+	 */
+	@Override
+	public int getMaxQueryLength() {
+		return maxQueryLength;
+	}
+
+	/**
+	 * @return the metricsPollInterval
+	 */
+	@Override
+	public int getMetricsPollInterval() {
+		return metricsPollInterval;
+	}
+
+	/**
+	 * @return the metricsPollParallelism
+	 */
+	@Override
+	public int getMetricsPollParallelism() {
+		return metricsPollParallelism;
+	}
+
+	/**
+	 * @return the nodeCacheSweepInterval
+	 */
+	@Override
+	public int getNodeCacheSweepInterval() {
+		return nodeCacheSweepInterval;
+	}
+
 	/**
 	 * @return the privateKeyPEM
 	 */
@@ -74,6 +387,22 @@ public class BasicAPIPreferences implements APIPreferences {
 		return privateKeyPEM;
 	}
 
+	/**
+	 * @return the replicaEndpoints
+	 */
+	@Override
+	public List<ServiceEndpoint> getReplicaEndpoints() {
+		return replicaEndpoints;
+	}
+
+	/**
+	 * @return the routingPolicy
+	 */
+	@Override
+	public RoutingPolicy getRoutingPolicy() {
+		return routingPolicy;
+	}
+
 	/**
 	 * @return the readTimeout
 	 */
@@ -82,6 +411,14 @@ public class BasicAPIPreferences implements APIPreferences {
 		return readTimeout;
 	}
 
+	/**
+	 * @return the splitQueryParallelism
+	 */
+	@Override
+	public int getSplitQueryParallelism() {
+		return splitQueryParallelism;
+	}
+
 	@Override
 	public String getServiceHostname() {
 		return serviceHostname;
@@ -92,11 +429,27 @@ public class BasicAPIPreferences implements APIPreferences {
 		return serviceSSLPort;
 	}
 
+	/**
+	 * @return the adaptiveConcurrency
+	 */
+	@Override
+	public boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+
 	@Override
 	public boolean isAllowAllHosts() {
 		return allowAllHosts;
 	}
 
+	/**
+	 * @param adaptiveConcurrency
+	 *            set to <code>true</code> to enable the adaptive concurrency limit
+	 */
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+
 	/**
 	 * @param allowAllHosts
 	 *            set to <code>true</code> to disable host name checking
@@ -113,6 +466,45 @@ public class BasicAPIPreferences implements APIPreferences {
 		this.caCertPEM = caCertPEM;
 	}
 
+	/**
+	 * @param cacheMaxBytes
+	 *            the cacheMaxBytes to set
+	 */
+	public void setCacheMaxBytes(long cacheMaxBytes) {
+		this.cacheMaxBytes = cacheMaxBytes;
+	}
+
+	/**
+	 * @param cacheMaxEntries
+	 *            the cacheMaxEntries to set
+	 */
+	public void setCacheMaxEntries(int cacheMaxEntries) {
+		this.cacheMaxEntries = cacheMaxEntries;
+	}
+
+	/**
+	 * @param cacheStaleTime
+	 *            the cacheStaleTime to set
+	 */
+	public void setCacheStaleTime(int cacheStaleTime) {
+		this.cacheStaleTime = cacheStaleTime;
+	}
+
+	/**
+	 * Sets the time that responses from an end-point are cached.
+	 * 
+	 * @param path
+	 *            The end-point path without API version, e.g. <code>/fact-names</code>
+	 * @param timeToLive
+	 *            The time in milliseconds or 0 to stop caching responses from the end-point
+	 */
+	public void setCacheTimeToLive(String path, int timeToLive) {
+		if(timeToLive > 0)
+			cacheTimeToLive.put(path, Integer.valueOf(timeToLive));
+		else
+			cacheTimeToLive.remove(path);
+	}
+
 	/**
 	 * @param certPEM
 	 *            the certPEM to set
@@ -121,6 +513,22 @@ public class BasicAPIPreferences implements APIPreferences {
 		this.certPEM = certPEM;
 	}
 
+	/**
+	 * @param coalescingPolicy
+	 *            the coalescingPolicy to set
+	 */
+	public void setCoalescingPolicy(CoalescingPolicy coalescingPolicy) {
+		this.coalescingPolicy = coalescingPolicy;
+	}
+
+	/**
+	 * @param concurrencyQueueTimeout
+	 *            the concurrencyQueueTimeout to set
+	 */
+	public void setConcurrencyQueueTimeout(int concurrencyQueueTimeout) {
+		this.concurrencyQueueTimeout = concurrencyQueueTimeout;
+	}
+
 	/**
 	 * @param connectTimeout
 	 *            the connectTimeout to set
@@ -129,6 +537,70 @@ public class BasicAPIPreferences implements APIPreferences {
 		this.connectTimeout = connectTimeout;
 	}
 
+	/**
+	 * @param ejectionThreshold
+	 *            the ejectionThreshold to set
+	 */
+	public void setEjectionThreshold(int ejectionThreshold) {
+		this.ejectionThreshold = ejectionThreshold;
+	}
+
+	/**
+	 * @param factReplicaSyncInterval
+	 *            the factReplicaSyncInterval to set
+	 */
+	public void setFactReplicaSyncInterval(int factReplicaSyncInterval) {
+		this.factReplicaSyncInterval = factReplicaSyncInterval;
+	}
+
+	/**
+	 * @param healthCheckInterval
+	 *            the healthCheckInterval to set
+	 */
+	public void setHealthCheckInterval(int healthCheckInterval) {
+		this.healthCheckInterval = healthCheckInterval;
+	}
+
+	/**
+	 * @param hedgingBudget
+	 *            the hedgingBudget to set
+	 */
+	public void setHedgingBudget(int hedgingBudget) {
+		this.hedgingBudget = hedgingBudget;
+	}
+
+	/**
+	 * @param hedgingPercentile
+	 *            the hedgingPercentile to set
+	 */
+	public void setHedgingPercentile(int hedgingPercentile) {
+		this.hedgingPercentile = hedgingPercentile;
+	}
+
+	/**
+	 * @param maxConnectionsPerEndpoint
+	 *            the maxConnectionsPerEndpoint to set
+	 */
+	public void setMaxConnectionsPerEndpoint(int maxConnectionsPerEndpoint) {
+		this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+	}
+
+	/**
+	 * @param maxQueryLength
+	 *            the maxQueryLength to set
+	 */
+	public void setMaxQueryLength(int maxQueryLength) {
+		this.maxQueryLength = maxQueryLength;
+	}
+
+	/**
+	 * @param nodeCacheSweepInterval
+	 *            the nodeCacheSweepInterval to set
+	 */
+	public void setNodeCacheSweepInterval(int nodeCacheSweepInterval) {
+		this.nodeCacheSweepInterval = nodeCacheSweepInterval;
+	}
+
 	/**
 	 * @param privateKeyPEM
 	 *            the privateKeyPEM to set
@@ -145,6 +617,14 @@ public class BasicAPIPreferences implements APIPreferences {
 		this.readTimeout = readTimeout;
 	}
 
+	/**
+	 * @param routingPolicy
+	 *            the routingPolicy to set
+	 */
+	public void setRoutingPolicy(RoutingPolicy routingPolicy) {
+		this.routingPolicy = routingPolicy;
+	}
+
 	/**
 	 * @param serviceHostname
 	 *            the serviceHostname to set
@@ -160,4 +640,60 @@ public class BasicAPIPreferences implements APIPreferences {
 	public void setServicePort(int serviceSSLPort) {
 		this.serviceSSLPort = serviceSSLPort;
 	}
+
+	/**
+	 * @param splitQueryParallelism
+	 *            the splitQueryParallelism to set
+	 */
+	public void setSplitQueryParallelism(int splitQueryParallelism) {
+		this.splitQueryParallelism = splitQueryParallelism;
+	}
+
+	/**
+	 * @param exportedResourceSyncInterval
+	 *            the exportedResourceSyncInterval to set
+	 */
+	public void setExportedResourceSyncInterval(int exportedResourceSyncInterval) {
+		this.exportedResourceSyncInterval = exportedResourceSyncInterval;
+	}
+
+	/**
+	 * @param eventTailOverlap
+	 *            the eventTailOverlap to set
+	 */
+	public void setEventTailOverlap(int eventTailOverlap) {
+		this.eventTailOverlap = eventTailOverlap;
+	}
+
+	/**
+	 * @param eventTailPollInterval
+	 *            the eventTailPollInterval to set
+	 */
+	public void setEventTailPollInterval(int eventTailPollInterval) {
+		this.eventTailPollInterval = eventTailPollInterval;
+	}
+
+	/**
+	 * @param eventTailQueueCapacity
+	 *            the eventTailQueueCapacity to set
+	 */
+	public void setEventTailQueueCapacity(int eventTailQueueCapacity) {
+		this.eventTailQueueCapacity = eventTailQueueCapacity;
+	}
+
+	/**
+	 * @param metricsPollInterval
+	 *            the metricsPollInterval to set
+	 */
+	public void setMetricsPollInterval(int metricsPollInterval) {
+		this.metricsPollInterval = metricsPollInterval;
+	}
+
+	/**
+	 * @param metricsPollParallelism
+	 *            the metricsPollParallelism to set
+	 */
+	public void setMetricsPollParallelism(int metricsPollParallelism) {
+		this.metricsPollParallelism = metricsPollParallelism;
+	}
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+/**
+ * Determines whether identical queries that are executed concurrently are coalesced into one
+ * HTTP request. Two queries are identical when they have the same path, the same parameters and
+ * the same expected result type.
+ */
+public enum CoalescingPolicy {
+	/**
+	 * Each query sends its own request.
+	 */
+	NONE,
+
+	/**
+	 * A query that is identical to a query already in flight waits for that query and returns its
+	 * result. Each caller receives its own list, set or map, but the elements in it are shared.
+	 * Callers must treat the returned elements as immutable.
+	 */
+	SHARE,
+
+	/**
+	 * Like {@link #SHARE} but each waiting query receives a deep copy of the result so that callers
+	 * are free to modify it.
+	 */
+	COPY
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes the body of a successful response while it is being received.
+ * 
+ * @param <V>
+ *            The type of the value produced from the body
+ */
+public interface ContentHandler<V> {
+	/**
+	 * Reads the response body. The stream is closed by the caller once this method returns.
+	 * 
+	 * @param content
+	 *            The response body
+	 * @return The value produced from the body
+	 * @throws IOException
+	 */
+	V handleContent(InputStream content) throws IOException;
+}
@@ -10,11 +10,15 @@
  */
 package com.puppetlabs.puppetdb.javaclient;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Type;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.Map;
 
 import com.puppetlabs.puppetdb.javaclient.query.Paging;
@@ -22,7 +26,7 @@ import com.puppetlabs.puppetdb.javaclient.query.Paging;
 /**
  * A connector responsible for all HTTP interactions.
  */
-public interface HttpConnector {
+public interface HttpConnector extends Closeable {
 	/**
 	 * The content type of posts and responses.
 	 */
@@ -44,11 +48,18 @@ public interface HttpConnector {
 	Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
 
 	/**
-	 * Cleanly abort the currently executing request. This method does nothing if there is
+	 * Cleanly abort all currently executing requests. This method does nothing if there is
 	 * no executing request.
 	 */
 	void abortCurrentRequest();
 
+	/**
+	 * Releases the threads, connections and management beans held by the connector. Requests made
+	 * after the connector has been closed fail.
+	 */
+	@Override
+	void close();
+
 	/**
 	 * Send DELETE request to URI
 	 * 
@@ -69,6 +80,47 @@ public interface HttpConnector {
 	 */
 	void download(String urlStr, Map<String, String> params, OutputStream output) throws IOException;
 
+	/**
+	 * Performs a GET command and writes the response to <code>file</code>, replacing any previous
+	 * content. Interrupted transfers are resumed as described for
+	 * {@link #download(String, Map, WritableByteChannel, ProgressListener)}.
+	 * 
+	 * @param urlStr
+	 *            The relative URI end-point
+	 * @param params
+	 *            The query parameters or <code>null</code>
+	 * @param file
+	 *            The file to write
+	 * @param listener
+	 *            Receiver of progress notifications or <code>null</code>
+	 * @return The number of bytes written
+	 * @throws IOException
+	 */
+	long download(String urlStr, Map<String, String> params, Path file, ProgressListener listener) throws IOException;
+
+	/**
+	 * Performs a GET command and writes the response to <code>channel</code>. When the channel
+	 * is a {@link FileChannel}, the bytes are written using {@link FileChannel#transferFrom} starting
+	 * at the current position of the channel. Other channels are written through a single reused
+	 * buffer. In both cases the response body is read from a stream and copied through a buffer on
+	 * the heap.
+	 * If reading from the server fails and the server has declared that it accepts byte ranges
+	 * and sent a strong entity tag or Last-Modified date, the transfer is resumed from the first
+	 * missing byte using a HTTP range request that is sent to the same endpoint.
+	 * 
+	 * @param urlStr
+	 *            The relative URI end-point
+	 * @param params
+	 *            The query parameters or <code>null</code>
+	 * @param channel
+	 *            The channel to write to. The channel is not closed
+	 * @param listener
+	 *            Receiver of progress notifications or <code>null</code>
+	 * @return The number of bytes written
+	 * @throws IOException
+	 */
+	long download(String urlStr, Map<String, String> params, WritableByteChannel channel, ProgressListener listener) throws IOException;
+
 	/**
 	 * Executes a HTTP GET request. The http response is expected to be a JSON representation of
 	 * an object of the specified <code>type</code>. The object is parsed and returned.
@@ -128,6 +180,27 @@ public interface HttpConnector {
 	 */
 	<V> V post(String urlStr, Map<String, String> params, Class<V> type) throws IOException;
 
+	/**
+	 * Posts a URL encoded form like {@link #post(String, Map, Class)} but reads the value of one
+	 * parameter from a file while the request is sent. The request body is byte-identical to the one
+	 * that {@link #post(String, Map, Class) post} would send if the file content was the value of
+	 * that parameter, but the file is never held in memory.
+	 * 
+	 * @param urlStr
+	 *            The relative URI end-point
+	 * @param params
+	 *            The form parameters. Must contain <code>fileParam</code>, the value of which is ignored
+	 * @param fileParam
+	 *            The name of the parameter whose value is read from the file
+	 * @param file
+	 *            A file with the UTF-8 encoded value
+	 * @param type
+	 *            The type of the expected return value
+	 * @return The response from the POST request
+	 * @throws IOException
+	 */
+	<V> V postForm(String urlStr, Map<String, String> params, String fileParam, Path file, Class<V> type) throws IOException;
+
 	/**
 	 * Post using a MultiPart entity
 	 * 
@@ -166,6 +239,24 @@ public interface HttpConnector {
 	 */
 	<V> V put(String urlStr, Map<String, String> params, Class<V> type) throws IOException;
 
+	/**
+	 * Executes a HTTP GET request and passes the body of a successful response to
+	 * <code>handler</code> while it is being received. Unlike the <code>get</code> methods,
+	 * the response is never buffered and the request is never hedged since the handler may
+	 * have side effects.
+	 * 
+	 * @param urlStr
+	 *            The relative URI end-point
+	 * @param params
+	 *            Parameters to include in the URL
+	 * @param handler
+	 *            The consumer of the response body
+	 * @return The value returned by the handler
+	 * @throws IOException
+	 *             if the request could not be completed or if the handler failed
+	 */
+	<V> V stream(String urlStr, Map<String, String> params, ContentHandler<V> handler) throws IOException;
+
 	/**
 	 * Convert object to a JSON string
 	 * 
@@ -0,0 +1,26 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+/**
+ * Receives progress notifications during a download.
+ */
+public interface ProgressListener {
+	/**
+	 * Called each time a chunk of data has been written to the download target.
+	 * 
+	 * @param transferred
+	 *            The total number of bytes written so far
+	 * @param total
+	 *            The expected total number of bytes or -1 if unknown
+	 */
+	void progress(long transferred, long total);
+}
@@ -10,12 +10,15 @@
  */
 package com.puppetlabs.puppetdb.javaclient;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import com.puppetlabs.puppetdb.javaclient.command.CatalogWriter;
+import com.puppetlabs.puppetdb.javaclient.command.ReportWriter;
 import com.puppetlabs.puppetdb.javaclient.model.*;
 import com.puppetlabs.puppetdb.javaclient.model.EventCount.CountBy;
 import com.puppetlabs.puppetdb.javaclient.model.EventCount.SummarizeBy;
@@ -39,7 +42,13 @@ import com.puppetlabs.puppetdb.javaclient.query.Query;
  * @see OrderBy
  * @see Paging
  */
-public interface PuppetDBClient {
+public interface PuppetDBClient extends Closeable {
+	/**
+	 * Closes the client and its {@link HttpConnector}. The client can't be used after it has been
+	 * closed.
+	 */
+	@Override
+	void close();
 
 	/**
 	 * @param node
@@ -81,7 +90,7 @@ public interface PuppetDBClient {
 	 *            Specifies which type of object you’d like to see counts for. Defaults to {@link SummarizeBy#CERTNAME}
 	 * @param countBy
 	 *            A string specifying what type of object is counted when building up the counts of successes, failures, noops,
-	 *            and skips. Defaults to {@link CountBy#CERTNAME}
+	 *            and skips. Defaults to {@link CountBy#resource}
 	 * @return The list of event counts
 	 * @throws IOException
 	 */
@@ -101,7 +110,7 @@ public interface PuppetDBClient {
 	 *            Specifies which type of object you’d like to see counts for. Defaults to {@link SummarizeBy#CERTNAME}
 	 * @param countBy
 	 *            A string specifying what type of object is counted when building up the counts of successes, failures, noops,
-	 *            and skips. Defaults to {@link CountBy#CERTNAME}
+	 *            and skips. Defaults to {@link CountBy#resource}
 	 * @return The list of event counts
 	 * @throws IOException
 	 */
@@ -240,6 +249,33 @@ public interface PuppetDBClient {
 	 */
 	String getVersion() throws IOException;
 
+	/**
+	 * Creates a writer that streams a <code>replace catalog</code> command to a temporary file so
+	 * that very large catalogs never have to be held in memory. The resources and edges are added to
+	 * the writer and the command is sent with {@link CatalogWriter#submit()}.
+	 * 
+	 * @param header
+	 *            A catalog with the name, version and transaction UUID. Resources and edges that it
+	 *            already contains are added first
+	 * @return The new writer
+	 * @throws IOException
+	 *             if the temporary file could not be created
+	 */
+	CatalogWriter newCatalogWriter(Catalog header) throws IOException;
+
+	/**
+	 * Creates a writer that streams a <code>store report</code> command to a temporary file so that
+	 * reports with very many events never have to be held in memory. The events are added to the
+	 * writer and the command is sent with {@link ReportWriter#submit()}.
+	 * 
+	 * @param header
+	 *            A report with all values except the events. Events that it already contains are added first
+	 * @return The new writer
+	 * @throws IOException
+	 *             if the temporary file could not be created
+	 */
+	ReportWriter newReportWriter(Report header) throws IOException;
+
 	/**
 	 * @param catalog
 	 *            The catalog to replace
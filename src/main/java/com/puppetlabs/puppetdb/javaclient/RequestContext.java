@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+import java.net.URI;
+
+/**
+ * The state of one HTTP request as seen by a {@link RequestInterceptor}. One context is created
+ * for each HTTP request that is sent, so a call that is retried or hedged results in several
+ * contexts. All times are in nanoseconds unless otherwise stated.
+ */
+public interface RequestContext {
+	/**
+	 * Returns an attribute previously set by an interceptor. Attributes can be used to pass
+	 * state, such as a tracing span, from one callback to another.
+	 * 
+	 * @param key
+	 *            The attribute key
+	 * @return The attribute value or <code>null</code>
+	 */
+	Object getAttribute(String key);
+
+	/**
+	 * @return The time elapsed since the request was sent, or the total time of the request when
+	 *         it has completed or failed
+	 */
+	long getElapsedTime();
+
+	/**
+	 * @return The endpoint that the request is sent to
+	 */
+	ServiceEndpoint getEndpoint();
+
+	/**
+	 * @return The HTTP method of the request
+	 */
+	String getMethod();
+
+	/**
+	 * Returns the value of the first response header with the given name.
+	 * 
+	 * @param name
+	 *            The header name
+	 * @return The header value or <code>null</code> if the header is absent or no response has been received
+	 */
+	String getResponseHeader(String name);
+
+	/**
+	 * @return The wall clock time in milliseconds when the request was sent
+	 */
+	long getStartTime();
+
+	/**
+	 * @return The HTTP status code of the response or -1 if no response has been received
+	 */
+	int getStatusCode();
+
+	/**
+	 * @return The time from sending the request until the response headers arrived or -1 if no
+	 *         response has been received
+	 */
+	long getTimeToFirstByte();
+
+	/**
+	 * @return The request URI, relative to the endpoint
+	 */
+	URI getURI();
+
+	/**
+	 * Sets an attribute that is kept for the lifetime of this context.
+	 * 
+	 * @param key
+	 *            The attribute key
+	 * @param value
+	 *            The attribute value or <code>null</code> to remove the attribute
+	 */
+	void setAttribute(String key, Object value);
+
+	/**
+	 * Sets a request header, replacing any existing header with the same name. Only effective
+	 * when called from {@link RequestInterceptor#beforeSend(RequestContext)}.
+	 * 
+	 * @param name
+	 *            The header name
+	 * @param value
+	 *            The header value
+	 */
+	void setHeader(String name, String value);
+}
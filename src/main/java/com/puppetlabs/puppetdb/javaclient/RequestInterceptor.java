@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+/**
+ * Receives callbacks for each HTTP request sent by the {@link HttpConnector}. Interceptors are
+ * registered using {@link com.puppetlabs.puppetdb.javaclient.impl.DefaultModule#addInterceptor(RequestInterceptor)
+ * DefaultModule.addInterceptor} and are called in registration order. Implementations must be
+ * thread safe and should return quickly since they are called on the thread that executes the
+ * request.
+ * <p>
+ * A runtime exception thrown from {@link #beforeSend(RequestContext)} prevents the request from
+ * being sent. The exception is passed to the caller and to {@link #onError(RequestContext, Throwable)}
+ * of all interceptors. Runtime exceptions thrown from the other callbacks are ignored.
+ * </p>
+ * 
+ * @see AbstractRequestInterceptor
+ */
+public interface RequestInterceptor {
+	/**
+	 * Called before the request is sent. This is where request headers can be added.
+	 * 
+	 * @param context
+	 *            The request context
+	 */
+	void beforeSend(RequestContext context);
+
+	/**
+	 * Called when the request has completed and its response has been consumed. The request may
+	 * still have failed from the caller's perspective if the status code signals an error.
+	 * 
+	 * @param context
+	 *            The request context
+	 */
+	void onComplete(RequestContext context);
+
+	/**
+	 * Called instead of {@link #onComplete(RequestContext)} when the request fails. This includes
+	 * responses with an error status, runtime exceptions thrown while the response is processed and
+	 * requests vetoed by an interceptor.
+	 * 
+	 * @param context
+	 *            The request context
+	 * @param error
+	 *            The cause of the failure
+	 */
+	void onError(RequestContext context, Throwable error);
+
+	/**
+	 * Called when the response headers have arrived, before the response body is read.
+	 * 
+	 * @param context
+	 *            The request context
+	 */
+	void onHeaders(RequestContext context);
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+/**
+ * Determines how queries are distributed when more than one {@link ServiceEndpoint} is
+ * configured. Commands are never distributed. They are always sent to the primary endpoint.
+ */
+public enum RoutingPolicy {
+	/**
+	 * Send each query to the endpoint that has the fewest outstanding requests relative
+	 * to its weight.
+	 */
+	LEAST_OUTSTANDING,
+
+	/**
+	 * Send each query to the endpoint with the lowest exponentially weighted moving average
+	 * of response latency, scaled by its outstanding requests and weight.
+	 */
+	EWMA_LATENCY
+}
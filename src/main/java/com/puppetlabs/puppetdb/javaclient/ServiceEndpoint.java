@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient;
+
+/**
+ * Identifies one PuppetDB instance that the client may send requests to. The
+ * <code>weight</code> is used when distributing queries among several instances. An
+ * instance with weight 2 will receive roughly twice as many queries as an instance
+ * with weight 1 when both are equally loaded.
+ */
+public final class ServiceEndpoint {
+	private final String hostname;
+
+	private final int port;
+
+	private final int weight;
+
+	/**
+	 * Creates an endpoint with weight 1.
+	 *
+	 * @param hostname
+	 *            The DNS name of the host
+	 * @param port
+	 *            The port of the host
+	 */
+	public ServiceEndpoint(String hostname, int port) {
+		this(hostname, port, 1);
+	}
+
+	/**
+	 * Creates an endpoint with the given weight.
+	 *
+	 * @param hostname
+	 *            The DNS name of the host
+	 * @param port
+	 *            The port of the host
+	 * @param weight
+	 *            The relative weight of the host. Must be greater than zero.
+	 */
+	public ServiceEndpoint(String hostname, int port, int weight) {
+		if(hostname == null)
+			throw new IllegalArgumentException("An endpoint must have a hostname");
+		if(weight <= 0)
+			throw new IllegalArgumentException("The weight of an endpoint must be greater than zero");
+		this.hostname = hostname;
+		this.port = port;
+		this.weight = weight;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(o == this)
+			return true;
+		if(!(o instanceof ServiceEndpoint))
+			return false;
+		ServiceEndpoint other = (ServiceEndpoint) o;
+		return port == other.port && hostname.equals(other.hostname);
+	}
+
+	/**
+	 * @return the hostname
+	 */
+	public String getHostname() {
+		return hostname;
+	}
+
+	/**
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return the weight
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	@Override
+	public int hashCode() {
+		return hostname.hashCode() * 31 + port;
+	}
+
+	@Override
+	public String toString() {
+		return hostname + ':' + port;
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+/**
+ * An immutable snapshot of the {@link ResponseCache} statistics.
+ */
+public class CacheStatistics {
+	private final long hitCount;
+
+	private final long staleHitCount;
+
+	private final long missCount;
+
+	private final long evictionCount;
+
+	private final long refreshFailureCount;
+
+	private final int entryCount;
+
+	private final long estimatedBytes;
+
+	/**
+	 * @param hitCount
+	 *            Number of lookups answered by a fresh entry
+	 * @param staleHitCount
+	 *            Number of lookups answered by an expired entry while it was being refreshed
+	 * @param missCount
+	 *            Number of lookups that had to wait for a request
+	 * @param evictionCount
+	 *            Number of entries evicted to stay within the size bounds
+	 * @param refreshFailureCount
+	 *            Number of background refreshes that failed
+	 * @param entryCount
+	 *            Number of cached entries
+	 * @param estimatedBytes
+	 *            Estimated memory used by the cached entries
+	 */
+	public CacheStatistics(long hitCount, long staleHitCount, long missCount, long evictionCount, long refreshFailureCount, int entryCount,
+			long estimatedBytes) {
+		this.hitCount = hitCount;
+		this.staleHitCount = staleHitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.refreshFailureCount = refreshFailureCount;
+		this.entryCount = entryCount;
+		this.estimatedBytes = estimatedBytes;
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @return the estimated memory used by the cached entries, in bytes
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	/**
+	 * @return the number of entries evicted to stay within the size bounds
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of lookups answered by a fresh entry
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the fraction of all lookups that were answered from the cache, fresh or stale
+	 */
+	public double getHitRatio() {
+		long total = hitCount + staleHitCount + missCount;
+		return total == 0
+				? 0.0
+				: (double) (hitCount + staleHitCount) / total;
+	}
+
+	/**
+	 * @return the number of lookups that had to wait for a request
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of background refreshes that failed
+	 */
+	public long getRefreshFailureCount() {
+		return refreshFailureCount;
+	}
+
+	/**
+	 * @return the number of lookups answered by an expired entry while it was being refreshed
+	 */
+	public long getStaleHitCount() {
+		return staleHitCount;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hitCount + ", staleHits=" + staleHitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", entries=" +
+				entryCount + ", bytes=" + estimatedBytes;
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+/**
+ * Receives notifications when the {@link FactReplica} learns that the facts of a node have
+ * been added, changed or removed. Notifications are delivered on the thread that performs the
+ * synchronization and should return promptly.
+ */
+public interface FactChangeListener {
+	/**
+	 * Called after the facts of a node changed in the replica.
+	 * 
+	 * @param certname
+	 *            The name of the node
+	 * @param previous
+	 *            The facts before the change or <code>null</code> if the node wasn't known
+	 * @param current
+	 *            The facts after the change or <code>null</code> if the node was removed
+	 */
+	void factsChanged(String certname, NodeFacts previous, NodeFacts current);
+}
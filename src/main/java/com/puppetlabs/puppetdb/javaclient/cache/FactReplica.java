@@ -0,0 +1,435 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.ContentHandler;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+
+/**
+ * <p>
+ * A local replica of the facts of all active nodes. The replica is bootstrapped by one streamed
+ * <code>/facts</code> query that is decoded straight into the replica without creating a
+ * {@link Fact} instance per record. After that, the replica periodically queries the
+ * <code>/nodes</code> end-point and fetches the facts of those nodes only whose
+ * <code>facts_timestamp</code> has changed. Nodes that are deactivated are removed. The steady
+ * state load on PuppetDB is hence proportional to the number of nodes that submit new facts rather
+ * than to the size of the fleet.
+ * </p>
+ * <p>
+ * The facts of each node are held in an immutable {@link NodeFacts} instance that is replaced as a
+ * whole when the node changes. Reads never block and never see a partially updated node, but the
+ * replica as a whole may be read while a synchronization is in progress.
+ * </p>
+ * <p>
+ * The replica can be saved to a {@link SnapshotFile} and loaded from it when the client restarts.
+ * A replica loaded from a snapshot only fetches the nodes that changed since the snapshot was saved.
+ * </p>
+ */
+@Singleton
+public class FactReplica {
+	/**
+	 * Decodes the response of the <code>/facts</code> end-point into maps of facts keyed by certname.
+	 */
+	private class FactsDecoder implements ContentHandler<Map<String, Map<String, String>>> {
+		@Override
+		public Map<String, Map<String, String>> handleContent(InputStream content) throws IOException {
+			Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+			JsonReader reader = new JsonReader(new InputStreamReader(content, HttpConnector.UTF_8));
+			reader.beginArray();
+			while(reader.hasNext()) {
+				String certname = null;
+				String name = null;
+				String value = null;
+				reader.beginObject();
+				while(reader.hasNext()) {
+					String key = reader.nextName();
+					if("certname".equals(key)) //$NON-NLS-1$
+						certname = readString(reader);
+					else if("name".equals(key)) //$NON-NLS-1$
+						name = readString(reader);
+					else if("value".equals(key)) //$NON-NLS-1$
+						value = readString(reader);
+					else
+						reader.skipValue();
+				}
+				reader.endObject();
+				if(certname == null || name == null)
+					continue;
+				Map<String, String> facts = result.get(certname);
+				if(facts == null) {
+					facts = new HashMap<String, String>();
+					result.put(certname, facts);
+				}
+				facts.put(intern(name), value);
+			}
+			reader.endArray();
+			return result;
+		}
+	}
+
+	private static final ThreadFactory SYNC_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB fact replica sync"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static String readString(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		switch(token) {
+			case NULL:
+				reader.nextNull();
+				return null;
+			case BOOLEAN:
+				return Boolean.toString(reader.nextBoolean());
+			case BEGIN_ARRAY:
+			case BEGIN_OBJECT:
+				return new JsonParser().parse(reader).toString();
+			default:
+				return reader.nextString();
+		}
+	}
+
+	private final HttpConnector connector;
+
+	private final PuppetDBClient client;
+
+	private final int syncInterval;
+
+	private final ConcurrentMap<String, NodeFacts> nodes = new ConcurrentHashMap<String, NodeFacts>();
+
+	// Fact names are shared between all nodes
+	private final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+
+	private final List<FactChangeListener> listeners = new CopyOnWriteArrayList<FactChangeListener>();
+
+	private final AtomicLong fetchCount = new AtomicLong();
+
+	private final AtomicLong syncFailureCount = new AtomicLong();
+
+	private final Object syncLock = new Object();
+
+	private ScheduledExecutorService syncer;
+
+	private volatile boolean bootstrapped;
+
+	/**
+	 * <p>
+	 * Creates the replica. No queries are made until the replica is {@link #start() started}.
+	 * </p>
+	 * <p>
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 * </p>
+	 * 
+	 * @param connector
+	 *            The connector used for the bootstrap query
+	 * @param client
+	 *            The client used for all other queries
+	 * @param preferences
+	 *            The preferences that determine the synchronization interval
+	 */
+	@Inject
+	public FactReplica(HttpConnector connector, PuppetDBClient client, APIPreferences preferences) {
+		this.connector = connector;
+		this.client = client;
+		this.syncInterval = Math.max(1, preferences.getFactReplicaSyncInterval());
+	}
+
+	/**
+	 * Adds a listener that is notified of all subsequent changes.
+	 * 
+	 * @param listener
+	 *            The listener to add
+	 */
+	public void addListener(FactChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Populates the replica from one <code>/facts</code> query. Only nodes that are reported as
+	 * active by a preceding <code>/nodes</code> query are included.
+	 */
+	private void bootstrap() throws IOException {
+		Map<String, Date> timestamps = new HashMap<String, Date>();
+		for(Node node : client.getActiveNodes(null))
+			if(node.getFactsTimestamp() != null)
+				timestamps.put(node.getName(), node.getFactsTimestamp());
+
+		Map<String, Map<String, String>> all = connector.stream("/facts", null, new FactsDecoder()); //$NON-NLS-1$
+		fetchCount.incrementAndGet();
+		for(Map.Entry<String, Map<String, String>> entry : all.entrySet()) {
+			String certname = entry.getKey();
+			Date timestamp = timestamps.get(certname);
+			if(timestamp != null)
+				// A node that isn't known here will be fetched by the first sync
+				update(certname, new NodeFacts(certname, timestamp, entry.getValue()));
+		}
+		bootstrapped = true;
+	}
+
+	private void fireFactsChanged(String certname, NodeFacts previous, NodeFacts current) {
+		for(FactChangeListener listener : listeners) {
+			try {
+				listener.factsChanged(certname, previous, current);
+			}
+			catch(RuntimeException e) {
+				// A failing listener must not prevent others from being notified
+			}
+		}
+	}
+
+	/**
+	 * @return An unmodifiable view of the names of all nodes in the replica
+	 */
+	public Set<String> getCertnames() {
+		return Collections.unmodifiableSet(nodes.keySet());
+	}
+
+	/**
+	 * @return The number of queries that obtained facts, including the bootstrap query
+	 */
+	public long getFetchCount() {
+		return fetchCount.get();
+	}
+
+	/**
+	 * @param certname
+	 *            The name of a node
+	 * @return The facts of the node or <code>null</code> if the node isn't in the replica
+	 */
+	public NodeFacts getNode(String certname) {
+		return nodes.get(certname);
+	}
+
+	/**
+	 * @return An unmodifiable view of the facts of all nodes in the replica
+	 */
+	public Collection<NodeFacts> getNodes() {
+		return Collections.unmodifiableCollection(nodes.values());
+	}
+
+	/**
+	 * @return The number of periodic synchronizations that failed
+	 */
+	public long getSyncFailureCount() {
+		return syncFailureCount.get();
+	}
+
+	private String intern(String name) {
+		String existing = names.putIfAbsent(name, name);
+		return existing == null
+				? name
+				: existing;
+	}
+
+	/**
+	 * @return <code>true</code> if the replica has been populated
+	 */
+	public boolean isBootstrapped() {
+		return bootstrapped;
+	}
+
+	/**
+	 * Replaces the content of the replica with the nodes of a snapshot written by
+	 * {@link #saveSnapshot(Path)}. The file is mapped into memory and the facts of each node are decoded
+	 * when they are first asked for. Listeners are notified as if the replica had been bootstrapped. The
+	 * replica is considered bootstrapped afterwards, so the next {@link #sync()} fetches only the nodes
+	 * whose facts timestamp differs from the one in the snapshot.
+	 * 
+	 * @param file
+	 *            The snapshot file
+	 * @throws IOException
+	 *             if the file could not be read, is damaged or isn't a fact snapshot. The replica is
+	 *             not changed
+	 */
+	public void loadSnapshot(Path file) throws IOException {
+		SnapshotFile snapshot = SnapshotFile.open(file, SnapshotFile.KIND_FACTS);
+		synchronized(syncLock) {
+			Set<String> loaded = new HashSet<String>();
+			for(SnapshotFile.Record record : snapshot.getRecords()) {
+				String certname = record.getCertname();
+				NodeFacts facts = new NodeFacts(record);
+				loaded.add(certname);
+				fireFactsChanged(certname, nodes.put(certname, facts), facts);
+			}
+			for(NodeFacts previous : nodes.values()) {
+				String certname = previous.getCertname();
+				if(!loaded.contains(certname) && nodes.remove(certname, previous))
+					fireFactsChanged(certname, previous, null);
+			}
+			bootstrapped = true;
+		}
+	}
+
+	/**
+	 * @param listener
+	 *            The listener to remove
+	 */
+	public void removeListener(FactChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Writes the facts of all nodes to a snapshot file that can be loaded with
+	 * {@link #loadSnapshot(Path)}. The file is replaced atomically so that a concurrent or later load
+	 * never sees a partially written file. On Windows, replacing the file that the replica was loaded
+	 * from may fail while it is still mapped, see {@link SnapshotFile}.
+	 * 
+	 * @param file
+	 *            The snapshot file
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void saveSnapshot(Path file) throws IOException {
+		SnapshotFile.Writer writer = SnapshotFile.write(file, SnapshotFile.KIND_FACTS, System.currentTimeMillis());
+		boolean success = false;
+		try {
+			for(NodeFacts node : nodes.values()) {
+				Map<String, String> facts = node.getFacts();
+				writer.beginRecord(node.getCertname(), node.getTimestamp().getTime());
+				writer.writeInt(facts.size());
+				for(Map.Entry<String, String> fact : facts.entrySet()) {
+					writer.writeName(fact.getKey());
+					writer.writeString(fact.getValue());
+				}
+			}
+			writer.commit();
+			success = true;
+		}
+		finally {
+			if(!success)
+				writer.abort();
+		}
+	}
+
+	/**
+	 * Stops the periodic synchronization. The replica retains its content.
+	 */
+	public synchronized void shutdown() {
+		if(syncer != null) {
+			syncer.shutdownNow();
+			syncer = null;
+		}
+	}
+
+	/**
+	 * Bootstraps the replica unless that has been done already and starts the periodic
+	 * synchronization. The call returns when the bootstrap has completed.
+	 * 
+	 * @throws IOException
+	 *             if the bootstrap failed. The periodic synchronization is not started
+	 */
+	public synchronized void start() throws IOException {
+		if(syncer != null)
+			return;
+		synchronized(syncLock) {
+			if(!bootstrapped)
+				bootstrap();
+		}
+		syncer = Executors.newSingleThreadScheduledExecutor(SYNC_THREADS);
+		syncer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sync();
+				}
+				catch(IOException e) {
+					syncFailureCount.incrementAndGet();
+				}
+				catch(RuntimeException e) {
+					syncFailureCount.incrementAndGet();
+				}
+			}
+		}, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Brings the replica up to date. The facts of each node whose facts timestamp differs from
+	 * the one in the replica are fetched, and nodes that are no longer active are removed. The
+	 * replica is bootstrapped first if that hasn't been done already.
+	 * 
+	 * @throws IOException
+	 *             if a query failed. Nodes that were updated before the failure keep their new facts
+	 *             and the remaining nodes are updated by the next synchronization
+	 */
+	public void sync() throws IOException {
+		synchronized(syncLock) {
+			if(!bootstrapped) {
+				bootstrap();
+				return;
+			}
+
+			List<Node> active = client.getActiveNodes(null);
+			Set<String> activeNames = new HashSet<String>();
+			for(Node node : active) {
+				String certname = node.getName();
+				activeNames.add(certname);
+				Date timestamp = node.getFactsTimestamp();
+				if(timestamp == null)
+					continue;
+
+				NodeFacts current = nodes.get(certname);
+				if(current != null && timestamp.getTime() == current.getTimestamp().getTime())
+					continue;
+
+				Map<String, String> facts = new HashMap<String, String>();
+				for(Fact fact : client.getNodeFacts(null, certname))
+					facts.put(intern(fact.getName()), fact.getValue());
+				fetchCount.incrementAndGet();
+				update(certname, new NodeFacts(certname, timestamp, facts));
+			}
+
+			for(NodeFacts previous : nodes.values()) {
+				String certname = previous.getCertname();
+				if(!activeNames.contains(certname) && nodes.remove(certname, previous))
+					fireFactsChanged(certname, previous, null);
+			}
+		}
+	}
+
+	private void update(String certname, NodeFacts facts) {
+		NodeFacts previous = nodes.put(certname, facts);
+		if(!facts.hasSameFacts(previous))
+			fireFactsChanged(certname, previous, facts);
+	}
+}
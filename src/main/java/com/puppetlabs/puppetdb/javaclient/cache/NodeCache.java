@@ -0,0 +1,365 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.Parameters;
+
+/**
+ * <p>
+ * A cache for the facts and resources of individual nodes. The cache queries the
+ * <code>/nodes</code> end-point periodically and compares the <code>facts_timestamp</code> and
+ * <code>catalog_timestamp</code> of each node with those seen in the previous query. Only the facts
+ * of nodes whose facts timestamp moved, and only the resources of nodes whose catalog timestamp
+ * moved, are dropped. A cached response is hence never older than one sweep interval.
+ * </p>
+ * <p>
+ * Nodes that aren't active are never cached. If a sweep fails, all cached data is dropped and the
+ * cache is bypassed until a sweep succeeds. The returned lists are shared between callers and can't
+ * be modified.
+ * </p>
+ */
+@Singleton
+public class NodeCache {
+	/**
+	 * The cached data of one active node.
+	 */
+	private static class NodeState {
+		final ConcurrentMap<String, List<Fact>> facts = new ConcurrentHashMap<String, List<Fact>>();
+
+		final ConcurrentMap<String, List<Resource>> resources = new ConcurrentHashMap<String, List<Resource>>();
+
+		// Incremented before the cached facts or resources are cleared
+		final AtomicLong factsGeneration = new AtomicLong();
+
+		final AtomicLong catalogGeneration = new AtomicLong();
+
+		volatile Date factsTimestamp;
+
+		volatile Date catalogTimestamp;
+
+		NodeState(Node node) {
+			factsTimestamp = node.getFactsTimestamp();
+			catalogTimestamp = node.getCatalogTimestamp();
+		}
+	}
+
+	private static final ThreadFactory SWEEP_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB node cache sweep"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static String createKey(Parameters<?> query, String[] qualifiers) {
+		StringBuilder bld = new StringBuilder();
+		for(String qualifier : qualifiers) {
+			bld.append('/');
+			bld.append(qualifier);
+		}
+		if(query != null) {
+			Map<String, String> params = new HashMap<String, String>();
+			query.appendTo(params);
+			bld.append('?');
+			bld.append(new TreeMap<String, String>(params));
+		}
+		return bld.toString();
+	}
+
+	private static boolean safeEquals(Date a, Date b) {
+		return a == b || a != null && a.equals(b);
+	}
+
+	private final PuppetDBClient client;
+
+	private final int sweepInterval;
+
+	private final ConcurrentMap<String, NodeState> nodes = new ConcurrentHashMap<String, NodeState>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong invalidationCount = new AtomicLong();
+
+	private final Object sweepLock = new Object();
+
+	private ScheduledExecutorService sweeper;
+
+	private volatile boolean started;
+
+	private volatile boolean valid;
+
+	/**
+	 * <p>
+	 * Creates the cache. No queries are made until the cache is first used.
+	 * </p>
+	 * <p>
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 * </p>
+	 * 
+	 * @param client
+	 *            The client used for all queries
+	 * @param preferences
+	 *            The preferences that determine the sweep interval
+	 */
+	@Inject
+	public NodeCache(PuppetDBClient client, APIPreferences preferences) {
+		this.client = client;
+		this.sweepInterval = Math.max(1, preferences.getNodeCacheSweepInterval());
+	}
+
+	/**
+	 * @return The number of lookups answered from the cache
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return The number of times that the facts or resources of a node were dropped
+	 */
+	public long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	/**
+	 * @return The number of lookups that were passed on to the server
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the facts of a node, from the cache when possible. The arguments are the same as for
+	 * {@link PuppetDBClient#getNodeFacts(Parameters, String, String...)}.
+	 * 
+	 * @param query
+	 *            The query or <code>null</code>
+	 * @param node
+	 *            The name of the node
+	 * @param factQualifiers
+	 *            Optional qualifiers
+	 * @return An unmodifiable list of facts
+	 * @throws IOException
+	 */
+	public List<Fact> getNodeFacts(Parameters<Fact> query, String node, String... factQualifiers) throws IOException {
+		NodeState state = getState(node);
+		if(state == null) {
+			missCount.incrementAndGet();
+			return client.getNodeFacts(query, node, factQualifiers);
+		}
+
+		String key = createKey(query, factQualifiers);
+		List<Fact> facts = state.facts.get(key);
+		if(facts != null) {
+			hitCount.incrementAndGet();
+			return facts;
+		}
+
+		missCount.incrementAndGet();
+		long generation = state.factsGeneration.get();
+		facts = Collections.unmodifiableList(client.getNodeFacts(query, node, factQualifiers));
+		state.facts.put(key, facts);
+		// A sweep increments the generation before it clears, so either it clears after the put or we remove
+		if(state.factsGeneration.get() != generation)
+			state.facts.remove(key, facts);
+		return facts;
+	}
+
+	/**
+	 * Returns the resources of a node, from the cache when possible. The arguments are the same as for
+	 * {@link PuppetDBClient#getNodeResources(Parameters, String, String...)}.
+	 * 
+	 * @param query
+	 *            The query or <code>null</code>
+	 * @param node
+	 *            The name of the node
+	 * @param resourceQualifiers
+	 *            Optional qualifiers
+	 * @return An unmodifiable list of resources
+	 * @throws IOException
+	 */
+	public List<Resource> getNodeResources(Parameters<Resource> query, String node, String... resourceQualifiers) throws IOException {
+		NodeState state = getState(node);
+		if(state == null) {
+			missCount.incrementAndGet();
+			return client.getNodeResources(query, node, resourceQualifiers);
+		}
+
+		String key = createKey(query, resourceQualifiers);
+		List<Resource> resources = state.resources.get(key);
+		if(resources != null) {
+			hitCount.incrementAndGet();
+			return resources;
+		}
+
+		missCount.incrementAndGet();
+		long generation = state.catalogGeneration.get();
+		resources = Collections.unmodifiableList(client.getNodeResources(query, node, resourceQualifiers));
+		state.resources.put(key, resources);
+		if(state.catalogGeneration.get() != generation)
+			state.resources.remove(key, resources);
+		return resources;
+	}
+
+	private NodeState getState(String node) {
+		if(!started)
+			start();
+		return valid
+				? nodes.get(node)
+				: null;
+	}
+
+	private void invalidateAll() {
+		valid = false;
+		for(NodeState state : nodes.values()) {
+			invalidateFacts(state);
+			invalidateCatalog(state);
+		}
+		nodes.clear();
+	}
+
+	private void invalidateCatalog(NodeState state) {
+		state.catalogGeneration.incrementAndGet();
+		state.resources.clear();
+		invalidationCount.incrementAndGet();
+	}
+
+	private void invalidateFacts(NodeState state) {
+		state.factsGeneration.incrementAndGet();
+		state.facts.clear();
+		invalidationCount.incrementAndGet();
+	}
+
+	/**
+	 * Stops the periodic sweeps and drops all cached data. The cache starts over if it is used again.
+	 */
+	public synchronized void shutdown() {
+		if(sweeper != null) {
+			sweeper.shutdownNow();
+			sweeper = null;
+		}
+		started = false;
+		synchronized(sweepLock) {
+			invalidateAll();
+		}
+	}
+
+	/**
+	 * Starts the periodic sweeps on first use. The first sweep is made by the caller so that the
+	 * timestamps are known before anything is cached.
+	 */
+	private synchronized void start() {
+		if(started)
+			return;
+		sweeper = Executors.newSingleThreadScheduledExecutor(SWEEP_THREADS);
+		sweepQuietly();
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweepQuietly();
+			}
+		}, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+		started = true;
+	}
+
+	/**
+	 * Queries the active nodes and drops the cached facts and resources of all nodes whose
+	 * timestamps have moved since the previous sweep. This method is called periodically but can
+	 * also be called explicitly, e.g. right after a command has been submitted.
+	 * 
+	 * @throws IOException
+	 *             if the nodes could not be queried, in which case all cached data is dropped
+	 */
+	public void sweep() throws IOException {
+		synchronized(sweepLock) {
+			try {
+				update(client.getActiveNodes(null));
+			}
+			catch(IOException e) {
+				invalidateAll();
+				throw e;
+			}
+			catch(RuntimeException e) {
+				invalidateAll();
+				throw e;
+			}
+		}
+	}
+
+	private void sweepQuietly() {
+		try {
+			sweep();
+		}
+		catch(IOException e) {
+			// The cache is bypassed until the next sweep succeeds
+		}
+		catch(RuntimeException e) {
+			// Same as above
+		}
+	}
+
+	private void update(List<Node> active) {
+
+		Set<String> names = new HashSet<String>();
+		for(Node node : active) {
+			String name = node.getName();
+			names.add(name);
+			NodeState state = nodes.get(name);
+			if(state == null) {
+				nodes.put(name, new NodeState(node));
+				continue;
+			}
+			if(!safeEquals(state.factsTimestamp, node.getFactsTimestamp())) {
+				state.factsTimestamp = node.getFactsTimestamp();
+				invalidateFacts(state);
+			}
+			if(!safeEquals(state.catalogTimestamp, node.getCatalogTimestamp())) {
+				state.catalogTimestamp = node.getCatalogTimestamp();
+				invalidateCatalog(state);
+			}
+		}
+		for(Map.Entry<String, NodeState> entry : nodes.entrySet())
+			if(!names.contains(entry.getKey())) {
+				NodeState state = entry.getValue();
+				nodes.remove(entry.getKey(), state);
+				invalidateFacts(state);
+				invalidateCatalog(state);
+			}
+		valid = true;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the facts of one node as held by the {@link FactReplica}. Facts that
+ * were loaded from a {@link SnapshotFile} are decoded when they are first asked for.
+ */
+public class NodeFacts {
+	private final String certname;
+
+	private final Date timestamp;
+
+	private volatile Map<String, String> facts;
+
+	// The undecoded facts, guarded by this
+	private SnapshotFile.Record record;
+
+	/**
+	 * @param certname
+	 *            The name of the node
+	 * @param timestamp
+	 *            The facts timestamp that the facts were obtained for
+	 * @param facts
+	 *            The facts keyed by name. The map is owned by the new instance and must not be modified
+	 */
+	NodeFacts(String certname, Date timestamp, Map<String, String> facts) {
+		this.certname = certname;
+		this.timestamp = timestamp;
+		this.facts = Collections.unmodifiableMap(facts);
+	}
+
+	/**
+	 * @param record
+	 *            The snapshot record that holds the facts
+	 */
+	NodeFacts(SnapshotFile.Record record) {
+		this.certname = record.getCertname();
+		this.timestamp = new Date(record.getTimestamp());
+		this.record = record;
+	}
+
+	private synchronized Map<String, String> decode() {
+		if(facts == null) {
+			SnapshotFile.Decoder decoder = record.newDecoder();
+			int count = decoder.readInt();
+			Map<String, String> decoded = new HashMap<String, String>(count * 4 / 3 + 1);
+			for(int idx = 0; idx < count; ++idx) {
+				String name = decoder.readName();
+				decoded.put(name, decoder.readString());
+			}
+			facts = Collections.unmodifiableMap(decoded);
+			record = null;
+		}
+		return facts;
+	}
+
+	/**
+	 * @return the certname
+	 */
+	public String getCertname() {
+		return certname;
+	}
+
+	/**
+	 * @return An unmodifiable map of all facts keyed by name
+	 */
+	public Map<String, String> getFacts() {
+		Map<String, String> result = facts;
+		return result == null
+				? decode()
+				: result;
+	}
+
+	/**
+	 * @return The facts timestamp that these facts were obtained for
+	 */
+	public Date getTimestamp() {
+		return new Date(timestamp.getTime());
+	}
+
+	/**
+	 * @param name
+	 *            The name of a fact
+	 * @return The value of the fact or <code>null</code> if the node has no such fact
+	 */
+	public String getValue(String name) {
+		return getFacts().get(name);
+	}
+
+	/**
+	 * @param other
+	 *            The facts to compare with or <code>null</code>
+	 * @return <code>true</code> if the other instance is non <code>null</code> and contains the same facts
+	 */
+	boolean hasSameFacts(NodeFacts other) {
+		return other != null && getFacts().equals(other.getFacts());
+	}
+
+	@Override
+	public String toString() {
+		return certname + getFacts();
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+
+/**
+ * A cache of parsed query responses that sits in front of the HTTP requests made by the
+ * {@link com.puppetlabs.puppetdb.javaclient.HttpConnector}. Only responses from end-points that
+ * have been given a time to live using {@link APIPreferences#getCacheTimeToLive()} are cached.
+ * Each caller receives its own copy of a cached result and is free to modify it.
+ */
+public interface ResponseCache {
+	/**
+	 * Obtains a response from the server on behalf of the cache.
+	 * 
+	 * @param <V>
+	 *            The type of the response
+	 */
+	interface Loader<V> {
+		/**
+		 * @param totalCount
+		 *            Receiver of the total count or <code>null</code>
+		 * @param size
+		 *            Receiver of the size of the response body
+		 * @return The parsed response
+		 * @throws IOException
+		 */
+		V load(int[] totalCount, long[] size) throws IOException;
+	}
+
+	/**
+	 * Stops the background refreshes and unregisters the management bean of the cache.
+	 */
+	void close();
+
+	/**
+	 * Returns the cached response for the given query or obtains it from the <code>loader</code>.
+	 * Queries on end-points that have no time to live are passed directly to the loader.
+	 * 
+	 * @param uri
+	 *            The URI of the query with its parameters in canonical order
+	 * @param type
+	 *            The expected type of the result
+	 * @param totalCount
+	 *            Receiver of the total count or <code>null</code>
+	 * @param loader
+	 *            The loader that obtains the response from the server
+	 * @return The response, owned by the caller
+	 * @throws IOException
+	 */
+	<V> V get(URI uri, Type type, int[] totalCount, Loader<V> loader) throws IOException;
+
+	/**
+	 * @return A snapshot of the cache statistics
+	 */
+	CacheStatistics getStatistics();
+
+	/**
+	 * Removes all cached responses for the given end-point path and all paths below it. The path
+	 * <code>/facts</code> will for instance remove the responses of both <code>/facts</code> and
+	 * <code>/facts/kernel</code>.
+	 * 
+	 * @param path
+	 *            The end-point path, without the API version prefix
+	 */
+	void invalidate(String path);
+
+	/**
+	 * Removes all cached responses.
+	 */
+	void invalidateAll();
+
+	/**
+	 * @return <code>true</code> if at least one end-point has been given a time to live
+	 */
+	boolean isEnabled();
+}
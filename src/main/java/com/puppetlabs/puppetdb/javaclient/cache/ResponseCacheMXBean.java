@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+/**
+ * Management interface of the {@link ResponseCache}.
+ */
+public interface ResponseCacheMXBean {
+	/**
+	 * @return The number of cached entries
+	 */
+	int getEntryCount();
+
+	/**
+	 * @return The estimated memory used by the cached entries, in bytes
+	 */
+	long getEstimatedBytes();
+
+	/**
+	 * @return The number of entries evicted to stay within the size bounds
+	 */
+	long getEvictionCount();
+
+	/**
+	 * @return The number of lookups answered by a fresh entry
+	 */
+	long getHitCount();
+
+	/**
+	 * @return The number of lookups that had to wait for a request
+	 */
+	long getMissCount();
+
+	/**
+	 * @return The number of background refreshes that failed
+	 */
+	long getRefreshFailureCount();
+
+	/**
+	 * @return The number of lookups answered by an expired entry while it was being refreshed
+	 */
+	long getStaleHitCount();
+
+	/**
+	 * Removes all cached responses for the given end-point path and all paths below it.
+	 * 
+	 * @param path
+	 *            The end-point path, without the API version prefix
+	 */
+	void invalidate(String path);
+
+	/**
+	 * Removes all cached responses.
+	 */
+	void invalidateAll();
+}
@@ -0,0 +1,608 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
+
+/**
+ * <p>
+ * A compact binary file that holds one record per node, used to save the content of the
+ * {@link FactReplica} and the {@link com.puppetlabs.puppetdb.javaclient.index.ExportedResourceIndex
+ * ExportedResourceIndex} so that a restarted client can start from the file and then fetch only the
+ * nodes whose timestamps have changed.
+ * </p>
+ * <p>
+ * The file is mapped into memory when it is opened. Only the header, the table of shared names and the
+ * certname and timestamp of each record are read up front. The payload of a record is decoded when it
+ * is first asked for, directly from the mapped pages. Each payload is verified against its checksum
+ * when the file is opened, so a damaged file is rejected before any of its records are used. A file
+ * is written to a temporary file that then replaces the target, so readers never see a partially
+ * written file. Files larger than 2GB can't be mapped and are rejected.
+ * </p>
+ * <p>
+ * The mapping is released when the records are no longer referenced and have been garbage
+ * collected. On Windows, a file can't be replaced while it is mapped, so writing a snapshot to the
+ * path that undecoded records were loaded from may fail. Write to another path in that case.
+ * </p>
+ * <p>
+ * Layout, all numbers big-endian:
+ * </p>
+ * 
+ * <pre>
+ * header:  magic (int), version (int), kind (int), timestamp (long), record count (int), names offset (long)
+ * records: certname (string), timestamp (long), payload length (int), payload CRC-32 (int), payload
+ * names:   count (int), name (string) ...
+ * string:  UTF-8 length (int, -1 for null), UTF-8 bytes
+ * </pre>
+ */
+public final class SnapshotFile {
+	/**
+	 * Reads the payload of one record.
+	 */
+	public static final class Decoder {
+		private final ByteBuffer buffer;
+
+		private final String[] names;
+
+		Decoder(ByteBuffer buffer, String[] names) {
+			this.buffer = buffer;
+			this.names = names;
+		}
+
+		private IllegalStateException corrupt(RuntimeException e) {
+			return new IllegalStateException("Corrupt snapshot record", e); //$NON-NLS-1$
+		}
+
+		/**
+		 * @return The next boolean
+		 */
+		public boolean readBoolean() {
+			try {
+				return buffer.get() != 0;
+			}
+			catch(BufferUnderflowException e) {
+				throw corrupt(e);
+			}
+		}
+
+		/**
+		 * @return The next int
+		 */
+		public int readInt() {
+			try {
+				return buffer.getInt();
+			}
+			catch(BufferUnderflowException e) {
+				throw corrupt(e);
+			}
+		}
+
+		/**
+		 * @param type
+		 *            The type of the value
+		 * @return The next value written with {@link Writer#writeJSON(Object)}
+		 */
+		public <T> T readJSON(Type type) {
+			String json = readString();
+			if(json == null)
+				return null;
+			try {
+				synchronized(GSON) {
+					return GSON.fromJson(json, type);
+				}
+			}
+			catch(JsonParseException e) {
+				throw corrupt(e);
+			}
+		}
+
+		/**
+		 * @return The next long
+		 */
+		public long readLong() {
+			try {
+				return buffer.getLong();
+			}
+			catch(BufferUnderflowException e) {
+				throw corrupt(e);
+			}
+		}
+
+		/**
+		 * Reads a name written with {@link Writer#writeName(String)}. All occurrences of a name
+		 * in a file share the same {@link String} instance.
+		 * 
+		 * @return The next name
+		 */
+		public String readName() {
+			int idx = readInt();
+			if(idx == -1)
+				return null;
+			if(idx < 0 || idx >= names.length)
+				throw corrupt(new IndexOutOfBoundsException(Integer.toString(idx)));
+			return names[idx];
+		}
+
+		/**
+		 * @return The next string
+		 */
+		public String readString() {
+			try {
+				return SnapshotFile.readString(buffer);
+			}
+			catch(BufferUnderflowException e) {
+				throw corrupt(e);
+			}
+			catch(IllegalArgumentException e) {
+				throw corrupt(e);
+			}
+		}
+	}
+
+	/**
+	 * One node in a snapshot. The payload stays in the mapped file until it is decoded.
+	 */
+	public static final class Record {
+		private final String certname;
+
+		private final long timestamp;
+
+		private final ByteBuffer payload;
+
+		private final String[] names;
+
+		Record(String certname, long timestamp, ByteBuffer payload, String[] names) {
+			this.certname = certname;
+			this.timestamp = timestamp;
+			this.payload = payload;
+			this.names = names;
+		}
+
+		/**
+		 * @return The name of the node
+		 */
+		public String getCertname() {
+			return certname;
+		}
+
+		/**
+		 * @return The timestamp that the payload was obtained for, in milliseconds since the epoch
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * @return A new decoder positioned at the start of the payload
+		 */
+		public Decoder newDecoder() {
+			return new Decoder(payload.duplicate(), names);
+		}
+	}
+
+	/**
+	 * Writes a snapshot file. Records are written as they are completed and the file replaces the
+	 * target when the writer is {@link #commit() committed}.
+	 */
+	public static final class Writer {
+		private final Path target;
+
+		private final Path temp;
+
+		private final FileChannel channel;
+
+		private final DataOutputStream output;
+
+		private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+
+		private final CRC32 checksum = new CRC32();
+
+		private final DataOutputStream payload = new DataOutputStream(new CheckedOutputStream(payloadBytes, checksum));
+
+		private final Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+		private final List<String> names = new ArrayList<String>();
+
+		private final int kind;
+
+		private final long snapshotTime;
+
+		private long offset = HEADER_SIZE;
+
+		private int recordCount;
+
+		private String certname;
+
+		private long timestamp;
+
+		Writer(Path target, int kind, long snapshotTime) throws IOException {
+			this.target = target.toAbsolutePath();
+			this.kind = kind;
+			this.snapshotTime = snapshotTime;
+			this.temp = Files.createTempFile(this.target.getParent(), this.target.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+			boolean success = false;
+			try {
+				channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+				channel.position(HEADER_SIZE);
+				output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+				success = true;
+			}
+			finally {
+				if(!success)
+					Files.deleteIfExists(temp);
+			}
+		}
+
+		/**
+		 * Discards everything written so far. The target file is not affected.
+		 */
+		public void abort() {
+			try {
+				channel.close();
+			}
+			catch(IOException e) {
+				// Nothing we can do
+			}
+			try {
+				Files.deleteIfExists(temp);
+			}
+			catch(IOException e) {
+				// Nothing we can do
+			}
+		}
+
+		/**
+		 * Starts a new record.
+		 * 
+		 * @param certname
+		 *            The name of the node
+		 * @param timestamp
+		 *            The timestamp that the payload was obtained for
+		 * @throws IOException
+		 *             if the previous record could not be written
+		 */
+		public void beginRecord(String certname, long timestamp) throws IOException {
+			endRecord();
+			this.certname = certname;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * Writes the last record and the table of names, and replaces the target file.
+		 * 
+		 * @throws IOException
+		 *             if writing failed. The target file is not affected
+		 */
+		public void commit() throws IOException {
+			boolean success = false;
+			try {
+				endRecord();
+				long namesOffset = offset;
+				output.writeInt(names.size());
+				for(String name : names)
+					SnapshotFile.writeString(output, name);
+				output.flush();
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC);
+				header.putInt(VERSION);
+				header.putInt(kind);
+				header.putLong(snapshotTime);
+				header.putInt(recordCount);
+				header.putLong(namesOffset);
+				header.flip();
+				channel.write(header, 0);
+				channel.force(false);
+				channel.close();
+				try {
+					Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch(UnsupportedOperationException e) {
+					Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+				success = true;
+			}
+			finally {
+				if(!success)
+					abort();
+			}
+		}
+
+		private void endRecord() throws IOException {
+			if(certname == null)
+				return;
+			payload.flush();
+			offset += SnapshotFile.writeString(output, certname);
+			output.writeLong(timestamp);
+			output.writeInt(payloadBytes.size());
+			output.writeInt((int) checksum.getValue());
+			payloadBytes.writeTo(output);
+			offset += 16 + payloadBytes.size();
+			payloadBytes.reset();
+			checksum.reset();
+			certname = null;
+			++recordCount;
+		}
+
+		/**
+		 * @param value
+		 *            The value to write
+		 * @throws IOException
+		 *             if writing failed
+		 */
+		public void writeBoolean(boolean value) throws IOException {
+			payload.writeBoolean(value);
+		}
+
+		/**
+		 * @param value
+		 *            The value to write
+		 * @throws IOException
+		 *             if writing failed
+		 */
+		public void writeInt(int value) throws IOException {
+			payload.writeInt(value);
+		}
+
+		/**
+		 * Writes an arbitrary value in its JSON form.
+		 * 
+		 * @param value
+		 *            The value to write or <code>null</code>
+		 * @throws IOException
+		 *             if writing failed
+		 */
+		public void writeJSON(Object value) throws IOException {
+			writeString(value == null
+					? null
+					: GsonProvider.toJSON(value));
+		}
+
+		/**
+		 * @param value
+		 *            The value to write
+		 * @throws IOException
+		 *             if writing failed
+		 */
+		public void writeLong(long value) throws IOException {
+			payload.writeLong(value);
+		}
+
+		/**
+		 * Writes a string that is likely to recur, e.g. a fact name or a resource type. The string is
+		 * stored once in the table of names and referenced by its index.
+		 * 
+		 * @param name
+		 *            The name to write or <code>null</code>
+		 * @throws IOException
+		 *             if writing failed
+		 */
+		public void writeName(String name) throws IOException {
+			if(name == null) {
+				payload.writeInt(-1);
+				return;
+			}
+			Integer idx = nameIndex.get(name);
+			if(idx == null) {
+				idx = Integer.valueOf(names.size());
+				names.add(name);
+				nameIndex.put(name, idx);
+			}
+			payload.writeInt(idx.intValue());
+		}
+
+		/**
+		 * @param value
+		 *            The value to write or <code>null</code>
+		 * @throws IOException
+		 *             if writing failed
+		 */
+		public void writeString(String value) throws IOException {
+			SnapshotFile.writeString(payload, value);
+		}
+	}
+
+	/**
+	 * The kind of a snapshot of the {@link FactReplica}
+	 */
+	public static final int KIND_FACTS = 1;
+
+	/**
+	 * The kind of a snapshot of the {@link com.puppetlabs.puppetdb.javaclient.index.ExportedResourceIndex
+	 * ExportedResourceIndex}
+	 */
+	public static final int KIND_EXPORTED_RESOURCES = 2;
+
+	private static final int MAGIC = 0x50444253; // PDBS
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 32;
+
+	private static final int BUFFER_SIZE = 0x10000;
+
+	private static final Gson GSON = new GsonProvider().get();
+
+	/**
+	 * Maps the given file into memory and reads the header, the names and the certname and timestamp
+	 * of each record.
+	 * 
+	 * @param file
+	 *            The file to open
+	 * @param kind
+	 *            The expected kind of snapshot
+	 * @return The opened snapshot
+	 * @throws IOException
+	 *             if the file could not be read, is larger than 2GB, is damaged or isn't a snapshot of
+	 *             the expected kind
+	 */
+	public static SnapshotFile open(Path file, int kind) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		ByteBuffer buffer;
+		try {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("Snapshot file is too large to be mapped: " + file); //$NON-NLS-1$
+			// The mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		finally {
+			channel.close();
+		}
+
+		try {
+			if(buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+				throw new IOException("Not a snapshot file: " + file); //$NON-NLS-1$
+			int version = buffer.getInt();
+			if(version != VERSION)
+				throw new IOException("Unsupported snapshot version " + version + ": " + file); //$NON-NLS-1$ //$NON-NLS-2$
+			int actualKind = buffer.getInt();
+			if(actualKind != kind)
+				throw new IOException("Snapshot of kind " + actualKind + " where " + kind + " was expected: " + file); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			long snapshotTime = buffer.getLong();
+			int recordCount = buffer.getInt();
+			long namesOffset = buffer.getLong();
+			if(recordCount < 0 || namesOffset < HEADER_SIZE || namesOffset > buffer.limit())
+				throw new IOException("Corrupt snapshot file: " + file); //$NON-NLS-1$
+
+			ByteBuffer namesBuffer = buffer.duplicate();
+			namesBuffer.position((int) namesOffset);
+			String[] names = new String[namesBuffer.getInt()];
+			for(int idx = 0; idx < names.length; ++idx)
+				names[idx] = readString(namesBuffer);
+
+			List<Record> records = new ArrayList<Record>(recordCount);
+			for(int idx = 0; idx < recordCount; ++idx) {
+				String certname = readString(buffer);
+				long timestamp = buffer.getLong();
+				int length = buffer.getInt();
+				int crc = buffer.getInt();
+				if(certname == null || length < 0 || buffer.position() + length > namesOffset)
+					throw new IOException("Corrupt snapshot file: " + file); //$NON-NLS-1$
+				ByteBuffer payload = buffer.duplicate();
+				payload.limit(buffer.position() + length);
+				buffer.position(buffer.position() + length);
+				payload = payload.slice();
+				if(checksum(payload.duplicate()) != crc)
+					throw new IOException("Corrupt snapshot record for " + certname + ": " + file); //$NON-NLS-1$ //$NON-NLS-2$
+				records.add(new Record(certname, timestamp, payload, names));
+			}
+			return new SnapshotFile(snapshotTime, Collections.unmodifiableList(records));
+		}
+		catch(BufferUnderflowException e) {
+			throw new IOException("Corrupt snapshot file: " + file, e); //$NON-NLS-1$
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException("Corrupt snapshot file: " + file, e); //$NON-NLS-1$
+		}
+	}
+
+	private static int checksum(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[Math.min(buffer.remaining(), BUFFER_SIZE)];
+		while(buffer.hasRemaining()) {
+			int count = Math.min(buffer.remaining(), chunk.length);
+			buffer.get(chunk, 0, count);
+			crc.update(chunk, 0, count);
+		}
+		return (int) crc.getValue();
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length == -1)
+			return null;
+		if(length < 0 || length > buffer.remaining())
+			throw new IllegalArgumentException("Bad string length " + length); //$NON-NLS-1$
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, HttpConnector.UTF_8);
+	}
+
+	/**
+	 * Creates a writer that replaces <code>file</code> when committed. The temporary file is created
+	 * in the same directory.
+	 * 
+	 * @param file
+	 *            The file to write
+	 * @param kind
+	 *            The kind of snapshot
+	 * @param snapshotTime
+	 *            The point in time that the content reflects, in milliseconds since the epoch
+	 * @return The new writer
+	 * @throws IOException
+	 *             if the temporary file could not be created
+	 */
+	public static Writer write(Path file, int kind, long snapshotTime) throws IOException {
+		return new Writer(file, kind, snapshotTime);
+	}
+
+	/**
+	 * @return The number of bytes written
+	 */
+	private static int writeString(DataOutputStream output, String value) throws IOException {
+		if(value == null) {
+			output.writeInt(-1);
+			return 4;
+		}
+		byte[] bytes = value.getBytes(HttpConnector.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+		return 4 + bytes.length;
+	}
+
+	private final long snapshotTime;
+
+	private final List<Record> records;
+
+	private SnapshotFile(long snapshotTime, List<Record> records) {
+		this.snapshotTime = snapshotTime;
+		this.records = records;
+	}
+
+	/**
+	 * @return The records in the order they were written
+	 */
+	public List<Record> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return The point in time that the content reflects, in milliseconds since the epoch
+	 */
+	public long getSnapshotTime() {
+		return snapshotTime;
+	}
+}
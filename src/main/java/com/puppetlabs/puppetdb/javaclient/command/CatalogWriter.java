@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.command;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Edge;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+/**
+ * <p>
+ * Streams a <code>replace catalog</code> command. The resources and edges are added one at a time
+ * and in any order, and the command is sent when the writer is {@link #submit() submitted}. Memory
+ * use is independent of the size of the catalog.
+ * </p>
+ * <p>
+ * The command is byte-identical to the one sent by
+ * {@link com.puppetlabs.puppetdb.javaclient.PuppetDBClient#replaceCatalog(Catalog) replaceCatalog}
+ * for a catalog with the same header and lists that contain the added elements in the order they
+ * were added.
+ * </p>
+ * 
+ * @see com.puppetlabs.puppetdb.javaclient.PuppetDBClient#newCatalogWriter(Catalog)
+ */
+public class CatalogWriter extends CommandWriter {
+	private static final String COMMAND = "replace catalog"; //$NON-NLS-1$
+
+	// The edges come before the resources in the serialized catalog
+	private static final String EDGES = "edges"; //$NON-NLS-1$
+
+	private static final String RESOURCES = "resources"; //$NON-NLS-1$
+
+	private static Catalog.Data getData(Catalog catalog) {
+		Catalog.Data data = catalog.getData();
+		if(data == null)
+			throw new IllegalArgumentException("The catalog has no data"); //$NON-NLS-1$
+		return data;
+	}
+
+	private static String render(HttpConnector connector, int version, Catalog catalog) {
+		// Render with empty lists and then restore the lists of the caller
+		Catalog.Data data = getData(catalog);
+		List<Edge> edges = data.getEdges();
+		List<Resource> resources = data.getResources();
+		data.setEdges(Collections.<Edge> emptyList());
+		data.setResources(Collections.<Resource> emptyList());
+		try {
+			return renderCommand(connector, COMMAND, version, catalog);
+		}
+		finally {
+			data.setEdges(edges);
+			data.setResources(resources);
+		}
+	}
+
+	/**
+	 * Creates the writer. The resources and edges of the <code>catalog</code>, if any, are added
+	 * first. The catalog itself is not modified.
+	 * 
+	 * @param connector
+	 *            The connector that provides the JSON serialization
+	 * @param version
+	 *            The version of the <code>replace catalog</code> command
+	 * @param catalog
+	 *            The catalog header
+	 * @param submitter
+	 *            The submitter of the finished command
+	 * @throws IOException
+	 *             if the temporary files could not be written
+	 * @see com.puppetlabs.puppetdb.javaclient.PuppetDBClient#newCatalogWriter(Catalog)
+	 */
+	public CatalogWriter(HttpConnector connector, int version, Catalog catalog, Submitter submitter) throws IOException {
+		super(connector, render(connector, version, catalog), submitter, EDGES, RESOURCES);
+		boolean success = false;
+		try {
+			Catalog.Data data = getData(catalog);
+			if(data.getEdges() != null)
+				for(Edge edge : data.getEdges())
+					addEdge(edge);
+			if(data.getResources() != null)
+				for(Resource resource : data.getResources())
+					addResource(resource);
+			success = true;
+		}
+		finally {
+			if(!success)
+				close();
+		}
+	}
+
+	/**
+	 * @param edge
+	 *            The edge to add
+	 * @throws IOException
+	 *             if the edge could not be written
+	 */
+	public void addEdge(Edge edge) throws IOException {
+		add(0, edge);
+	}
+
+	/**
+	 * @param resource
+	 *            The resource to add
+	 * @throws IOException
+	 *             if the resource could not be written
+	 */
+	public void addResource(Resource resource) throws IOException {
+		add(1, resource);
+	}
+
+	/**
+	 * @return The number of edges added so far
+	 */
+	public int getEdgeCount() {
+		return getCount(0);
+	}
+
+	/**
+	 * @return The number of resources added so far
+	 */
+	public int getResourceCount() {
+		return getCount(1);
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.command;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.impl.CommandObject;
+
+/**
+ * <p>
+ * Base class of writers that stream a command with one or more potentially very large lists to a
+ * temporary file instead of building the complete object graph in memory. The command is rendered
+ * once with empty lists. The elements of the lists are then serialized one at a time, with the same
+ * serializer, into the places where the lists begin. The first list in document order is written
+ * straight to the command file and the other lists are spooled to files of their own until the
+ * command is finished. The result is byte-identical to the serialization of the complete object
+ * graph.
+ * </p>
+ * <p>
+ * A writer is not thread safe. It must be {@link #submit() submitted} or {@link #close() closed} to
+ * release the temporary files.
+ * </p>
+ */
+public abstract class CommandWriter implements Closeable {
+	/**
+	 * Sends a finished command to PuppetDB
+	 */
+	public interface Submitter {
+		/**
+		 * @param payload
+		 *            A file with the UTF-8 encoded JSON command
+		 * @param checksum
+		 *            The hex encoded SHA-1 checksum of the file
+		 * @return The UUID of the command or <code>null</code>
+		 * @throws IOException
+		 *             if the command could not be sent
+		 */
+		UUID submit(Path payload, String checksum) throws IOException;
+	}
+
+	private static void quietClose(Closeable closeable) {
+		try {
+			closeable.close();
+		}
+		catch(IOException e) {
+			// Only called when the output is discarded anyway
+		}
+	}
+
+	private static void quietDelete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		}
+		catch(IOException e) {
+			// Left to the cleanup of the temporary directory
+		}
+	}
+
+	/**
+	 * Serializes a command in the same form as the client does when it sends the complete object graph
+	 */
+	static String renderCommand(HttpConnector connector, String command, int version, Object payload) {
+		CommandObject cmdObj = new CommandObject();
+		cmdObj.setCommand(command);
+		cmdObj.setVersion(version);
+		cmdObj.setPayload(payload);
+		return connector.toJSON(cmdObj);
+	}
+
+	private final HttpConnector connector;
+
+	private final Submitter submitter;
+
+	// The rendered command between the lists
+	private final String[] segments;
+
+	private final Path file;
+
+	private final MessageDigest digest;
+
+	private final DigestOutputStream digestStream;
+
+	// One writer per list. The first writes to the command file
+	private final Writer[] writers;
+
+	private final Path[] spools;
+
+	private final int[] counts;
+
+	private String checksum;
+
+	private boolean closed;
+
+	/**
+	 * Writes the command up to the beginning of the first list. The lists given by
+	 * <code>listNames</code> must be present, empty, and occur once in the command.
+	 * 
+	 * @param connector
+	 *            The connector that provides the JSON serialization
+	 * @param command
+	 *            The command, serialized by the <code>connector</code> with empty lists
+	 * @param submitter
+	 *            The submitter of the finished command
+	 * @param listNames
+	 *            The names of the lists in document order
+	 * @throws IOException
+	 *             if the temporary files could not be created
+	 */
+	protected CommandWriter(HttpConnector connector, String command, Submitter submitter, String... listNames)
+			throws IOException {
+		this.connector = connector;
+		this.submitter = submitter;
+
+		// Cut the command where the lists begin. Quotes within strings are escaped so only keys can match
+		segments = new String[listNames.length + 1];
+		int start = 0;
+		for(int idx = 0; idx < listNames.length; ++idx) {
+			String list = '"' + listNames[idx] + "\":[]"; //$NON-NLS-1$
+			int pos = command.indexOf(list, start);
+			if(pos < 0 || command.indexOf(list, pos + 1) >= 0)
+				throw new IllegalArgumentException("The command has no single empty list named " + listNames[idx]); //$NON-NLS-1$
+			segments[idx] = command.substring(start, pos + list.length() - 1);
+			start = pos + list.length() - 1;
+		}
+		segments[listNames.length] = command.substring(start);
+
+		try {
+			digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException(e);
+		}
+		writers = new Writer[listNames.length];
+		spools = new Path[listNames.length];
+		counts = new int[listNames.length];
+		file = Files.createTempFile("puppetdb-command", ".json"); //$NON-NLS-1$ //$NON-NLS-2$
+		boolean success = false;
+		try {
+			digestStream = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), digest);
+			writers[0] = new OutputStreamWriter(digestStream, HttpConnector.UTF_8);
+			writers[0].write(segments[0]);
+			for(int idx = 1; idx < listNames.length; ++idx) {
+				spools[idx] = Files.createTempFile("puppetdb-command", ".spool"); //$NON-NLS-1$ //$NON-NLS-2$
+				writers[idx] = Files.newBufferedWriter(spools[idx], HttpConnector.UTF_8);
+			}
+			success = true;
+		}
+		finally {
+			if(!success)
+				close();
+		}
+	}
+
+	/**
+	 * Appends an element to a list
+	 * 
+	 * @param list
+	 *            The index of the list in the <code>listNames</code> given to the constructor
+	 * @param element
+	 *            The element to append
+	 * @throws IOException
+	 *             if the element could not be written
+	 * @throws IllegalStateException
+	 *             if the command is already finished
+	 */
+	protected void add(int list, Object element) throws IOException {
+		if(checksum != null || closed)
+			throw new IllegalStateException("The command is already finished"); //$NON-NLS-1$
+		Writer writer = writers[list];
+		if(counts[list]++ > 0)
+			writer.write(',');
+		writer.write(connector.toJSON(element));
+	}
+
+	/**
+	 * Discards the command and deletes the temporary files. Calling this method on a submitted or
+	 * closed writer has no effect.
+	 */
+	@Override
+	public void close() {
+		if(closed)
+			return;
+		closed = true;
+		for(int idx = 0; idx < writers.length; ++idx) {
+			if(writers[idx] != null)
+				quietClose(writers[idx]);
+			if(spools[idx] != null)
+				quietDelete(spools[idx]);
+		}
+		quietDelete(file);
+	}
+
+	/**
+	 * Completes the command file. The lists are closed and the spooled lists are copied into place.
+	 * No more elements can be added after this call.
+	 * 
+	 * @return The hex encoded SHA-1 checksum of the command
+	 * @throws IOException
+	 *             if the command file could not be written
+	 */
+	protected String finish() throws IOException {
+		if(closed)
+			throw new IllegalStateException("The writer is closed"); //$NON-NLS-1$
+		if(checksum == null) {
+			Writer out = writers[0];
+			for(int idx = 1; idx < writers.length; ++idx) {
+				out.write(segments[idx]);
+				out.flush();
+				writers[idx].close();
+				Files.copy(spools[idx], digestStream);
+			}
+			out.write(segments[writers.length]);
+			out.close();
+			checksum = Hex.encodeHexString(digest.digest());
+		}
+		return checksum;
+	}
+
+	/**
+	 * @param list
+	 *            The index of the list in the <code>listNames</code> given to the constructor
+	 * @return The number of elements added to the list
+	 */
+	protected int getCount(int list) {
+		return counts[list];
+	}
+
+	/**
+	 * Finishes the command, sends it to PuppetDB and deletes the temporary files.
+	 * 
+	 * @return The UUID of the command or <code>null</code>
+	 * @throws IOException
+	 *             if the command could not be written or sent
+	 */
+	public UUID submit() throws IOException {
+		try {
+			return submitter.submit(file, finish());
+		}
+		finally {
+			close();
+		}
+	}
+}
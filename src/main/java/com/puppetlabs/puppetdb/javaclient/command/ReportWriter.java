@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.command;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
+
+/**
+ * <p>
+ * Streams a <code>store report</code> command. The resource events are added one at a time and the
+ * command is sent when the writer is {@link #submit() submitted}. Memory use is independent of the
+ * number of events.
+ * </p>
+ * <p>
+ * The command is byte-identical to the one sent by
+ * {@link com.puppetlabs.puppetdb.javaclient.PuppetDBClient#storeReport(Report) storeReport} for a
+ * report with the same header and a list that contains the added events in the order they were
+ * added.
+ * </p>
+ * 
+ * @see com.puppetlabs.puppetdb.javaclient.PuppetDBClient#newReportWriter(Report)
+ */
+public class ReportWriter extends CommandWriter {
+	private static final String COMMAND = "store report"; //$NON-NLS-1$
+
+	private static final String EVENTS = "resource-events"; //$NON-NLS-1$
+
+	private static String render(HttpConnector connector, int version, Report report) {
+		// Render with an empty list and then restore the list of the caller
+		List<Event> events = report.getResourceEvents();
+		report.setResourceEvents(Collections.<Event> emptyList());
+		try {
+			return renderCommand(connector, COMMAND, version, report);
+		}
+		finally {
+			report.setResourceEvents(events);
+		}
+	}
+
+	/**
+	 * Creates the writer. The events of the <code>report</code>, if any, are added first. The report
+	 * itself is not modified.
+	 * 
+	 * @param connector
+	 *            The connector that provides the JSON serialization
+	 * @param version
+	 *            The version of the <code>store report</code> command
+	 * @param report
+	 *            The report header
+	 * @param submitter
+	 *            The submitter of the finished command
+	 * @throws IOException
+	 *             if the temporary file could not be written
+	 * @see com.puppetlabs.puppetdb.javaclient.PuppetDBClient#newReportWriter(Report)
+	 */
+	public ReportWriter(HttpConnector connector, int version, Report report, Submitter submitter) throws IOException {
+		super(connector, render(connector, version, report), submitter, EVENTS);
+		boolean success = false;
+		try {
+			List<Event> events = report.getResourceEvents();
+			if(events != null)
+				for(Event event : events)
+					addEvent(event);
+			success = true;
+		}
+		finally {
+			if(!success)
+				close();
+		}
+	}
+
+	/**
+	 * @param event
+	 *            The event to add
+	 * @throws IOException
+	 *             if the event could not be written
+	 */
+	public void addEvent(Event event) throws IOException {
+		add(0, event);
+	}
+
+	/**
+	 * @return The number of events added so far
+	 */
+	public int getEventCount() {
+		return getCount(0);
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.puppetlabs.puppetdb.javaclient.model.AggregatedEventCount;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.ResourceSpec;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount.CountBy;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount.SummarizeBy;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Predicate;
+import com.puppetlabs.puppetdb.javaclient.query.Query;
+
+/**
+ * <p>
+ * Computes event counts in-process with the same semantics as the <code>/event-counts</code> and
+ * <code>/aggregate-event-counts</code> end-points, i.e. as
+ * {@link com.puppetlabs.puppetdb.javaclient.PuppetDBClient#getEventCounts(com.puppetlabs.puppetdb.javaclient.query.Parameters, Expression, SummarizeBy, CountBy)
+ * getEventCounts} and
+ * {@link com.puppetlabs.puppetdb.javaclient.PuppetDBClient#getAggregatedEventCounts(Expression, Expression, SummarizeBy, CountBy)
+ * getAggregatedEventCounts} would for the events that have been added. Events are added one at a
+ * time or in batches, e.g. by registering the aggregator as a listener of an {@link EventTail}, and the
+ * counts are updated incrementally.
+ * </p>
+ * <p>
+ * Each subject (a resource, a containing class or a node, depending on the {@link SummarizeBy}) is
+ * given an index into an array that holds its four counters. When counting by
+ * {@link CountBy#certname certname}, the statuses seen for each subject and node are kept as a bit
+ * mask so that each node is counted at most once per subject and status.
+ * </p>
+ * <p>
+ * The aggregator is thread safe. The same event must not be added twice.
+ * </p>
+ */
+public class EventCountAggregator implements EventTailListener {
+	private static final int FAILURE = 0;
+
+	private static final int SUCCESS = 1;
+
+	private static final int NOOP = 2;
+
+	private static final int SKIP = 3;
+
+	private static final int STATUS_COUNT = 4;
+
+	private static int statusIndex(Event.Status status) {
+		if(status == null)
+			return -1;
+		switch(status) {
+			case failure:
+				return FAILURE;
+			case success:
+				return SUCCESS;
+			case noop:
+				return NOOP;
+			case skipped:
+				return SKIP;
+			default:
+				return -1;
+		}
+	}
+
+	private final Predicate<Event> eventFilter;
+
+	private final SummarizeBy summarizeBy;
+
+	private final CountBy countBy;
+
+	private final Map<String, Integer> subjectIndex = new HashMap<String, Integer>();
+
+	// Type and title of each subject. The type is null unless summarizing by resource
+	private String[] subjectTypes = new String[16];
+
+	private String[] subjectTitles = new String[16];
+
+	// Four counters per subject
+	private int[] counts = new int[16 * STATUS_COUNT];
+
+	private int subjectCount;
+
+	// Statuses seen per subject and node when counting by certname, keyed by subject index and certname
+	private final Map<String, Integer> seenStatuses = new HashMap<String, Integer>();
+
+	private long eventCount;
+
+	/**
+	 * @param eventQuery
+	 *            Selects the events to count or <code>null</code> to count all events. The query must be one
+	 *            that can be {@link Query#compile(Expression, Class) compiled}
+	 * @param summarizeBy
+	 *            The type of object to produce counts for. Defaults to {@link SummarizeBy#certname}
+	 * @param countBy
+	 *            The type of object that is counted. Defaults to {@link CountBy#resource}
+	 * @throws IllegalArgumentException
+	 *             if the event query cannot be evaluated locally
+	 */
+	public EventCountAggregator(Expression<Event> eventQuery, SummarizeBy summarizeBy, CountBy countBy) {
+		this.eventFilter = Query.compile(eventQuery, Event.class);
+		this.summarizeBy = summarizeBy == null
+				? SummarizeBy.certname
+				: summarizeBy;
+		this.countBy = countBy == null
+				? CountBy.resource
+				: countBy;
+	}
+
+	/**
+	 * Counts one event unless it is rejected by the event query.
+	 * 
+	 * @param event
+	 *            The event to count
+	 */
+	public synchronized void add(Event event) {
+		int status = statusIndex(event.getStatus());
+		if(status < 0 || !eventFilter.matches(event))
+			return;
+
+		++eventCount;
+		int subject = subjectId(event);
+		if(countBy == CountBy.certname) {
+			String key = subject + "\0" + event.getCertname(); //$NON-NLS-1$
+			Integer mask = seenStatuses.get(key);
+			int bits = mask == null
+					? 0
+					: mask.intValue();
+			int bit = 1 << status;
+			if((bits & bit) != 0)
+				return;
+			seenStatuses.put(key, Integer.valueOf(bits | bit));
+		}
+		++counts[subject * STATUS_COUNT + status];
+	}
+
+	/**
+	 * Counts all given events that are accepted by the event query.
+	 * 
+	 * @param events
+	 *            The events to count
+	 */
+	public synchronized void addAll(Collection<Event> events) {
+		for(Event event : events)
+			add(event);
+	}
+
+	/**
+	 * Discards all counts.
+	 */
+	public synchronized void clear() {
+		subjectIndex.clear();
+		seenStatuses.clear();
+		Arrays.fill(subjectTypes, 0, subjectCount, null);
+		Arrays.fill(subjectTitles, 0, subjectCount, null);
+		Arrays.fill(counts, 0, subjectCount * STATUS_COUNT, 0);
+		subjectCount = 0;
+		eventCount = 0;
+	}
+
+	/**
+	 * Counts the events of a batch delivered by an {@link EventTail}.
+	 * 
+	 * @param events
+	 *            The events to count
+	 */
+	@Override
+	public void eventsReceived(List<Event> events) {
+		addAll(events);
+	}
+
+	/**
+	 * Returns the number of subjects that had at least one event of each status, and the total number
+	 * of subjects, in the same way as the <code>/aggregate-event-counts</code> end-point.
+	 * 
+	 * @param countsFilter
+	 *            Selects the event counts to aggregate or <code>null</code> to aggregate all of them
+	 * @return The aggregated counts
+	 * @throws IllegalArgumentException
+	 *             if the counts filter cannot be evaluated locally
+	 */
+	public AggregatedEventCount getAggregatedEventCounts(Expression<EventCount> countsFilter) {
+		int failures = 0;
+		int successes = 0;
+		int noops = 0;
+		int skips = 0;
+		List<EventCount> eventCounts = getEventCounts(countsFilter);
+		for(EventCount eventCount : eventCounts) {
+			if(eventCount.getFailures() > 0)
+				++failures;
+			if(eventCount.getSuccesses() > 0)
+				++successes;
+			if(eventCount.getNoops() > 0)
+				++noops;
+			if(eventCount.getSkips() > 0)
+				++skips;
+		}
+		AggregatedEventCount result = new AggregatedEventCount();
+		result.setFailures(failures);
+		result.setSuccesses(successes);
+		result.setNoops(noops);
+		result.setSkips(skips);
+		result.setTotal(eventCounts.size());
+		return result;
+	}
+
+	/**
+	 * @return The number of events that have been counted
+	 */
+	public synchronized long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Returns one count for each subject in the same way as the <code>/event-counts</code> end-point.
+	 * The counts are listed in the order in which their subjects were first seen.
+	 * 
+	 * @param countsFilter
+	 *            Selects the event counts to return or <code>null</code> to return all of them
+	 * @return The event counts
+	 * @throws IllegalArgumentException
+	 *             if the counts filter cannot be evaluated locally
+	 */
+	public List<EventCount> getEventCounts(Expression<EventCount> countsFilter) {
+		Predicate<EventCount> filter = Query.compile(countsFilter, EventCount.class);
+		List<EventCount> result = new ArrayList<EventCount>();
+		synchronized(this) {
+			for(int subject = 0; subject < subjectCount; ++subject) {
+				int base = subject * STATUS_COUNT;
+				ResourceSpec spec = new ResourceSpec();
+				spec.setType(subjectTypes[subject]);
+				spec.setTitle(subjectTitles[subject]);
+				EventCount eventCount = new EventCount();
+				eventCount.setSubjectType(summarizeBy.toString());
+				eventCount.setSubject(spec);
+				eventCount.setFailures(counts[base + FAILURE]);
+				eventCount.setSuccesses(counts[base + SUCCESS]);
+				eventCount.setNoops(counts[base + NOOP]);
+				eventCount.setSkips(counts[base + SKIP]);
+				if(filter.matches(eventCount))
+					result.add(eventCount);
+			}
+		}
+		return result;
+	}
+
+	private int subjectId(Event event) {
+		String type = null;
+		String title;
+		switch(summarizeBy) {
+			case resource:
+				type = event.getResourceType();
+				title = event.getResourceTitle();
+				break;
+			case containing_class:
+				title = event.getContainingClass();
+				break;
+			default:
+				title = event.getCertname();
+		}
+
+		// A null title, e.g. of an event outside of any class, is a subject of its own
+		String key = title == null
+				? "\0"
+				: title;
+		if(type != null)
+			key = type + '\0' + key;
+		Integer id = subjectIndex.get(key);
+		if(id != null)
+			return id.intValue();
+
+		int subject = subjectCount++;
+		if(subject == subjectTitles.length) {
+			subjectTypes = Arrays.copyOf(subjectTypes, subject * 2);
+			subjectTitles = Arrays.copyOf(subjectTitles, subject * 2);
+			counts = Arrays.copyOf(counts, subject * 2 * STATUS_COUNT);
+		}
+		subjectTypes[subject] = type;
+		subjectTitles[subject] = title;
+		subjectIndex.put(key, Integer.valueOf(subject));
+		return subject;
+	}
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.events;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gtEq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+
+/**
+ * <p>
+ * Follows the events that PuppetDB receives, much like <code>tail -f</code> follows a file. The tail
+ * keeps a watermark on {@link Event#REPORT_RECEIVE_TIME}, the point in time up to which it considers
+ * the events complete, and each poll asks only for events received at or after the watermark. The
+ * watermark is advanced to the server time of the poll minus the configured overlap so that reports
+ * that are still being stored when a poll is made are picked up by a later poll. Events that were
+ * seen by an earlier poll are recognized and dropped.
+ * </p>
+ * <p>
+ * The server time is estimated from the local clock and a clock skew that is measured with
+ * {@link PuppetDBClient#getServerTime()} when the tail is started and periodically after that.
+ * </p>
+ * <p>
+ * New events are handed to the registered {@link EventTailListener listeners} in batches on a
+ * dedicated delivery thread. The queue of undelivered batches is bounded. When it is full, polling
+ * waits for the listeners to catch up and the watermark isn't advanced until the batch has been
+ * queued, so no events are lost.
+ * </p>
+ */
+public class EventTail {
+	private static final Comparator<Event> RECEIVE_ORDER = new Comparator<Event>() {
+		@Override
+		public int compare(Event a, Event b) {
+			int cmp = compareDates(a.getReportReceiveTime(), b.getReportReceiveTime());
+			return cmp != 0
+					? cmp
+					: compareDates(a.getTimestamp(), b.getTimestamp());
+		}
+	};
+
+	// Interval between clock skew measurements
+	private static final long SKEW_INTERVAL = 10 * 60 * 1000;
+
+	private static final ThreadFactory POLL_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB event tail poll"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static final ThreadFactory DELIVERY_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB event tail delivery"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static int compareDates(Date a, Date b) {
+		if(a == null)
+			return b == null
+					? 0
+					: -1;
+		return b == null
+				? 1
+				: a.compareTo(b);
+	}
+
+	/**
+	 * Computes the key that identifies an event. A report changes a property of a resource at
+	 * most once.
+	 */
+	private static String eventKey(Event event) {
+		StringBuilder bld = new StringBuilder();
+		bld.append(event.getReport());
+		bld.append('\0');
+		bld.append(event.getResourceType());
+		bld.append('\0');
+		bld.append(event.getResourceTitle());
+		bld.append('\0');
+		bld.append(event.getProperty());
+		return bld.toString();
+	}
+
+	private final PuppetDBClient client;
+
+	private final Expression<Event> filter;
+
+	private final int pollInterval;
+
+	private final int overlap;
+
+	private final BlockingQueue<List<Event>> deliveryQueue;
+
+	private final List<EventTailListener> listeners = new CopyOnWriteArrayList<EventTailListener>();
+
+	// Keys of the delivered events that are at or above the watermark, mapped to their receive time
+	private final Map<String, Long> seen = new HashMap<String, Long>();
+
+	private final AtomicLong pollCount = new AtomicLong();
+
+	private final AtomicLong pollFailureCount = new AtomicLong();
+
+	private final AtomicLong deliveredCount = new AtomicLong();
+
+	private final AtomicLong duplicateCount = new AtomicLong();
+
+	private final Object pollLock = new Object();
+
+	private ScheduledExecutorService poller;
+
+	private Thread deliverer;
+
+	private long skewMeasuredAt;
+
+	private volatile long clockSkew;
+
+	private volatile long watermark = -1;
+
+	/**
+	 * Creates the tail. No queries are made until the tail is {@link #start() started}.
+	 * 
+	 * @param client
+	 *            The client used for all queries
+	 * @param filter
+	 *            Selects the events of interest, e.g. failures only, or <code>null</code> for all events
+	 * @param preferences
+	 *            The preferences that determine poll interval, overlap and queue capacity
+	 */
+	public EventTail(PuppetDBClient client, Expression<Event> filter, APIPreferences preferences) {
+		this.client = client;
+		this.filter = filter;
+		this.pollInterval = Math.max(1, preferences.getEventTailPollInterval());
+		this.overlap = Math.max(0, preferences.getEventTailOverlap());
+		this.deliveryQueue = new ArrayBlockingQueue<List<Event>>(Math.max(1, preferences.getEventTailQueueCapacity()));
+	}
+
+	/**
+	 * Adds a listener that receives all batches that are delivered after this call.
+	 * 
+	 * @param listener
+	 *            The listener to add
+	 */
+	public void addListener(EventTailListener listener) {
+		listeners.add(listener);
+	}
+
+	private void deliver() {
+		try {
+			for(;;) {
+				List<Event> batch = deliveryQueue.take();
+				for(EventTailListener listener : listeners) {
+					try {
+						listener.eventsReceived(batch);
+					}
+					catch(RuntimeException e) {
+						// A failing listener must not prevent others from being notified
+					}
+				}
+				deliveredCount.addAndGet(batch.size());
+			}
+		}
+		catch(InterruptedException e) {
+			// Shut down
+		}
+	}
+
+	/**
+	 * @return The server clock minus the local clock in milliseconds as last measured
+	 */
+	public long getClockSkew() {
+		return clockSkew;
+	}
+
+	/**
+	 * @return The number of events that have been handed to the listeners
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * @return The number of events that were returned again by a poll and dropped
+	 */
+	public long getDuplicateCount() {
+		return duplicateCount.get();
+	}
+
+	/**
+	 * Returns how far the watermark lags behind the estimated server time. While polling keeps up,
+	 * the lag stays below the overlap plus the poll interval.
+	 * 
+	 * @return The lag in milliseconds or -1 if the tail hasn't been started
+	 */
+	public long getLag() {
+		long current = watermark;
+		return current < 0
+				? -1
+				: Math.max(0, getServerTimeEstimate() - current);
+	}
+
+	/**
+	 * @return The number of polls that completed
+	 */
+	public long getPollCount() {
+		return pollCount.get();
+	}
+
+	/**
+	 * @return The number of periodic polls that failed
+	 */
+	public long getPollFailureCount() {
+		return pollFailureCount.get();
+	}
+
+	/**
+	 * @return The number of batches that are waiting for delivery
+	 */
+	public int getQueuedBatchCount() {
+		return deliveryQueue.size();
+	}
+
+	private long getServerTimeEstimate() {
+		return System.currentTimeMillis() + clockSkew;
+	}
+
+	/**
+	 * @return The report receive time from which the next poll will query, or <code>null</code> if the
+	 *         tail hasn't been started
+	 */
+	public Date getWatermark() {
+		long current = watermark;
+		return current < 0
+				? null
+				: new Date(current);
+	}
+
+	private void measureClockSkew() throws IOException {
+		long before = System.currentTimeMillis();
+		Date serverTime = client.getServerTime();
+		long after = System.currentTimeMillis();
+		if(serverTime != null)
+			// Assume that the server read its clock halfway through the round trip
+			clockSkew = serverTime.getTime() - (before + (after - before) / 2);
+		skewMeasuredAt = after;
+	}
+
+	/**
+	 * Queries for events at or above the watermark and queues those that haven't been seen before
+	 * for delivery. This method is called periodically once the tail is started but may also be
+	 * called directly.
+	 * 
+	 * @return The number of new events
+	 * @throws IOException
+	 *             if a query failed. The watermark is left unchanged
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting for room in the delivery queue
+	 * @throws IllegalStateException
+	 *             if the tail hasn't been started
+	 */
+	public int poll() throws IOException, InterruptedException {
+		synchronized(pollLock) {
+			long from = watermark;
+			if(from < 0)
+				throw new IllegalStateException("The event tail has not been started"); //$NON-NLS-1$
+
+			if(System.currentTimeMillis() - skewMeasuredAt >= SKEW_INTERVAL)
+				measureClockSkew();
+
+			// Everything received before this point, less the overlap, is assumed to be stored
+			long pollTime = getServerTimeEstimate();
+			Expression<Event> since = gtEq(Event.REPORT_RECEIVE_TIME, new Date(from));
+			List<Event> events = client.getEvents(filter == null
+					? since
+					: and(filter, since));
+			pollCount.incrementAndGet();
+
+			List<Event> batch = new ArrayList<Event>();
+			Map<String, Long> batchKeys = new HashMap<String, Long>();
+			for(Event event : events) {
+				Date received = event.getReportReceiveTime();
+				if(received == null || received.getTime() < from)
+					continue;
+				String key = eventKey(event);
+				if(seen.containsKey(key) || batchKeys.containsKey(key)) {
+					duplicateCount.incrementAndGet();
+					continue;
+				}
+				batchKeys.put(key, Long.valueOf(received.getTime()));
+				batch.add(event);
+			}
+
+			if(!batch.isEmpty()) {
+				Collections.sort(batch, RECEIVE_ORDER);
+				deliveryQueue.put(batch);
+				seen.putAll(batchKeys);
+			}
+
+			long next = Math.max(from, pollTime - overlap);
+			watermark = next;
+			for(Iterator<Long> itor = seen.values().iterator(); itor.hasNext();)
+				if(itor.next().longValue() < next)
+					itor.remove();
+			return batch.size();
+		}
+	}
+
+	/**
+	 * @param listener
+	 *            The listener to remove
+	 */
+	public void removeListener(EventTailListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Stops polling and delivery. Batches that haven't been delivered are discarded. The watermark
+	 * is retained so a restarted tail continues where this one stopped.
+	 */
+	public synchronized void shutdown() {
+		if(poller != null) {
+			poller.shutdownNow();
+			poller = null;
+		}
+		if(deliverer != null) {
+			deliverer.interrupt();
+			deliverer = null;
+		}
+		deliveryQueue.clear();
+	}
+
+	/**
+	 * Starts the tail with the watermark at the current server time unless a watermark was retained
+	 * from an earlier start.
+	 * 
+	 * @throws IOException
+	 *             if the server time could not be obtained
+	 */
+	public void start() throws IOException {
+		start(null);
+	}
+
+	/**
+	 * Starts the tail. Events received at or after <code>since</code> are delivered first.
+	 * 
+	 * @param since
+	 *            The initial watermark, or <code>null</code> to start at the current server time unless a
+	 *            watermark was retained from an earlier start
+	 * @throws IOException
+	 *             if the server time could not be obtained
+	 */
+	public synchronized void start(Date since) throws IOException {
+		if(poller != null)
+			return;
+		synchronized(pollLock) {
+			measureClockSkew();
+			if(since != null) {
+				watermark = since.getTime();
+				seen.clear();
+			}
+			else if(watermark < 0)
+				watermark = getServerTimeEstimate();
+		}
+
+		deliverer = DELIVERY_THREADS.newThread(new Runnable() {
+			@Override
+			public void run() {
+				deliver();
+			}
+		});
+		deliverer.start();
+
+		poller = Executors.newSingleThreadScheduledExecutor(POLL_THREADS);
+		poller.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					poll();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				catch(IOException e) {
+					pollFailureCount.incrementAndGet();
+				}
+				catch(RuntimeException e) {
+					pollFailureCount.incrementAndGet();
+				}
+			}
+		}, 0, pollInterval, TimeUnit.MILLISECONDS);
+	}
+}
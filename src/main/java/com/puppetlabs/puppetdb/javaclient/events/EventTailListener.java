@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.events;
+
+import java.util.List;
+
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+
+/**
+ * Receives the events that an {@link EventTail} finds. Batches are delivered one at a time on the
+ * delivery thread of the tail. A listener that takes long to return delays the delivery of later
+ * batches and, once the delivery queue is full, the polling for new events.
+ */
+public interface EventTailListener {
+	/**
+	 * Called with each batch of events that hasn't been delivered before.
+	 * 
+	 * @param events
+	 *            The new events in order of report receive time. Never empty
+	 */
+	void eventsReceived(List<Event> events);
+}
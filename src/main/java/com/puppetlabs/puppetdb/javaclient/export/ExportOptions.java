@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.export;
+
+import java.nio.file.Path;
+
+/**
+ * Options that control how an {@link NDJSONExporter} pages through a query and how the
+ * records are split into files.
+ */
+public class ExportOptions {
+	/**
+	 * The default number of records requested in each page
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	/**
+	 * The default number of 64 KiB chunks that may wait for the writer thread
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+	private final Path directory;
+
+	private String filePrefix;
+
+	private int pageSize = DEFAULT_PAGE_SIZE;
+
+	private long maxFileSize;
+
+	private boolean splitByCertname;
+
+	private boolean compress;
+
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+	/**
+	 * @param directory
+	 *            The directory that will receive the exported files. It must exist
+	 */
+	public ExportOptions(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the directory that receives the exported files
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the prefix of all file names or <code>null</code> to use the name of the queried end-point
+	 */
+	public String getFilePrefix() {
+		return filePrefix;
+	}
+
+	/**
+	 * @return the maximum number of uncompressed bytes in one file or 0 for no limit
+	 */
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	/**
+	 * @return the number of records requested in each page
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return the number of 64 KiB chunks that may wait for the writer thread
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * @return <code>true</code> if the files are gzip compressed
+	 */
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/**
+	 * @return <code>true</code> if each certname is written to files of its own
+	 */
+	public boolean isSplitByCertname() {
+		return splitByCertname;
+	}
+
+	/**
+	 * @param compress
+	 *            <code>true</code> if the files should be gzip compressed
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * @param filePrefix
+	 *            the prefix of all file names or <code>null</code> to use the name of the queried end-point
+	 */
+	public void setFilePrefix(String filePrefix) {
+		this.filePrefix = filePrefix;
+	}
+
+	/**
+	 * A new file is started when the next record would make the current file exceed this size. A
+	 * single record that is larger than the limit is still written to a file of its own. The size
+	 * is measured before compression.
+	 * 
+	 * @param maxFileSize
+	 *            the maximum number of uncompressed bytes in one file or 0 for no limit
+	 */
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	/**
+	 * @param pageSize
+	 *            the number of records requested in each page
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @param queueCapacity
+	 *            the number of 64 KiB chunks that may wait for the writer thread
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param splitByCertname
+	 *            <code>true</code> if each certname should be written to files of its own
+	 */
+	public void setSplitByCertname(boolean splitByCertname) {
+		this.splitByCertname = splitByCertname;
+	}
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.puppetlabs.puppetdb.javaclient.APIException;
+import com.puppetlabs.puppetdb.javaclient.ContentHandler;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.export.SegmentWriter.Segment;
+
+/**
+ * Converts the JSON arrays of one or more pages into newline-delimited JSON. Each element of
+ * the array is copied token by token from the response stream into a single line, so neither
+ * the page nor its records are ever bound to model objects. The lines are packed into chunks
+ * that are handed over to a {@link SegmentWriter}. The decision to start a new file is taken
+ * here, before the chunk is queued, so the writer only has to follow instructions.
+ */
+class ExportPipeline implements ContentHandler<Integer> {
+	/**
+	 * Writes a number literal exactly as it appeared in the response.
+	 */
+	private static class NumberLiteral extends Number {
+		private static final long serialVersionUID = 1L;
+
+		private final String literal;
+
+		NumberLiteral(String literal) {
+			this.literal = literal;
+		}
+
+		@Override
+		public double doubleValue() {
+			return Double.parseDouble(literal);
+		}
+
+		@Override
+		public float floatValue() {
+			return Float.parseFloat(literal);
+		}
+
+		@Override
+		public int intValue() {
+			return (int) doubleValue();
+		}
+
+		@Override
+		public long longValue() {
+			return (long) doubleValue();
+		}
+
+		@Override
+		public String toString() {
+			return literal;
+		}
+	}
+
+	private static final int CHUNK_SIZE = 0x10000;
+
+	private static final String CERTNAME = "certname"; //$NON-NLS-1$
+
+	/**
+	 * Copies the value at the current position of the reader to the writer.
+	 */
+	private static void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+		switch(reader.peek()) {
+			case BEGIN_ARRAY:
+				reader.beginArray();
+				writer.beginArray();
+				while(reader.hasNext())
+					copyValue(reader, writer);
+				reader.endArray();
+				writer.endArray();
+				break;
+			case BEGIN_OBJECT:
+				reader.beginObject();
+				writer.beginObject();
+				while(reader.hasNext()) {
+					writer.name(reader.nextName());
+					copyValue(reader, writer);
+				}
+				reader.endObject();
+				writer.endObject();
+				break;
+			case BOOLEAN:
+				writer.value(reader.nextBoolean());
+				break;
+			case NULL:
+				reader.nextNull();
+				writer.nullValue();
+				break;
+			case NUMBER:
+				writer.value(new NumberLiteral(reader.nextString()));
+				break;
+			case STRING:
+				writer.value(reader.nextString());
+				break;
+			default:
+				throw new APIException("Unexpected JSON token: " + reader.peek()); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Replaces characters that are unsafe in file names.
+	 */
+	private static String toFileName(String certname) {
+		StringBuilder bld = new StringBuilder(certname.length());
+		int top = certname.length();
+		for(int idx = 0; idx < top; ++idx) {
+			char c = certname.charAt(idx);
+			bld.append(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-'
+					? c
+					: '_');
+		}
+		return bld.toString();
+	}
+
+	private final ExportOptions options;
+
+	private final String prefix;
+
+	private final SegmentWriter writer;
+
+	private final List<Path> files = new ArrayList<Path>();
+
+	private final StringWriter line = new StringWriter(1024);
+
+	private byte[] chunk = new byte[CHUNK_SIZE];
+
+	private int chunkLength;
+
+	private Path pendingFile;
+
+	private String currentCertname;
+
+	private long fileBytes;
+
+	private long recordCount;
+
+	private long byteCount;
+
+	private int fileSequence;
+
+	/**
+	 * @param options
+	 *            The export options
+	 * @param prefix
+	 *            The prefix of all file names
+	 */
+	ExportPipeline(ExportOptions options, String prefix) {
+		this.options = options;
+		this.prefix = prefix;
+		this.writer = new SegmentWriter(options.getQueueCapacity(), options.isCompress());
+	}
+
+	/**
+	 * Stops the writer after a failure. Data that has already been queued is still written.
+	 */
+	void abort() {
+		try {
+			writer.finish();
+		}
+		catch(IOException ignored) {
+			// The failure that caused the abort takes precedence
+		}
+	}
+
+	/**
+	 * Copies one array element into {@link #line} and returns its certname, if any.
+	 */
+	private String copyRecord(JsonReader reader) throws IOException {
+		line.getBuffer().setLength(0);
+		JsonWriter out = new JsonWriter(line);
+		if(reader.peek() != JsonToken.BEGIN_OBJECT) {
+			copyValue(reader, out);
+			return null;
+		}
+
+		String certname = null;
+		reader.beginObject();
+		out.beginObject();
+		while(reader.hasNext()) {
+			String name = reader.nextName();
+			out.name(name);
+			if(certname == null && CERTNAME.equals(name) && reader.peek() == JsonToken.STRING) {
+				certname = reader.nextString();
+				out.value(certname);
+			}
+			else
+				copyValue(reader, out);
+		}
+		reader.endObject();
+		out.endObject();
+		return certname;
+	}
+
+	/**
+	 * Writes everything that remains and waits for the writer to finish.
+	 * 
+	 * @return The result of the export
+	 * @throws IOException
+	 *             if the writer failed
+	 */
+	ExportResult finish() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			writer.finish();
+		}
+		return new ExportResult(files, recordCount, byteCount);
+	}
+
+	/**
+	 * Passes the current chunk to the writer and allocates a new one. The chunk cannot be
+	 * reused since the writer may still be holding on to it.
+	 */
+	private void flush() throws IOException {
+		if(chunkLength > 0 || pendingFile != null) {
+			writer.put(new Segment(pendingFile, chunk, chunkLength));
+			if(chunkLength > 0) {
+				chunk = new byte[CHUNK_SIZE];
+				chunkLength = 0;
+			}
+			pendingFile = null;
+		}
+	}
+
+	/**
+	 * Copies all records of one page. Only the record being copied and the current chunk are held
+	 * in memory.
+	 * 
+	 * @return The number of records in the page
+	 */
+	@Override
+	public Integer handleContent(InputStream content) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(content, HttpConnector.UTF_8));
+		int count = 0;
+		reader.beginArray();
+		while(reader.hasNext()) {
+			String certname = copyRecord(reader);
+			line.write('\n');
+			writeRecord(certname, line.toString().getBytes(HttpConnector.UTF_8));
+			++count;
+		}
+		reader.endArray();
+		return Integer.valueOf(count);
+	}
+
+	private boolean needsNewFile(String certname, int length) {
+		if(fileSequence == 0)
+			return true;
+		if(options.isSplitByCertname() && !(certname == null
+				? currentCertname == null
+				: certname.equals(currentCertname)))
+			return true;
+		long max = options.getMaxFileSize();
+		return max > 0 && fileBytes > 0 && fileBytes + length > max;
+	}
+
+	/**
+	 * Starts the writer thread. Must be called before the first page is handled.
+	 */
+	void start() {
+		writer.start();
+	}
+
+	private void startFile(String certname) throws IOException {
+		flush();
+		StringBuilder bld = new StringBuilder(prefix);
+		if(options.isSplitByCertname() && certname != null) {
+			bld.append('-');
+			bld.append(toFileName(certname));
+		}
+		bld.append('-');
+		String seq = Integer.toString(++fileSequence);
+		for(int pad = seq.length(); pad < 5; ++pad)
+			bld.append('0');
+		bld.append(seq);
+		bld.append(".ndjson"); //$NON-NLS-1$
+		if(options.isCompress())
+			bld.append(".gz"); //$NON-NLS-1$
+
+		pendingFile = options.getDirectory().resolve(bld.toString());
+		files.add(pendingFile);
+		currentCertname = certname;
+		fileBytes = 0;
+	}
+
+	private void writeRecord(String certname, byte[] bytes) throws IOException {
+		if(needsNewFile(certname, bytes.length))
+			startFile(certname);
+
+		if(chunkLength + bytes.length > CHUNK_SIZE)
+			flush();
+		if(bytes.length > CHUNK_SIZE) {
+			// Oversized records bypass the chunk
+			writer.put(new Segment(pendingFile, bytes, bytes.length));
+			pendingFile = null;
+		}
+		else {
+			System.arraycopy(bytes, 0, chunk, chunkLength, bytes.length);
+			chunkLength += bytes.length;
+		}
+		fileBytes += bytes.length;
+		byteCount += bytes.length;
+		++recordCount;
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.export;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the outcome of a completed export.
+ */
+public class ExportResult {
+	private final List<Path> files;
+
+	private final long recordCount;
+
+	private final long byteCount;
+
+	ExportResult(List<Path> files, long recordCount, long byteCount) {
+		this.files = Collections.unmodifiableList(files);
+		this.recordCount = recordCount;
+		this.byteCount = byteCount;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes written
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * @return the files that were written, in the order they were created
+	 */
+	public List<Path> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return the number of records written
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+}
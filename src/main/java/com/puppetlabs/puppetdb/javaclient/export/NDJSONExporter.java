@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.export;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.orderByField;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.inject.Inject;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.OrderBy;
+import com.puppetlabs.puppetdb.javaclient.query.OrderBy.OrderByField;
+import com.puppetlabs.puppetdb.javaclient.query.Paging;
+import com.puppetlabs.puppetdb.javaclient.query.Query;
+
+/**
+ * <p>
+ * Exports the result of a query to files with one JSON object per line (newline-delimited JSON).
+ * The query is executed one page at a time and each page is streamed from the response straight
+ * into the files without binding the records to model objects. Files are written and optionally
+ * gzip compressed on a separate thread that receives the data through a bounded queue.
+ * </p>
+ * <p>
+ * The records are ordered by certname so that all records of one node end up in the same file
+ * when the output is split by certname. Since pages are obtained using an offset, records that
+ * are added or removed while the export is in progress may cause other records to be skipped or
+ * repeated.
+ * </p>
+ * <p>
+ * Instances are obtained from the same Guice injector as the {@link com.puppetlabs.puppetdb.javaclient.PuppetDBClient}.
+ * </p>
+ */
+public class NDJSONExporter {
+	private static final List<OrderByField<Event>> EVENT_ORDER;
+
+	private static final List<OrderByField<Fact>> FACT_ORDER;
+
+	private static final List<OrderByField<Resource>> RESOURCE_ORDER;
+
+	static {
+		List<OrderByField<Event>> events = new ArrayList<OrderByField<Event>>();
+		events.add(orderByField(Event.CERTNAME, false));
+		events.add(orderByField(Event.REPORT, false));
+		events.add(orderByField(Event.RESOURCE_TYPE, false));
+		events.add(orderByField(Event.RESOURCE_TITLE, false));
+		events.add(orderByField(Event.PROPERTY, false));
+		EVENT_ORDER = Collections.unmodifiableList(events);
+
+		List<OrderByField<Fact>> facts = new ArrayList<OrderByField<Fact>>();
+		facts.add(orderByField(Fact.CERTNAME, false));
+		facts.add(orderByField(Fact.NAME, false));
+		FACT_ORDER = Collections.unmodifiableList(facts);
+
+		List<OrderByField<Resource>> resources = new ArrayList<OrderByField<Resource>>();
+		resources.add(orderByField(Resource.CERTNAME, false));
+		resources.add(orderByField(Resource.TYPE, false));
+		resources.add(orderByField(Resource.TITLE, false));
+		RESOURCE_ORDER = Collections.unmodifiableList(resources);
+	}
+
+	private final HttpConnector connector;
+
+	/**
+	 * <p>
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 * </p>
+	 * 
+	 * @param connector
+	 *            The connector used for the queries
+	 */
+	@Inject
+	public NDJSONExporter(HttpConnector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * Pages through the result of a query and writes all records to files.
+	 * 
+	 * @param path
+	 *            The end-point to query, e.g. <code>/events</code>
+	 * @param orderBy
+	 *            The query and a total ordering of its result
+	 * @param options
+	 *            The export options
+	 * @return The result of the export
+	 * @throws IOException
+	 *             if a query or a write failed. Files written before the failure are kept
+	 */
+	protected <T> ExportResult export(String path, OrderBy<T> orderBy, ExportOptions options) throws IOException {
+		String prefix = options.getFilePrefix();
+		if(prefix == null)
+			prefix = path.substring(path.lastIndexOf('/') + 1);
+		int pageSize = Math.max(1, options.getPageSize());
+
+		ExportPipeline pipeline = new ExportPipeline(options, prefix);
+		pipeline.start();
+		boolean success = false;
+		try {
+			Map<String, String> params = new HashMap<String, String>();
+			for(int offset = 0;; offset += pageSize) {
+				params.clear();
+				new Paging<T>(orderBy, offset, pageSize, false).appendTo(params);
+				if(connector.stream(path, params, pipeline).intValue() < pageSize)
+					break;
+			}
+			success = true;
+		}
+		finally {
+			if(!success)
+				pipeline.abort();
+		}
+		return pipeline.finish();
+	}
+
+	/**
+	 * Exports all events that match the query.
+	 * 
+	 * @param query
+	 *            The query. Unlike other end-points, the events end-point doesn't accept a <code>null</code> query
+	 * @param options
+	 *            The export options
+	 * @return The result of the export
+	 * @throws IOException
+	 */
+	public ExportResult exportEvents(Expression<Event> query, ExportOptions options) throws IOException {
+		return export("/events", Query.orderBy(query, EVENT_ORDER), options); //$NON-NLS-1$
+	}
+
+	/**
+	 * Exports all facts that match the query.
+	 * 
+	 * @param query
+	 *            The query or <code>null</code> to export all facts
+	 * @param options
+	 *            The export options
+	 * @return The result of the export
+	 * @throws IOException
+	 */
+	public ExportResult exportFacts(Expression<Fact> query, ExportOptions options) throws IOException {
+		return export("/facts", Query.orderBy(query, FACT_ORDER), options); //$NON-NLS-1$
+	}
+
+	/**
+	 * Exports all resources that match the query.
+	 * 
+	 * @param query
+	 *            The query or <code>null</code> to export all resources
+	 * @param options
+	 *            The export options
+	 * @return The result of the export
+	 * @throws IOException
+	 */
+	public ExportResult exportResources(Expression<Resource> query, ExportOptions options) throws IOException {
+		return export("/resources", Query.orderBy(query, RESOURCE_ORDER), options); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.export;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the segments produced by an {@link ExportPipeline} on a thread of its own. Compression
+ * and file I/O hence run in parallel with the reading and parsing of the server response. The
+ * segments are passed through a bounded queue so that a slow disk makes the reader wait rather
+ * than letting unwritten data accumulate in memory.
+ */
+class SegmentWriter implements Runnable {
+	/**
+	 * A chunk of data to write, optionally preceded by the start of a new file.
+	 */
+	static class Segment {
+		final Path file;
+
+		final byte[] data;
+
+		final int length;
+
+		Segment(Path file, byte[] data, int length) {
+			this.file = file;
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	// Signals that no more segments will arrive
+	private static final Segment END = new Segment(null, null, 0);
+
+	private static final int BUFFER_SIZE = 0x10000;
+
+	private final BlockingQueue<Segment> queue;
+
+	private final boolean compress;
+
+	private final Thread thread;
+
+	private OutputStream output;
+
+	private volatile IOException failure;
+
+	/**
+	 * @param capacity
+	 *            The maximum number of segments that may wait to be written
+	 * @param compress
+	 *            <code>true</code> if the files should be gzip compressed
+	 */
+	SegmentWriter(int capacity, boolean compress) {
+		this.queue = new ArrayBlockingQueue<Segment>(Math.max(1, capacity));
+		this.compress = compress;
+		this.thread = new Thread(this, "PuppetDB export writer"); //$NON-NLS-1$
+		this.thread.setDaemon(true);
+	}
+
+	private void closeOutput() throws IOException {
+		if(output != null) {
+			OutputStream out = output;
+			output = null;
+			out.close();
+		}
+	}
+
+	/**
+	 * Signals that no more segments will arrive and waits for all queued segments to be written.
+	 * 
+	 * @throws IOException
+	 *             if the writer failed
+	 */
+	void finish() throws IOException {
+		try {
+			queue.put(END);
+			thread.join();
+		}
+		catch(InterruptedException e) {
+			thread.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	private void openOutput(Path file) throws IOException {
+		closeOutput();
+		OutputStream out = Files.newOutputStream(file);
+		try {
+			output = compress
+					? new GZIPOutputStream(out, BUFFER_SIZE)
+					: new BufferedOutputStream(out, BUFFER_SIZE);
+		}
+		catch(IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Queues a segment, waiting for room in the queue if necessary.
+	 * 
+	 * @param segment
+	 *            The segment to write
+	 * @throws IOException
+	 *             if the writer has failed
+	 */
+	void put(Segment segment) throws IOException {
+		if(failure != null)
+			throw failure;
+		try {
+			queue.put(segment);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			for(;;) {
+				Segment segment = queue.take();
+				if(segment == END)
+					break;
+				if(failure != null)
+					// Keep draining so that the producer never blocks
+					continue;
+				try {
+					if(segment.file != null)
+						openOutput(segment.file);
+					if(segment.length > 0)
+						output.write(segment.data, 0, segment.length);
+				}
+				catch(IOException e) {
+					failure = e;
+				}
+			}
+			closeOutput();
+		}
+		catch(InterruptedException e) {
+			if(failure == null)
+				failure = new InterruptedIOException();
+		}
+		catch(IOException e) {
+			if(failure == null)
+				failure = e;
+		}
+		finally {
+			if(output != null)
+				try {
+					output.close();
+				}
+				catch(IOException ignored) {
+					// Ignored
+				}
+		}
+	}
+
+	void start() {
+		thread.start();
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Date;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.puppetlabs.puppetdb.javaclient.APIException;
+import com.puppetlabs.puppetdb.javaclient.ProgressListener;
+
+/**
+ * Moves the body of one or several responses into a channel and keeps track of what's needed
+ * to resume the transfer using a HTTP range request when reading from the server fails.
+ * <p>
+ * A transfer is only resumed when the first response carried a strong validator, i.e. a strong
+ * entity tag or a Last-Modified date that is strong according to RFC 7232, section 2.2.2. The
+ * validator is sent in an If-Range condition so that a server whose copy has changed answers
+ * with the whole resource, which is then rejected. Without a validator, a matching Content-Range
+ * is no proof that the bytes belong to the same representation.
+ * </p>
+ * <p>
+ * HttpClient only exposes the body as an {@link InputStream}, so every byte is copied through
+ * a heap buffer on its way to the channel. Files are written with {@link FileChannel#transferFrom}
+ * at explicit positions, which keeps the file position correct across resumed responses but
+ * doesn't avoid that copy.
+ * </p>
+ */
+class BodyTransfer {
+	/**
+	 * An input stream that remembers if reading from it failed.
+	 */
+	private class SourceStream extends FilterInputStream {
+		SourceStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				return super.read();
+			}
+			catch(IOException e) {
+				readFailed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				return super.read(b, off, len);
+			}
+			catch(IOException e) {
+				readFailed = true;
+				throw e;
+			}
+		}
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// The amount transferred between progress notifications when writing to a file
+	private static final long FILE_CHUNK_SIZE = 1024 * 1024;
+
+	private static String getHeader(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return header == null
+				? null
+				: header.getValue();
+	}
+
+	/**
+	 * Returns the strong validator of the response, if any.
+	 */
+	private static String getStrongValidator(HttpResponse response) {
+		String etag = getHeader(response, HttpHeaders.ETAG);
+		if(etag != null && !etag.startsWith("W/")) //$NON-NLS-1$
+			return etag;
+
+		// A modification date is only strong if it is at least one second older than the response
+		String lastModified = getHeader(response, HttpHeaders.LAST_MODIFIED);
+		String date = getHeader(response, HttpHeaders.DATE);
+		if(lastModified == null || date == null)
+			return null;
+		try {
+			Date modified = DateUtils.parseDate(lastModified);
+			return DateUtils.parseDate(date).getTime() - modified.getTime() >= 1000
+					? lastModified
+					: null;
+		}
+		catch(DateParseException e) {
+			return null;
+		}
+	}
+
+	private final WritableByteChannel channel;
+
+	private final ProgressListener listener;
+
+	private long transferred;
+
+	private long total = -1;
+
+	private boolean rangesAccepted;
+
+	private String validator;
+
+	private boolean readFailed;
+
+	BodyTransfer(WritableByteChannel channel, ProgressListener listener) {
+		this.channel = channel;
+		this.listener = listener;
+	}
+
+	/**
+	 * Validates the response and captures the information needed to resume the transfer.
+	 * 
+	 * @param response
+	 *            The response to validate
+	 * @throws IOException
+	 *             if the response status is not acceptable or if a resumed response doesn't continue where the
+	 *             previous one ended
+	 */
+	void accept(HttpResponse response) throws IOException {
+		StatusLine statusLine = response.getStatusLine();
+		int code = statusLine.getStatusCode();
+		if(transferred == 0) {
+			if(code != HttpStatus.SC_OK)
+				throw new HttpResponseException(code, statusLine.getReasonPhrase());
+			rangesAccepted = "bytes".equalsIgnoreCase(getHeader(response, HttpHeaders.ACCEPT_RANGES)); //$NON-NLS-1$
+			validator = getStrongValidator(response);
+			total = response.getEntity().getContentLength();
+			return;
+		}
+
+		if(code == HttpStatus.SC_OK)
+			throw new APIException("The resource changed while it was downloaded. Unable to resume at byte " + transferred);
+		if(code != HttpStatus.SC_PARTIAL_CONTENT)
+			throw new HttpResponseException(code, statusLine.getReasonPhrase());
+
+		String range = getHeader(response, HttpHeaders.CONTENT_RANGE);
+		String expected = "bytes " + transferred + '-'; //$NON-NLS-1$
+		if(range == null || !range.startsWith(expected))
+			throw new APIException("Unexpected Content-Range '" + range + "' when resuming at byte " + transferred);
+		String etag = getHeader(response, HttpHeaders.ETAG);
+		if(etag != null && validator.startsWith("\"") && !validator.equals(etag)) //$NON-NLS-1$
+			throw new APIException("The entity tag changed from " + validator + " to " + etag + " while resuming at byte " +
+					transferred);
+		int slash = range.indexOf('/');
+		if(slash > 0 && range.charAt(slash + 1) != '*')
+			try {
+				total = Long.parseLong(range.substring(slash + 1).trim());
+			}
+			catch(NumberFormatException e) {
+			}
+	}
+
+	/**
+	 * @return <code>true</code> if the last attempt failed while reading from the server and either
+	 *         nothing has been transferred yet, or the server accepts range requests and sent a strong
+	 *         validator
+	 */
+	boolean canResume() {
+		return readFailed && (transferred == 0 || rangesAccepted && validator != null);
+	}
+
+	/**
+	 * Moves all bytes from <code>input</code> to the channel.
+	 * 
+	 * @param input
+	 *            The response body
+	 * @throws IOException
+	 *             if reading or writing fails or if the input ends before the expected total was reached
+	 */
+	void copy(InputStream input) throws IOException {
+		InputStream source = new SourceStream(input);
+		if(channel instanceof FileChannel)
+			copyToFile((FileChannel) channel, source);
+		else
+			copyToChannel(source);
+
+		if(total >= 0 && transferred < total) {
+			// The connection was closed before all content was received
+			readFailed = true;
+			throw new EOFException("Premature end of content. Received " + transferred + " of " + total + " bytes");
+		}
+	}
+
+	private void copyToChannel(InputStream source) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+		int count;
+		while((count = source.read(buffer)) > 0) {
+			wrapper.clear();
+			wrapper.limit(count);
+			while(wrapper.hasRemaining())
+				channel.write(wrapper);
+			transferred += count;
+			if(listener != null)
+				listener.progress(transferred, total);
+		}
+	}
+
+	private void copyToFile(FileChannel file, InputStream source) throws IOException {
+		ReadableByteChannel sourceChannel = Channels.newChannel(source);
+		long position = file.position();
+		try {
+			long count;
+			while((count = file.transferFrom(sourceChannel, position, FILE_CHUNK_SIZE)) > 0) {
+				position += count;
+				transferred += count;
+				if(listener != null)
+					listener.progress(transferred, total);
+			}
+		}
+		finally {
+			file.position(position);
+		}
+	}
+
+	long getTransferred() {
+		return transferred;
+	}
+
+	/**
+	 * Prepares a new request that resumes the transfer where the previous attempt ended. Must only
+	 * be called when {@link #canResume()} is <code>true</code>.
+	 * 
+	 * @param request
+	 *            The new request
+	 */
+	void prepareResume(HttpRequestBase request) {
+		readFailed = false;
+		if(transferred > 0) {
+			request.setHeader(HttpHeaders.RANGE, "bytes=" + transferred + '-'); //$NON-NLS-1$
+			request.setHeader(HttpHeaders.IF_RANGE, validator);
+		}
+	}
+}
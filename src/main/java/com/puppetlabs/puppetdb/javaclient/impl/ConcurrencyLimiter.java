@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.puppetlabs.puppetdb.javaclient.APIException;
+import com.puppetlabs.puppetdb.javaclient.metrics.ConcurrencyLimitMBean;
+
+/**
+ * Limits the number of concurrently executing requests to one endpoint. The limit is adjusted
+ * using additive increase and multiplicative decrease. A response that takes considerably longer
+ * than the baseline latency, or a failure, decreases the limit. A response within the baseline
+ * tolerance increases the limit by one for each full window of responses, provided that the
+ * current limit is actually used. The baseline is the lowest observed latency, slowly drifting
+ * towards the latencies seen lately so that a permanent change in the endpoint performance
+ * eventually becomes the new normal.
+ * <p>
+ * A baseline is kept for each normalized request path since the latencies of different queries
+ * differ by orders of magnitude. A catalog query that is slow compared to a node query says
+ * nothing about the load of the endpoint.
+ * </p>
+ * <p>
+ * The limit starts at half the maximum and grows by one for each good response until the first
+ * decrease. It never drops below one.
+ * </p>
+ */
+class ConcurrencyLimiter implements ConcurrencyLimitMBean {
+	// A response slower than this factor times the baseline signals an overloaded endpoint
+	private static final double TOLERANCE = 2.0;
+
+	private static final double BACKOFF = 0.9;
+
+	// Fraction of the difference between a sample and the baseline that moves the baseline
+	private static final double BASELINE_DRIFT = 0.005;
+
+	private final String endpoint;
+
+	private final int maxLimit;
+
+	private final Map<String, double[]> baselines = new HashMap<String, double[]>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition slotAvailable = lock.newCondition();
+
+	private volatile double limit;
+
+	private volatile int inFlight;
+
+	private volatile int queued;
+
+	private long lastBackoff;
+
+	private boolean slowStart = true;
+
+	/**
+	 * @param endpoint
+	 *            The endpoint that the limit applies to
+	 * @param maxLimit
+	 *            The highest possible limit
+	 */
+	ConcurrencyLimiter(String endpoint, int maxLimit) {
+		this.endpoint = endpoint;
+		this.maxLimit = Math.max(1, maxLimit);
+		this.limit = Math.max(1, this.maxLimit / 2);
+		this.lastBackoff = System.nanoTime();
+	}
+
+	/**
+	 * Acquires a request slot, waiting for one to become available if the limit has been reached.
+	 * 
+	 * @param timeout
+	 *            Maximum number of milliseconds to wait
+	 * @throws APIException
+	 *             if no slot became available within the given timeout
+	 * @throws InterruptedIOException
+	 *             if the thread was interrupted while waiting
+	 */
+	void acquire(long timeout) throws IOException {
+		lock.lock();
+		try {
+			if(inFlight < (int) limit) {
+				++inFlight;
+				return;
+			}
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+			++queued;
+			try {
+				while(inFlight >= (int) limit) {
+					if(remaining <= 0)
+						throw new APIException("Timed out after " + timeout + " ms waiting for a free request slot for " + endpoint);
+					remaining = slotAvailable.awaitNanos(remaining);
+				}
+				++inFlight;
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			finally {
+				--queued;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records the latency of a response, or a failure, and adjusts the limit accordingly.
+	 * 
+	 * @param path
+	 *            The normalized path of the request, which selects the latency baseline
+	 * @param nanos
+	 *            The time it took to obtain the response
+	 * @param failed
+	 *            <code>true</code> if the endpoint failed to produce a response or responded with a server error
+	 */
+	void adjust(String path, long nanos, boolean failed) {
+		lock.lock();
+		try {
+			boolean slow = false;
+			if(!failed) {
+				// The baseline is only learned from responses. A fast failure must not lower it.
+				double[] baseline = baselines.get(path);
+				if(baseline == null) {
+					baseline = new double[] { nanos };
+					baselines.put(path, baseline);
+				}
+				else if(nanos < baseline[0])
+					baseline[0] = nanos;
+				else
+					baseline[0] += (nanos - baseline[0]) * BASELINE_DRIFT;
+				slow = nanos > baseline[0] * TOLERANCE;
+			}
+
+			if(failed || slow) {
+				// Back off at most once per round trip so that a burst of slow responses
+				// to requests that were sent at the same time counts as one signal
+				long now = System.nanoTime();
+				if(now - lastBackoff > nanos) {
+					limit = Math.max(1.0, limit * BACKOFF);
+					lastBackoff = now;
+					slowStart = false;
+				}
+			}
+			else if(inFlight + queued >= (int) limit && limit < maxLimit) {
+				int before = (int) limit;
+				limit = Math.min(maxLimit, slowStart
+						? limit + 1.0
+						: limit + 1.0 / limit);
+				if((int) limit > before)
+					slotAvailable.signal();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	@Override
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	@Override
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	@Override
+	public int getQueueLength() {
+		return queued;
+	}
+
+	/**
+	 * Releases a slot obtained by {@link #acquire(long)} or {@link #tryAcquire()}.
+	 */
+	void release() {
+		lock.lock();
+		try {
+			--inFlight;
+			slotAvailable.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Acquires a request slot if one is available without waiting.
+	 * 
+	 * @return <code>true</code> if a slot was acquired
+	 */
+	boolean tryAcquire() {
+		lock.lock();
+		try {
+			if(inFlight < (int) limit) {
+				++inFlight;
+				return true;
+			}
+			return false;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+}
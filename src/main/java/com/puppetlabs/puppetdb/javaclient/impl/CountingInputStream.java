@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that counts the bytes read from the stream that it wraps.
+ */
+class CountingInputStream extends FilterInputStream {
+	private long count;
+
+	CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * @return The number of bytes read so far
+	 */
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		// Mark is not supported since it would make the count ambiguous
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b >= 0)
+			++count;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if(n > 0)
+			count += n;
+		return n;
+	}
+
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("mark/reset not supported"); //$NON-NLS-1$
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.ObjectName;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.puppetlabs.puppetdb.javaclient.metrics.ClientMetrics;
+import com.puppetlabs.puppetdb.javaclient.metrics.RequestMetricsMXBean;
+import com.puppetlabs.puppetdb.javaclient.metrics.RequestMetricsSnapshot;
+
+/**
+ * Default implementation of {@link ClientMetrics}. Metrics are kept per normalized path and
+ * each path is published as an MXBean when it is first used. The MXBeans are unregistered
+ * when the connector is closed.
+ */
+@Singleton
+public class DefaultClientMetrics implements ClientMetrics {
+	private static final String API_PREFIX = "/v3"; //$NON-NLS-1$
+
+	private static boolean isLiteral(String path, int start, int end) {
+		return regionEquals(path, start, end, "facts") || regionEquals(path, start, end, "resources"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Normalizes a request path by removing the API version prefix and replacing all segments
+	 * that are names or values with an asterisk. The first segment, and the <code>facts</code>
+	 * and <code>resources</code> segments that follow a node name, are kept.
+	 * 
+	 * @param path
+	 *            The path to normalize
+	 * @return The normalized path
+	 */
+	static String normalizePath(String path) {
+		int top = path.length();
+		int idx = path.startsWith(API_PREFIX) && (top == API_PREFIX.length() || path.charAt(API_PREFIX.length()) == '/')
+				? API_PREFIX.length()
+				: 0;
+
+		StringBuilder bld = new StringBuilder(top);
+		boolean first = true;
+		while(idx < top) {
+			if(path.charAt(idx) == '/') {
+				++idx;
+				continue;
+			}
+			int end = path.indexOf('/', idx);
+			if(end < 0)
+				end = top;
+			bld.append('/');
+			if(first || isLiteral(path, idx, end))
+				bld.append(path, idx, end);
+			else
+				bld.append('*');
+			first = false;
+			idx = end;
+		}
+		return bld.length() == 0
+				? "/" //$NON-NLS-1$
+				: bld.toString();
+	}
+
+	private static boolean regionEquals(String path, int start, int end, String word) {
+		return end - start == word.length() && path.regionMatches(start, word, 0, word.length());
+	}
+
+	private final ConcurrentMap<String, RequestStats> stats = new ConcurrentHashMap<String, RequestStats>();
+
+	private final int clientId;
+
+	private final List<ObjectName> mbeanNames = new ArrayList<ObjectName>();
+
+	private boolean closed;
+
+	/**
+	 * <p>
+	 * Creates the metrics collector.
+	 * </p>
+	 * <p>
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 * </p>
+	 */
+	@Inject
+	public DefaultClientMetrics() {
+		clientId = ManagementSupport.nextClientId();
+	}
+
+	/**
+	 * Returns the metrics for the given request path, creating and publishing them on first use.
+	 * 
+	 * @param path
+	 *            The path of the request URI
+	 * @return The metrics of the normalized path
+	 */
+	RequestStats forPath(String path) {
+		String key = normalizePath(path);
+		RequestStats pathStats = stats.get(key);
+		if(pathStats == null) {
+			RequestStats newStats = new RequestStats(key);
+			pathStats = stats.putIfAbsent(key, newStats);
+			if(pathStats == null) {
+				pathStats = newStats;
+				register(pathStats);
+			}
+		}
+		return pathStats;
+	}
+
+	@Override
+	public Map<String, RequestMetricsSnapshot> getSnapshot() {
+		Map<String, RequestMetricsSnapshot> snapshot = new TreeMap<String, RequestMetricsSnapshot>();
+		for(RequestStats pathStats : stats.values())
+			snapshot.put(pathStats.getPath(), pathStats.snapshot());
+		return snapshot;
+	}
+
+	private synchronized void register(RequestStats pathStats) {
+		if(closed)
+			return;
+		ObjectName name = ManagementSupport.register(
+			pathStats, RequestMetricsMXBean.class, "type=Requests,client=" + clientId + ",path=" + ObjectName.quote(pathStats.getPath()));
+		if(name != null)
+			mbeanNames.add(name);
+	}
+
+	/**
+	 * Unregisters the MXBeans. Metrics are still collected but paths that are used after this call
+	 * are not published.
+	 */
+	synchronized void shutdown() {
+		closed = true;
+		for(ObjectName name : mbeanNames)
+			ManagementSupport.unregister(name);
+		mbeanNames.clear();
+	}
+}
@@ -10,30 +10,64 @@
  */
 package com.puppetlabs.puppetdb.javaclient.impl;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
 
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
 import com.puppetlabs.puppetdb.javaclient.APIPreferences;
 import com.puppetlabs.puppetdb.javaclient.HttpConnector;
 import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.RequestInterceptor;
+import com.puppetlabs.puppetdb.javaclient.cache.ResponseCache;
+import com.puppetlabs.puppetdb.javaclient.metrics.ClientMetrics;
 
 /**
  * Default Guice Injection module
  */
 public class DefaultModule extends AbstractModule {
+	/**
+	 * A retry handler that never retries a request that has been aborted. Requests are aborted
+	 * deliberately by {@link HttpConnector#abortCurrentRequest()} and when a hedged request wins.
+	 */
+	static class AbortAwareRetryHandler extends DefaultHttpRequestRetryHandler {
+		@Override
+		public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+			Object request = context.getAttribute(ExecutionContext.HTTP_REQUEST);
+			if(request instanceof RequestWrapper)
+				request = ((RequestWrapper) request).getOriginal();
+			if(request instanceof HttpUriRequest && ((HttpUriRequest) request).isAborted())
+				return false;
+			return super.retryRequest(exception, executionCount, context);
+		}
+	}
+
 	private final APIPreferences preferences;
 
+	private final List<RequestInterceptor> interceptors = new ArrayList<RequestInterceptor>();
+
 	/**
 	 * Create a module with preferences.
 	 * 
@@ -44,6 +78,21 @@ public class DefaultModule extends AbstractModule {
 		this.preferences = preferences;
 	}
 
+	/**
+	 * Adds an interceptor that will be called for each request sent by the connectors created
+	 * by this module. Interceptors are called in the order they were added.
+	 * 
+	 * @param interceptor
+	 *            The interceptor to add
+	 * @return This module
+	 */
+	public DefaultModule addInterceptor(RequestInterceptor interceptor) {
+		if(interceptor == null)
+			throw new IllegalArgumentException("interceptor cannot be null"); //$NON-NLS-1$
+		interceptors.add(interceptor);
+		return this;
+	}
+
 	@Override
 	protected void configure() {
 		bind(APIPreferences.class).toInstance(preferences);
@@ -54,13 +103,21 @@ public class DefaultModule extends AbstractModule {
 			bind(SSLSocketFactory.class).toProvider(PEM_SSLSocketFactoryProvider.class).in(Singleton.class);
 		else
 			bind(SSLSocketFactory.class).toInstance(SSLSocketFactory.getSocketFactory());
+		bind(ClientMetrics.class).to(DefaultClientMetrics.class);
+		bind(ResponseCache.class).to(DefaultResponseCache.class);
+		bind(new TypeLiteral<List<RequestInterceptor>>() {}).toInstance(
+			Collections.unmodifiableList(new ArrayList<RequestInterceptor>(interceptors)));
+		// One connector, with its connection pools, health checks and management beans, per injector
+		bind(HttpComponentsConnector.class).in(Singleton.class);
 		bind(HttpConnector.class).to(HttpComponentsConnector.class);
+		bind(PuppetDBClientImpl.class).in(Singleton.class);
 		bind(PuppetDBClient.class).to(PuppetDBClientImpl.class);
 	}
 
 	/**
 	 * Provides a HttpClient that is configured with the preferences of this module and the
-	 * injected <code>sslSocketFactory</code>.
+	 * injected <code>sslSocketFactory</code>. Each call creates a new client with its own
+	 * thread safe connection pool.
 	 * 
 	 * @param sslSocketFactory
 	 *            The injected SSL socket factory
@@ -72,9 +129,14 @@ public class DefaultModule extends AbstractModule {
 		HttpConnectionParams.setConnectionTimeout(params, preferences.getConnectTimeout());
 		HttpConnectionParams.setSoTimeout(params, preferences.getSoTimeout());
 
-		DefaultHttpClient httpClient = new DefaultHttpClient(params);
+		ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+		int maxConnections = Math.max(1, preferences.getMaxConnectionsPerEndpoint());
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
 		if(preferences.getCertPEM() != null)
-			httpClient.getConnectionManager().getSchemeRegistry().register(new Scheme("https", 443, sslSocketFactory));
+			connectionManager.getSchemeRegistry().register(new Scheme("https", 443, sslSocketFactory));
+		DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, params);
+		httpClient.setHttpRequestRetryHandler(new AbortAwareRetryHandler());
 		return httpClient;
 	}
 }
@@ -0,0 +1,408 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.cache.CacheStatistics;
+import com.puppetlabs.puppetdb.javaclient.cache.ResponseCache;
+import com.puppetlabs.puppetdb.javaclient.cache.ResponseCacheMXBean;
+
+/**
+ * Default implementation of the {@link ResponseCache}. Entries are kept in least recently used
+ * order and evicted from the least recently used end when the number of entries or their estimated
+ * size exceeds the configured bounds. An expired entry is returned during the configured stale time
+ * while one background request refreshes it.
+ * <p>
+ * Responses are stored as JSON trees and every read creates a new result from the tree, so a
+ * caller that modifies its result never affects the cache or other callers.
+ * </p>
+ */
+@Singleton
+public class DefaultResponseCache implements ResponseCache, ResponseCacheMXBean {
+	private static class Entry {
+		final String key;
+
+		final String path;
+
+		final Type type;
+
+		// null when the response was null
+		final JsonElement value;
+
+		final int totalCount;
+
+		final long weight;
+
+		final long expiresAt;
+
+		final long staleUntil;
+
+		final Loader<?> loader;
+
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(String key, String path, Type type, JsonElement value, int totalCount, long weight, long expiresAt, long staleUntil,
+				Loader<?> loader) {
+			this.key = key;
+			this.path = path;
+			this.type = type;
+			this.value = value;
+			this.totalCount = totalCount;
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+			this.staleUntil = staleUntil;
+			this.loader = loader;
+		}
+	}
+
+	private static final String API_PREFIX = "/v3"; //$NON-NLS-1$
+
+	// Estimated memory used by an entry in addition to its response
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private static final ThreadFactory REFRESH_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB cache refresh"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static boolean isBelow(String path, String prefix) {
+		return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+	}
+
+	private static String stripApiPrefix(String path) {
+		return isBelow(path, API_PREFIX)
+				? path.substring(API_PREFIX.length())
+				: path;
+	}
+
+	// Guarded by itself
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+	private final String[] ttlPaths;
+
+	private final long[] ttls;
+
+	private final long staleTime;
+
+	private final int maxEntries;
+
+	private final long maxBytes;
+
+	private final Gson gson;
+
+	private final ThreadPoolExecutor refresher;
+
+	private final ObjectName mbeanName;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong staleHitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private final AtomicLong refreshFailureCount = new AtomicLong();
+
+	// Incremented on each invalidation so that loads started before it aren't stored
+	private final AtomicLong generation = new AtomicLong();
+
+	// Guarded by entries
+	private long totalWeight;
+
+	/**
+	 * <p>
+	 * Creates the cache.
+	 * </p>
+	 * <p>
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 * </p>
+	 * 
+	 * @param preferences
+	 *            The preferences that configure the cache
+	 * @param gson
+	 *            The instance used when storing and reading cached results
+	 */
+	@Inject
+	public DefaultResponseCache(APIPreferences preferences, Gson gson) {
+		this.gson = gson;
+		this.staleTime = TimeUnit.MILLISECONDS.toNanos(Math.max(0, preferences.getCacheStaleTime()));
+		this.maxEntries = Math.max(1, preferences.getCacheMaxEntries());
+		this.maxBytes = Math.max(1, preferences.getCacheMaxBytes());
+
+		// Longest paths first so that the most specific path wins
+		Map<String, Integer> ttlMap = preferences.getCacheTimeToLive();
+		ttlPaths = ttlMap.keySet().toArray(new String[ttlMap.size()]);
+		Arrays.sort(ttlPaths, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return b.length() - a.length();
+			}
+		});
+		ttls = new long[ttlPaths.length];
+		for(int idx = 0; idx < ttlPaths.length; ++idx)
+			ttls[idx] = TimeUnit.MILLISECONDS.toNanos(ttlMap.get(ttlPaths[idx]).intValue());
+
+		if(ttlPaths.length > 0) {
+			refresher = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), REFRESH_THREADS);
+			refresher.allowCoreThreadTimeOut(true);
+			mbeanName = ManagementSupport.register(
+				this, ResponseCacheMXBean.class, "type=ResponseCache,client=" + ManagementSupport.nextClientId());
+		}
+		else {
+			refresher = null;
+			mbeanName = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <V> V cast(Object value) {
+		return (V) value;
+	}
+
+	@Override
+	public void close() {
+		if(refresher != null)
+			refresher.shutdownNow();
+		ManagementSupport.unregister(mbeanName);
+	}
+
+	private Object deliver(Entry entry, int[] totalCount) {
+		if(totalCount != null)
+			totalCount[0] = entry.totalCount;
+		return entry.value == null
+				? null
+				: gson.fromJson(entry.value, entry.type);
+	}
+
+	@Override
+	public <V> V get(URI uri, Type type, int[] totalCount, Loader<V> loader) throws IOException {
+		String path = stripApiPrefix(uri.getPath());
+		long ttl = getTimeToLive(path);
+		if(ttl <= 0)
+			return loader.load(totalCount, new long[1]);
+
+		StringBuilder bld = new StringBuilder(uri.toString());
+		bld.append(' ');
+		bld.append(type);
+		if(totalCount != null)
+			bld.append(" #"); //$NON-NLS-1$
+		String key = bld.toString();
+
+		Entry entry;
+		synchronized(entries) {
+			entry = entries.get(key);
+		}
+		if(entry != null) {
+			long now = System.nanoTime();
+			if(now - entry.expiresAt < 0) {
+				hitCount.incrementAndGet();
+				return cast(deliver(entry, totalCount));
+			}
+			if(now - entry.staleUntil < 0) {
+				staleHitCount.incrementAndGet();
+				refresh(entry, ttl);
+				return cast(deliver(entry, totalCount));
+			}
+		}
+
+		missCount.incrementAndGet();
+		long gen = generation.get();
+		long[] size = new long[1];
+		V value = loader.load(totalCount, size);
+
+		// The loaded instance goes to the caller. The cache keeps a tree of its own.
+		store(key, path, type, value, totalCount, size[0], loader, ttl, gen);
+		return value;
+	}
+
+	@Override
+	public int getEntryCount() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public long getEstimatedBytes() {
+		synchronized(entries) {
+			return totalWeight;
+		}
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public long getRefreshFailureCount() {
+		return refreshFailureCount.get();
+	}
+
+	@Override
+	public long getStaleHitCount() {
+		return staleHitCount.get();
+	}
+
+	@Override
+	public CacheStatistics getStatistics() {
+		int count;
+		long weight;
+		synchronized(entries) {
+			count = entries.size();
+			weight = totalWeight;
+		}
+		return new CacheStatistics(
+			hitCount.get(), staleHitCount.get(), missCount.get(), evictionCount.get(), refreshFailureCount.get(), count, weight);
+	}
+
+	private long getTimeToLive(String path) {
+		for(int idx = 0; idx < ttlPaths.length; ++idx)
+			if(isBelow(path, ttlPaths[idx]))
+				return ttls[idx];
+		return 0;
+	}
+
+	@Override
+	public void invalidate(String path) {
+		generation.incrementAndGet();
+		synchronized(entries) {
+			Iterator<Entry> itor = entries.values().iterator();
+			while(itor.hasNext()) {
+				Entry entry = itor.next();
+				if(isBelow(entry.path, path)) {
+					totalWeight -= entry.weight;
+					itor.remove();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		synchronized(entries) {
+			entries.clear();
+			totalWeight = 0;
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return ttlPaths.length > 0;
+	}
+
+	/**
+	 * Schedules a background refresh of the entry unless one is already in progress.
+	 */
+	private void refresh(final Entry entry, final long ttl) {
+		if(!entry.refreshing.compareAndSet(false, true))
+			return;
+
+		final long gen = generation.get();
+		refresher.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					int[] totalCount = entry.totalCount < 0
+							? null
+							: new int[] { -1 };
+					long[] size = new long[1];
+					Object value = entry.loader.load(totalCount, size);
+					store(entry.key, entry.path, entry.type, value, totalCount, size[0], entry.loader, ttl, gen);
+				}
+				catch(IOException e) {
+					refreshFailureCount.incrementAndGet();
+				}
+				catch(RuntimeException e) {
+					refreshFailureCount.incrementAndGet();
+				}
+				finally {
+					entry.refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stores a response with expiration times counted from now and evicts the least recently used
+	 * entries until the cache is within its bounds. Nothing is stored if the cache was invalidated
+	 * after the response was requested, the generation <code>gen</code> being the one seen before the
+	 * request was sent, or if the entry alone exceeds the byte limit.
+	 */
+	private void store(String key, String path, Type type, Object value, int[] totalCount, long size, Loader<?> loader, long ttl,
+			long gen) {
+		long weight = size + ENTRY_OVERHEAD + key.length() * 2;
+		if(weight > maxBytes)
+			return;
+		JsonElement tree = value == null
+				? null
+				: gson.toJsonTree(value, type);
+		long now = System.nanoTime();
+		Entry timed = new Entry(key, path, type, tree, totalCount == null
+				? -1
+				: totalCount[0], weight, now + ttl, now + ttl + staleTime, loader);
+
+		synchronized(entries) {
+			if(generation.get() != gen)
+				return;
+			Entry old = entries.put(timed.key, timed);
+			if(old != null)
+				totalWeight -= old.weight;
+			totalWeight += timed.weight;
+			Iterator<Entry> itor = entries.values().iterator();
+			while((entries.size() > maxEntries || totalWeight > maxBytes) && itor.hasNext()) {
+				Entry eldest = itor.next();
+				if(eldest == timed)
+					continue;
+				totalWeight -= eldest.weight;
+				itor.remove();
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+
+import com.puppetlabs.puppetdb.javaclient.ServiceEndpoint;
+
+/**
+ * The runtime state of one {@link ServiceEndpoint}. Each endpoint has its own {@link HttpClient}
+ * and hence its own connection pool.
+ */
+class Endpoint {
+	// Weight given to the latest sample when updating the latency average
+	private static final double EWMA_ALPHA = 0.2;
+
+	private final ServiceEndpoint spec;
+
+	private final HttpHost host;
+
+	private final HttpClient httpClient;
+
+	private final ConcurrencyLimiter limiter;
+
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	private volatile double ewmaLatency;
+
+	private volatile boolean ejected;
+
+	/**
+	 * @param spec
+	 *            The endpoint specification
+	 * @param scheme
+	 *            The scheme used when connecting to the endpoint
+	 * @param httpClient
+	 *            The client used exclusively for this endpoint
+	 * @param limiter
+	 *            The concurrency limiter for this endpoint or <code>null</code> if concurrency isn't limited
+	 */
+	Endpoint(ServiceEndpoint spec, String scheme, HttpClient httpClient, ConcurrencyLimiter limiter) {
+		this.spec = spec;
+		this.host = new HttpHost(spec.getHostname(), spec.getPort(), scheme);
+		this.httpClient = httpClient;
+		this.limiter = limiter;
+	}
+
+	/**
+	 * Acquires a request slot from the concurrency limiter, waiting if necessary.
+	 * 
+	 * @param timeout
+	 *            Maximum number of milliseconds to wait
+	 * @throws IOException
+	 *             if no slot became available in time
+	 */
+	void acquireSlot(long timeout) throws IOException {
+		if(limiter != null)
+			limiter.acquire(timeout);
+	}
+
+	/**
+	 * Lets the concurrency limiter learn from the outcome of a request.
+	 * 
+	 * @param path
+	 *            The normalized path of the request
+	 * @param nanos
+	 *            The time it took to obtain the response
+	 * @param failed
+	 *            <code>true</code> if the request failed or resulted in a server error
+	 */
+	void adjustLimit(String path, long nanos, boolean failed) {
+		if(limiter != null)
+			limiter.adjust(path, nanos, failed);
+	}
+
+	void eject() {
+		ejected = true;
+	}
+
+	/**
+	 * Returns the average latency in nanoseconds. Concurrent updates may occasionally
+	 * lose a sample which is acceptable for routing purposes.
+	 *
+	 * @return The exponentially weighted moving average of the latency
+	 */
+	double getEwmaLatency() {
+		return ewmaLatency;
+	}
+
+	HttpHost getHost() {
+		return host;
+	}
+
+	HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	ConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	int getOutstanding() {
+		return outstanding.get();
+	}
+
+	ServiceEndpoint getSpec() {
+		return spec;
+	}
+
+	boolean isEjected() {
+		return ejected;
+	}
+
+	/**
+	 * Records a failure and returns the number of consecutive failures
+	 *
+	 * @return The number of failures since the last success
+	 */
+	int recordFailure() {
+		return consecutiveFailures.incrementAndGet();
+	}
+
+	void recordLatency(long nanos) {
+		double avg = ewmaLatency;
+		ewmaLatency = avg == 0
+				? nanos
+				: avg + EWMA_ALPHA * (nanos - avg);
+	}
+
+	void recordSuccess() {
+		consecutiveFailures.set(0);
+	}
+
+	void readmit() {
+		consecutiveFailures.set(0);
+		ejected = false;
+	}
+
+	void releaseSlot() {
+		if(limiter != null)
+			limiter.release();
+	}
+
+	void requestEnded() {
+		outstanding.decrementAndGet();
+	}
+
+	void requestStarted() {
+		outstanding.incrementAndGet();
+	}
+
+	/**
+	 * Acquires a request slot from the concurrency limiter if one is available without waiting.
+	 * 
+	 * @return <code>true</code> if a slot was acquired
+	 */
+	boolean tryAcquireSlot() {
+		return limiter == null || limiter.tryAcquire();
+	}
+
+	@Override
+	public String toString() {
+		return spec.toString();
+	}
+}
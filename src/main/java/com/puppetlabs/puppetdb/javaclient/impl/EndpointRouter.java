@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+import com.google.inject.Provider;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.RoutingPolicy;
+import com.puppetlabs.puppetdb.javaclient.ServiceEndpoint;
+import com.puppetlabs.puppetdb.javaclient.metrics.ConcurrencyLimitMBean;
+
+/**
+ * Decides which {@link Endpoint} a request is sent to. Queries are distributed among all
+ * endpoints that haven't been ejected in accordance with the configured {@link RoutingPolicy}.
+ * All other requests, and in particular commands, are always sent to the primary endpoint.
+ */
+class EndpointRouter {
+	private static final String HEALTH_CHECK_PATH = "/v3/version"; //$NON-NLS-1$
+
+	private static final ThreadFactory HEALTH_CHECK_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB endpoint health check"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final Endpoint[] endpoints;
+
+	private final RoutingPolicy routingPolicy;
+
+	private final int ejectionThreshold;
+
+	private final AtomicInteger tieBreaker = new AtomicInteger();
+
+	private final ScheduledExecutorService healthChecker;
+
+	private final List<ObjectName> mbeanNames = new ArrayList<ObjectName>();
+
+	/**
+	 * Creates the router and one {@link Endpoint} for the primary host and each replica
+	 * given by the <code>preferences</code>. A new {@link HttpClient} is obtained from the
+	 * <code>httpClientProvider</code> for each endpoint.
+	 *
+	 * @param preferences
+	 *            The preferences that determines the endpoints and routing policy
+	 * @param httpClientProvider
+	 *            Provider of one client per endpoint
+	 */
+	EndpointRouter(APIPreferences preferences, Provider<HttpClient> httpClientProvider) {
+		String scheme = preferences.getCertPEM() == null
+				? "http" //$NON-NLS-1$
+				: "https"; //$NON-NLS-1$
+
+		List<ServiceEndpoint> specs = new ArrayList<ServiceEndpoint>();
+		ServiceEndpoint primary = new ServiceEndpoint(preferences.getServiceHostname(), preferences.getServicePort());
+		specs.add(primary);
+		List<ServiceEndpoint> replicas = preferences.getReplicaEndpoints();
+		if(replicas != null)
+			for(ServiceEndpoint replica : replicas)
+				if(!primary.equals(replica))
+					specs.add(replica);
+
+		int clientId = ManagementSupport.nextClientId();
+		endpoints = new Endpoint[specs.size()];
+		for(int idx = 0; idx < endpoints.length; ++idx) {
+			ServiceEndpoint spec = specs.get(idx);
+			ConcurrencyLimiter limiter = null;
+			if(preferences.isAdaptiveConcurrency()) {
+				limiter = new ConcurrencyLimiter(spec.toString(), preferences.getMaxConnectionsPerEndpoint());
+				String properties = "type=ConcurrencyLimit,client=" + clientId + ",endpoint=" + ObjectName.quote(spec.toString());
+				ObjectName name = ManagementSupport.register(limiter, ConcurrencyLimitMBean.class, properties);
+				if(name != null)
+					mbeanNames.add(name);
+			}
+			endpoints[idx] = new Endpoint(spec, scheme, httpClientProvider.get(), limiter);
+		}
+		routingPolicy = preferences.getRoutingPolicy() == null
+				? RoutingPolicy.LEAST_OUTSTANDING
+				: preferences.getRoutingPolicy();
+
+		int interval = preferences.getHealthCheckInterval();
+		if(endpoints.length > 1 && interval > 0) {
+			ejectionThreshold = Math.max(1, preferences.getEjectionThreshold());
+			healthChecker = Executors.newSingleThreadScheduledExecutor(HEALTH_CHECK_THREADS);
+			healthChecker.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					checkHealth();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		else {
+			ejectionThreshold = 0;
+			healthChecker = null;
+		}
+	}
+
+	/**
+	 * Probes all endpoints. An endpoint that responds is re-admitted and an endpoint
+	 * that fails is charged with a failure.
+	 */
+	void checkHealth() {
+		for(Endpoint endpoint : endpoints) {
+			if(probe(endpoint))
+				endpoint.readmit();
+			else
+				requestFailed(endpoint);
+		}
+	}
+
+	/**
+	 * @return All endpoints, the primary endpoint first
+	 */
+	List<Endpoint> getEndpoints() {
+		List<Endpoint> list = new ArrayList<Endpoint>(endpoints.length);
+		Collections.addAll(list, endpoints);
+		return list;
+	}
+
+	/**
+	 * @return The endpoint that all commands are sent to
+	 */
+	Endpoint getPrimary() {
+		return endpoints[0];
+	}
+
+	/**
+	 * @return <code>true</code> if more than one endpoint is configured
+	 */
+	boolean isBalanced() {
+		return endpoints.length > 1;
+	}
+
+	private boolean probe(Endpoint endpoint) {
+		HttpGet request = new HttpGet(HEALTH_CHECK_PATH);
+		try {
+			HttpResponse response = endpoint.getHttpClient().execute(endpoint.getHost(), request);
+			EntityUtils.consume(response.getEntity());
+			return response.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
+		}
+		catch(IOException e) {
+			request.abort();
+			return false;
+		}
+		catch(RuntimeException e) {
+			request.abort();
+			return false;
+		}
+	}
+
+	/**
+	 * Charges the endpoint with a failure. The endpoint is ejected from query routing when
+	 * the number of consecutive failures reaches the ejection threshold.
+	 *
+	 * @param endpoint
+	 *            The endpoint that failed to respond
+	 */
+	void requestFailed(Endpoint endpoint) {
+		if(endpoint.recordFailure() >= ejectionThreshold && ejectionThreshold > 0)
+			endpoint.eject();
+	}
+
+	/**
+	 * Records a response from the endpoint.
+	 *
+	 * @param endpoint
+	 *            The endpoint that responded
+	 * @param nanos
+	 *            The time it took to obtain the response
+	 */
+	void requestSucceeded(Endpoint endpoint, long nanos) {
+		endpoint.recordSuccess();
+		endpoint.recordLatency(nanos);
+	}
+
+	private double score(Endpoint endpoint) {
+		double load = endpoint.getOutstanding() + 1;
+		if(routingPolicy == RoutingPolicy.EWMA_LATENCY)
+			load *= endpoint.getEwmaLatency() + 1;
+		return load / endpoint.getSpec().getWeight();
+	}
+
+	/**
+	 * Selects the endpoint for the given request. Only GET requests are distributed.
+	 *
+	 * @param request
+	 *            The request that will be sent
+	 * @return The selected endpoint
+	 */
+	Endpoint select(HttpRequest request) {
+		return endpoints.length > 1 && HttpGet.METHOD_NAME.equals(request.getRequestLine().getMethod())
+				? selectForQuery(null)
+				: endpoints[0];
+	}
+
+	/**
+	 * Selects the best endpoint for a query, optionally excluding one endpoint. Ejected
+	 * endpoints are only considered when no other endpoint is available.
+	 *
+	 * @param exclude
+	 *            An endpoint that must not be selected unless it is the only one, or <code>null</code>
+	 * @return The selected endpoint
+	 */
+	Endpoint selectForQuery(Endpoint exclude) {
+		int top = endpoints.length;
+		if(top == 1)
+			return endpoints[0];
+
+		int start = (tieBreaker.getAndIncrement() & Integer.MAX_VALUE) % top;
+		Endpoint best = null;
+		double bestScore = Double.MAX_VALUE;
+		for(int pass = 0; pass < 2 && best == null; ++pass) {
+			for(int idx = 0; idx < top; ++idx) {
+				Endpoint endpoint = endpoints[(start + idx) % top];
+				if(endpoint == exclude || pass == 0 && endpoint.isEjected())
+					continue;
+				double score = score(endpoint);
+				if(score < bestScore) {
+					best = endpoint;
+					bestScore = score;
+				}
+			}
+		}
+		return best == null
+				? exclude
+				: best;
+	}
+
+	/**
+	 * Stops the health probes and unregisters the management beans.
+	 */
+	void shutdown() {
+		if(healthChecker != null)
+			healthChecker.shutdownNow();
+		for(ObjectName name : mbeanNames)
+			ManagementSupport.unregister(name);
+		mbeanNames.clear();
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+
+/**
+ * A URL encoded form where the value of one parameter is read from a file while the form is sent.
+ * The value is encoded byte by byte exactly like {@link URLEncoder} encodes a UTF-8 string, so the
+ * form is byte-identical to the one that would have been sent with the file content as a string
+ * value. The file is never read into memory as a whole.
+ */
+class FileFormEntity extends AbstractHttpEntity {
+	/**
+	 * Encodes the bytes of the underlying stream
+	 */
+	private static class EncodingInputStream extends FilterInputStream {
+		// Encoded bytes not yet returned
+		private final byte[] pending = new byte[3];
+
+		private int pendingPos;
+
+		private int pendingLen;
+
+		EncodingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int available() {
+			return pendingLen - pendingPos;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(pendingPos == pendingLen) {
+				int b = in.read();
+				if(b < 0)
+					return -1;
+				pendingPos = 0;
+				pendingLen = encode(b, pending, 0);
+			}
+			return pending[pendingPos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0)
+				return 0;
+			int n = 0;
+			while(n < len) {
+				if(pendingPos == pendingLen && n > 0 && in.available() == 0)
+					break;
+				int c = read();
+				if(c < 0)
+					break;
+				b[off + n++] = (byte) c;
+			}
+			return n == 0
+					? -1
+					: n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while(skipped < n && read() >= 0)
+				++skipped;
+			return skipped;
+		}
+	}
+
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes(HttpConnector.UTF_8); //$NON-NLS-1$
+
+	// Bytes that URLEncoder leaves as is
+	private static final boolean[] UNRESERVED = new boolean[128];
+
+	static {
+		for(int c = 'a'; c <= 'z'; ++c)
+			UNRESERVED[c] = true;
+		for(int c = 'A'; c <= 'Z'; ++c)
+			UNRESERVED[c] = true;
+		for(int c = '0'; c <= '9'; ++c)
+			UNRESERVED[c] = true;
+		UNRESERVED['.'] = true;
+		UNRESERVED['-'] = true;
+		UNRESERVED['*'] = true;
+		UNRESERVED['_'] = true;
+	}
+
+	private static int encode(int b, byte[] buf, int pos) {
+		if(b < 128 && UNRESERVED[b]) {
+			buf[pos] = (byte) b;
+			return 1;
+		}
+		if(b == ' ') {
+			buf[pos] = '+';
+			return 1;
+		}
+		buf[pos] = '%';
+		buf[pos + 1] = HEX[b >>> 4];
+		buf[pos + 2] = HEX[b & 15];
+		return 3;
+	}
+
+	private static long encodedLength(Path file) throws IOException {
+		long length = 0;
+		byte[] buf = new byte[8192];
+		InputStream in = Files.newInputStream(file);
+		try {
+			int n;
+			while((n = in.read(buf)) > 0)
+				for(int idx = 0; idx < n; ++idx) {
+					int b = buf[idx] & 0xff;
+					length += b < 128 && UNRESERVED[b] || b == ' '
+							? 1
+							: 3;
+				}
+		}
+		finally {
+			in.close();
+		}
+		return length;
+	}
+
+	private final byte[] head;
+
+	private final Path file;
+
+	private final byte[] tail;
+
+	private final long contentLength;
+
+	/**
+	 * @param params
+	 *            The form parameters in the order they are sent. The value of <code>fileParam</code> is ignored
+	 * @param fileParam
+	 *            The name of the parameter whose value is read from the file
+	 * @param file
+	 *            A file with the UTF-8 encoded value
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	FileFormEntity(Map<String, String> params, String fileParam, Path file) throws IOException {
+		StringBuilder bld = new StringBuilder();
+		String headText = null;
+		boolean first = true;
+		for(Map.Entry<String, String> param : params.entrySet()) {
+			if(first)
+				first = false;
+			else
+				bld.append('&');
+			bld.append(URLEncoder.encode(param.getKey(), HttpConnector.UTF_8.name()));
+			bld.append('=');
+			if(fileParam.equals(param.getKey())) {
+				headText = bld.toString();
+				bld.setLength(0);
+			}
+			else if(param.getValue() != null)
+				bld.append(URLEncoder.encode(param.getValue(), HttpConnector.UTF_8.name()));
+		}
+		if(headText == null)
+			throw new IllegalArgumentException("The parameters do not contain " + fileParam); //$NON-NLS-1$
+
+		this.head = headText.getBytes(HttpConnector.UTF_8);
+		this.file = file;
+		this.tail = bld.toString().getBytes(HttpConnector.UTF_8);
+		this.contentLength = head.length + encodedLength(file) + tail.length;
+		setContentType(HttpConnector.CONTENT_TYPE_WWW_FORM_URLENCODED);
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		List<InputStream> parts = new ArrayList<InputStream>(3);
+		parts.add(new ByteArrayInputStream(head));
+		parts.add(new EncodingInputStream(Files.newInputStream(file)));
+		parts.add(new ByteArrayInputStream(tail));
+		return new SequenceInputStream(Collections.enumeration(parts));
+	}
+
+	@Override
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(head);
+		byte[] buf = new byte[8192];
+		byte[] encoded = new byte[buf.length * 3];
+		InputStream in = Files.newInputStream(file);
+		try {
+			int n;
+			while((n = in.read(buf)) > 0) {
+				int len = 0;
+				for(int idx = 0; idx < n; ++idx)
+					len += encode(buf[idx] & 0xff, encoded, len);
+				out.write(encoded, 0, len);
+			}
+		}
+		finally {
+			in.close();
+		}
+		out.write(tail);
+		out.flush();
+	}
+}
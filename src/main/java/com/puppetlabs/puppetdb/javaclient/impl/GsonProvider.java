@@ -14,6 +14,7 @@ import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -105,6 +106,15 @@ public class GsonProvider implements Provider<Gson> {
 		gson = gsonBuilder.create();
 	}
 
+	/**
+	 * @return A copy of the time zone that dates are formatted in
+	 */
+	static TimeZone getDateTimeZone() {
+		synchronized(ISO_8601_TZ) {
+			return (TimeZone) ISO_8601_TZ.getTimeZone().clone();
+		}
+	}
+
 	/**
 	 * Creates a JSON representation for the given object using an internal
 	 * synchronized {@link Gson} instance.
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.puppetlabs.puppetdb.javaclient.metrics.HistogramSnapshot;
+
+/**
+ * A lock-free histogram of non negative long values. Values below 16 are counted exactly.
+ * Larger values are counted in buckets where each power of two is divided into eight
+ * sub buckets, which bounds the relative error of a reported percentile to 12.5%.
+ */
+class Histogram {
+	private static final int LINEAR = 16;
+
+	private static final int SUB_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	// The linear buckets plus the sub buckets for each exponent from 4 to 62
+	private static final int BUCKETS = LINEAR + 59 * SUB_BUCKETS;
+
+	static int bucketIndex(long value) {
+		if(value < LINEAR)
+			return value < 0
+					? 0
+					: (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exp - 4) * SUB_BUCKETS + sub;
+	}
+
+	static long bucketUpperBound(int index) {
+		if(index < LINEAR)
+			return index;
+		int idx = index - LINEAR;
+		int shift = idx / SUB_BUCKETS + 4 - SUB_BITS;
+		long lower = (long) (SUB_BUCKETS + idx % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	private static long percentile(long[] counts, long total, long max, double percentile) {
+		if(total == 0)
+			return 0;
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		if(rank < 1)
+			rank = 1;
+		long seen = 0;
+		for(int idx = 0; idx < counts.length; ++idx) {
+			seen += counts[idx];
+			if(seen >= rank)
+				return Math.min(max, bucketUpperBound(idx));
+		}
+		return max;
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long value) {
+		counts.incrementAndGet(bucketIndex(value));
+		sum.addAndGet(value);
+		for(;;) {
+			long current = max.get();
+			if(value <= current || max.compareAndSet(current, value))
+				break;
+		}
+	}
+
+	/**
+	 * Creates a snapshot of the current state. Values recorded concurrently with this call may
+	 * or may not be included.
+	 * 
+	 * @return The snapshot
+	 */
+	HistogramSnapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for(int idx = 0; idx < BUCKETS; ++idx) {
+			long count = counts.get(idx);
+			copy[idx] = count;
+			total += count;
+		}
+		long top = max.get();
+		return new HistogramSnapshot(
+			total, sum.get(), top, percentile(copy, total, top, 50), percentile(copy, total, top, 90),
+			percentile(copy, total, top, 95), percentile(copy, total, top, 99), percentile(copy, total, top, 99.9));
+	}
+}
@@ -14,14 +14,28 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -30,10 +44,8 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
-import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.HttpResponseException;
-import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
@@ -41,6 +53,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.InputStreamBody;
@@ -51,16 +64,237 @@ import org.apache.http.util.EntityUtils;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.puppetlabs.puppetdb.javaclient.APIException;
 import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.CoalescingPolicy;
+import com.puppetlabs.puppetdb.javaclient.ContentHandler;
 import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.ProgressListener;
+import com.puppetlabs.puppetdb.javaclient.RequestInterceptor;
+import com.puppetlabs.puppetdb.javaclient.cache.ResponseCache;
 import com.puppetlabs.puppetdb.javaclient.query.Paging;
 
 /**
  * Class responsible for all HTTP request and response processing. Based on the
- * Apache {@link HttpClient}.
+ * Apache {@link HttpClient}. Requests are sent to the endpoint chosen by an {@link EndpointRouter}
+ * and each endpoint has its own client, and hence its own connection pool. Instances of this
+ * class can be used by several threads concurrently.
  */
 public class HttpComponentsConnector implements HttpConnector {
+	/**
+	 * A duplicate of a GET request that is sent to another endpoint when the original
+	 * request is slow to respond. The first of the two requests to produce a result
+	 * claims the win and aborts the other.
+	 */
+	private class HedgedGet<V> implements Runnable {
+		private final Endpoint primary;
+
+		private final HttpGet original;
+
+		private final ContentHandler<V> handler;
+
+		private final RequestStats stats;
+
+		private final int[] totalCount;
+
+		private final AtomicBoolean decided = new AtomicBoolean();
+
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile HttpGet duplicate;
+
+		private boolean won;
+
+		private V result;
+
+		HedgedGet(Endpoint primary, HttpGet original, ContentHandler<V> handler, RequestStats stats, boolean wantTotal) {
+			this.primary = primary;
+			this.original = original;
+			this.handler = handler;
+			this.stats = stats;
+			this.totalCount = wantTotal
+					? new int[] { -1 }
+					: null;
+		}
+
+		/**
+		 * Aborts the duplicate request if it has been sent
+		 */
+		void abort() {
+			HttpGet dup = duplicate;
+			if(dup != null)
+				dup.abort();
+		}
+
+		/**
+		 * Waits for the duplicate request to finish.
+		 * 
+		 * @return <code>true</code> if the duplicate request won
+		 * @throws InterruptedIOException
+		 */
+		boolean awaitWin() throws InterruptedIOException {
+			try {
+				done.await();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			return won;
+		}
+
+		/**
+		 * Claims the win on behalf of the caller.
+		 * 
+		 * @return <code>true</code> if the win was claimed
+		 */
+		boolean claim() {
+			return decided.compareAndSet(false, true);
+		}
+
+		/**
+		 * Prevents the duplicate request from being sent unless it has already started.
+		 * 
+		 * @return <code>true</code> if the duplicate will never be sent
+		 */
+		boolean preventStart() {
+			return started.compareAndSet(false, true);
+		}
+
+		V getResult(int[] totalCountReceiver) {
+			if(totalCountReceiver != null && totalCount != null)
+				totalCountReceiver[0] = totalCount[0];
+			return result;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if(!started.compareAndSet(false, true) || decided.get())
+					return;
+				Endpoint other = router.selectForQuery(primary);
+				if(other == primary || other.isEjected())
+					return;
+
+				HttpGet dup = new HttpGet(original.getURI());
+				dup.setHeaders(original.getAllHeaders());
+				duplicate = dup;
+
+				// A hedge never waits for the concurrency limit of the other endpoint
+				if(decided.get() || !other.tryAcquireSlot())
+					return;
+				if(!hedger.tryAcquire()) {
+					other.releaseSlot();
+					return;
+				}
+
+				V value = executeAcquired(other, dup, handler, stats, totalCount);
+				if(claim()) {
+					result = value;
+					won = true;
+					original.abort();
+				}
+			}
+			catch(IOException e) {
+				// The original request won or both failed. The caller reports its own failure.
+			}
+			finally {
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Parses the response body into an object of a given type.
+	 */
+	private static class JsonContentHandler<V> implements ContentHandler<V> {
+		private final Gson gson;
+
+		private final Type type;
+
+		private volatile long size;
+
+		JsonContentHandler(Gson gson, Type type) {
+			this.gson = gson;
+			this.type = type;
+		}
+
+		/**
+		 * @return The number of bytes in the parsed body
+		 */
+		long getSize() {
+			return size;
+		}
+
+		@Override
+		public V handleContent(InputStream content) throws IOException {
+			V result = parseJson(gson, content, type);
+			if(content instanceof CountingInputStream)
+				size = ((CountingInputStream) content).getCount();
+			return result;
+		}
+	}
+
+	/**
+	 * Adapts an output stream to a channel without copying array backed buffers.
+	 */
+	private static class OutputStreamChannel implements WritableByteChannel {
+		private final OutputStream output;
+
+		private boolean open = true;
+
+		OutputStreamChannel(OutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int count = src.remaining();
+			if(src.hasArray())
+				output.write(src.array(), src.arrayOffset() + src.position(), count);
+			else {
+				byte[] bytes = new byte[count];
+				src.get(bytes);
+				output.write(bytes);
+				return count;
+			}
+			src.position(src.limit());
+			return count;
+		}
+	}
+
+	// The number of times an interrupted download is resumed before giving up
+	private static final int MAX_RESUME_ATTEMPTS = 3;
+
+	private static void consumeQuietly(HttpEntity entity) {
+		try {
+			EntityUtils.consume(entity);
+		}
+		catch(IOException ignored) {
+			// Ignored
+		}
+	}
+
+	private static int countRecords(Object result) {
+		if(result == null)
+			return 0;
+		if(result instanceof Collection)
+			return ((Collection<?>) result).size();
+		return 1;
+	}
 
 	static InputStream getStream(HttpEntity entity) throws IOException {
 		if(entity == null)
@@ -93,13 +327,29 @@ public class HttpComponentsConnector implements HttpConnector {
 		}
 	}
 
+	private static int statusOf(IOException e) {
+		return e instanceof HttpResponseException
+				? ((HttpResponseException) e).getStatusCode()
+				: RequestStats.NO_STATUS;
+	}
+
 	private final Gson gson;
 
-	private final HttpClient httpClient;
+	private final EndpointRouter router;
+
+	private final RequestHedger hedger;
+
+	private final long queueTimeout;
+
+	private final DefaultClientMetrics metrics;
 
-	private final APIPreferences preferences;
+	private final InterceptorChain interceptors;
 
-	private HttpRequestBase currentRequest;
+	private final RequestCoalescer coalescer;
+
+	private final ResponseCache cache;
+
+	private final Set<HttpRequestBase> activeRequests = Collections.newSetFromMap(new ConcurrentHashMap<HttpRequestBase, Boolean>());
 
 	/**
 	 * <p>
@@ -111,24 +361,42 @@ public class HttpComponentsConnector implements HttpConnector {
 	 * 
 	 * @param gson
 	 *            The instance used when parsing or serializing JSON
-	 * @param httpClient
-	 *            The client to use for the connection
+	 * @param httpClientProvider
+	 *            Provider of the client to use for each endpoint
 	 * @param preferences
 	 *            API connection preferences
+	 * @param metrics
+	 *            The collector of request metrics
+	 * @param cache
+	 *            The response cache
+	 * @param interceptors
+	 *            The interceptors to call for each request, possibly empty
 	 */
 	@Inject
-	public HttpComponentsConnector(Gson gson, HttpClient httpClient, APIPreferences preferences) {
+	public HttpComponentsConnector(Gson gson, Provider<HttpClient> httpClientProvider, APIPreferences preferences,
+			DefaultClientMetrics metrics, ResponseCache cache, List<RequestInterceptor> interceptors) {
 		this.gson = gson;
-		this.preferences = preferences;
-		this.httpClient = httpClient;
+		this.cache = cache.isEnabled()
+				? cache
+				: null;
+		this.metrics = metrics;
+		this.interceptors = InterceptorChain.create(interceptors);
+		this.router = new EndpointRouter(preferences, httpClientProvider);
+		this.hedger = preferences.getHedgingPercentile() > 0 && router.isBalanced()
+				? new RequestHedger(
+					preferences.getHedgingPercentile(), preferences.getHedgingBudget(), preferences.getMaxConnectionsPerEndpoint())
+				: null;
+		this.queueTimeout = preferences.getConcurrencyQueueTimeout();
+		CoalescingPolicy coalescing = preferences.getCoalescingPolicy();
+		this.coalescer = coalescing == null || coalescing == CoalescingPolicy.NONE
+				? null
+				: new RequestCoalescer(gson, metrics, coalescing);
 	}
 
 	@Override
-	public synchronized void abortCurrentRequest() {
-		if(currentRequest != null) {
-			currentRequest.abort();
-			currentRequest = null;
-		}
+	public void abortCurrentRequest() {
+		for(HttpRequestBase request : activeRequests)
+			request.abort();
 	}
 
 	protected void assignContent(HttpEntityEnclosingRequestBase request, Map<String, String> params) {
@@ -147,6 +415,22 @@ public class HttpComponentsConnector implements HttpConnector {
 		}
 	}
 
+	/**
+	 * Aborts the requests in progress, stops the health checks, the hedging scheduler and the cache
+	 * refreshes and unregisters the management beans of the endpoints, the request metrics and the
+	 * cache.
+	 */
+	@Override
+	public void close() {
+		abortCurrentRequest();
+		if(hedger != null)
+			hedger.shutdown();
+		if(cache != null)
+			cache.close();
+		router.shutdown();
+		metrics.shutdown();
+	}
+
 	protected void configureRequest(final HttpRequestBase request) {
 		request.addHeader(HttpHeaders.ACCEPT, CONTENT_TYPE_JSON);
 		request.addHeader(HttpHeaders.USER_AGENT, USER_AGENT);
@@ -169,11 +453,15 @@ public class HttpComponentsConnector implements HttpConnector {
 		return new HttpResponseException(code, message);
 	}
 
+	/**
+	 * Creates a GET request with the parameters sorted by name so that identical queries always
+	 * have identical URIs.
+	 */
 	private HttpGet createGetRequest(String urlStr, Map<String, String> params) {
 		StringBuilder bld = new StringBuilder(createURI(urlStr));
 		if(params != null && !params.isEmpty()) {
 			List<BasicNameValuePair> pairs = new ArrayList<BasicNameValuePair>();
-			for(Map.Entry<String, String> param : params.entrySet())
+			for(Map.Entry<String, String> param : new TreeMap<String, String>(params).entrySet())
 				pairs.add(new BasicNameValuePair(param.getKey(), param.getValue()));
 			bld.append('?');
 			bld.append(URLEncodedUtils.format(pairs, UTF_8.name()));
@@ -182,21 +470,14 @@ public class HttpComponentsConnector implements HttpConnector {
 	}
 
 	/**
-	 * Create full URI from path
+	 * Create the host relative URI from path. The host is determined when the request
+	 * is executed.
 	 * 
 	 * @param path
 	 * @return uri
 	 */
 	protected String createURI(String path) {
 		StringBuilder bld = new StringBuilder();
-		if(preferences.getCertPEM() == null)
-			bld.append("http://");
-		else
-			bld.append("https://");
-
-		bld.append(preferences.getServiceHostname());
-		bld.append(':');
-		bld.append(preferences.getServicePort());
 		bld.append('/');
 		if(path.startsWith("../"))
 			// Skip the 'v3' part (this is probably ../experimental/<something>
@@ -215,33 +496,100 @@ public class HttpComponentsConnector implements HttpConnector {
 		executeRequest(request, null, null);
 	}
 
+	/**
+	 * Sends the download request once to <code>endpoint</code>. The response body is appended to
+	 * the <code>transfer</code>. A body that fails to transfer is not consumed since that could
+	 * mean reading gigabytes in vain. Instead the connection is aborted.
+	 */
+	private void download(Endpoint endpoint, HttpGet request, BodyTransfer transfer, RequestStats stats) throws IOException {
+		endpoint.acquireSlot(queueTimeout);
+		InterceptedRequest call = interceptors == null
+				? null
+				: new InterceptedRequest(request, endpoint);
+		Throwable failure = null;
+		startRequest(request, endpoint);
+		HttpResponse response = null;
+		InputStream content = null;
+		long before = transfer.getTransferred();
+		try {
+			response = send(endpoint, request, stats, call);
+			transfer.accept(response);
+			content = response.getEntity().getContent();
+			transfer.copy(content);
+		}
+		catch(IOException e) {
+			failure = e;
+			throw e;
+		}
+		catch(RuntimeException e) {
+			failure = e;
+			throw e;
+		}
+		catch(Error e) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			stats.recordResponseBytes(transfer.getTransferred() - before);
+			if(failure != null && content instanceof ConnectionReleaseTrigger)
+				((ConnectionReleaseTrigger) content).abortConnection();
+			else if(response != null)
+				consumeQuietly(response.getEntity());
+			endRequest(request, endpoint);
+			if(call != null)
+				interceptors.ended(call, failure);
+		}
+	}
+
 	@Override
 	public void download(String urlStr, Map<String, String> params, final OutputStream output) throws IOException {
-		HttpGet request = createGetRequest(urlStr, params);
-		configureRequest(request);
-		httpClient.execute(request, new ResponseHandler<Void>() {
-			@Override
-			public Void handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
-				StatusLine statusLine = response.getStatusLine();
-				int code = statusLine.getStatusCode();
-				if(code != HttpStatus.SC_OK)
-					throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
-
-				HttpEntity entity = response.getEntity();
-				entity.writeTo(output);
-				return null;
-			}
-		});
+		transfer(urlStr, params, new OutputStreamChannel(output), null);
 	}
 
-	private synchronized void endRequest() {
-		currentRequest = null;
+	@Override
+	public long download(String urlStr, Map<String, String> params, Path file, ProgressListener listener) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			return transfer(urlStr, params, channel, listener);
+		}
+		finally {
+			channel.close();
+		}
 	}
 
-	protected <V> V executeRequest(final HttpRequestBase request, final Type type, int[] totalCount) throws IOException {
-		startRequest(request);
+	@Override
+	public long download(String urlStr, Map<String, String> params, WritableByteChannel channel, ProgressListener listener)
+			throws IOException {
+		return transfer(urlStr, params, channel, listener);
+	}
+
+	private void endRequest(HttpRequestBase request, Endpoint endpoint) {
+		endpoint.requestEnded();
+		endpoint.releaseSlot();
+		activeRequests.remove(request);
+	}
+
+	private <V> V execute(Endpoint endpoint, HttpRequestBase request, ContentHandler<V> handler, RequestStats stats, int[] totalCount)
+			throws IOException {
+		endpoint.acquireSlot(queueTimeout);
+		return executeAcquired(endpoint, request, handler, stats, totalCount);
+	}
+
+	/**
+	 * Executes the request using a request slot that has already been acquired from the endpoint.
+	 * The slot is released when the response has been consumed.
+	 */
+	private <V> V executeAcquired(Endpoint endpoint, HttpRequestBase request, ContentHandler<V> handler, RequestStats stats,
+			int[] totalCount)
+			throws IOException {
+		InterceptedRequest call = interceptors == null
+				? null
+				: new InterceptedRequest(request, endpoint);
+		Throwable failure = null;
+		startRequest(request, endpoint);
+		HttpResponse response = null;
 		try {
-			HttpResponse response = httpClient.execute(request);
+			response = send(endpoint, request, stats, call);
 			StatusLine statusLine = response.getStatusLine();
 			int code = statusLine.getStatusCode();
 			if(code >= 300) {
@@ -263,7 +611,7 @@ public class HttpComponentsConnector implements HttpConnector {
 
 			HttpEntity entity = response.getEntity();
 			if(isOk(code)) {
-				if(type == null)
+				if(handler == null)
 					return null;
 
 				if(totalCount != null) {
@@ -275,20 +623,156 @@ public class HttpComponentsConnector implements HttpConnector {
 						catch(NumberFormatException e) {
 						}
 				}
-				return parseJson(gson, getStream(entity), type);
+				long parseStart = System.nanoTime();
+				CountingInputStream stream = new CountingInputStream(getStream(entity));
+				V result = handler.handleContent(stream);
+				stats.recordParse(System.nanoTime() - parseStart, stream.getCount(), countRecords(result));
+				return result;
 			}
 			throw createException(getStream(entity), code, statusLine.getReasonPhrase());
 		}
+		catch(IOException e) {
+			failure = e;
+			throw e;
+		}
+		catch(RuntimeException e) {
+			failure = e;
+			throw e;
+		}
+		catch(Error e) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			if(response != null)
+				consumeQuietly(response.getEntity());
+			endRequest(request, endpoint);
+			if(call != null)
+				interceptors.ended(call, failure);
+		}
+	}
+
+	/**
+	 * Executes a GET request and sends a duplicate to another endpoint if no result has been
+	 * obtained within the hedging delay. The first result wins and the other request is aborted.
+	 */
+	private <V> V executeHedged(Endpoint endpoint, HttpGet request, ContentHandler<V> handler, RequestStats stats, int[] totalCount)
+			throws IOException {
+		hedger.queryStarted();
+		String path = stats.getPath();
+		long delay = hedger.getDelay(path);
+		long start = System.nanoTime();
+		if(delay < 0) {
+			// Still learning the latency distribution
+			V result = execute(endpoint, request, handler, stats, totalCount);
+			hedger.recordLatency(path, System.nanoTime() - start);
+			return result;
+		}
+
+		HedgedGet<V> hedge = new HedgedGet<V>(endpoint, request, handler, stats, totalCount != null);
+		ScheduledFuture<?> pending = hedger.schedule(hedge, delay);
+		try {
+			V result = execute(endpoint, request, handler, stats, totalCount);
+			hedger.recordLatency(path, System.nanoTime() - start);
+			if(hedge.claim()) {
+				pending.cancel(false);
+				hedge.abort();
+				return result;
+			}
+		}
+		catch(IOException e) {
+			// Future.cancel() can't tell whether the hedge is already running
+			if(hedge.preventStart()) {
+				pending.cancel(false);
+				throw e;
+			}
+			if(!hedge.awaitWin())
+				throw e;
+		}
+		hedge.awaitWin();
+		return hedge.getResult(totalCount);
+	}
+
+	/**
+	 * Executes a query through the response cache.
+	 */
+	private <V> V executeCached(HttpGet request, final Type type, int[] totalCount) throws IOException {
+		final URI uri = request.getURI();
+		return cache.get(uri, type, totalCount, new ResponseCache.Loader<V>() {
+			@Override
+			public V load(int[] count, long[] size) throws IOException {
+				// A new request is needed for each load since refreshes are made in the background
+				HttpGet get = new HttpGet(uri);
+				configureRequest(get);
+				JsonContentHandler<V> handler = new JsonContentHandler<V>(gson, type);
+				V result = executeRequest(get, handler, count, true);
+				size[0] = handler.getSize();
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Executes a query, sharing the request with identical queries in flight when coalescing is
+	 * enabled, and using the response cache when it is enabled. Coalescing takes place before the
+	 * cache is consulted so that only one of the identical queries loads a missing response.
+	 */
+	private <V> V executeQuery(final HttpGet request, final Type type, int[] totalCount) throws IOException {
+		if(type == null)
+			return executeRequest(request, type, totalCount);
+		if(coalescer == null)
+			return cache == null
+					? this.<V> executeRequest(request, type, totalCount)
+					: this.<V> executeCached(request, type, totalCount);
+		return coalescer.execute(request.getURI(), type, totalCount, new RequestCoalescer.Call<V>() {
+			@Override
+			public V execute(int[] count) throws IOException {
+				return cache == null
+						? HttpComponentsConnector.this.<V> executeRequest(request, type, count)
+						: HttpComponentsConnector.this.<V> executeCached(request, type, count);
+			}
+		});
+	}
+
+	/**
+	 * Executes the request and passes the body of a successful response to the <code>handler</code>.
+	 * 
+	 * @param hedgeable
+	 *            <code>true</code> if the handler is free from side effects so that a duplicate request
+	 *            may be sent to another endpoint
+	 */
+	private <V> V executeRequest(HttpRequestBase request, ContentHandler<V> handler, int[] totalCount, boolean hedgeable)
+			throws IOException {
+		RequestStats stats = metrics.forPath(request.getURI().getPath());
+		stats.callStarted();
+		long start = System.nanoTime();
+		try {
+			Endpoint endpoint = router.select(request);
+			if(hedgeable && hedger != null && request instanceof HttpGet)
+				return executeHedged(endpoint, (HttpGet) request, handler, stats, totalCount);
+			return execute(endpoint, request, handler, stats, totalCount);
+		}
+		catch(IOException e) {
+			stats.callFailed(statusOf(e));
+			throw e;
+		}
 		finally {
-			endRequest();
+			stats.callEnded(System.nanoTime() - start);
 		}
 	}
 
+	protected <V> V executeRequest(final HttpRequestBase request, final Type type, int[] totalCount) throws IOException {
+		ContentHandler<V> handler = type == null
+				? null
+				: new JsonContentHandler<V>(gson, type);
+		return executeRequest(request, handler, totalCount, true);
+	}
+
 	@Override
 	public <V> V get(String urlStr, Map<String, String> params, Type type) throws IOException {
 		HttpGet request = createGetRequest(urlStr, params);
 		configureRequest(request);
-		return executeRequest(request, type, null);
+		return executeQuery(request, type, null);
 	}
 
 	@Override
@@ -302,7 +786,7 @@ public class HttpComponentsConnector implements HttpConnector {
 		}
 		HttpGet request = createGetRequest(urlStr, queryParams);
 		configureRequest(request);
-		V result = executeRequest(request, type, totalCount);
+		V result = executeQuery(request, type, totalCount);
 		if(params != null)
 			params.setTotalCount(totalCount[0]);
 		return result;
@@ -350,6 +834,14 @@ public class HttpComponentsConnector implements HttpConnector {
 		return executeRequest(request, type, null);
 	}
 
+	@Override
+	public <V> V postForm(String uri, Map<String, String> params, String fileParam, Path file, Class<V> type) throws IOException {
+		HttpPost request = new HttpPost(createURI(uri));
+		configureRequest(request);
+		request.setEntity(new FileFormEntity(params, fileParam, file));
+		return executeRequest(request, type, null);
+	}
+
 	@Override
 	public <V> V postUpload(String uri, Map<String, String> stringParts, InputStream in, String mimeType, String fileName,
 			final long fileSize, Class<V> type) throws IOException {
@@ -378,10 +870,108 @@ public class HttpComponentsConnector implements HttpConnector {
 		return executeRequest(request, type, null);
 	}
 
-	private synchronized void startRequest(HttpRequestBase request) {
-		if(currentRequest != null)
-			currentRequest.abort();
-		currentRequest = request;
+	/**
+	 * Sends the request to the given endpoint and reports the outcome to the router and to the
+	 * concurrency limiter of the endpoint. A response with a status code of 500 or above is charged
+	 * as a failure of the endpoint.
+	 * 
+	 * @param endpoint
+	 *            The endpoint that will receive the request
+	 * @param request
+	 *            The request to send
+	 * @param stats
+	 *            The metrics that will receive the time to first byte
+	 * @param call
+	 *            The context passed to the interceptors or <code>null</code> when there are no interceptors
+	 * @return The response
+	 * @throws IOException
+	 */
+	private HttpResponse send(Endpoint endpoint, HttpRequestBase request, RequestStats stats, InterceptedRequest call) throws IOException {
+		if(call != null)
+			interceptors.beforeSend(call);
+		long start = System.nanoTime();
+		HttpResponse response;
+		try {
+			response = endpoint.getHttpClient().execute(endpoint.getHost(), request);
+		}
+		catch(IOException e) {
+			// A request aborted by the caller or by a winning hedge says nothing about the endpoint
+			if(!request.isAborted()) {
+				router.requestFailed(endpoint);
+				endpoint.adjustLimit(stats.getPath(), System.nanoTime() - start, true);
+			}
+			throw e;
+		}
+		long elapsed = System.nanoTime() - start;
+		stats.recordTimeToFirstByte(elapsed);
+		if(call != null) {
+			call.responseReceived(response);
+			interceptors.headersReceived(call);
+		}
+		if(response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+			router.requestFailed(endpoint);
+			endpoint.adjustLimit(stats.getPath(), elapsed, true);
+		}
+		else {
+			router.requestSucceeded(endpoint, elapsed);
+			endpoint.adjustLimit(stats.getPath(), elapsed, false);
+		}
+		return response;
+	}
+
+	private void startRequest(HttpRequestBase request, Endpoint endpoint) {
+		activeRequests.add(request);
+		endpoint.requestStarted();
+	}
+
+	@Override
+	public <V> V stream(String urlStr, Map<String, String> params, ContentHandler<V> handler) throws IOException {
+		HttpGet request = createGetRequest(urlStr, params);
+		configureRequest(request);
+		return executeRequest(request, handler, null, false);
+	}
+
+	/**
+	 * Downloads the response to a GET request into <code>channel</code>. A transfer that fails
+	 * while reading from the server is resumed using a range request, provided that the server
+	 * declared that it accepts byte ranges and sent a strong validator. The resumed requests are
+	 * sent to the endpoint that served the first bytes since replicas are not guaranteed to hold
+	 * an identical representation. An attempt that fails before any bytes were written is
+	 * restarted on the endpoint that the router selects.
+	 */
+	private long transfer(String urlStr, Map<String, String> params, WritableByteChannel channel, ProgressListener listener)
+			throws IOException {
+		BodyTransfer transfer = new BodyTransfer(channel, listener);
+		HttpGet request = createGetRequest(urlStr, params);
+		configureRequest(request);
+		RequestStats stats = metrics.forPath(request.getURI().getPath());
+		stats.callStarted();
+		long start = System.nanoTime();
+		try {
+			Endpoint endpoint = null;
+			for(int attempt = 0;; ++attempt) {
+				if(endpoint == null || transfer.getTransferred() == 0)
+					endpoint = router.select(request);
+				try {
+					download(endpoint, request, transfer, stats);
+					return transfer.getTransferred();
+				}
+				catch(IOException e) {
+					if(attempt >= MAX_RESUME_ATTEMPTS || request.isAborted() || !transfer.canResume())
+						throw e;
+				}
+				request = createGetRequest(urlStr, params);
+				configureRequest(request);
+				transfer.prepareResume(request);
+			}
+		}
+		catch(IOException e) {
+			stats.callFailed(statusOf(e));
+			throw e;
+		}
+		finally {
+			stats.callEnded(System.nanoTime() - start);
+		}
 	}
 
 	@Override
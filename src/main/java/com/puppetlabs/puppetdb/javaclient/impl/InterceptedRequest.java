@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import com.puppetlabs.puppetdb.javaclient.RequestContext;
+import com.puppetlabs.puppetdb.javaclient.ServiceEndpoint;
+
+/**
+ * The {@link RequestContext} of one request sent by the {@link HttpComponentsConnector}.
+ * Instances are only created when interceptors are registered.
+ */
+class InterceptedRequest implements RequestContext {
+	private final HttpRequestBase request;
+
+	private final Endpoint endpoint;
+
+	private Map<String, Object> attributes;
+
+	private long startTime;
+
+	private long startNanos;
+
+	private long endNanos = -1;
+
+	private long timeToFirstByte = -1;
+
+	private HttpResponse response;
+
+	InterceptedRequest(HttpRequestBase request, Endpoint endpoint) {
+		this.request = request;
+		this.endpoint = endpoint;
+	}
+
+	void ended() {
+		endNanos = System.nanoTime();
+	}
+
+	@Override
+	public synchronized Object getAttribute(String key) {
+		return attributes == null
+				? null
+				: attributes.get(key);
+	}
+
+	@Override
+	public long getElapsedTime() {
+		return (endNanos < 0
+				? System.nanoTime()
+				: endNanos) - startNanos;
+	}
+
+	@Override
+	public ServiceEndpoint getEndpoint() {
+		return endpoint.getSpec();
+	}
+
+	@Override
+	public String getMethod() {
+		return request.getMethod();
+	}
+
+	@Override
+	public String getResponseHeader(String name) {
+		if(response == null)
+			return null;
+		Header header = response.getFirstHeader(name);
+		return header == null
+				? null
+				: header.getValue();
+	}
+
+	@Override
+	public long getStartTime() {
+		return startTime;
+	}
+
+	@Override
+	public int getStatusCode() {
+		return response == null
+				? -1
+				: response.getStatusLine().getStatusCode();
+	}
+
+	@Override
+	public long getTimeToFirstByte() {
+		return timeToFirstByte;
+	}
+
+	@Override
+	public URI getURI() {
+		return request.getURI();
+	}
+
+	void responseReceived(HttpResponse received) {
+		response = received;
+		timeToFirstByte = System.nanoTime() - startNanos;
+	}
+
+	void sending() {
+		startTime = System.currentTimeMillis();
+		startNanos = System.nanoTime();
+	}
+
+	@Override
+	public synchronized void setAttribute(String key, Object value) {
+		if(value == null) {
+			if(attributes != null)
+				attributes.remove(key);
+			return;
+		}
+		if(attributes == null)
+			attributes = new HashMap<String, Object>();
+		attributes.put(key, value);
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		request.setHeader(name, value);
+	}
+}
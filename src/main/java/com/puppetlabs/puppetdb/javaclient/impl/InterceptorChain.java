@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.util.List;
+
+import com.puppetlabs.puppetdb.javaclient.RequestInterceptor;
+
+/**
+ * Calls the registered {@link RequestInterceptor}s in registration order.
+ */
+class InterceptorChain {
+	/**
+	 * Creates a chain for the given interceptors.
+	 * 
+	 * @param interceptors
+	 *            The interceptors, possibly empty or <code>null</code>
+	 * @return The chain or <code>null</code> when there are no interceptors
+	 */
+	static InterceptorChain create(List<RequestInterceptor> interceptors) {
+		return interceptors == null || interceptors.isEmpty()
+				? null
+				: new InterceptorChain(interceptors.toArray(new RequestInterceptor[interceptors.size()]));
+	}
+
+	private final RequestInterceptor[] interceptors;
+
+	private InterceptorChain(RequestInterceptor[] interceptors) {
+		this.interceptors = interceptors;
+	}
+
+	void beforeSend(InterceptedRequest context) {
+		context.sending();
+		for(RequestInterceptor interceptor : interceptors)
+			interceptor.beforeSend(context);
+	}
+
+	/**
+	 * Ends the request and notifies the interceptors.
+	 * 
+	 * @param context
+	 *            The request context
+	 * @param error
+	 *            The error that made the request fail or <code>null</code> if it completed normally
+	 */
+	void ended(InterceptedRequest context, Throwable error) {
+		context.ended();
+		for(RequestInterceptor interceptor : interceptors) {
+			try {
+				if(error == null)
+					interceptor.onComplete(context);
+				else
+					interceptor.onError(context, error);
+			}
+			catch(RuntimeException e) {
+				// Interceptors must not break the request processing
+			}
+		}
+	}
+
+	void headersReceived(InterceptedRequest context) {
+		for(RequestInterceptor interceptor : interceptors) {
+			try {
+				interceptor.onHeaders(context);
+			}
+			catch(RuntimeException e) {
+				// Interceptors must not break the request processing
+			}
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Writes query literals as JSON directly into a {@link StringBuilder}. The output is identical to
+ * that of {@link GsonProvider#toJSON(Object)} but no intermediate objects are created and no lock is
+ * taken for strings, numbers, booleans, dates and string arrays. Other values are delegated to
+ * {@link GsonProvider#toJSON(Object)}.
+ */
+public final class JsonLiteralWriter {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	// The zone that GsonProvider.DateJsonAdapter formats dates in
+	private static final TimeZone TIME_ZONE = GsonProvider.getDateTimeZone();
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	// Dates outside of the years 1600 - 9999 are delegated since the Julian calendar and
+	// years with more than four digits need special treatment
+	private static final long MIN_DATE = -11676096000000L;
+
+	private static final long MAX_DATE = 253402300799999L;
+
+	private static void appendDate(StringBuilder bld, Date date) {
+		long millis = date.getTime();
+		int offset = TIME_ZONE.getOffset(millis);
+		long local = millis + offset;
+		if(local < MIN_DATE || local > MAX_DATE) {
+			bld.append('"');
+			appendEscaped(bld, GsonProvider.DateJsonAdapter.dateToString(date));
+			bld.append('"');
+			return;
+		}
+
+		long days = floorDiv(local, MILLIS_PER_DAY);
+		int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+
+		// Civil date from days since the epoch in the proleptic Gregorian calendar
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10
+				? mp + 3
+				: mp - 9;
+		int year = (int) (yearOfEra + era * 400);
+		if(month <= 2)
+			++year;
+
+		bld.append('"');
+		appendDigits(bld, year, 4);
+		bld.append('-');
+		appendDigits(bld, month, 2);
+		bld.append('-');
+		appendDigits(bld, day, 2);
+		bld.append('T');
+		appendDigits(bld, millisOfDay / 3600000, 2);
+		bld.append(':');
+		appendDigits(bld, millisOfDay / 60000 % 60, 2);
+		bld.append(':');
+		appendDigits(bld, millisOfDay / 1000 % 60, 2);
+		bld.append('.');
+		appendDigits(bld, millisOfDay % 1000, 3);
+
+		// Same truncation to minutes as the 'Z' pattern of SimpleDateFormat
+		int offsetMinutes = offset / 60000;
+		if(offsetMinutes == 0)
+			bld.append('Z');
+		else {
+			if(offsetMinutes < 0) {
+				bld.append('-');
+				offsetMinutes = -offsetMinutes;
+			}
+			else
+				bld.append('+');
+			appendDigits(bld, offsetMinutes / 60, 2);
+			bld.append(':');
+			appendDigits(bld, offsetMinutes % 60, 2);
+		}
+		bld.append('"');
+	}
+
+	private static void appendDigits(StringBuilder bld, int value, int width) {
+		for(int divisor = width == 4
+				? 1000
+				: width == 3
+						? 100
+						: 10; divisor > 0; divisor /= 10)
+			bld.append((char) ('0' + value / divisor % 10));
+	}
+
+	private static void appendEscaped(StringBuilder bld, String str) {
+		int top = str.length();
+		int start = 0;
+		for(int idx = 0; idx < top; ++idx) {
+			char c = str.charAt(idx);
+			String escape;
+			switch(c) {
+				case '"':
+					escape = "\\\""; //$NON-NLS-1$
+					break;
+				case '\\':
+					escape = "\\\\"; //$NON-NLS-1$
+					break;
+				case '\t':
+					escape = "\\t"; //$NON-NLS-1$
+					break;
+				case '\b':
+					escape = "\\b"; //$NON-NLS-1$
+					break;
+				case '\n':
+					escape = "\\n"; //$NON-NLS-1$
+					break;
+				case '\r':
+					escape = "\\r"; //$NON-NLS-1$
+					break;
+				case '\f':
+					escape = "\\f"; //$NON-NLS-1$
+					break;
+				case '&':
+				case '\'':
+				case '<':
+				case '=':
+				case '>':
+				case '\u2028':
+				case '\u2029':
+					escape = null;
+					break;
+				default:
+					if(c > 0x1f)
+						continue;
+					escape = null;
+			}
+			bld.append(str, start, idx);
+			if(escape == null) {
+				// Gson escapes HTML characters and control characters
+				bld.append("\\u"); //$NON-NLS-1$
+				bld.append(HEX_DIGITS[c >> 12 & 0xf]);
+				bld.append(HEX_DIGITS[c >> 8 & 0xf]);
+				bld.append(HEX_DIGITS[c >> 4 & 0xf]);
+				bld.append(HEX_DIGITS[c & 0xf]);
+			}
+			else
+				bld.append(escape);
+			start = idx + 1;
+		}
+		bld.append(str, start, top);
+	}
+
+	/**
+	 * Appends the JSON representation of a literal.
+	 * 
+	 * @param bld
+	 *            The receiver of the JSON
+	 * @param literal
+	 *            The literal to write. Can be <code>null</code>
+	 */
+	public static void appendLiteral(StringBuilder bld, Object literal) {
+		if(literal == null)
+			bld.append("null"); //$NON-NLS-1$
+		else if(literal instanceof String)
+			appendString(bld, (String) literal);
+		else if(literal instanceof Integer || literal instanceof Long || literal instanceof Short || literal instanceof Byte)
+			bld.append(((Number) literal).longValue());
+		else if(literal instanceof Double || literal instanceof Float) {
+			double value = ((Number) literal).doubleValue();
+			if(Double.isNaN(value) || Double.isInfinite(value))
+				// Let Gson report the error
+				bld.append(GsonProvider.toJSON(literal));
+			else if(literal instanceof Double)
+				bld.append(value);
+			else
+				bld.append(((Float) literal).floatValue());
+		}
+		else if(literal instanceof BigInteger || literal instanceof BigDecimal)
+			bld.append(literal.toString());
+		else if(literal instanceof Boolean)
+			bld.append(((Boolean) literal).booleanValue());
+		else if(literal instanceof Date && literal.getClass() == Date.class)
+			appendDate(bld, (Date) literal);
+		else if(literal instanceof String[]) {
+			String[] strings = (String[]) literal;
+			bld.append('[');
+			for(int idx = 0; idx < strings.length; ++idx) {
+				if(idx > 0)
+					bld.append(',');
+				appendLiteral(bld, strings[idx]);
+			}
+			bld.append(']');
+		}
+		else
+			bld.append(GsonProvider.toJSON(literal));
+	}
+
+	/**
+	 * Appends a quoted and escaped JSON string.
+	 * 
+	 * @param bld
+	 *            The receiver of the JSON
+	 * @param str
+	 *            The string to write
+	 */
+	public static void appendString(StringBuilder bld, String str) {
+		bld.append('"');
+		appendEscaped(bld, str);
+		bld.append('"');
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		return (x % y != 0 && (x ^ y) < 0)
+				? q - 1
+				: q;
+	}
+
+	private JsonLiteralWriter() {
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent latency samples in a ring buffer and computes a fixed percentile
+ * from them. Recording is lock-free. The percentile is recomputed at most once for every
+ * {@link #RECOMPUTE_INTERVAL} samples.
+ */
+class LatencyWindow {
+	// Must be a power of two
+	private static final int SIZE = 512;
+
+	private static final int MIN_SAMPLES = 32;
+
+	private static final int RECOMPUTE_INTERVAL = 16;
+
+	private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final int percentile;
+
+	private volatile long cachedValue = -1;
+
+	private volatile long cachedAt;
+
+	/**
+	 * @param percentile
+	 *            The percentile to compute, 1 - 99
+	 */
+	LatencyWindow(int percentile) {
+		this.percentile = Math.max(1, Math.min(99, percentile));
+	}
+
+	/**
+	 * Returns the percentile of the recorded samples or -1 when too few samples have been recorded.
+	 *
+	 * @return The percentile in nanoseconds or -1
+	 */
+	long getPercentile() {
+		long n = count.get();
+		if(n < MIN_SAMPLES)
+			return -1;
+		if(n - cachedAt < RECOMPUTE_INTERVAL)
+			return cachedValue;
+
+		int len = (int) Math.min(n, SIZE);
+		long[] sorted = new long[len];
+		for(int idx = 0; idx < len; ++idx)
+			sorted[idx] = samples.get(idx);
+		Arrays.sort(sorted);
+		long value = sorted[Math.min(len - 1, len * percentile / 100)];
+		cachedValue = value;
+		cachedAt = n;
+		return value;
+	}
+
+	void record(long nanos) {
+		samples.set((int) (count.getAndIncrement() & (SIZE - 1)), nanos);
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Registers the management beans of this client with the platform MBean server. Registration
+ * is best effort. A failure to register a bean must never prevent the client from working.
+ */
+class ManagementSupport {
+	static final String DOMAIN = "com.puppetlabs.puppetdb.javaclient"; //$NON-NLS-1$
+
+	private static final AtomicInteger clientCounter = new AtomicInteger();
+
+	/**
+	 * Returns a number that is unique for each call within this JVM. It is used to
+	 * keep the beans of different client instances apart.
+	 * 
+	 * @return A unique client number
+	 */
+	static int nextClientId() {
+		return clientCounter.incrementAndGet();
+	}
+
+	/**
+	 * Registers <code>bean</code> as an MBean with the given management interface. The bean is
+	 * registered as an MXBean when the interface is an MXBean interface.
+	 * 
+	 * @param bean
+	 *            The bean to register
+	 * @param mbeanInterface
+	 *            The management interface implemented by the bean
+	 * @param properties
+	 *            The key properties of the object name, i.e. <code>type=Foo,name=Bar</code>
+	 * @return The name of the registered bean or <code>null</code> if registration failed
+	 */
+	static <T> ObjectName register(T bean, Class<T> mbeanInterface, String properties) {
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ':' + properties);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(new StandardMBean(bean, mbeanInterface, JMX.isMXBeanInterface(mbeanInterface)), name);
+			return name;
+		}
+		catch(JMException e) {
+			return null;
+		}
+		catch(SecurityException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Unregisters a bean previously registered using {@link #register(Object, Class, String)}.
+	 * 
+	 * @param name
+	 *            The name returned from the registration, or <code>null</code>
+	 */
+	static void unregister(ObjectName name) {
+		if(name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+		catch(JMException e) {
+			// Already gone
+		}
+		catch(SecurityException e) {
+			// Not permitted
+		}
+	}
+}
@@ -11,16 +11,26 @@
 package com.puppetlabs.puppetdb.javaclient.impl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Type;
 import java.net.URLEncoder;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.http.HttpStatus;
@@ -28,14 +38,20 @@ import org.apache.http.client.HttpResponseException;
 
 import com.google.gson.annotations.SerializedName;
 import com.google.inject.Inject;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
 import com.puppetlabs.puppetdb.javaclient.HttpConnector;
 import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.command.CatalogWriter;
+import com.puppetlabs.puppetdb.javaclient.command.CommandWriter;
+import com.puppetlabs.puppetdb.javaclient.command.ReportWriter;
 import com.puppetlabs.puppetdb.javaclient.model.*;
 import com.puppetlabs.puppetdb.javaclient.model.EventCount.CountBy;
 import com.puppetlabs.puppetdb.javaclient.model.EventCount.SummarizeBy;
 import com.puppetlabs.puppetdb.javaclient.query.Expression;
 import com.puppetlabs.puppetdb.javaclient.query.Paging;
 import com.puppetlabs.puppetdb.javaclient.query.Parameters;
+import com.puppetlabs.puppetdb.javaclient.query.QuerySplitter;
 
 /**
  * Default implementation of the PuppetDBClient
@@ -51,6 +67,15 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 		private String version;
 	}
 
+	private static final ThreadFactory SPLIT_QUERY_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB split query"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
 	/**
 	 * Builds a path from the given key and all qualifiers. The key is expected to start, but not end
 	 * with a slash. The qualifiers must not start nor end with a slash. The final string will not
@@ -73,6 +98,20 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 		return bld.toString();
 	}
 
+	private static UUID getUUID(CommandResponse response) {
+		return response == null
+				? null
+				: UUID.fromString(response.getUuid());
+	}
+
+	private static CommandObject newCommand(String command, int version, Object payload) {
+		CommandObject cmdObj = new CommandObject();
+		cmdObj.setCommand(command);
+		cmdObj.setVersion(version);
+		cmdObj.setPayload(payload);
+		return cmdObj;
+	}
+
 	private static Map<String, String> paramsAsMap(Parameters<?> params) {
 		if(params == null)
 			return null;
@@ -83,6 +122,28 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 
 	private final HttpConnector connector;
 
+	private final int maxQueryLength;
+
+	private final ThreadPoolExecutor splitQueryExecutor;
+
+	private final CommandWriter.Submitter commandSubmitter = new CommandWriter.Submitter() {
+		@Override
+		public UUID submit(Path payload, String checksum) throws IOException {
+			return postCommand(payload, checksum);
+		}
+	};
+
+	/**
+	 * Creates a new PuppetDBClient instance that splits large queries in accordance with the
+	 * default preferences.
+	 *
+	 * @param connector
+	 *            The connector responsible for all HTTP requests
+	 */
+	public PuppetDBClientImpl(HttpConnector connector) {
+		this(connector, new BasicAPIPreferences());
+	}
+
 	/**
 	 * <p>
 	 * Creates a new PuppetDBClient instance. This constructor
@@ -93,10 +154,17 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 	 *
 	 * @param connector
 	 *            The connector responsible for all HTTP requests
+	 * @param preferences
+	 *            The preferences that controls splitting of large queries
 	 */
 	@Inject
-	public PuppetDBClientImpl(HttpConnector connector) {
+	public PuppetDBClientImpl(HttpConnector connector, APIPreferences preferences) {
 		this.connector = connector;
+		maxQueryLength = preferences.getMaxQueryLength();
+		int parallelism = Math.max(1, preferences.getSplitQueryParallelism());
+		splitQueryExecutor = new ThreadPoolExecutor(
+			parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), SPLIT_QUERY_THREADS);
+		splitQueryExecutor.allowCoreThreadTimeOut(true);
 	}
 
 	private void addEventCountParams(Parameters<EventCount> params, Expression<Event> eventQuery, SummarizeBy summarizeBy, CountBy countBy,
@@ -116,11 +184,17 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 			summarizeBy = SummarizeBy.certname;
 		queryMap.put("summarize-by", summarizeBy.toString());
 
-		// count-by is optional and defaults to certname so we don't add it unless it differs
-		if(countBy != null && countBy != CountBy.certname)
+		// count-by is optional and defaults to resource on the server
+		if(countBy != null)
 			queryMap.put("count-by", countBy.toString());
 	}
 
+	@Override
+	public void close() {
+		splitQueryExecutor.shutdownNow();
+		connector.close();
+	}
+
 	@Override
 	public UUID deactivateNode(String node) throws IOException {
 		return postCommand("deactivate node", 1, node);
@@ -128,7 +202,7 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 
 	@Override
 	public List<Node> getActiveNodes(Parameters<Node> params) throws IOException {
-		return getListResponse("/nodes", params, Node.LIST);
+		return getListResponse("/nodes", params, Node.LIST, Node.class);
 	}
 
 	@Override
@@ -152,7 +226,7 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 
 	@Override
 	public List<Event> getEvents(Parameters<Event> params) throws IOException {
-		return getListResponse("/events", params, Event.LIST);
+		return getListResponse("/events", params, Event.LIST, Event.class);
 	}
 
 	@Override
@@ -163,7 +237,7 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 	@Override
 	public List<Fact> getFacts(Parameters<Fact> params, String... factQualifiers) throws IOException {
 		StringBuilder bld = new StringBuilder();
-		return getListResponse(buildPath(bld, "/facts", factQualifiers), params, Fact.LIST);
+		return getListResponse(buildPath(bld, "/facts", factQualifiers), params, Fact.LIST, Fact.class);
 	}
 
 	/**
@@ -198,6 +272,63 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 		}
 	}
 
+	/**
+	 * Executes the request and converts the result into a list of the desired <code>type</code>. A query that exceeds the
+	 * {@link APIPreferences#getMaxQueryLength() maximum query length} is split by a {@link QuerySplitter} into chunks that
+	 * are executed concurrently and whose results are merged.
+	 *
+	 * @param uriStr
+	 *            The relative path to the endpoint
+	 * @param params
+	 *            Parameters to pass in the request
+	 * @param type
+	 *            The expected return type (must be a generic List declaration)
+	 * @param entryType
+	 *            The class of the list entries
+	 * @return The response in list form or an empty list in case no data was found
+	 * @throws IOException
+	 */
+	protected <V> List<V> getListResponse(String uriStr, Parameters<V> params, final Type type, Class<V> entryType) throws IOException {
+		QuerySplitter<V> splitter = QuerySplitter.create(params, entryType, maxQueryLength);
+		if(splitter == null)
+			return this.<V, V> getListResponse(uriStr, params, type);
+
+		final String chunkUri = uriStr;
+		List<Future<List<V>>> futures = new ArrayList<Future<List<V>>>();
+		for(final Parameters<V> chunk : splitter.getChunks())
+			futures.add(splitQueryExecutor.submit(new Callable<List<V>>() {
+				@Override
+				public List<V> call() throws IOException {
+					return PuppetDBClientImpl.this.<V, V> getListResponse(chunkUri, chunk, type);
+				}
+			}));
+
+		List<List<V>> results = new ArrayList<List<V>>(futures.size());
+		try {
+			for(Future<List<V>> future : futures)
+				results.add(future.get());
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for split query");
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+		finally {
+			for(Future<List<V>> future : futures)
+				future.cancel(true);
+		}
+		return splitter.merge(results);
+	}
+
 	/**
 	 * Executes the request and converts the result into a map of the desired <code>type</code>. If the request results in a
 	 * {@link HttpStatus#SC_NOT_FOUND}, then this method will
@@ -237,14 +368,14 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 	public List<Fact> getNodeFacts(Parameters<Fact> params, String node, String... factQualifiers) throws IOException {
 		StringBuilder bld = new StringBuilder("/nodes/");
 		bld.append(URLEncoder.encode(node, HttpConnector.UTF_8.name()));
-		return getListResponse(buildPath(bld, "/facts", factQualifiers), params, Fact.LIST);
+		return getListResponse(buildPath(bld, "/facts", factQualifiers), params, Fact.LIST, Fact.class);
 	}
 
 	@Override
 	public List<Resource> getNodeResources(Parameters<Resource> params, String node, String... resourceQualifiers) throws IOException {
 		StringBuilder bld = new StringBuilder("/nodes/");
 		bld.append(URLEncoder.encode(node, HttpConnector.UTF_8.name()));
-		return getListResponse(buildPath(bld, "/resources", resourceQualifiers), params, Resource.LIST);
+		return getListResponse(buildPath(bld, "/resources", resourceQualifiers), params, Resource.LIST, Resource.class);
 	}
 
 	@Override
@@ -254,13 +385,13 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 
 	@Override
 	public List<Report> getReports(Parameters<Report> params) throws IOException {
-		return getListResponse("/reports", params, Report.LIST);
+		return getListResponse("/reports", params, Report.LIST, Report.class);
 	}
 
 	@Override
 	public List<Resource> getResources(Parameters<Resource> params, String... resourceQualifiers) throws IOException {
 		StringBuilder bld = new StringBuilder();
-		return getListResponse(buildPath(bld, "/resources", resourceQualifiers), params, Resource.LIST);
+		return getListResponse(buildPath(bld, "/resources", resourceQualifiers), params, Resource.LIST, Resource.class);
 	}
 
 	@Override
@@ -299,13 +430,37 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 		return sv.version;
 	}
 
-	protected UUID postCommand(String command, int version, Object payload) throws IOException {
-		CommandObject cmdObj = new CommandObject();
-		cmdObj.setCommand(command);
-		cmdObj.setVersion(version);
-		cmdObj.setPayload(payload);
+	@Override
+	public CatalogWriter newCatalogWriter(Catalog header) throws IOException {
+		return new CatalogWriter(connector, 2, header, commandSubmitter);
+	}
+
+	@Override
+	public ReportWriter newReportWriter(Report header) throws IOException {
+		return new ReportWriter(connector, 1, header, commandSubmitter);
+	}
+
+	/**
+	 * Sends a command that has been written to a file by a {@link CommandWriter}. The request is
+	 * byte-identical to the one sent by {@link #postCommand(String, int, Object)} for the same command.
+	 * 
+	 * @param payload
+	 *            The file with the UTF-8 encoded command
+	 * @param checksum
+	 *            The hex encoded SHA-1 checksum of the file
+	 * @return The UUID of the command
+	 * @throws IOException
+	 */
+	protected UUID postCommand(Path payload, String checksum) throws IOException {
+		// The same map type as postCommand(String, int, Object) so that the parameter order is the same
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("payload", null);
+		params.put("checksum", checksum);
+		return getUUID(connector.postForm("/commands/", params, "payload", payload, CommandResponse.class));
+	}
 
-		String json = connector.toJSON(cmdObj);
+	protected UUID postCommand(String command, int version, Object payload) throws IOException {
+		String json = connector.toJSON(newCommand(command, version, payload));
 		Map<String, String> params = new HashMap<String, String>();
 		params.put("payload", json);
 		try {
@@ -315,11 +470,7 @@ public class PuppetDBClientImpl implements PuppetDBClient {
 		catch(NoSuchAlgorithmException e) {
 			throw new IllegalArgumentException(e);
 		}
-
-		CommandResponse response = connector.post("/commands/", params, CommandResponse.class);
-		return response == null
-				? null
-						: UUID.fromString(response.getUuid());
+		return getUUID(connector.post("/commands/", params, CommandResponse.class));
 	}
 
 	@Override
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.gson.Gson;
+import com.puppetlabs.puppetdb.javaclient.CoalescingPolicy;
+
+/**
+ * Lets concurrent callers of identical queries share one request. The first caller, the leader,
+ * executes the query while callers that arrive before the leader has finished wait for its
+ * result. A failure is shared the same way. Nothing is retained once the leader has finished, so
+ * a query that starts after that always sends a new request.
+ * <p>
+ * Each waiter receives its own copy of a list, set or map result so that adding, removing or
+ * sorting in one caller is never seen by another. The elements are shared unless the policy is
+ * {@link CoalescingPolicy#COPY}.
+ * </p>
+ */
+class RequestCoalescer {
+	/**
+	 * A query executed on behalf of the leader.
+	 */
+	interface Call<V> {
+		/**
+		 * @param totalCount
+		 *            Receiver of the total count or <code>null</code>
+		 * @return The result
+		 * @throws IOException
+		 */
+		V execute(int[] totalCount) throws IOException;
+	}
+
+	/**
+	 * The outcome of one leader's query.
+	 */
+	private static class Flight {
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private Object result;
+
+		private int totalCount = -1;
+
+		private Throwable failure;
+
+		Object await() throws IOException {
+			try {
+				done.await();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if(failure == null)
+				return result;
+			if(failure instanceof IOException)
+				throw (IOException) failure;
+			if(failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Copies a collection or map so that the caller owns its container. The elements are shared.
+	 */
+	private static Object shallowCopy(Object result) {
+		if(result instanceof List)
+			return new ArrayList<Object>((List<?>) result);
+		if(result instanceof Set)
+			return new LinkedHashSet<Object>((Set<?>) result);
+		if(result instanceof Collection)
+			return new ArrayList<Object>((Collection<?>) result);
+		if(result instanceof Map)
+			return new LinkedHashMap<Object, Object>((Map<?, ?>) result);
+		return result;
+	}
+
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+	private final Gson gson;
+
+	private final DefaultClientMetrics metrics;
+
+	private final boolean copy;
+
+	/**
+	 * @param gson
+	 *            The instance used when copying results
+	 * @param metrics
+	 *            The metrics that will count coalesced calls
+	 * @param policy
+	 *            Either {@link CoalescingPolicy#SHARE} or {@link CoalescingPolicy#COPY}
+	 */
+	RequestCoalescer(Gson gson, DefaultClientMetrics metrics, CoalescingPolicy policy) {
+		this.gson = gson;
+		this.metrics = metrics;
+		this.copy = policy == CoalescingPolicy.COPY;
+	}
+
+	/**
+	 * Executes the call unless an identical call is already in flight, in which case its outcome
+	 * is awaited and returned.
+	 * 
+	 * @param uri
+	 *            The URI of the query with its parameters in canonical order
+	 * @param type
+	 *            The expected type of the result
+	 * @param totalCount
+	 *            Receiver of the total count or <code>null</code>
+	 * @param call
+	 *            The call that is executed by the leader
+	 * @return The result of the call
+	 * @throws IOException
+	 */
+	<V> V execute(URI uri, Type type, int[] totalCount, Call<V> call) throws IOException {
+		StringBuilder bld = new StringBuilder(uri.toString());
+		bld.append(' ');
+		bld.append(type);
+		if(totalCount != null)
+			bld.append(" #"); //$NON-NLS-1$
+		String key = bld.toString();
+
+		Flight flight = new Flight();
+		Flight leader = flights.putIfAbsent(key, flight);
+		if(leader != null) {
+			metrics.forPath(uri.getPath()).recordCoalesced();
+			Object result = leader.await();
+			if(totalCount != null)
+				totalCount[0] = leader.totalCount;
+			@SuppressWarnings("unchecked")
+			V value = (V) (copy && result != null
+					? gson.fromJson(gson.toJsonTree(result, type), type)
+					: shallowCopy(result));
+			return value;
+		}
+
+		try {
+			V result = call.execute(totalCount);
+			flight.result = result;
+			if(totalCount != null)
+				flight.totalCount = totalCount[0];
+			return result;
+		}
+		catch(IOException e) {
+			flight.failure = e;
+			throw e;
+		}
+		catch(RuntimeException e) {
+			flight.failure = e;
+			throw e;
+		}
+		catch(Error e) {
+			flight.failure = e;
+			throw e;
+		}
+		finally {
+			flights.remove(key, flight);
+			flight.done.countDown();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a query should be hedged and schedules the hedged requests. The hedging
+ * delay is learned from recent query latencies and the number of hedged requests is capped
+ * by a token bucket that every query deposits a fraction of a token into.
+ * <p>
+ * The latencies are kept for each normalized request path. A percentile computed over a mix
+ * of node and catalog queries would hedge nearly every catalog query and almost no node query.
+ * </p>
+ */
+class RequestHedger {
+	// Tokens are counted in thousandths
+	private static final long TOKEN = 1000;
+
+	private static final long MAX_TOKENS = 10 * TOKEN;
+
+	private static final ThreadFactory HEDGING_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB hedged request"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<String, LatencyWindow>();
+
+	private final int percentile;
+
+	private final long deposit;
+
+	private final AtomicLong tokens = new AtomicLong();
+
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * @param percentile
+	 *            The latency percentile after which a query is hedged
+	 * @param budget
+	 *            The maximum percentage of queries that may be hedged
+	 * @param maxThreads
+	 *            The maximum number of concurrently executing hedged requests
+	 */
+	RequestHedger(int percentile, int budget, int maxThreads) {
+		this.percentile = percentile;
+		deposit = Math.max(0, budget) * TOKEN / 100;
+		scheduler = new ScheduledThreadPoolExecutor(Math.max(1, maxThreads), HEDGING_THREADS);
+		scheduler.setKeepAliveTime(60, TimeUnit.SECONDS);
+		scheduler.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns the delay after which a query should be hedged, or -1 if not enough
+	 * latencies have been observed yet for the path.
+	 *
+	 * @param path
+	 *            The normalized path of the query
+	 * @return The delay in nanoseconds or -1
+	 */
+	long getDelay(String path) {
+		LatencyWindow window = latencies.get(path);
+		return window == null
+				? -1
+				: window.getPercentile();
+	}
+
+	/**
+	 * Called once for each hedging eligible query. Adds to the hedging budget.
+	 */
+	void queryStarted() {
+		for(;;) {
+			long current = tokens.get();
+			long next = Math.min(MAX_TOKENS, current + deposit);
+			if(current == next || tokens.compareAndSet(current, next))
+				return;
+		}
+	}
+
+	void recordLatency(String path, long nanos) {
+		LatencyWindow window = latencies.get(path);
+		if(window == null) {
+			window = new LatencyWindow(percentile);
+			LatencyWindow existing = latencies.putIfAbsent(path, window);
+			if(existing != null)
+				window = existing;
+		}
+		window.record(nanos);
+	}
+
+	ScheduledFuture<?> schedule(Runnable hedge, long delayNanos) {
+		return scheduler.schedule(hedge, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Cancels the pending hedged requests and stops the scheduler threads.
+	 */
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Withdraws one hedged request from the budget.
+	 *
+	 * @return <code>true</code> if the budget allowed one more hedged request
+	 */
+	boolean tryAcquire() {
+		for(;;) {
+			long current = tokens.get();
+			if(current < TOKEN)
+				return false;
+			if(tokens.compareAndSet(current, current - TOKEN))
+				return true;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.puppetlabs.puppetdb.javaclient.metrics.RequestMetricsMXBean;
+import com.puppetlabs.puppetdb.javaclient.metrics.RequestMetricsSnapshot;
+
+/**
+ * The live, lock-free metrics of one normalized endpoint path.
+ */
+class RequestStats implements RequestMetricsMXBean {
+	/**
+	 * Status used when a call fails without a HTTP status code
+	 */
+	static final int NO_STATUS = 0;
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private static double toMillis(double nanos) {
+		return nanos / NANOS_PER_MILLI;
+	}
+
+	private final String path;
+
+	private final AtomicLong requestCount = new AtomicLong();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	private final Histogram latency = new Histogram();
+
+	private final Histogram timeToFirstByte = new Histogram();
+
+	private final Histogram parseTime = new Histogram();
+
+	private final AtomicLong responseBytes = new AtomicLong();
+
+	private final AtomicLong recordsDecoded = new AtomicLong();
+
+	private final ConcurrentMap<Integer, AtomicLong> errorCounts = new ConcurrentHashMap<Integer, AtomicLong>();
+
+	RequestStats(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Records the end of a call started with {@link #callStarted()}.
+	 * 
+	 * @param nanos
+	 *            The total time of the call
+	 */
+	void callEnded(long nanos) {
+		inFlight.decrementAndGet();
+		requestCount.incrementAndGet();
+		latency.record(nanos);
+	}
+
+	void callFailed(int status) {
+		AtomicLong count = errorCounts.get(Integer.valueOf(status));
+		if(count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = errorCounts.putIfAbsent(Integer.valueOf(status), newCount);
+			if(count == null)
+				count = newCount;
+		}
+		count.incrementAndGet();
+	}
+
+	void callStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	@Override
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	@Override
+	public long getErrorCount() {
+		long total = 0;
+		for(AtomicLong count : errorCounts.values())
+			total += count.get();
+		return total;
+	}
+
+	@Override
+	public Map<Integer, Long> getErrorCounts() {
+		Map<Integer, Long> counts = new HashMap<Integer, Long>();
+		for(Map.Entry<Integer, AtomicLong> entry : errorCounts.entrySet())
+			counts.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+		return counts;
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public double getLatencyMax() {
+		return toMillis(latency.snapshot().getMax());
+	}
+
+	@Override
+	public double getLatencyMean() {
+		return toMillis(latency.snapshot().getMean());
+	}
+
+	@Override
+	public double getLatencyP50() {
+		return toMillis(latency.snapshot().getP50());
+	}
+
+	@Override
+	public double getLatencyP95() {
+		return toMillis(latency.snapshot().getP95());
+	}
+
+	@Override
+	public double getLatencyP99() {
+		return toMillis(latency.snapshot().getP99());
+	}
+
+	@Override
+	public double getParseTimeP50() {
+		return toMillis(parseTime.snapshot().getP50());
+	}
+
+	@Override
+	public double getParseTimeP99() {
+		return toMillis(parseTime.snapshot().getP99());
+	}
+
+	@Override
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public long getRecordsDecoded() {
+		return recordsDecoded.get();
+	}
+
+	@Override
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	@Override
+	public long getResponseBytes() {
+		return responseBytes.get();
+	}
+
+	@Override
+	public double getTimeToFirstByteP50() {
+		return toMillis(timeToFirstByte.snapshot().getP50());
+	}
+
+	@Override
+	public double getTimeToFirstByteP99() {
+		return toMillis(timeToFirstByte.snapshot().getP99());
+	}
+
+	/**
+	 * Records a call that was answered with the response of an identical call already in flight.
+	 */
+	void recordCoalesced() {
+		coalescedCount.incrementAndGet();
+	}
+
+	/**
+	 * Records the decoding of a response body.
+	 * 
+	 * @param nanos
+	 *            The time spent reading and decoding the body
+	 * @param bytes
+	 *            The number of bytes read
+	 * @param records
+	 *            The number of decoded entities
+	 */
+	void recordParse(long nanos, long bytes, int records) {
+		parseTime.record(nanos);
+		responseBytes.addAndGet(bytes);
+		recordsDecoded.addAndGet(records);
+	}
+
+	/**
+	 * Records response body bytes that were transferred without decoding.
+	 * 
+	 * @param bytes
+	 *            The number of bytes read
+	 */
+	void recordResponseBytes(long bytes) {
+		responseBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * Records the time from sending a HTTP request until the response headers arrived.
+	 * 
+	 * @param nanos
+	 *            The elapsed time
+	 */
+	void recordTimeToFirstByte(long nanos) {
+		timeToFirstByte.record(nanos);
+	}
+
+	RequestMetricsSnapshot snapshot() {
+		return new RequestMetricsSnapshot(
+			path, requestCount.get(), inFlight.get(), coalescedCount.get(), latency.snapshot(), timeToFirstByte.snapshot(),
+			parseTime.snapshot(), responseBytes.get(), recordsDecoded.get(), getErrorCounts());
+	}
+}
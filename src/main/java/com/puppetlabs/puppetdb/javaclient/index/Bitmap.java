@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable set of node ids between zero and a fixed universe size. Sparse sets are kept as a
+ * sorted array of ids and dense sets as a bitmap with one bit per node, whichever is smaller. This
+ * keeps the many postings that only contain a handful of nodes small while the set operations on
+ * large postings remain word-parallel.
+ */
+final class Bitmap {
+	// A set with fewer ids than universe / ARRAY_LIMIT_DIVISOR is stored as an array
+	private static final int ARRAY_LIMIT_DIVISOR = 32;
+
+	private static final int[] NO_IDS = new int[0];
+
+	/**
+	 * @param universe
+	 *            The universe size
+	 * @return The empty set
+	 */
+	static Bitmap empty(int universe) {
+		return new Bitmap(universe, NO_IDS, null, 0);
+	}
+
+	private static Bitmap fromWords(int universe, long[] words) {
+		int cardinality = 0;
+		for(long word : words)
+			cardinality += Long.bitCount(word);
+		if(cardinality >= universe / ARRAY_LIMIT_DIVISOR)
+			return new Bitmap(universe, null, words, cardinality);
+
+		int[] ids = new int[cardinality];
+		int n = 0;
+		for(int idx = 0; idx < words.length; ++idx)
+			for(long word = words[idx]; word != 0; word &= word - 1)
+				ids[n++] = (idx << 6) + Long.numberOfTrailingZeros(word);
+		return new Bitmap(universe, ids, null, cardinality);
+	}
+
+	/**
+	 * @param universe
+	 *            The universe size
+	 * @return The set of all ids in the universe
+	 */
+	static Bitmap full(int universe) {
+		long[] words = new long[wordCount(universe)];
+		Arrays.fill(words, -1L);
+		if((universe & 63) != 0)
+			words[words.length - 1] = (1L << universe) - 1;
+		return fromWords(universe, words);
+	}
+
+	/**
+	 * @param universe
+	 *            The universe size
+	 * @param ids
+	 *            Ids in ascending order without duplicates. The array is owned by the new set
+	 * @param count
+	 *            The number of ids used from the array
+	 * @return The set of the given ids
+	 */
+	static Bitmap of(int universe, int[] ids, int count) {
+		if(count >= universe / ARRAY_LIMIT_DIVISOR) {
+			long[] words = new long[wordCount(universe)];
+			for(int idx = 0; idx < count; ++idx)
+				words[ids[idx] >>> 6] |= 1L << ids[idx];
+			return new Bitmap(universe, null, words, count);
+		}
+		return new Bitmap(universe, count == ids.length
+				? ids
+				: Arrays.copyOf(ids, count), null, count);
+	}
+
+	/**
+	 * Computes the union of many sets at once.
+	 * 
+	 * @param universe
+	 *            The universe size
+	 * @param sets
+	 *            The sets to join
+	 * @return The union
+	 */
+	static Bitmap union(int universe, List<Bitmap> sets) {
+		switch(sets.size()) {
+			case 0:
+				return empty(universe);
+			case 1:
+				return sets.get(0);
+			case 2:
+				return sets.get(0).or(sets.get(1));
+		}
+		long[] words = new long[wordCount(universe)];
+		for(Bitmap set : sets)
+			set.addTo(words);
+		return fromWords(universe, words);
+	}
+
+	private static int wordCount(int universe) {
+		return (universe + 63) >>> 6;
+	}
+
+	private final int universe;
+
+	private final int[] ids;
+
+	private final long[] words;
+
+	private final int cardinality;
+
+	private Bitmap(int universe, int[] ids, long[] words, int cardinality) {
+		this.universe = universe;
+		this.ids = ids;
+		this.words = words;
+		this.cardinality = cardinality;
+	}
+
+	private void addTo(long[] target) {
+		if(words == null)
+			for(int id : ids)
+				target[id >>> 6] |= 1L << id;
+		else
+			for(int idx = 0; idx < words.length; ++idx)
+				target[idx] |= words[idx];
+	}
+
+	/**
+	 * @param other
+	 *            A set in the same universe
+	 * @return The intersection of this set and <code>other</code>
+	 */
+	Bitmap and(Bitmap other) {
+		if(words != null && other.words != null) {
+			long[] result = new long[words.length];
+			for(int idx = 0; idx < result.length; ++idx)
+				result[idx] = words[idx] & other.words[idx];
+			return fromWords(universe, result);
+		}
+		Bitmap sparse = words == null
+				? this
+				: other;
+		Bitmap dense = sparse == this
+				? other
+				: this;
+		int[] result = new int[sparse.cardinality];
+		int n = 0;
+		for(int id : sparse.ids)
+			if(dense.contains(id))
+				result[n++] = id;
+		return of(universe, result, n);
+	}
+
+	/**
+	 * @param other
+	 *            A set in the same universe
+	 * @return The ids of this set that are not in <code>other</code>
+	 */
+	Bitmap andNot(Bitmap other) {
+		if(words == null) {
+			int[] result = new int[cardinality];
+			int n = 0;
+			for(int id : ids)
+				if(!other.contains(id))
+					result[n++] = id;
+			return of(universe, result, n);
+		}
+		long[] result = words.clone();
+		if(other.words == null)
+			for(int id : other.ids)
+				result[id >>> 6] &= ~(1L << id);
+		else
+			for(int idx = 0; idx < result.length; ++idx)
+				result[idx] &= ~other.words[idx];
+		return fromWords(universe, result);
+	}
+
+	/**
+	 * @param id
+	 *            The id to test
+	 * @return <code>true</code> if this set contains <code>id</code>
+	 */
+	boolean contains(int id) {
+		return words == null
+				? Arrays.binarySearch(ids, id) >= 0
+				: (words[id >>> 6] & 1L << id) != 0;
+	}
+
+	/**
+	 * @return The number of ids in this set
+	 */
+	int getCardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @return The universe size
+	 */
+	int getUniverse() {
+		return universe;
+	}
+
+	/**
+	 * @return <code>true</code> if this set is empty
+	 */
+	boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * @param other
+	 *            A set in the same universe
+	 * @return The union of this set and <code>other</code>
+	 */
+	Bitmap or(Bitmap other) {
+		if(other.isEmpty())
+			return this;
+		if(isEmpty())
+			return other;
+		if(words == null && other.words == null) {
+			int[] result = new int[cardinality + other.cardinality];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+			while(i < ids.length && j < other.ids.length) {
+				int a = ids[i];
+				int b = other.ids[j];
+				if(a <= b) {
+					result[n++] = a;
+					++i;
+					if(a == b)
+						++j;
+				}
+				else {
+					result[n++] = b;
+					++j;
+				}
+			}
+			while(i < ids.length)
+				result[n++] = ids[i++];
+			while(j < other.ids.length)
+				result[n++] = other.ids[j++];
+			return of(universe, result, n);
+		}
+		long[] result = new long[wordCount(universe)];
+		addTo(result);
+		other.addTo(result);
+		return fromWords(universe, result);
+	}
+
+	/**
+	 * @return The ids of this set in ascending order
+	 */
+	int[] toArray() {
+		if(words == null)
+			return ids.clone();
+		int[] result = new int[cardinality];
+		int n = 0;
+		for(int idx = 0; idx < words.length; ++idx)
+			for(long word = words[idx]; word != 0; word &= word - 1)
+				result[n++] = (idx << 6) + Long.numberOfTrailingZeros(word);
+		return result;
+	}
+}
@@ -0,0 +1,505 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Edge;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Relationship;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.ResourceSpec;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+/**
+ * <p>
+ * An immutable dependency graph of the resources in a {@link Catalog}. Each resource is given an int
+ * id when the graph is built, in the order of {@link Catalog.Data#getResources()}, followed by
+ * resources that are only referenced by edges. The edges are stored as compressed adjacency arrays,
+ * one set for each {@link Relationship} and direction, so traversals never hash a type or title.
+ * </p>
+ * <p>
+ * Methods that take relationships only follow edges of the given kinds. When no relationship is
+ * given, all edges are followed. Regardless of the relationship, the source of an edge is managed
+ * before its target.
+ * </p>
+ * <p>
+ * A graph is thread safe. To reflect changes, build a new graph.
+ * </p>
+ */
+public class CatalogGraph {
+	/**
+	 * The neighbours of every resource in one direction. The neighbours of resource <code>id</code>
+	 * are found in <code>ids[offsets[id]]</code> up to but not including <code>ids[offsets[id + 1]]</code>.
+	 */
+	private static class Adjacency {
+		final int[] offsets;
+
+		final int[] ids;
+
+		Adjacency(int[] offsets, int[] ids) {
+			this.offsets = offsets;
+			this.ids = ids;
+		}
+	}
+
+	private static final Relationship[] RELATIONSHIPS = Relationship.values();
+
+	private static final int ALL = (1 << RELATIONSHIPS.length) - 1;
+
+	private static int add(Map<String, Integer> ids, List<String> types, List<String> titles, String type, String title) {
+		String key = key(type, title);
+		Integer id = ids.get(key);
+		if(id == null) {
+			id = Integer.valueOf(types.size());
+			ids.put(key, id);
+			types.add(type);
+			titles.add(title);
+		}
+		return id.intValue();
+	}
+
+	private static Adjacency buildAdjacency(int size, int[] from, int[] to, int[] kinds, int edgeCount, int kind) {
+		int[] offsets = new int[size + 1];
+		for(int idx = 0; idx < edgeCount; ++idx)
+			if(kinds[idx] == kind)
+				++offsets[from[idx] + 1];
+		for(int idx = 0; idx < size; ++idx)
+			offsets[idx + 1] += offsets[idx];
+		int[] ids = new int[offsets[size]];
+		int[] fill = Arrays.copyOf(offsets, size);
+		for(int idx = 0; idx < edgeCount; ++idx)
+			if(kinds[idx] == kind)
+				ids[fill[from[idx]]++] = to[idx];
+		return new Adjacency(offsets, ids);
+	}
+
+	/**
+	 * Builds the graph of the given catalog.
+	 * 
+	 * @param catalog
+	 *            The catalog, typically the one that is about to be sent with
+	 *            {@link com.puppetlabs.puppetdb.javaclient.PuppetDBClient#replaceCatalog(Catalog)}
+	 * @return The new graph
+	 */
+	public static CatalogGraph fromCatalog(Catalog catalog) {
+		Catalog.Data data = catalog.getData();
+		List<Resource> resources = data == null
+				? null
+				: data.getResources();
+		List<Edge> edges = data == null
+				? null
+				: data.getEdges();
+
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> types = new ArrayList<String>();
+		List<String> titles = new ArrayList<String>();
+		if(resources != null)
+			for(Resource resource : resources)
+				add(ids, types, titles, resource.getType(), resource.getTitle());
+		int resourceCount = types.size();
+
+		// Intern the edge endpoints into parallel arrays before any adjacency is built
+		int edgeCount = edges == null
+				? 0
+				: edges.size();
+		int[] sources = new int[edgeCount];
+		int[] targets = new int[edgeCount];
+		int[] kinds = new int[edgeCount];
+		int n = 0;
+		for(int idx = 0; idx < edgeCount; ++idx) {
+			Edge edge = edges.get(idx);
+			ResourceSpec source = edge.getSource();
+			ResourceSpec target = edge.getTarget();
+			if(source == null || target == null || edge.getRelationship() == null)
+				continue;
+			sources[n] = add(ids, types, titles, source.getType(), source.getTitle());
+			targets[n] = add(ids, types, titles, target.getType(), target.getTitle());
+			kinds[n] = edge.getRelationship().ordinal();
+			++n;
+		}
+
+		int size = types.size();
+		Adjacency[] forward = new Adjacency[ALL + 1];
+		Adjacency[] reverse = new Adjacency[ALL + 1];
+		for(int kind = 0; kind < RELATIONSHIPS.length; ++kind) {
+			forward[1 << kind] = buildAdjacency(size, sources, targets, kinds, n, kind);
+			reverse[1 << kind] = buildAdjacency(size, targets, sources, kinds, n, kind);
+		}
+		Resource[] resourceArray = resources == null
+				? new Resource[0]
+				: resources.toArray(new Resource[resources.size()]);
+		return new CatalogGraph(ids, types.toArray(new String[size]), titles.toArray(new String[size]), resourceArray, resourceCount, forward, reverse);
+	}
+
+	private static String key(String type, String title) {
+		return type + '[' + title + ']';
+	}
+
+	private static int mask(Relationship... relationships) {
+		if(relationships == null || relationships.length == 0)
+			return ALL;
+		int mask = 0;
+		for(Relationship relationship : relationships)
+			mask |= 1 << relationship.ordinal();
+		return mask;
+	}
+
+	private static Adjacency merge(Adjacency[] adjacencies, int mask, int size) {
+		int[] offsets = new int[size + 1];
+		for(int kind = 0; kind < RELATIONSHIPS.length; ++kind)
+			if((mask & 1 << kind) != 0) {
+				int[] kindOffsets = adjacencies[1 << kind].offsets;
+				for(int idx = 0; idx < size; ++idx)
+					offsets[idx + 1] += kindOffsets[idx + 1] - kindOffsets[idx];
+			}
+		for(int idx = 0; idx < size; ++idx)
+			offsets[idx + 1] += offsets[idx];
+		int[] ids = new int[offsets[size]];
+		int[] fill = Arrays.copyOf(offsets, size);
+		for(int kind = 0; kind < RELATIONSHIPS.length; ++kind)
+			if((mask & 1 << kind) != 0) {
+				Adjacency adjacency = adjacencies[1 << kind];
+				for(int idx = 0; idx < size; ++idx) {
+					int start = adjacency.offsets[idx];
+					int len = adjacency.offsets[idx + 1] - start;
+					System.arraycopy(adjacency.ids, start, ids, fill[idx], len);
+					fill[idx] += len;
+				}
+			}
+		return new Adjacency(offsets, ids);
+	}
+
+	private final Map<String, Integer> ids;
+
+	private final String[] types;
+
+	private final String[] titles;
+
+	private final Resource[] resources;
+
+	private final int resourceCount;
+
+	// Indexed by relationship mask. Single relationships are built up front, combinations on demand
+	private final Adjacency[] forward;
+
+	private final Adjacency[] reverse;
+
+	private CatalogGraph(Map<String, Integer> ids, String[] types, String[] titles, Resource[] resources, int resourceCount,
+			Adjacency[] forward, Adjacency[] reverse) {
+		this.ids = ids;
+		this.types = types;
+		this.titles = titles;
+		this.resources = resources;
+		this.resourceCount = resourceCount;
+		this.forward = forward;
+		this.reverse = reverse;
+	}
+
+	/**
+	 * Adds everything that can be reached from the set bits of <code>visited</code> to
+	 * <code>visited</code>.
+	 */
+	private void closure(Adjacency adjacency, long[] visited) {
+		int[] stack = new int[types.length];
+		int top = 0;
+		for(int idx = 0; idx < visited.length; ++idx)
+			for(long word = visited[idx]; word != 0; word &= word - 1)
+				stack[top++] = (idx << 6) + Long.numberOfTrailingZeros(word);
+		int[] offsets = adjacency.offsets;
+		int[] neighbours = adjacency.ids;
+		while(top > 0) {
+			int id = stack[--top];
+			for(int pos = offsets[id], end = offsets[id + 1]; pos < end; ++pos) {
+				int next = neighbours[pos];
+				long bit = 1L << next;
+				if((visited[next >>> 6] & bit) == 0) {
+					visited[next >>> 6] |= bit;
+					stack[top++] = next;
+				}
+			}
+		}
+	}
+
+	private BitSet closure(Adjacency adjacency, BitSet start) {
+		long[] visited = Arrays.copyOf(start.toLongArray(), (types.length + 63) >>> 6);
+		closure(adjacency, visited);
+		return BitSet.valueOf(visited);
+	}
+
+	/**
+	 * Finds a cycle among the edges of the given relationships. A catalog with a cycle cannot be
+	 * applied.
+	 * 
+	 * @param relationships
+	 *            The relationships to follow
+	 * @return The ids of the resources that form a cycle, in edge order, or <code>null</code> if there is no cycle
+	 */
+	public int[] findCycle(Relationship... relationships) {
+		Adjacency adjacency = getAdjacency(forward, mask(relationships));
+		int size = types.length;
+		int[] offsets = adjacency.offsets;
+		int[] neighbours = adjacency.ids;
+
+		// 0 = not visited, 1 = on the current path, 2 = done
+		byte[] state = new byte[size];
+		int[] path = new int[size];
+		int[] cursor = new int[size];
+		for(int root = 0; root < size; ++root) {
+			if(state[root] != 0)
+				continue;
+			int depth = 0;
+			path[0] = root;
+			cursor[0] = offsets[root];
+			state[root] = 1;
+			while(depth >= 0) {
+				int id = path[depth];
+				if(cursor[depth] == offsets[id + 1]) {
+					state[id] = 2;
+					--depth;
+					continue;
+				}
+				int next = neighbours[cursor[depth]++];
+				if(state[next] == 1) {
+					int start = depth;
+					while(path[start] != next)
+						--start;
+					return Arrays.copyOfRange(path, start, depth + 1);
+				}
+				if(state[next] == 0) {
+					state[next] = 1;
+					path[++depth] = next;
+					cursor[depth] = offsets[next];
+				}
+			}
+		}
+		return null;
+	}
+
+	private Adjacency getAdjacency(Adjacency[] adjacencies, int mask) {
+		Adjacency adjacency = adjacencies[mask];
+		if(adjacency == null) {
+			// Benign race, the fields of an Adjacency are final
+			adjacency = merge(adjacencies, mask, types.length);
+			adjacencies[mask] = adjacency;
+		}
+		return adjacency;
+	}
+
+	/**
+	 * Returns the resources that must be managed before the given resources, i.e. everything that
+	 * they transitively depend on. The given resources are included in the result.
+	 * 
+	 * @param ids
+	 *            The ids of the resources
+	 * @param relationships
+	 *            The relationships to follow
+	 * @return The ids of the dependencies
+	 */
+	public BitSet getDependencies(BitSet ids, Relationship... relationships) {
+		return closure(getAdjacency(reverse, mask(relationships)), ids);
+	}
+
+	/**
+	 * @param relationship
+	 *            The relationship of the edges to count, or <code>null</code> to count all edges
+	 * @return The number of edges
+	 */
+	public int getEdgeCount(Relationship relationship) {
+		return getAdjacency(forward, relationship == null
+				? ALL
+				: mask(relationship)).ids.length;
+	}
+
+	/**
+	 * @param type
+	 *            The resource type, e.g. <code>File</code>
+	 * @param title
+	 *            The resource title
+	 * @return The id of the resource or -1 if the graph doesn't contain the resource
+	 */
+	public int getId(String type, String title) {
+		Integer id = ids.get(key(type, title));
+		return id == null
+				? -1
+				: id.intValue();
+	}
+
+	/**
+	 * Returns the resources that are affected when the given resources change, i.e. everything that
+	 * is managed after them and transitively depends on them. The given resources are included in
+	 * the result.
+	 * 
+	 * @param ids
+	 *            The ids of the changed resources
+	 * @param relationships
+	 *            The relationships to follow
+	 * @return The ids of the affected resources
+	 */
+	public BitSet getImpact(BitSet ids, Relationship... relationships) {
+		return closure(getAdjacency(forward, mask(relationships)), ids);
+	}
+
+	/**
+	 * Convenience method that returns the impact of one resource.
+	 * 
+	 * @param id
+	 *            The id of the changed resource
+	 * @param relationships
+	 *            The relationships to follow
+	 * @return The ids of the affected resources
+	 * @see #getImpact(BitSet, Relationship...)
+	 */
+	public BitSet getImpact(int id, Relationship... relationships) {
+		long[] visited = new long[(types.length + 63) >>> 6];
+		visited[id >>> 6] |= 1L << id;
+		closure(getAdjacency(forward, mask(relationships)), visited);
+		return BitSet.valueOf(visited);
+	}
+
+	/**
+	 * @param id
+	 *            The id of a resource
+	 * @return The resource or <code>null</code> if the resource is only referenced by an edge
+	 */
+	public Resource getResource(int id) {
+		return id < resourceCount
+				? resources[id]
+				: null;
+	}
+
+	/**
+	 * @param id
+	 *            The id of a resource
+	 * @param relationship
+	 *            The relationship of the edges
+	 * @return The ids of the sources of the edges that end in the resource
+	 */
+	public int[] getSources(int id, Relationship relationship) {
+		Adjacency adjacency = reverse[mask(relationship)];
+		return Arrays.copyOfRange(adjacency.ids, adjacency.offsets[id], adjacency.offsets[id + 1]);
+	}
+
+	/**
+	 * @param id
+	 *            The id of a resource
+	 * @param relationship
+	 *            The relationship of the edges
+	 * @return The ids of the targets of the edges that start in the resource
+	 */
+	public int[] getTargets(int id, Relationship relationship) {
+		Adjacency adjacency = forward[mask(relationship)];
+		return Arrays.copyOfRange(adjacency.ids, adjacency.offsets[id], adjacency.offsets[id + 1]);
+	}
+
+	/**
+	 * @param id
+	 *            The id of a resource
+	 * @return The title of the resource
+	 */
+	public String getTitle(int id) {
+		return titles[id];
+	}
+
+	/**
+	 * Returns the resources in an order where the source of every followed edge comes before its
+	 * target. Resources that aren't ordered by any edge keep their relative id order.
+	 * 
+	 * @param relationships
+	 *            The relationships to follow
+	 * @return The ids of all resources in topological order or <code>null</code> if the edges form a cycle
+	 * @see #findCycle(Relationship...)
+	 */
+	public int[] getTopologicalOrder(Relationship... relationships) {
+		Adjacency adjacency = getAdjacency(forward, mask(relationships));
+		int size = types.length;
+		int[] offsets = adjacency.offsets;
+		int[] neighbours = adjacency.ids;
+		int[] inDegree = new int[size];
+		for(int neighbour : neighbours)
+			++inDegree[neighbour];
+
+		// The result array doubles as the queue
+		int[] order = new int[size];
+		int tail = 0;
+		for(int id = 0; id < size; ++id)
+			if(inDegree[id] == 0)
+				order[tail++] = id;
+		for(int head = 0; head < tail; ++head) {
+			int id = order[head];
+			for(int pos = offsets[id], end = offsets[id + 1]; pos < end; ++pos)
+				if(--inDegree[neighbours[pos]] == 0)
+					order[tail++] = neighbours[pos];
+		}
+		return tail == size
+				? order
+				: null;
+	}
+
+	/**
+	 * @param id
+	 *            The id of a resource
+	 * @return The type of the resource
+	 */
+	public String getType(int id) {
+		return types[id];
+	}
+
+	/**
+	 * Checks if the resource <code>to</code> is managed after, and transitively depends on, the
+	 * resource <code>from</code>. A resource is reachable from itself.
+	 * 
+	 * @param from
+	 *            The id of the resource to start from
+	 * @param to
+	 *            The id of the resource to reach
+	 * @param relationships
+	 *            The relationships to follow
+	 * @return <code>true</code> if there is a path from <code>from</code> to <code>to</code>
+	 */
+	public boolean isReachable(int from, int to, Relationship... relationships) {
+		if(from == to)
+			return true;
+		Adjacency adjacency = getAdjacency(forward, mask(relationships));
+		int[] offsets = adjacency.offsets;
+		int[] neighbours = adjacency.ids;
+		long[] visited = new long[(types.length + 63) >>> 6];
+		int[] stack = new int[types.length];
+		int top = 0;
+		stack[top++] = from;
+		visited[from >>> 6] |= 1L << from;
+		while(top > 0) {
+			int id = stack[--top];
+			for(int pos = offsets[id], end = offsets[id + 1]; pos < end; ++pos) {
+				int next = neighbours[pos];
+				if(next == to)
+					return true;
+				long bit = 1L << next;
+				if((visited[next >>> 6] & bit) == 0) {
+					visited[next >>> 6] |= bit;
+					stack[top++] = next;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The number of resources in the graph, including resources that are only referenced by edges
+	 */
+	public int size() {
+		return types.length;
+	}
+}
@@ -0,0 +1,639 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.cache.SnapshotFile;
+import com.puppetlabs.puppetdb.javaclient.model.Entity;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Predicate;
+import com.puppetlabs.puppetdb.javaclient.query.Query;
+
+/**
+ * <p>
+ * An in-process index of the exported resources of all active nodes, keyed by type, type and title,
+ * tag and certname. The index is bootstrapped by one <code>/resources</code> query for all exported
+ * resources. After that, it periodically queries the <code>/nodes</code> end-point and fetches the
+ * exported resources of those nodes only whose <code>catalog_timestamp</code> has changed. Nodes
+ * that are deactivated are removed.
+ * </p>
+ * <p>
+ * The index is queried with the same {@link Expression expressions} that are sent to the
+ * <code>/resources</code> end-point. An equality comparison of {@link Resource#TYPE},
+ * {@link Resource#TITLE}, {@link Resource#TAG} or {@link Resource#CERTNAME} at the top level of the
+ * expression, or in a top level <code>and</code>, narrows the candidates down using the index and the
+ * candidates are then tested with a {@link Predicate} compiled from the expression. Only exported
+ * resources are ever returned.
+ * </p>
+ * <p>
+ * Each synchronization publishes a new immutable snapshot of the index. Reads never block and never
+ * see a partially applied synchronization. A failed synchronization publishes nothing, so the index
+ * always reflects all catalogs that PuppetDB had stored when the last successful synchronization
+ * started. See {@link #getLastSyncTime()} and {@link #getStaleness()}.
+ * </p>
+ * <p>
+ * The index can be saved to a {@link SnapshotFile} and loaded from it when the client restarts. An
+ * index loaded from a snapshot only fetches the nodes whose catalogs changed since the snapshot was
+ * saved.
+ * </p>
+ */
+@Singleton
+public class ExportedResourceIndex {
+	/**
+	 * A compiled query and the equality comparisons that narrow down its candidates
+	 */
+	private static class CompiledQuery {
+		final Predicate<Resource> predicate;
+
+		String certname;
+
+		String tag;
+
+		String title;
+
+		String type;
+
+		CompiledQuery(Predicate<Resource> predicate) {
+			this.predicate = predicate;
+		}
+	}
+
+	/**
+	 * An immutable state of the index
+	 */
+	private static class Snapshot {
+		private static void add(Map<String, List<Resource>> map, String key, Resource resource) {
+			if(key == null)
+				return;
+			List<Resource> list = map.get(key);
+			if(list == null) {
+				list = new ArrayList<Resource>();
+				map.put(key, list);
+			}
+			list.add(resource);
+		}
+
+		final Map<String, Date> timestamps;
+
+		final Map<String, List<Resource>> byNode;
+
+		final Map<String, List<Resource>> byType = new HashMap<String, List<Resource>>();
+
+		final Map<String, List<Resource>> byTypeTitle = new HashMap<String, List<Resource>>();
+
+		final Map<String, List<Resource>> byTag = new HashMap<String, List<Resource>>();
+
+		final List<Resource> all = new ArrayList<Resource>();
+
+		Snapshot(Map<String, Date> timestamps, Map<String, List<Resource>> byNode) {
+			this.timestamps = timestamps;
+			this.byNode = byNode;
+			for(List<Resource> resources : byNode.values()) {
+				for(Resource resource : resources) {
+					all.add(resource);
+					add(byType, resource.getType(), resource);
+					add(byTypeTitle, typeTitleKey(resource.getType(), resource.getTitle()), resource);
+					List<String> tags = resource.getTags();
+					if(tags != null)
+						for(String tag : tags)
+							add(byTag, tag, resource);
+				}
+			}
+		}
+
+		List<Resource> candidates(CompiledQuery query) {
+			List<Resource> best = all;
+			if(query.type != null && query.title != null)
+				best = smallest(best, byTypeTitle.get(typeTitleKey(query.type, query.title)));
+			else if(query.type != null)
+				best = smallest(best, byType.get(query.type));
+			if(query.tag != null)
+				best = smallest(best, byTag.get(query.tag));
+			if(query.certname != null)
+				best = smallest(best, byNode.get(query.certname));
+			return best;
+		}
+	}
+
+	// The number of compiled queries that are retained
+	private static final int MAX_COMPILED_QUERIES = 256;
+
+	// Above this fraction of changed nodes, all exported resources are fetched in one query
+	private static final double FULL_FETCH_RATIO = 0.5;
+
+	private static final Expression<Resource> EXPORTED = eq(Resource.EXPORTED, true);
+
+	private static final ThreadFactory SYNC_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB exported resource sync"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static CompiledQuery compile(Expression<Resource> query, JsonElement json) {
+		CompiledQuery compiled = new CompiledQuery(Query.compile(query, Resource.class));
+		if(json == null || !json.isJsonArray())
+			return compiled;
+
+		JsonArray args = QuerySyntax.asTerm(json);
+		if("and".equals(QuerySyntax.getOperator(args))) {
+			for(int idx = 1; idx < args.size(); ++idx) {
+				JsonElement term = args.get(idx);
+				if(term.isJsonArray())
+					narrow(compiled, QuerySyntax.asTerm(term));
+			}
+		}
+		else
+			narrow(compiled, args);
+		return compiled;
+	}
+
+	private static void narrow(CompiledQuery compiled, JsonArray args) {
+		if(!"=".equals(QuerySyntax.getOperator(args)) || args.size() != 3)
+			return;
+		String field = QuerySyntax.getFieldName(args);
+		JsonElement value = args.get(2);
+		if(field == null || !value.isJsonPrimitive())
+			return;
+		String literal = value.getAsString();
+		if("type".equals(field)) //$NON-NLS-1$
+			compiled.type = literal;
+		else if("title".equals(field)) //$NON-NLS-1$
+			compiled.title = literal;
+		else if("tag".equals(field)) //$NON-NLS-1$
+			compiled.tag = literal;
+		else if("certname".equals(field)) //$NON-NLS-1$
+			compiled.certname = literal;
+	}
+
+	private static Resource readResource(String certname, SnapshotFile.Decoder decoder) {
+		Resource resource = new Resource();
+		resource.setCertname(certname);
+		resource.setType(decoder.readName());
+		resource.setTitle(decoder.readString());
+		resource.setFile(decoder.readName());
+		if(decoder.readBoolean())
+			resource.setLine(Integer.valueOf(decoder.readInt()));
+		if(decoder.readBoolean())
+			resource.setExported(Boolean.valueOf(decoder.readBoolean()));
+		int tagCount = decoder.readInt();
+		if(tagCount >= 0) {
+			List<String> tags = new ArrayList<String>(tagCount);
+			for(int idx = 0; idx < tagCount; ++idx)
+				tags.add(decoder.readName());
+			resource.setTags(tags);
+		}
+		Map<String, Object> parameters = decoder.readJSON(Entity.MAP_STRING_OBJECT);
+		resource.setParameters(parameters);
+		return resource;
+	}
+
+	private static List<Resource> smallest(List<Resource> current, List<Resource> candidate) {
+		if(candidate == null)
+			return Collections.emptyList();
+		return candidate.size() < current.size()
+				? candidate
+				: current;
+	}
+
+	private static String typeTitleKey(String type, String title) {
+		return type + '[' + title + ']';
+	}
+
+	private static void writeResource(Resource resource, SnapshotFile.Writer writer) throws IOException {
+		writer.writeName(resource.getType());
+		writer.writeString(resource.getTitle());
+		writer.writeName(resource.getFile());
+		Integer line = resource.getLine();
+		writer.writeBoolean(line != null);
+		if(line != null)
+			writer.writeInt(line.intValue());
+		Boolean exported = resource.isExported();
+		writer.writeBoolean(exported != null);
+		if(exported != null)
+			writer.writeBoolean(exported.booleanValue());
+		List<String> tags = resource.getTags();
+		if(tags == null)
+			writer.writeInt(-1);
+		else {
+			writer.writeInt(tags.size());
+			for(String tag : tags)
+				writer.writeName(tag);
+		}
+		writer.writeJSON(resource.getParameters());
+	}
+
+	private final PuppetDBClient client;
+
+	private final int syncInterval;
+
+	private final ConcurrentMap<String, CompiledQuery> compiledQueries = new ConcurrentHashMap<String, CompiledQuery>();
+
+	private final AtomicLong fetchCount = new AtomicLong();
+
+	private final AtomicLong syncFailureCount = new AtomicLong();
+
+	private final Object syncLock = new Object();
+
+	private ScheduledExecutorService syncer;
+
+	private volatile Snapshot snapshot;
+
+	// Published after the snapshot so that a reader never underestimates the staleness
+	private volatile long lastSyncTime;
+
+	/**
+	 * <p>
+	 * Creates the index. No queries are made until the index is {@link #start() started} or
+	 * {@link #sync() synchronized}.
+	 * </p>
+	 * <p>
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 * </p>
+	 * 
+	 * @param client
+	 *            The client used for all queries
+	 * @param preferences
+	 *            The preferences that determine the synchronization interval
+	 */
+	@Inject
+	public ExportedResourceIndex(PuppetDBClient client, APIPreferences preferences) {
+		this.client = client;
+		this.syncInterval = Math.max(1, preferences.getExportedResourceSyncInterval());
+	}
+
+	private List<Resource> fetch(Collection<String> certnames) throws IOException {
+		Expression<Resource> query = EXPORTED;
+		if(certnames != null) {
+			List<Expression<Resource>> nodes = new ArrayList<Expression<Resource>>(certnames.size());
+			for(String certname : certnames)
+				nodes.add(eq(Resource.CERTNAME, certname));
+			query = and(EXPORTED, nodes.size() == 1
+					? nodes.get(0)
+					: or(nodes));
+		}
+		List<Resource> resources = client.getResources(query);
+		fetchCount.incrementAndGet();
+		return resources;
+	}
+
+	private CompiledQuery getCompiledQuery(Expression<Resource> query) {
+		if(query == null)
+			return new CompiledQuery(Query.compile(query, Resource.class));
+
+		StringBuilder bld = new StringBuilder();
+		query.toJSON(bld);
+		String json = bld.toString();
+		CompiledQuery compiled = compiledQueries.get(json);
+		if(compiled == null) {
+			compiled = compile(query, new JsonParser().parse(json));
+			if(compiledQueries.size() >= MAX_COMPILED_QUERIES)
+				compiledQueries.clear();
+			compiledQueries.put(json, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * @return The number of queries that obtained exported resources, including the bootstrap query
+	 */
+	public long getFetchCount() {
+		return fetchCount.get();
+	}
+
+	/**
+	 * Returns the time when the last successful synchronization started. Every catalog that PuppetDB
+	 * had stored at that time is reflected by the index.
+	 * 
+	 * @return The time in milliseconds since the epoch or 0 if the index has not been bootstrapped
+	 */
+	public long getLastSyncTime() {
+		return lastSyncTime;
+	}
+
+	/**
+	 * Returns an upper bound for how old the content of the index is, i.e. the time elapsed since the
+	 * last successful synchronization started. While the periodic synchronization succeeds, the
+	 * staleness stays below the synchronization interval plus the time it takes to synchronize.
+	 * 
+	 * @return The staleness in milliseconds or -1 if the index has not been bootstrapped
+	 */
+	public long getStaleness() {
+		long syncTime = lastSyncTime;
+		return syncTime == 0
+				? -1
+				: Math.max(0, System.currentTimeMillis() - syncTime);
+	}
+
+	/**
+	 * @return The number of periodic synchronizations that failed
+	 */
+	public long getSyncFailureCount() {
+		return syncFailureCount.get();
+	}
+
+	/**
+	 * @return <code>true</code> if the index has been populated
+	 */
+	public boolean isBootstrapped() {
+		return snapshot != null;
+	}
+
+	/**
+	 * Replaces the content of the index with a snapshot written by {@link #saveSnapshot(Path)}. The
+	 * {@link #getLastSyncTime() last sync time} becomes that of the saved index, so the staleness
+	 * bounds remain valid. The next {@link #sync()} fetches only the nodes whose catalog timestamp
+	 * differs from the one in the snapshot.
+	 * 
+	 * @param file
+	 *            The snapshot file
+	 * @throws IOException
+	 *             if the file could not be read or isn't an exported resource snapshot. The index is
+	 *             not changed
+	 */
+	public void loadSnapshot(Path file) throws IOException {
+		SnapshotFile snapshotFile = SnapshotFile.open(file, SnapshotFile.KIND_EXPORTED_RESOURCES);
+		Map<String, Date> timestamps = new HashMap<String, Date>();
+		Map<String, List<Resource>> byNode = new HashMap<String, List<Resource>>();
+		try {
+			for(SnapshotFile.Record record : snapshotFile.getRecords()) {
+				String certname = record.getCertname();
+				timestamps.put(certname, new Date(record.getTimestamp()));
+				SnapshotFile.Decoder decoder = record.newDecoder();
+				int count = decoder.readInt();
+				if(count == 0)
+					continue;
+				List<Resource> resources = new ArrayList<Resource>(count);
+				for(int idx = 0; idx < count; ++idx)
+					resources.add(readResource(certname, decoder));
+				byNode.put(certname, resources);
+			}
+		}
+		catch(IllegalStateException e) {
+			throw new IOException("Corrupt snapshot file: " + file, e); //$NON-NLS-1$
+		}
+		synchronized(syncLock) {
+			snapshot = new Snapshot(timestamps, byNode);
+			lastSyncTime = snapshotFile.getSnapshotTime();
+		}
+	}
+
+	/**
+	 * Returns the exported resources that match the given <code>query</code>. The query is answered
+	 * from the index without contacting PuppetDB. Compiled queries are retained so repeating a query
+	 * costs no more than the lookup and the test of each candidate.
+	 * 
+	 * @param query
+	 *            The query or <code>null</code> to select all exported resources
+	 * @return The matching resources. An empty list if the index has not been bootstrapped
+	 * @throws IllegalArgumentException
+	 *             if the query cannot be evaluated locally
+	 */
+	public List<Resource> select(Expression<Resource> query) {
+		CompiledQuery compiled = getCompiledQuery(query);
+		Snapshot current = snapshot;
+		if(current == null)
+			return Collections.emptyList();
+
+		List<Resource> result = new ArrayList<Resource>();
+		for(Resource resource : current.candidates(compiled))
+			if(compiled.predicate.matches(resource))
+				result.add(resource);
+		return result;
+	}
+
+	/**
+	 * Like {@link #select(Expression)} but synchronizes the index first if its
+	 * {@link #getStaleness() staleness} exceeds <code>maxStaleness</code>.
+	 * 
+	 * @param query
+	 *            The query or <code>null</code> to select all exported resources
+	 * @param maxStaleness
+	 *            The maximum acceptable staleness in milliseconds
+	 * @return The matching resources
+	 * @throws IOException
+	 *             if a required synchronization failed
+	 * @throws IllegalArgumentException
+	 *             if the query cannot be evaluated locally
+	 */
+	public List<Resource> select(Expression<Resource> query, long maxStaleness) throws IOException {
+		long staleness = getStaleness();
+		if(staleness < 0 || staleness > maxStaleness) {
+			synchronized(syncLock) {
+				// Another thread may have completed a synchronization while we waited
+				staleness = getStaleness();
+				if(staleness < 0 || staleness > maxStaleness)
+					syncLocked();
+			}
+		}
+		return select(query);
+	}
+
+	/**
+	 * Writes the index to a snapshot file that can be loaded with {@link #loadSnapshot(Path)}. Nodes
+	 * without exported resources are included so that they aren't fetched again after a load.
+	 * 
+	 * @param file
+	 *            The snapshot file
+	 * @throws IOException
+	 *             if the file could not be written
+	 * @throws IllegalStateException
+	 *             if the index has not been bootstrapped
+	 */
+	public void saveSnapshot(Path file) throws IOException {
+		Snapshot current;
+		long syncTime;
+		synchronized(syncLock) {
+			current = snapshot;
+			syncTime = lastSyncTime;
+		}
+		if(current == null)
+			throw new IllegalStateException("The index has not been bootstrapped"); //$NON-NLS-1$
+
+		SnapshotFile.Writer writer = SnapshotFile.write(file, SnapshotFile.KIND_EXPORTED_RESOURCES, syncTime);
+		boolean success = false;
+		try {
+			for(Map.Entry<String, Date> node : current.timestamps.entrySet()) {
+				List<Resource> resources = current.byNode.get(node.getKey());
+				writer.beginRecord(node.getKey(), node.getValue().getTime());
+				if(resources == null)
+					writer.writeInt(0);
+				else {
+					writer.writeInt(resources.size());
+					for(Resource resource : resources)
+						writeResource(resource, writer);
+				}
+			}
+			writer.commit();
+			success = true;
+		}
+		finally {
+			if(!success)
+				writer.abort();
+		}
+	}
+
+	/**
+	 * Stops the periodic synchronization. The index retains its content.
+	 */
+	public synchronized void shutdown() {
+		if(syncer != null) {
+			syncer.shutdownNow();
+			syncer = null;
+		}
+	}
+
+	/**
+	 * @return The number of exported resources in the index
+	 */
+	public int size() {
+		Snapshot current = snapshot;
+		return current == null
+				? 0
+				: current.all.size();
+	}
+
+	/**
+	 * Bootstraps the index unless that has been done already and starts the periodic
+	 * synchronization. The call returns when the bootstrap has completed.
+	 * 
+	 * @throws IOException
+	 *             if the bootstrap failed. The periodic synchronization is not started
+	 */
+	public synchronized void start() throws IOException {
+		if(syncer != null)
+			return;
+		synchronized(syncLock) {
+			if(snapshot == null)
+				syncLocked();
+		}
+		syncer = Executors.newSingleThreadScheduledExecutor(SYNC_THREADS);
+		syncer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sync();
+				}
+				catch(IOException e) {
+					syncFailureCount.incrementAndGet();
+				}
+				catch(RuntimeException e) {
+					syncFailureCount.incrementAndGet();
+				}
+			}
+		}, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Brings the index up to date. The exported resources of each node whose catalog timestamp
+	 * differs from the one in the index are fetched in one query, and nodes that are no longer
+	 * active are removed. The first synchronization fetches all exported resources.
+	 * 
+	 * @throws IOException
+	 *             if a query failed. The index is left unchanged
+	 */
+	public void sync() throws IOException {
+		synchronized(syncLock) {
+			syncLocked();
+		}
+	}
+
+	private void syncLocked() throws IOException {
+		long syncTime = System.currentTimeMillis();
+		Snapshot current = snapshot;
+		Map<String, Date> timestamps = new HashMap<String, Date>();
+		Set<String> changed = new HashSet<String>();
+		boolean removed = false;
+		for(Node node : client.getActiveNodes(null)) {
+			Date timestamp = node.getCatalogTimestamp();
+			if(timestamp == null)
+				continue;
+			String certname = node.getName();
+			timestamps.put(certname, timestamp);
+			Date known = current == null
+					? null
+					: current.timestamps.get(certname);
+			if(known == null || known.getTime() != timestamp.getTime())
+				changed.add(certname);
+		}
+		if(current != null)
+			for(String certname : current.timestamps.keySet())
+				if(!timestamps.containsKey(certname))
+					removed = true;
+
+		if(current != null && changed.isEmpty() && !removed) {
+			lastSyncTime = syncTime;
+			return;
+		}
+
+		Map<String, List<Resource>> byNode = new HashMap<String, List<Resource>>();
+		boolean fetchAll = current == null || changed.size() > timestamps.size() * FULL_FETCH_RATIO;
+		if(!fetchAll)
+			for(String certname : timestamps.keySet())
+				if(!changed.contains(certname)) {
+					List<Resource> resources = current.byNode.get(certname);
+					if(resources != null)
+						byNode.put(certname, resources);
+				}
+
+		if(fetchAll || !changed.isEmpty()) {
+			for(Resource resource : fetch(fetchAll
+					? null
+					: changed)) {
+				String certname = resource.getCertname();
+				// Resources of nodes that weren't reported as active are picked up by the next sync
+				if(!timestamps.containsKey(certname))
+					continue;
+				List<Resource> resources = byNode.get(certname);
+				if(resources == null) {
+					resources = new ArrayList<Resource>();
+					byNode.put(certname, resources);
+				}
+				resources.add(resource);
+			}
+		}
+		snapshot = new Snapshot(timestamps, byNode);
+		lastSyncTime = syncTime;
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * A compiled query for the <code>/facts</code> end-point. A fact query is evaluated once for each
+ * fact name. Since a node has only one value for a given fact name, the query can then be evaluated
+ * with set operations on the postings of that name, and a node matches if it matches for at least
+ * one name.
+ */
+abstract class FactClause {
+	private static class And extends FactClause {
+		private final FactClause[] clauses;
+
+		And(FactClause[] clauses) {
+			this.clauses = clauses;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			Bitmap result = clauses[0].evaluate(postings, name);
+			for(int idx = 1; idx < clauses.length && !result.isEmpty(); ++idx)
+				result = result.and(clauses[idx].evaluate(postings, name));
+			return result;
+		}
+
+		@Override
+		boolean mayMatch(String name) {
+			for(FactClause clause : clauses)
+				if(!clause.mayMatch(name))
+					return false;
+			return true;
+		}
+	}
+
+	private static class CertnameIn extends FactClause {
+		private final Bitmap nodes;
+
+		CertnameIn(Bitmap nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			return postings.getNodes().and(nodes);
+		}
+	}
+
+	private static class NameEquals extends FactClause {
+		private final String value;
+
+		NameEquals(String value) {
+			this.value = value;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			return mayMatch(name)
+					? postings.getNodes()
+					: Bitmap.empty(postings.getNodes().getUniverse());
+		}
+
+		@Override
+		boolean mayMatch(String name) {
+			return value.equals(name);
+		}
+	}
+
+	private static class NameMatch extends FactClause {
+		private final Pattern pattern;
+
+		NameMatch(Pattern pattern) {
+			this.pattern = pattern;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			return mayMatch(name)
+					? postings.getNodes()
+					: Bitmap.empty(postings.getNodes().getUniverse());
+		}
+
+		@Override
+		boolean mayMatch(String name) {
+			return pattern.matcher(name).find();
+		}
+	}
+
+	private static class Not extends FactClause {
+		private final FactClause clause;
+
+		Not(FactClause clause) {
+			this.clause = clause;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			return postings.getNodes().andNot(clause.evaluate(postings, name));
+		}
+	}
+
+	private static class Or extends FactClause {
+		private final FactClause[] clauses;
+
+		Or(FactClause[] clauses) {
+			this.clauses = clauses;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			List<Bitmap> results = new ArrayList<Bitmap>(clauses.length);
+			for(FactClause clause : clauses)
+				if(clause.mayMatch(name))
+					results.add(clause.evaluate(postings, name));
+			return Bitmap.union(postings.getNodes().getUniverse(), results);
+		}
+
+		@Override
+		boolean mayMatch(String name) {
+			for(FactClause clause : clauses)
+				if(clause.mayMatch(name))
+					return true;
+			return false;
+		}
+	}
+
+	private static class ValueEquals extends FactClause {
+		private final String value;
+
+		ValueEquals(String value) {
+			this.value = value;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			return postings.lookup(value);
+		}
+	}
+
+	private static class ValueMatch extends FactClause {
+		private final Pattern pattern;
+
+		ValueMatch(Pattern pattern) {
+			this.pattern = pattern;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			return postings.match(pattern);
+		}
+	}
+
+	private static class ValueRange extends FactClause {
+		private final Range range;
+
+		ValueRange(Range range) {
+			this.range = range;
+		}
+
+		@Override
+		Bitmap evaluate(FactPostings postings, String name) {
+			return range.evaluate(postings);
+		}
+	}
+
+	/**
+	 * Compiles the JSON form of a fact query.
+	 * 
+	 * @param json
+	 *            The query
+	 * @param index
+	 *            The index that the query will be evaluated against
+	 * @return The compiled query
+	 * @throws IllegalArgumentException
+	 *             if the query uses an operator or field that the index doesn't support
+	 */
+	static FactClause compile(JsonElement json, FactIndex index) {
+		JsonArray args = QuerySyntax.asTerm(json);
+		String operator = QuerySyntax.getOperator(args);
+		if("and".equals(operator) || "or".equals(operator)) { //$NON-NLS-1$ //$NON-NLS-2$
+			FactClause[] clauses = new FactClause[args.size() - 1];
+			for(int idx = 0; idx < clauses.length; ++idx)
+				clauses[idx] = compile(args.get(idx + 1), index);
+			return "and".equals(operator) //$NON-NLS-1$
+					? new And(clauses)
+					: new Or(clauses);
+		}
+		if("not".equals(operator)) //$NON-NLS-1$
+			return new Not(compile(QuerySyntax.getArgument(args, 1), index));
+
+		String field = QuerySyntax.getFieldName(args);
+		if("=".equals(operator)) { //$NON-NLS-1$
+			String value = QuerySyntax.getString(args);
+			if("name".equals(field)) //$NON-NLS-1$
+				return new NameEquals(value);
+			if("value".equals(field)) //$NON-NLS-1$
+				return new ValueEquals(value);
+			if("certname".equals(field)) //$NON-NLS-1$
+				return new CertnameIn(index.lookupCertname(value));
+		}
+		else if("~".equals(operator)) { //$NON-NLS-1$
+			Pattern pattern = QuerySyntax.getPattern(args);
+			if("name".equals(field)) //$NON-NLS-1$
+				return new NameMatch(pattern);
+			if("value".equals(field)) //$NON-NLS-1$
+				return new ValueMatch(pattern);
+			if("certname".equals(field)) //$NON-NLS-1$
+				return new CertnameIn(index.matchCertnames(pattern));
+		}
+		else if("value".equals(field)) //$NON-NLS-1$
+			return new ValueRange(Range.compile(operator, args));
+
+		throw QuerySyntax.unsupported(args);
+	}
+
+	/**
+	 * @param postings
+	 *            The postings of the fact name
+	 * @param name
+	 *            The fact name
+	 * @return The nodes among those that have the fact that match this clause
+	 */
+	abstract Bitmap evaluate(FactPostings postings, String name);
+
+	/**
+	 * @param name
+	 *            A fact name
+	 * @return <code>false</code> if this clause can't match any fact with the given name
+	 */
+	boolean mayMatch(String name) {
+		return true;
+	}
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.puppetlabs.puppetdb.javaclient.cache.NodeFacts;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+
+/**
+ * <p>
+ * An immutable in-memory inverted index of facts. For each fact name, the index maps each distinct
+ * value to the set of nodes that have it. Values that are numbers are also ordered numerically so
+ * that <code>&gt;</code>, <code>&gt;=</code>, <code>&lt;</code> and <code>&lt;=</code> comparisons
+ * are answered without looking at every value.
+ * </p>
+ * <p>
+ * The index is queried with the same {@link Expression expressions} that are sent to PuppetDB.
+ * Expressions for the <code>/facts</code> end-point may compare {@link Fact#NAME}, {@link Fact#VALUE}
+ * and {@link Fact#CERTNAME}, and select the nodes that have at least one matching fact. Expressions
+ * for the <code>/nodes</code> end-point may compare {@link Node#NAME} and facts obtained with
+ * {@link com.puppetlabs.puppetdb.javaclient.query.Query#fact(String) Query.fact}, and may contain
+ * {@link com.puppetlabs.puppetdb.javaclient.query.Query#inFacts(com.puppetlabs.puppetdb.javaclient.query.Field, com.puppetlabs.puppetdb.javaclient.query.Field, Expression)
+ * inFacts} sub-queries. Expressions are interpreted in their JSON form so any expression that
+ * PuppetDB would accept on those end-points is handled the same way, or rejected with an
+ * {@link IllegalArgumentException} if it uses something the index doesn't know about.
+ * </p>
+ * <p>
+ * An index is thread safe. To reflect changes, build a new index.
+ * </p>
+ */
+public class FactIndex {
+	/**
+	 * Collects the ids of the nodes that have a given value
+	 */
+	private static class IdList {
+		int[] ids = new int[2];
+
+		int size;
+
+		void add(int id) {
+			if(size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+
+		Bitmap toBitmap(int universe) {
+			Arrays.sort(ids, 0, size);
+			int n = 0;
+			for(int idx = 0; idx < size; ++idx)
+				if(n == 0 || ids[n - 1] != ids[idx])
+					ids[n++] = ids[idx];
+			return Bitmap.of(universe, ids, n);
+		}
+	}
+
+	private static void add(Map<String, Map<String, IdList>> names, String name, String value, int id) {
+		if(name == null || value == null)
+			return;
+		Map<String, IdList> values = names.get(name);
+		if(values == null) {
+			values = new HashMap<String, IdList>();
+			names.put(name, values);
+		}
+		IdList ids = values.get(value);
+		if(ids == null) {
+			ids = new IdList();
+			values.put(value, ids);
+		}
+		ids.add(id);
+	}
+
+	private static FactIndex build(String[] certnames, Map<String, Map<String, IdList>> names) {
+		Map<String, FactPostings> postings = new HashMap<String, FactPostings>(names.size() * 4 / 3 + 1);
+		for(Map.Entry<String, Map<String, IdList>> entry : names.entrySet()) {
+			Map<String, IdList> lists = entry.getValue();
+			Map<String, Bitmap> values = new HashMap<String, Bitmap>(lists.size() * 4 / 3 + 1);
+			for(Map.Entry<String, IdList> value : lists.entrySet())
+				values.put(value.getKey(), value.getValue().toBitmap(certnames.length));
+			postings.put(entry.getKey(), new FactPostings(certnames.length, values));
+		}
+		return new FactIndex(certnames, postings);
+	}
+
+	/**
+	 * Builds an index of the given facts. The facts are iterated twice.
+	 * 
+	 * @param facts
+	 *            The facts to index, typically the result of a <code>/facts</code> query
+	 * @return The new index
+	 */
+	public static FactIndex fromFacts(Iterable<Fact> facts) {
+		Set<String> certnames = new TreeSet<String>();
+		for(Fact fact : facts)
+			if(fact.getCertname() != null)
+				certnames.add(fact.getCertname());
+		String[] sorted = certnames.toArray(new String[certnames.size()]);
+
+		Map<String, Map<String, IdList>> names = new HashMap<String, Map<String, IdList>>();
+		for(Fact fact : facts)
+			if(fact.getCertname() != null)
+				add(names, fact.getName(), fact.getValue(), Arrays.binarySearch(sorted, fact.getCertname()));
+		return build(sorted, names);
+	}
+
+	/**
+	 * Builds an index of the facts of the given nodes.
+	 * 
+	 * @param nodes
+	 *            The nodes to index, typically obtained from a {@link com.puppetlabs.puppetdb.javaclient.cache.FactReplica FactReplica}
+	 * @return The new index
+	 */
+	public static FactIndex fromNodes(Iterable<NodeFacts> nodes) {
+		List<NodeFacts> sorted = new ArrayList<NodeFacts>();
+		for(NodeFacts node : nodes)
+			sorted.add(node);
+		Collections.sort(sorted, new Comparator<NodeFacts>() {
+			@Override
+			public int compare(NodeFacts a, NodeFacts b) {
+				return a.getCertname().compareTo(b.getCertname());
+			}
+		});
+
+		String[] certnames = new String[sorted.size()];
+		Map<String, Map<String, IdList>> names = new HashMap<String, Map<String, IdList>>();
+		for(int id = 0; id < certnames.length; ++id) {
+			NodeFacts node = sorted.get(id);
+			certnames[id] = node.getCertname();
+			for(Map.Entry<String, String> fact : node.getFacts().entrySet())
+				add(names, fact.getKey(), fact.getValue(), id);
+		}
+		return build(certnames, names);
+	}
+
+	private static JsonElement toJsonTree(Expression<?> query) {
+		StringBuilder bld = new StringBuilder();
+		query.toJSON(bld);
+		return new JsonParser().parse(bld.toString());
+	}
+
+	private final String[] certnames;
+
+	private final Map<String, FactPostings> postings;
+
+	private final Bitmap all;
+
+	private final Bitmap none;
+
+	private FactIndex(String[] certnames, Map<String, FactPostings> postings) {
+		this.certnames = certnames;
+		this.postings = postings;
+		this.all = Bitmap.full(certnames.length);
+		this.none = Bitmap.empty(certnames.length);
+	}
+
+	/**
+	 * Counts the nodes that have at least one fact that matches the query.
+	 * 
+	 * @param query
+	 *            A query for the <code>/facts</code> end-point or <code>null</code> to count all nodes
+	 * @return The number of matching nodes
+	 * @throws IllegalArgumentException
+	 *             if the query can't be evaluated by the index
+	 */
+	public int count(Expression<Fact> query) {
+		return selectIds(query).getCardinality();
+	}
+
+	/**
+	 * @param clause
+	 *            A compiled fact query
+	 * @return The nodes that have at least one fact that matches the query
+	 */
+	Bitmap evaluate(FactClause clause) {
+		List<Bitmap> results = new ArrayList<Bitmap>();
+		for(Map.Entry<String, FactPostings> entry : postings.entrySet()) {
+			String name = entry.getKey();
+			if(clause.mayMatch(name))
+				results.add(clause.evaluate(entry.getValue(), name));
+		}
+		return Bitmap.union(certnames.length, results);
+	}
+
+	Bitmap getAll() {
+		return all;
+	}
+
+	/**
+	 * @return The names of all indexed facts
+	 */
+	public Set<String> getFactNames() {
+		return Collections.unmodifiableSet(postings.keySet());
+	}
+
+	/**
+	 * @return The number of indexed nodes
+	 */
+	public int getNodeCount() {
+		return certnames.length;
+	}
+
+	Bitmap getNone() {
+		return none;
+	}
+
+	FactPostings getPostings(String name) {
+		return postings.get(name);
+	}
+
+	Bitmap lookupCertname(String certname) {
+		int id = Arrays.binarySearch(certnames, certname);
+		return id < 0
+				? none
+				: Bitmap.of(certnames.length, new int[] { id }, 1);
+	}
+
+	Bitmap matchCertnames(Pattern pattern) {
+		int[] ids = new int[certnames.length];
+		int n = 0;
+		for(int id = 0; id < certnames.length; ++id)
+			if(pattern.matcher(certnames[id]).find())
+				ids[n++] = id;
+		return Bitmap.of(certnames.length, ids, n);
+	}
+
+	/**
+	 * Selects the nodes that have at least one fact that matches the query, e.g.
+	 * 
+	 * <pre>
+	 * index.select(and(eq(Fact.NAME, &quot;operatingsystem&quot;), eq(Fact.VALUE, &quot;RedHat&quot;)));
+	 * </pre>
+	 * 
+	 * @param query
+	 *            A query for the <code>/facts</code> end-point or <code>null</code> to select all nodes
+	 * @return The certnames of the matching nodes in ascending order
+	 * @throws IllegalArgumentException
+	 *             if the query can't be evaluated by the index
+	 */
+	public List<String> select(Expression<Fact> query) {
+		return toCertnames(selectIds(query));
+	}
+
+	private Bitmap selectIds(Expression<Fact> query) {
+		return query == null
+				? all
+				: evaluate(FactClause.compile(toJsonTree(query), this));
+	}
+
+	/**
+	 * Selects the nodes that match a node query, e.g.
+	 * 
+	 * <pre>
+	 * index.selectNodes(and(eq(fact(&quot;operatingsystem&quot;), &quot;RedHat&quot;), gt(fact(&quot;memorysize_mb&quot;), 64000)));
+	 * </pre>
+	 * 
+	 * @param query
+	 *            A query for the <code>/nodes</code> end-point or <code>null</code> to select all nodes
+	 * @return The certnames of the matching nodes in ascending order
+	 * @throws IllegalArgumentException
+	 *             if the query can't be evaluated by the index
+	 */
+	public List<String> selectNodes(Expression<Node> query) {
+		return toCertnames(query == null
+				? all
+				: NodeClause.compile(toJsonTree(query), this).evaluate(this));
+	}
+
+	private List<String> toCertnames(Bitmap nodes) {
+		final int[] ids = nodes.toArray();
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return certnames[ids[index]];
+			}
+
+			@Override
+			public int size() {
+				return ids.length;
+			}
+		};
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The postings of one fact name. Each distinct value maps to the set of nodes that have that
+ * value. Values that are numbers are also kept in ascending numeric order so that range
+ * comparisons can be answered with a binary search.
+ */
+final class FactPostings {
+	/**
+	 * Parses a fact value the way PuppetDB treats it in numeric comparisons.
+	 * 
+	 * @param value
+	 *            The fact value
+	 * @return The numeric value or {@link Double#NaN} if the value isn't a number
+	 */
+	static double parseNumber(String value) {
+		int len = value.length();
+		int idx = 0;
+		if(idx < len && (value.charAt(idx) == '-' || value.charAt(idx) == '+'))
+			++idx;
+		int digits = 0;
+		boolean dot = false;
+		for(; idx < len; ++idx) {
+			char c = value.charAt(idx);
+			if(c >= '0' && c <= '9')
+				++digits;
+			else if(c == '.' && !dot)
+				dot = true;
+			else if((c == 'e' || c == 'E') && digits > 0)
+				break;
+			else
+				return Double.NaN;
+		}
+		if(digits == 0)
+			return Double.NaN;
+		if(idx < len) {
+			// Exponent
+			++idx;
+			if(idx < len && (value.charAt(idx) == '-' || value.charAt(idx) == '+'))
+				++idx;
+			if(idx == len)
+				return Double.NaN;
+			for(; idx < len; ++idx) {
+				char c = value.charAt(idx);
+				if(c < '0' || c > '9')
+					return Double.NaN;
+			}
+		}
+		return Double.parseDouble(value);
+	}
+
+	private final int universe;
+
+	private final Bitmap nodes;
+
+	private final Map<String, Bitmap> values;
+
+	private final double[] numbers;
+
+	private final Bitmap[] numberPostings;
+
+	/**
+	 * @param universe
+	 *            The number of nodes in the index
+	 * @param values
+	 *            The nodes of each distinct value. The map is owned by the new instance
+	 */
+	FactPostings(int universe, Map<String, Bitmap> values) {
+		this.universe = universe;
+		this.values = values;
+		nodes = Bitmap.union(universe, new ArrayList<Bitmap>(values.values()));
+
+		// Values such as "1" and "1.0" are distinct strings but the same number
+		Map<Double, List<Bitmap>> byNumber = new HashMap<Double, List<Bitmap>>();
+		for(Map.Entry<String, Bitmap> entry : values.entrySet()) {
+			double number = parseNumber(entry.getKey());
+			if(Double.isNaN(number))
+				continue;
+			// Adding zero turns -0.0 into 0.0
+			Double key = Double.valueOf(number + 0.0);
+			List<Bitmap> list = byNumber.get(key);
+			if(list == null) {
+				list = new ArrayList<Bitmap>(1);
+				byNumber.put(key, list);
+			}
+			list.add(entry.getValue());
+		}
+		numbers = new double[byNumber.size()];
+		int n = 0;
+		for(Double number : byNumber.keySet())
+			numbers[n++] = number.doubleValue();
+		Arrays.sort(numbers);
+		numberPostings = new Bitmap[numbers.length];
+		for(int idx = 0; idx < numbers.length; ++idx)
+			numberPostings[idx] = Bitmap.union(universe, byNumber.get(Double.valueOf(numbers[idx])));
+	}
+
+	/**
+	 * @return All nodes that have this fact
+	 */
+	Bitmap getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @param value
+	 *            The value to look up
+	 * @return The nodes that have exactly this value
+	 */
+	Bitmap lookup(String value) {
+		Bitmap posting = values.get(value);
+		return posting == null
+				? Bitmap.empty(universe)
+				: posting;
+	}
+
+	/**
+	 * @param pattern
+	 *            The pattern that the values must contain a match for
+	 * @return The nodes whose value matches the pattern
+	 */
+	Bitmap match(Pattern pattern) {
+		List<Bitmap> matching = new ArrayList<Bitmap>();
+		for(Map.Entry<String, Bitmap> entry : values.entrySet())
+			if(pattern.matcher(entry.getKey()).find())
+				matching.add(entry.getValue());
+		return Bitmap.union(universe, matching);
+	}
+
+	/**
+	 * Finds the nodes with a numeric value in the given range.
+	 * 
+	 * @param low
+	 *            The lower bound
+	 * @param lowInclusive
+	 *            <code>true</code> if the lower bound is included
+	 * @param high
+	 *            The upper bound
+	 * @param highInclusive
+	 *            <code>true</code> if the upper bound is included
+	 * @return The nodes whose value is a number in the range
+	 */
+	Bitmap range(double low, boolean lowInclusive, double high, boolean highInclusive) {
+		int from = Arrays.binarySearch(numbers, low);
+		if(from < 0)
+			from = -(from + 1);
+		else if(!lowInclusive)
+			++from;
+		int to = Arrays.binarySearch(numbers, high);
+		if(to < 0)
+			to = -(to + 1);
+		else if(highInclusive)
+			++to;
+		if(from >= to)
+			return Bitmap.empty(universe);
+		return Bitmap.union(universe, Arrays.asList(numberPostings).subList(from, to));
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * A compiled query for the <code>/nodes</code> end-point. Comparisons of <code>["fact", &lt;name&gt;]</code>
+ * and of the node name are answered from the index, as are <code>in</code> sub-queries that select the
+ * certnames of a fact query.
+ */
+abstract class NodeClause {
+	private static class And extends NodeClause {
+		private final NodeClause[] clauses;
+
+		And(NodeClause[] clauses) {
+			this.clauses = clauses;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			Bitmap result = clauses[0].evaluate(index);
+			for(int idx = 1; idx < clauses.length && !result.isEmpty(); ++idx)
+				result = result.and(clauses[idx].evaluate(index));
+			return result;
+		}
+	}
+
+	private static class Constant extends NodeClause {
+		private final Bitmap nodes;
+
+		Constant(Bitmap nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			return nodes;
+		}
+	}
+
+	private static class FactEquals extends NodeClause {
+		private final String name;
+
+		private final String value;
+
+		FactEquals(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			FactPostings postings = index.getPostings(name);
+			return postings == null
+					? index.getNone()
+					: postings.lookup(value);
+		}
+	}
+
+	private static class FactMatch extends NodeClause {
+		private final String name;
+
+		private final Pattern pattern;
+
+		FactMatch(String name, Pattern pattern) {
+			this.name = name;
+			this.pattern = pattern;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			FactPostings postings = index.getPostings(name);
+			return postings == null
+					? index.getNone()
+					: postings.match(pattern);
+		}
+	}
+
+	private static class FactRange extends NodeClause {
+		private final String name;
+
+		private final Range range;
+
+		FactRange(String name, Range range) {
+			this.name = name;
+			this.range = range;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			FactPostings postings = index.getPostings(name);
+			return postings == null
+					? index.getNone()
+					: range.evaluate(postings);
+		}
+	}
+
+	private static class InFacts extends NodeClause {
+		private final FactClause subQuery;
+
+		InFacts(FactClause subQuery) {
+			this.subQuery = subQuery;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			return index.evaluate(subQuery);
+		}
+	}
+
+	private static class Not extends NodeClause {
+		private final NodeClause clause;
+
+		Not(NodeClause clause) {
+			this.clause = clause;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			return index.getAll().andNot(clause.evaluate(index));
+		}
+	}
+
+	private static class Or extends NodeClause {
+		private final NodeClause[] clauses;
+
+		Or(NodeClause[] clauses) {
+			this.clauses = clauses;
+		}
+
+		@Override
+		Bitmap evaluate(FactIndex index) {
+			List<Bitmap> results = new ArrayList<Bitmap>(clauses.length);
+			for(NodeClause clause : clauses)
+				results.add(clause.evaluate(index));
+			return Bitmap.union(index.getNodeCount(), results);
+		}
+	}
+
+	/**
+	 * Compiles the JSON form of a node query.
+	 * 
+	 * @param json
+	 *            The query
+	 * @param index
+	 *            The index that the query will be evaluated against
+	 * @return The compiled query
+	 * @throws IllegalArgumentException
+	 *             if the query uses an operator or field that the index doesn't support
+	 */
+	static NodeClause compile(JsonElement json, FactIndex index) {
+		JsonArray args = QuerySyntax.asTerm(json);
+		String operator = QuerySyntax.getOperator(args);
+		if("and".equals(operator) || "or".equals(operator)) { //$NON-NLS-1$ //$NON-NLS-2$
+			NodeClause[] clauses = new NodeClause[args.size() - 1];
+			for(int idx = 0; idx < clauses.length; ++idx)
+				clauses[idx] = compile(args.get(idx + 1), index);
+			return "and".equals(operator) //$NON-NLS-1$
+					? new And(clauses)
+					: new Or(clauses);
+		}
+		if("not".equals(operator)) //$NON-NLS-1$
+			return new Not(compile(QuerySyntax.getArgument(args, 1), index));
+
+		String field = QuerySyntax.getFieldName(args);
+		if(field == null) {
+			String factName = getFactName(args);
+			if("=".equals(operator)) //$NON-NLS-1$
+				return new FactEquals(factName, QuerySyntax.getString(args));
+			if("~".equals(operator)) //$NON-NLS-1$
+				return new FactMatch(factName, QuerySyntax.getPattern(args));
+			return new FactRange(factName, Range.compile(operator, args));
+		}
+
+		if("name".equals(field)) { //$NON-NLS-1$
+			if("=".equals(operator)) //$NON-NLS-1$
+				return new Constant(index.lookupCertname(QuerySyntax.getString(args)));
+			if("~".equals(operator)) //$NON-NLS-1$
+				return new Constant(index.matchCertnames(QuerySyntax.getPattern(args)));
+			if("in".equals(operator)) //$NON-NLS-1$
+				return new InFacts(getFactSubQuery(args, index));
+		}
+		throw QuerySyntax.unsupported(args);
+	}
+
+	private static String getFactName(JsonArray args) {
+		// ["fact", <name>]
+		JsonElement field = args.get(1);
+		if(field.isJsonArray()) {
+			JsonArray qualified = field.getAsJsonArray();
+			if(qualified.size() == 2 && "fact".equals(qualified.get(0).getAsString())) //$NON-NLS-1$
+				return qualified.get(1).getAsString();
+		}
+		throw QuerySyntax.unsupported(args);
+	}
+
+	private static FactClause getFactSubQuery(JsonArray args, FactIndex index) {
+		// ["in", "name", ["extract", "certname", ["select-facts", <query>]]]
+		JsonArray extract = QuerySyntax.asTerm(QuerySyntax.getArgument(args, 2));
+		if("extract".equals(QuerySyntax.getOperator(extract)) && "certname".equals(QuerySyntax.getFieldName(extract))) { //$NON-NLS-1$ //$NON-NLS-2$
+			JsonArray select = QuerySyntax.asTerm(QuerySyntax.getArgument(extract, 2));
+			if("select-facts".equals(QuerySyntax.getOperator(select))) //$NON-NLS-1$
+				return FactClause.compile(select.get(1), index);
+		}
+		throw QuerySyntax.unsupported(args);
+	}
+
+	/**
+	 * @param index
+	 *            The index to evaluate the clause against
+	 * @return The nodes that match this clause
+	 */
+	abstract Bitmap evaluate(FactIndex index);
+}
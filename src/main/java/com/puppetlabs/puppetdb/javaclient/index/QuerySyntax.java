@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * Helpers for picking apart the JSON form of a query term, e.g. <code>["=", "name", "kernel"]</code>.
+ */
+final class QuerySyntax {
+	static JsonArray asTerm(JsonElement json) {
+		if(json != null && json.isJsonArray()) {
+			JsonArray args = json.getAsJsonArray();
+			if(args.size() > 1 && args.get(0).isJsonPrimitive())
+				return args;
+		}
+		throw new IllegalArgumentException("Not a query term: " + json);
+	}
+
+	static JsonElement getArgument(JsonArray args, int idx) {
+		if(idx >= args.size())
+			throw new IllegalArgumentException("Missing argument in query term: " + args);
+		return args.get(idx);
+	}
+
+	/**
+	 * @return The name of a plain field or <code>null</code> if the field is qualified, e.g. <code>["fact", "kernel"]</code>
+	 */
+	static String getFieldName(JsonArray args) {
+		JsonElement field = getArgument(args, 1);
+		return field.isJsonPrimitive()
+				? field.getAsString()
+				: null;
+	}
+
+	static double getNumber(JsonArray args) {
+		double number = FactPostings.parseNumber(getString(args));
+		if(Double.isNaN(number))
+			throw new IllegalArgumentException("Not a number in query term: " + args);
+		return number;
+	}
+
+	static String getOperator(JsonArray args) {
+		return args.get(0).getAsString();
+	}
+
+	static Pattern getPattern(JsonArray args) {
+		try {
+			return Pattern.compile(getString(args));
+		}
+		catch(PatternSyntaxException e) {
+			throw new IllegalArgumentException("Bad regular expression in query term: " + args, e);
+		}
+	}
+
+	/**
+	 * @return The literal value of a comparison as a string
+	 */
+	static String getString(JsonArray args) {
+		JsonElement value = getArgument(args, 2);
+		if(!value.isJsonPrimitive())
+			throw new IllegalArgumentException("Not a literal in query term: " + args);
+		return value.getAsString();
+	}
+
+	static IllegalArgumentException unsupported(JsonArray args) {
+		return new IllegalArgumentException("The fact index doesn't support the query term: " + args);
+	}
+
+	private QuerySyntax() {
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.index;
+
+import com.google.gson.JsonArray;
+
+/**
+ * A numeric comparison of fact values. Values that aren't numbers never match.
+ */
+final class Range {
+	/**
+	 * @param operator
+	 *            One of <code>&gt;</code>, <code>&gt;=</code>, <code>&lt;</code> or <code>&lt;=</code>
+	 * @param args
+	 *            The query term
+	 * @return The range of values that satisfy the comparison
+	 */
+	static Range compile(String operator, JsonArray args) {
+		if(">".equals(operator)) //$NON-NLS-1$
+			return new Range(QuerySyntax.getNumber(args), false, Double.POSITIVE_INFINITY, true);
+		if(">=".equals(operator)) //$NON-NLS-1$
+			return new Range(QuerySyntax.getNumber(args), true, Double.POSITIVE_INFINITY, true);
+		if("<".equals(operator)) //$NON-NLS-1$
+			return new Range(Double.NEGATIVE_INFINITY, true, QuerySyntax.getNumber(args), false);
+		if("<=".equals(operator)) //$NON-NLS-1$
+			return new Range(Double.NEGATIVE_INFINITY, true, QuerySyntax.getNumber(args), true);
+		throw QuerySyntax.unsupported(args);
+	}
+
+	private final double low;
+
+	private final boolean lowInclusive;
+
+	private final double high;
+
+	private final boolean highInclusive;
+
+	private Range(double low, boolean lowInclusive, double high, boolean highInclusive) {
+		this.low = low;
+		this.lowInclusive = lowInclusive;
+		this.high = high;
+		this.highInclusive = highInclusive;
+	}
+
+	Bitmap evaluate(FactPostings postings) {
+		return postings.range(low, lowInclusive, high, highInclusive);
+	}
+}
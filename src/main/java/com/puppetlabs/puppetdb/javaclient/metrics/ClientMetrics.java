@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.metrics;
+
+import java.util.Map;
+
+/**
+ * Collects metrics on all requests made by the client. An instance is shared by all clients
+ * created from the same Guice injector and can be obtained from that injector.
+ * 
+ * <pre>
+ * Injector injector = Guice.createInjector(PuppetDBClientFactory.getDefaultBindings(preferences));
+ * PuppetDBClient client = injector.getInstance(PuppetDBClient.class);
+ * ClientMetrics metrics = injector.getInstance(ClientMetrics.class);
+ * </pre>
+ * 
+ * The same metrics are also published as platform MXBeans with the object name
+ * <code>com.puppetlabs.puppetdb.javaclient:type=Requests,client=&lt;n&gt;,path=&lt;path&gt;</code>.
+ */
+public interface ClientMetrics {
+	/**
+	 * Returns a snapshot of the metrics collected so far, one entry per normalized path.
+	 * 
+	 * @return A map sorted by path
+	 */
+	Map<String, RequestMetricsSnapshot> getSnapshot();
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.metrics;
+
+/**
+ * Management interface of the adaptive concurrency limit of one PuppetDB endpoint. Instances
+ * are registered with the platform MBean server under the
+ * <code>com.puppetlabs.puppetdb.javaclient</code> domain with <code>type=ConcurrencyLimit</code>.
+ */
+public interface ConcurrencyLimitMBean {
+	/**
+	 * @return The endpoint that the limit applies to, formatted as <code>host:port</code>
+	 */
+	String getEndpoint();
+
+	/**
+	 * @return The number of requests that are currently executing
+	 */
+	int getInFlight();
+
+	/**
+	 * @return The current limit on concurrently executing requests
+	 */
+	int getLimit();
+
+	/**
+	 * @return The highest value that the limit can grow to
+	 */
+	int getMaxLimit();
+
+	/**
+	 * @return The number of requests that are waiting for a free slot
+	 */
+	int getQueueLength();
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.metrics;
+
+/**
+ * An immutable summary of the values recorded by a histogram at one point in time. Percentiles
+ * are approximations. A reported percentile is at most 12.5% higher than the exact value.
+ */
+public class HistogramSnapshot {
+	private final long count;
+
+	private final long sum;
+
+	private final long max;
+
+	private final long p50;
+
+	private final long p90;
+
+	private final long p95;
+
+	private final long p99;
+
+	private final long p999;
+
+	/**
+	 * @param count
+	 *            Number of recorded values
+	 * @param sum
+	 *            Sum of all recorded values
+	 * @param max
+	 *            The largest recorded value
+	 * @param p50
+	 *            The median
+	 * @param p90
+	 *            The 90th percentile
+	 * @param p95
+	 *            The 95th percentile
+	 * @param p99
+	 *            The 99th percentile
+	 * @param p999
+	 *            The 99.9th percentile
+	 */
+	public HistogramSnapshot(long count, long sum, long max, long p50, long p90, long p95, long p99, long p999) {
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p95 = p95;
+		this.p99 = p99;
+		this.p999 = p999;
+	}
+
+	/**
+	 * @return The number of recorded values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The largest recorded value
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return The mean of all recorded values or 0 if no values have been recorded
+	 */
+	public double getMean() {
+		return count == 0
+				? 0
+				: (double) sum / count;
+	}
+
+	/**
+	 * @return The 50th percentile (median)
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * @return The 90th percentile
+	 */
+	public long getP90() {
+		return p90;
+	}
+
+	/**
+	 * @return The 95th percentile
+	 */
+	public long getP95() {
+		return p95;
+	}
+
+	/**
+	 * @return The 99th percentile
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/**
+	 * @return The 99.9th percentile
+	 */
+	public long getP999() {
+		return p999;
+	}
+
+	/**
+	 * @return The sum of all recorded values
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + (long) getMean() + ", p50=" + p50 + ", p99=" + p99 + ", max=" + max;
+	}
+}
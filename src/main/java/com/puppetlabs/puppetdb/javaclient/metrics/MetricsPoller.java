@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.metrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+
+/**
+ * <p>
+ * Scrapes the PuppetDB metrics into {@link MetricsSnapshot snapshots} of numeric samples. The list
+ * of MBeans is fetched once and cached. It is refreshed when an MBean disappears and otherwise at
+ * most every ten minutes. The MBeans themselves are fetched concurrently, at most
+ * {@link APIPreferences#getMetricsPollParallelism()} at a time. An MBean that comes back without
+ * attributes, which is what the client returns when PuppetDB answers 404, is counted as vanished.
+ * </p>
+ * <p>
+ * The latest snapshot is published atomically and can be read at any time without blocking, also
+ * while a scrape is in progress.
+ * </p>
+ */
+@Singleton
+public class MetricsPoller {
+	/**
+	 * The samples collected during one scrape
+	 */
+	private static class Samples {
+		final List<String> names = new ArrayList<String>();
+
+		double[] values = new double[64];
+
+		void add(String name, double value) {
+			int idx = names.size();
+			if(idx == values.length)
+				values = Arrays.copyOf(values, idx * 2);
+			values[idx] = value;
+			names.add(name);
+		}
+	}
+
+	// Maximum age of the cached MBean list
+	private static final long MBEAN_LIST_TTL = 10 * 60 * 1000L;
+
+	private static final ThreadFactory FETCH_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB metrics fetch"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static final ThreadFactory POLL_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PuppetDB metrics poll"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	/**
+	 * Adds the numeric leaves of an attribute value to the samples. Numbers are added as is, booleans
+	 * as 0 or 1, and maps are descended into. All other values are ignored.
+	 */
+	private static void flatten(String mbean, String path, Object value, Samples samples) {
+		if(value instanceof Number)
+			samples.add(MetricsSnapshot.sampleName(mbean, path), ((Number) value).doubleValue());
+		else if(value instanceof Boolean)
+			samples.add(MetricsSnapshot.sampleName(mbean, path), ((Boolean) value).booleanValue()
+					? 1
+					: 0);
+		else if(value instanceof Map)
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+				flatten(mbean, path + '.' + entry.getKey(), entry.getValue(), samples);
+	}
+
+	private final PuppetDBClient client;
+
+	private final int interval;
+
+	private final int parallelism;
+
+	private final Object pollLock = new Object();
+
+	private final AtomicInteger pollCount = new AtomicInteger();
+
+	private final AtomicInteger pollFailureCount = new AtomicInteger();
+
+	private final AtomicInteger mbeanListFetchCount = new AtomicInteger();
+
+	private volatile String[] mbeans;
+
+	private long mbeansFetchedAt;
+
+	private ScheduledExecutorService poller;
+
+	// Created when needed, so that polling can resume after a shutdown
+	private ThreadPoolExecutor fetcher;
+
+	private volatile MetricsSnapshot snapshot;
+
+	/**
+	 * <p>
+	 * Creates the poller. No requests are made until the poller is {@link #start() started} or
+	 * {@link #poll() polled}.
+	 * </p>
+	 * <p>
+	 * <b>For Guice injection only.</b> Don't use this constructor from code
+	 * </p>
+	 * 
+	 * @param client
+	 *            The client used for all requests
+	 * @param preferences
+	 *            The preferences that determine the poll interval and parallelism
+	 */
+	@Inject
+	public MetricsPoller(PuppetDBClient client, APIPreferences preferences) {
+		this.client = client;
+		this.interval = preferences.getMetricsPollInterval();
+		this.parallelism = Math.max(1, preferences.getMetricsPollParallelism());
+	}
+
+	private synchronized ThreadPoolExecutor getFetcher() {
+		if(fetcher == null) {
+			fetcher = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), FETCH_THREADS);
+			fetcher.allowCoreThreadTimeOut(true);
+		}
+		return fetcher;
+	}
+
+	/**
+	 * @return The number of times the list of MBeans has been fetched
+	 */
+	public int getMBeanListFetchCount() {
+		return mbeanListFetchCount.get();
+	}
+
+	private String[] getMBeans(long now) throws IOException {
+		String[] names = mbeans;
+		if(names == null || now - mbeansFetchedAt > MBEAN_LIST_TTL) {
+			Map<String, String> all = client.getMetrics();
+			mbeanListFetchCount.incrementAndGet();
+			names = all == null
+					? new String[0]
+					: all.keySet().toArray(new String[all.size()]);
+			Arrays.sort(names);
+			mbeansFetchedAt = now;
+			mbeans = names;
+		}
+		return names;
+	}
+
+	/**
+	 * @return The number of completed scrapes
+	 */
+	public int getPollCount() {
+		return pollCount.get();
+	}
+
+	/**
+	 * @return The number of scheduled scrapes that failed
+	 */
+	public int getPollFailureCount() {
+		return pollFailureCount.get();
+	}
+
+	/**
+	 * Returns the snapshot obtained by the latest scrape. This method never blocks.
+	 * 
+	 * @return The latest snapshot or <code>null</code> if no scrape has completed yet
+	 */
+	public MetricsSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Makes the next scrape fetch the list of MBeans again.
+	 */
+	public void invalidateMBeans() {
+		mbeans = null;
+	}
+
+	/**
+	 * Scrapes all MBeans and publishes a new snapshot. MBeans that cannot be fetched are left out of
+	 * the snapshot and counted by {@link MetricsSnapshot#getFailedCount()}. Concurrent calls are
+	 * serialized.
+	 * 
+	 * @return The new snapshot
+	 * @throws IOException
+	 *             if the list of MBeans could not be fetched
+	 */
+	public MetricsSnapshot poll() throws IOException {
+		synchronized(pollLock) {
+			String[] names = getMBeans(System.currentTimeMillis());
+			ThreadPoolExecutor fetcher = getFetcher();
+			List<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>(names.length);
+			for(final String name : names)
+				futures.add(fetcher.submit(new Callable<Map<String, Object>>() {
+					@Override
+					public Map<String, Object> call() throws IOException {
+						return client.getMetric(name);
+					}
+				}));
+
+			Samples samples = new Samples();
+			int failedCount = 0;
+			boolean vanished = false;
+			try {
+				for(int idx = 0; idx < names.length; ++idx) {
+					Map<String, Object> attrs;
+					try {
+						attrs = futures.get(idx).get();
+					}
+					catch(ExecutionException e) {
+						++failedCount;
+						continue;
+					}
+					if(attrs == null || attrs.isEmpty()) {
+						// The MBean is gone
+						++failedCount;
+						vanished = true;
+						continue;
+					}
+					for(Map.Entry<String, Object> attr : attrs.entrySet())
+						flatten(names[idx], attr.getKey(), attr.getValue(), samples);
+				}
+			}
+			catch(InterruptedException e) {
+				for(Future<Map<String, Object>> future : futures)
+					future.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if(vanished)
+				mbeans = null;
+
+			MetricsSnapshot current = publish(samples, failedCount);
+			pollCount.incrementAndGet();
+			return current;
+		}
+	}
+
+	private MetricsSnapshot publish(Samples samples, int failedCount) {
+		long now = System.currentTimeMillis();
+		MetricsSnapshot previous = snapshot;
+		int count = samples.names.size();
+		String[] names = samples.names.toArray(new String[count]);
+		double[] values = Arrays.copyOf(samples.values, count);
+		Map<String, Integer> index;
+		boolean sameLayout = previous != null && Arrays.equals(names, previous.getNames());
+		if(sameLayout) {
+			// Share the names and the index with the previous snapshot
+			names = previous.getNames();
+			index = previous.getIndex();
+		}
+		else {
+			index = new HashMap<String, Integer>(count * 4 / 3 + 1);
+			for(int idx = 0; idx < count; ++idx)
+				index.put(names[idx], Integer.valueOf(idx));
+		}
+
+		double[] rates = new double[count];
+		double seconds = previous == null
+				? 0
+				: (now - previous.getTime()) / 1000.0;
+		for(int idx = 0; idx < count; ++idx) {
+			int prevIdx = sameLayout
+					? idx
+					: previous == null
+							? -1
+							: previous.indexOf(names[idx]);
+			rates[idx] = prevIdx < 0 || seconds <= 0
+					? Double.NaN
+					: (values[idx] - previous.getValue(prevIdx)) / seconds;
+		}
+		MetricsSnapshot current = new MetricsSnapshot(now, names, index, values, rates, failedCount);
+		snapshot = current;
+		return current;
+	}
+
+	/**
+	 * Stops the periodic scrapes and the fetch threads. The latest snapshot remains available. The
+	 * poller can be {@link #start() started} or {@link #poll() polled} again afterwards.
+	 */
+	public synchronized void shutdown() {
+		if(poller != null) {
+			poller.shutdownNow();
+			poller = null;
+		}
+		if(fetcher != null) {
+			fetcher.shutdownNow();
+			fetcher = null;
+		}
+	}
+
+	/**
+	 * Starts scraping the metrics every {@link APIPreferences#getMetricsPollInterval()} milliseconds.
+	 * The first scrape is made immediately. Calling this method on a started poller has no effect.
+	 */
+	public synchronized void start() {
+		if(poller != null)
+			return;
+		poller = Executors.newSingleThreadScheduledExecutor(POLL_THREADS);
+		poller.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					poll();
+				}
+				catch(IOException e) {
+					pollFailureCount.incrementAndGet();
+				}
+				catch(RuntimeException e) {
+					pollFailureCount.incrementAndGet();
+				}
+			}
+		}, 0, Math.max(1, interval), TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.metrics;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * An immutable set of numeric samples obtained by one scrape of the PuppetDB metrics. Each sample is
+ * named <code>&lt;mbean&gt;#&lt;attribute&gt;</code>. Attributes with composite values are flattened
+ * into one sample per numeric leaf, e.g. <code>&lt;mbean&gt;#attribute.key</code>. Booleans are
+ * sampled as 0 or 1 and values that aren't numeric are left out.
+ * </p>
+ * <p>
+ * Along with each value, the snapshot holds the rate per second at which the value changed since the
+ * previous scrape. The rate is {@link Double#NaN} when there was no previous value. For counters such
+ * as the number of processed commands, the rate is the throughput. For gauges, it is the trend.
+ * </p>
+ */
+public class MetricsSnapshot {
+	/**
+	 * @param mbean
+	 *            The name of the MBean
+	 * @param attribute
+	 *            The name of the attribute, possibly flattened
+	 * @return The name of the sample
+	 */
+	public static String sampleName(String mbean, String attribute) {
+		return mbean + '#' + attribute;
+	}
+
+	private final long time;
+
+	private final String[] names;
+
+	private final Map<String, Integer> index;
+
+	private final double[] values;
+
+	private final double[] rates;
+
+	private final int failedCount;
+
+	/**
+	 * @param time
+	 *            The time of the scrape in milliseconds since the epoch
+	 * @param names
+	 *            The sample names. The array is owned by the new instance and may be shared with other snapshots
+	 * @param index
+	 *            The position of each name in the <code>names</code> array
+	 * @param values
+	 *            The sample values, in the same order as the names
+	 * @param rates
+	 *            The rates per second, in the same order as the names
+	 * @param failedCount
+	 *            The number of MBeans that could not be fetched
+	 */
+	MetricsSnapshot(long time, String[] names, Map<String, Integer> index, double[] values, double[] rates, int failedCount) {
+		this.time = time;
+		this.names = names;
+		this.index = index;
+		this.values = values;
+		this.rates = rates;
+		this.failedCount = failedCount;
+	}
+
+	/**
+	 * @return The number of MBeans that could not be fetched during the scrape
+	 */
+	public int getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @return The name to position index, possibly shared with other snapshots
+	 */
+	Map<String, Integer> getIndex() {
+		return index;
+	}
+
+	/**
+	 * @param idx
+	 *            The position of a sample
+	 * @return The name of the sample
+	 */
+	public String getName(int idx) {
+		return names[idx];
+	}
+
+	/**
+	 * @return The sample names, possibly shared with other snapshots. Must not be modified
+	 */
+	String[] getNames() {
+		return names;
+	}
+
+	/**
+	 * @param idx
+	 *            The position of a sample
+	 * @return The rate per second of the sample or {@link Double#NaN}
+	 */
+	public double getRate(int idx) {
+		return rates[idx];
+	}
+
+	/**
+	 * @param mbean
+	 *            The name of the MBean
+	 * @param attribute
+	 *            The name of the attribute, possibly flattened
+	 * @return The rate per second of the sample or {@link Double#NaN} if there is no such sample or no rate
+	 */
+	public double getRate(String mbean, String attribute) {
+		int idx = indexOf(sampleName(mbean, attribute));
+		return idx < 0
+				? Double.NaN
+				: rates[idx];
+	}
+
+	/**
+	 * @return The time of the scrape in milliseconds since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @param idx
+	 *            The position of a sample
+	 * @return The value of the sample
+	 */
+	public double getValue(int idx) {
+		return values[idx];
+	}
+
+	/**
+	 * @param mbean
+	 *            The name of the MBean
+	 * @param attribute
+	 *            The name of the attribute, possibly flattened
+	 * @return The value of the sample or {@link Double#NaN} if there is no such sample
+	 */
+	public double getValue(String mbean, String attribute) {
+		int idx = indexOf(sampleName(mbean, attribute));
+		return idx < 0
+				? Double.NaN
+				: values[idx];
+	}
+
+	/**
+	 * @param name
+	 *            The name of a sample
+	 * @return The position of the sample or -1 if there is no such sample
+	 */
+	public int indexOf(String name) {
+		Integer idx = index.get(name);
+		return idx == null
+				? -1
+				: idx.intValue();
+	}
+
+	/**
+	 * @return The number of samples
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder bld = new StringBuilder();
+		for(int idx = 0; idx < names.length; ++idx) {
+			bld.append(names[idx]);
+			bld.append(" = "); //$NON-NLS-1$
+			bld.append(values[idx]);
+			if(!Double.isNaN(rates[idx])) {
+				bld.append(" ("); //$NON-NLS-1$
+				bld.append(rates[idx]);
+				bld.append("/s)"); //$NON-NLS-1$
+			}
+			bld.append('\n');
+		}
+		return bld.toString();
+	}
+}
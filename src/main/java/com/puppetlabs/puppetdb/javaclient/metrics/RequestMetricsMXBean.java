@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface for the metrics of one normalized endpoint path. Times are reported
+ * in milliseconds.
+ * 
+ * @see RequestMetricsSnapshot
+ */
+public interface RequestMetricsMXBean {
+	/**
+	 * @return The number of calls that shared the response of an identical call already in flight
+	 */
+	long getCoalescedCount();
+
+	/**
+	 * @return The total number of failed calls
+	 */
+	long getErrorCount();
+
+	/**
+	 * @return The number of failed calls keyed by HTTP status code, 0 denoting a failure without a status
+	 */
+	Map<Integer, Long> getErrorCounts();
+
+	/**
+	 * @return The number of calls currently executing
+	 */
+	int getInFlight();
+
+	/**
+	 * @return The largest call latency
+	 */
+	double getLatencyMax();
+
+	/**
+	 * @return The mean call latency
+	 */
+	double getLatencyMean();
+
+	/**
+	 * @return The median call latency
+	 */
+	double getLatencyP50();
+
+	/**
+	 * @return The 95th percentile of the call latency
+	 */
+	double getLatencyP95();
+
+	/**
+	 * @return The 99th percentile of the call latency
+	 */
+	double getLatencyP99();
+
+	/**
+	 * @return The median time spent decoding a JSON response
+	 */
+	double getParseTimeP50();
+
+	/**
+	 * @return The 99th percentile of the time spent decoding a JSON response
+	 */
+	double getParseTimeP99();
+
+	/**
+	 * @return The normalized path
+	 */
+	String getPath();
+
+	/**
+	 * @return The total number of entities decoded from responses
+	 */
+	long getRecordsDecoded();
+
+	/**
+	 * @return The number of completed calls
+	 */
+	long getRequestCount();
+
+	/**
+	 * @return The total number of response body bytes read
+	 */
+	long getResponseBytes();
+
+	/**
+	 * @return The median time to first byte
+	 */
+	double getTimeToFirstByteP50();
+
+	/**
+	 * @return The 99th percentile of the time to first byte
+	 */
+	double getTimeToFirstByteP99();
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable summary of the requests made to one endpoint path. Paths are normalized so that
+ * names, values and other parameters are replaced by an asterisk, e.g. all requests for facts of
+ * a specific node are summarized under <code>/nodes/&#42;/facts</code>. All times are in
+ * nanoseconds.
+ */
+public class RequestMetricsSnapshot {
+	private final String path;
+
+	private final long requestCount;
+
+	private final int inFlight;
+
+	private final long coalescedCount;
+
+	private final HistogramSnapshot latency;
+
+	private final HistogramSnapshot timeToFirstByte;
+
+	private final HistogramSnapshot parseTime;
+
+	private final long responseBytes;
+
+	private final long recordsDecoded;
+
+	private final Map<Integer, Long> errorCounts;
+
+	/**
+	 * @param path
+	 *            The normalized path
+	 * @param requestCount
+	 *            Number of completed calls
+	 * @param inFlight
+	 *            Number of calls currently executing
+	 * @param coalescedCount
+	 *            Number of calls that shared the response of an identical call already in flight
+	 * @param latency
+	 *            Total time of each call
+	 * @param timeToFirstByte
+	 *            Time from sending each HTTP request until the response headers arrived
+	 * @param parseTime
+	 *            Time spent decoding JSON responses
+	 * @param responseBytes
+	 *            Total number of response body bytes read
+	 * @param recordsDecoded
+	 *            Total number of entities decoded from responses
+	 * @param errorCounts
+	 *            Number of failed calls keyed by HTTP status code, where 0 denotes a failure without a status
+	 */
+	public RequestMetricsSnapshot(String path, long requestCount, int inFlight, long coalescedCount, HistogramSnapshot latency,
+			HistogramSnapshot timeToFirstByte, HistogramSnapshot parseTime, long responseBytes, long recordsDecoded, Map<Integer, Long> errorCounts) {
+		this.path = path;
+		this.requestCount = requestCount;
+		this.inFlight = inFlight;
+		this.coalescedCount = coalescedCount;
+		this.latency = latency;
+		this.timeToFirstByte = timeToFirstByte;
+		this.parseTime = parseTime;
+		this.responseBytes = responseBytes;
+		this.recordsDecoded = recordsDecoded;
+		this.errorCounts = Collections.unmodifiableMap(new TreeMap<Integer, Long>(errorCounts));
+	}
+
+	/**
+	 * @return The number of calls that shared the response of an identical call already in flight.
+	 *         These calls are not included in the request count
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * @return The total number of failed calls
+	 */
+	public long getErrorCount() {
+		long total = 0;
+		for(Long count : errorCounts.values())
+			total += count.longValue();
+		return total;
+	}
+
+	/**
+	 * @return The number of failed calls keyed by HTTP status code, 0 denoting a failure without a status
+	 */
+	public Map<Integer, Long> getErrorCounts() {
+		return errorCounts;
+	}
+
+	/**
+	 * @return The number of calls currently executing
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return The total time of each call, including retries and hedged requests
+	 */
+	public HistogramSnapshot getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return The time spent decoding JSON responses
+	 */
+	public HistogramSnapshot getParseTime() {
+		return parseTime;
+	}
+
+	/**
+	 * @return The normalized path
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The total number of entities decoded from responses
+	 */
+	public long getRecordsDecoded() {
+		return recordsDecoded;
+	}
+
+	/**
+	 * @return The number of completed calls, successful or not
+	 */
+	public long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return The total number of response body bytes read
+	 */
+	public long getResponseBytes() {
+		return responseBytes;
+	}
+
+	/**
+	 * @return The time from sending each HTTP request until its response headers arrived
+	 */
+	public HistogramSnapshot getTimeToFirstByte() {
+		return timeToFirstByte;
+	}
+
+	@Override
+	public String toString() {
+		return path + ": requests=" + requestCount + ", inFlight=" + inFlight + ", errors=" + errorCounts + ", latency[" + latency + ']';
+	}
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.puppetlabs.puppetdb.javaclient.query.Query.AbstractExpression;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Binary;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Ident;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Literal;
+import com.puppetlabs.puppetdb.javaclient.query.Query.NAry;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Unary;
+
+/**
+ * <p>
+ * Rewrites an expression into a smaller equivalent expression before it is sent to PuppetDB:
+ * </p>
+ * <ul>
+ * <li>Nested <code>and</code> and <code>or</code> expressions are flattened into their parent.</li>
+ * <li>Duplicate terms of an <code>and</code> or <code>or</code> are removed.</li>
+ * <li><code>not</code> of <code>not</code> is replaced by the inner expression.</li>
+ * <li>An <code>and</code> that contains both a term and its negation, or two string equality
+ * comparisons of the same single-valued field with different values, can never match. An
+ * <code>or</code> that contains both a term and its negation always matches. The query language has
+ * no constants, so such a term is replaced by the shortest contradiction or tautology found in it,
+ * and is then removed from, or absorbs, its parent.</li>
+ * </ul>
+ * <p>
+ * PuppetDB evaluates queries in SQL, where a comparison with a <code>null</code> column is neither
+ * true nor false. A term and its negation may then both fail to match, so contradictions and
+ * tautologies are only recognized in terms that compare fields PuppetDB never leaves
+ * <code>null</code>, such as <code>certname</code> or <code>name</code>. Comparisons of timestamps,
+ * facts and resource parameters are never folded.
+ * </p>
+ * <p>
+ * Terms are compared by their JSON form. Expressions that weren't created by {@link Query} are
+ * left as they are.
+ * </p>
+ */
+final class ExpressionOptimizer {
+	/**
+	 * An optimized term and what is known about its value
+	 */
+	private static class Term {
+		static final int VARIABLE = 0;
+
+		static final int ALWAYS = 1;
+
+		static final int NEVER = 2;
+
+		final Expression<?> expression;
+
+		final int value;
+
+		final boolean changed;
+
+		/**
+		 * <code>true</code> if the term is either true or false, i.e. it only compares fields that
+		 * are never <code>null</code>
+		 */
+		final boolean definite;
+
+		/**
+		 * The optimized operands of an <code>and</code>, <code>or</code> or <code>not</code>
+		 */
+		final Term[] operands;
+
+		private String json;
+
+		Term(Expression<?> expression, int value, boolean changed, boolean definite, Term... operands) {
+			this.expression = expression;
+			this.value = value;
+			this.changed = changed;
+			this.definite = definite;
+			this.operands = operands;
+		}
+
+		String getJSON() {
+			if(json == null) {
+				// Memoizing the JSON of every subtree in the expressions would retain a copy per level
+				StringBuilder bld = new StringBuilder();
+				AbstractExpression.write(expression, bld);
+				json = bld.toString();
+			}
+			return json;
+		}
+	}
+
+	private static final String AND = "and"; //$NON-NLS-1$
+
+	private static final String NOT = "not"; //$NON-NLS-1$
+
+	private static final String OR = "or"; //$NON-NLS-1$
+
+	/**
+	 * Single-valued string fields that PuppetDB never leaves <code>null</code>
+	 */
+	private static final Set<String> NOT_NULL = new HashSet<String>(Arrays.asList(
+		"certname", "hash", "name", "report", "status", "title", "type")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+
+	private static boolean allDefinite(Collection<Term> terms) {
+		for(Term term : terms)
+			if(!term.definite)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the name of the field that the term compares if it is a definite equality
+	 * comparison with a string literal, or <code>null</code> if it isn't. Two such comparisons
+	 * of the same field with different literals can't both match. Timestamps are excluded
+	 * since different strings may denote the same instant.
+	 */
+	private static String getSingleValuedKey(Term term) {
+		if(!term.definite || !(term.expression instanceof Binary))
+			return null;
+		Binary<?> binary = (Binary<?>) term.expression;
+		return "=".equals(binary.getOperator()) && ((Literal<?>) binary.getRhs()).getLiteral() instanceof String //$NON-NLS-1$
+				? (String) ((Ident<?>) binary.getLhs()).getLiteral()
+				: null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the comparison is never unknown, i.e. it tests a field that
+	 * is never <code>null</code> for equality or a match, or tests any field for <code>null</code>.
+	 */
+	private static boolean isDefinite(Binary<?> binary) {
+		Expression<?> rhs = binary.getRhs();
+		if(!(rhs instanceof Literal) || rhs instanceof Ident)
+			return false;
+		if(((Literal<?>) rhs).getLiteral() == null)
+			return "=".equals(binary.getOperator()); //$NON-NLS-1$
+		Identifier<?> lhs = binary.getLhs();
+		return ("=".equals(binary.getOperator()) || "~".equals(binary.getOperator())) && //$NON-NLS-1$ //$NON-NLS-2$
+				lhs instanceof Ident && NOT_NULL.contains(((Ident<?>) lhs).getLiteral());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Term junction(String operator, Term... terms) {
+		List<Expression<?>> list = new ArrayList<Expression<?>>(terms.length);
+		for(Term term : terms)
+			list.add(term.expression);
+		return new Term(new NAry(list, operator), AND.equals(operator)
+				? Term.NEVER
+				: Term.ALWAYS, true, true, terms);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Term negate(Term term) {
+		int value = term.value == Term.ALWAYS
+				? Term.NEVER
+				: term.value == Term.NEVER
+						? Term.ALWAYS
+						: Term.VARIABLE;
+		return new Term(new Unary(term.expression, NOT), value, true, term.definite, term);
+	}
+
+	/**
+	 * Optimizes an expression.
+	 * 
+	 * @param expression
+	 *            The expression to optimize
+	 * @return The optimized expression, or <code>expression</code> itself if it couldn't be improved
+	 */
+	static <T> Expression<T> optimize(Expression<T> expression) {
+		@SuppressWarnings("unchecked")
+		Expression<T> result = (Expression<T>) optimizeTerm(expression).expression;
+		return result;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Term optimizeBinary(Binary<?> binary) {
+		Expression<?> rhs = binary.getRhs();
+		if(rhs instanceof Literal)
+			return new Term(binary, Term.VARIABLE, false, isDefinite(binary));
+
+		// Sub-queries
+		Term optimized = optimizeTerm(rhs);
+		return optimized.changed
+				? new Term(new Binary(binary.getLhs(), optimized.expression, binary.getOperator()), Term.VARIABLE, true, false)
+				: new Term(binary, Term.VARIABLE, false, false);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Term optimizeJunction(NAry<?> nary) {
+		String operator = nary.getOperator();
+		boolean isAnd = AND.equals(operator);
+		int absorbing = isAnd
+				? Term.NEVER
+				: Term.ALWAYS;
+		int neutral = isAnd
+				? Term.ALWAYS
+				: Term.NEVER;
+
+		boolean changed = false;
+		List<Term> flattened = new ArrayList<Term>();
+		for(Expression<?> child : nary.getExpressions()) {
+			Term term = optimizeTerm(child);
+			changed |= term.changed;
+			if(term.expression instanceof NAry && operator.equals(((NAry<?>) term.expression).getOperator()) && term.value == Term.VARIABLE) {
+				flattened.addAll(Arrays.asList(term.operands));
+				changed = true;
+			}
+			else
+				flattened.add(term);
+		}
+
+		Map<String, Term> unique = new LinkedHashMap<String, Term>();
+		Map<String, Term> singleValued = new HashMap<String, Term>();
+		Term neutralWitness = null;
+		for(Term term : flattened) {
+			if(term.value == absorbing)
+				return term;
+			if(term.value == neutral) {
+				// Kept in case all terms turn out to be neutral
+				if(neutralWitness == null || neutralWitness.getJSON().length() > term.getJSON().length())
+					neutralWitness = term;
+				changed = true;
+				continue;
+			}
+			String json = term.getJSON();
+			if(unique.containsKey(json)) {
+				changed = true;
+				continue;
+			}
+
+			if(term.definite) {
+				// A term and its negation
+				Term opposite = term.expression instanceof Unary && NOT.equals(((Unary<?>) term.expression).getOperator())
+						? unique.get(term.operands[0].getJSON())
+						: unique.get("[\"not\"," + json + ']'); //$NON-NLS-1$
+				if(opposite != null)
+					return junction(operator, opposite, term);
+			}
+
+			if(isAnd) {
+				String key = getSingleValuedKey(term);
+				if(key != null) {
+					Term other = singleValued.put(key, term);
+					if(other != null)
+						return junction(operator, other, term);
+				}
+			}
+			unique.put(json, term);
+		}
+
+		switch(unique.size()) {
+			case 0:
+				return neutralWitness;
+			case 1:
+				return unique.values().iterator().next();
+		}
+		Term[] operands = unique.values().toArray(new Term[unique.size()]);
+		boolean definite = allDefinite(unique.values());
+		if(!changed)
+			return new Term(nary, Term.VARIABLE, false, definite, operands);
+		List<Expression<?>> expressions = new ArrayList<Expression<?>>(operands.length);
+		for(Term term : operands)
+			expressions.add(term.expression);
+		return new Term(new NAry(expressions, operator), Term.VARIABLE, true, definite, operands);
+	}
+
+	private static Term optimizeTerm(Expression<?> expression) {
+		if(expression instanceof NAry) {
+			NAry<?> nary = (NAry<?>) expression;
+			if(AND.equals(nary.getOperator()) || OR.equals(nary.getOperator()))
+				return optimizeJunction(nary);
+		}
+		else if(expression instanceof Unary)
+			return optimizeUnary((Unary<?>) expression);
+		else if(expression instanceof Binary)
+			return optimizeBinary((Binary<?>) expression);
+		return new Term(expression, Term.VARIABLE, false, false);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Term optimizeUnary(Unary<?> unary) {
+		Term inner = optimizeTerm(unary.getExpression());
+		if(NOT.equals(unary.getOperator())) {
+			if(inner.expression instanceof Unary && NOT.equals(((Unary<?>) inner.expression).getOperator())) {
+				Term twiceNegated = inner.operands[0];
+				return new Term(twiceNegated.expression, twiceNegated.value, true, twiceNegated.definite, twiceNegated.operands);
+			}
+			if(inner.changed || inner.value != Term.VARIABLE)
+				return negate(inner);
+			return new Term(unary, Term.VARIABLE, false, inner.definite, inner);
+		}
+
+		// Sub-query selections
+		return inner.changed
+				? new Term(new Unary(inner.expression, unary.getOperator()), Term.VARIABLE, true, false)
+				: new Term(unary, Term.VARIABLE, false, false);
+	}
+
+	private ExpressionOptimizer() {
+	}
+}
@@ -0,0 +1,414 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+/**
+ * Reads the value of one {@link Field} from a model object. There is one accessor for each field
+ * constant declared by the model classes, with the exception of fields such as
+ * <code>latest-report</code> that can only be evaluated by PuppetDB.
+ * 
+ * @param <T>
+ *            The model class that declares the field
+ */
+abstract class FieldAccessor<T> {
+	/**
+	 * The type of the values returned by an accessor
+	 */
+	enum Kind {
+		/**
+		 * {@link Boolean}
+		 */
+		BOOLEAN,
+
+		/**
+		 * {@link java.util.Date}
+		 */
+		DATE,
+
+		/**
+		 * {@link Number}
+		 */
+		NUMBER,
+
+		/**
+		 * {@link String}
+		 */
+		STRING,
+
+		/**
+		 * A {@link java.util.Collection} of {@link String}, matched if any element matches
+		 */
+		STRINGS,
+
+		/**
+		 * Any value obtained from JSON, e.g. a resource parameter
+		 */
+		VALUE
+	}
+
+	/**
+	 * Reads a resource parameter
+	 */
+	static class ParameterAccessor extends FieldAccessor<Resource> {
+		private final String name;
+
+		ParameterAccessor(String name) {
+			super(Kind.VALUE);
+			this.name = name;
+		}
+
+		@Override
+		Object get(Resource object) {
+			Map<String, Object> parameters = object.getParameters();
+			return parameters == null
+					? null
+					: parameters.get(name);
+		}
+	}
+
+	private static final Map<Class<?>, Map<String, FieldAccessor<?>>> ACCESSORS = new HashMap<Class<?>, Map<String, FieldAccessor<?>>>();
+
+	static {
+		Map<String, FieldAccessor<?>> nodes = new HashMap<String, FieldAccessor<?>>();
+		nodes.put("name", new FieldAccessor<Node>(Kind.STRING) {
+			@Override
+			Object get(Node object) {
+				return object.getName();
+			}
+		});
+		nodes.put("deactivated", new FieldAccessor<Node>(Kind.DATE) {
+			@Override
+			Object get(Node object) {
+				return object.getDeactivated();
+			}
+		});
+		nodes.put("catalog_timestamp", new FieldAccessor<Node>(Kind.DATE) {
+			@Override
+			Object get(Node object) {
+				return object.getCatalogTimestamp();
+			}
+		});
+		nodes.put("facts_timestamp", new FieldAccessor<Node>(Kind.DATE) {
+			@Override
+			Object get(Node object) {
+				return object.getFactsTimestamp();
+			}
+		});
+		nodes.put("report_timestamp", new FieldAccessor<Node>(Kind.DATE) {
+			@Override
+			Object get(Node object) {
+				return object.getReportTimestamp();
+			}
+		});
+		ACCESSORS.put(Node.class, nodes);
+
+		Map<String, FieldAccessor<?>> facts = new HashMap<String, FieldAccessor<?>>();
+		facts.put("certname", new FieldAccessor<Fact>(Kind.STRING) {
+			@Override
+			Object get(Fact object) {
+				return object.getCertname();
+			}
+		});
+		facts.put("name", new FieldAccessor<Fact>(Kind.STRING) {
+			@Override
+			Object get(Fact object) {
+				return object.getName();
+			}
+		});
+		facts.put("value", new FieldAccessor<Fact>(Kind.STRING) {
+			@Override
+			Object get(Fact object) {
+				return object.getValue();
+			}
+		});
+		ACCESSORS.put(Fact.class, facts);
+
+		Map<String, FieldAccessor<?>> resources = new HashMap<String, FieldAccessor<?>>();
+		resources.put("tag", new FieldAccessor<Resource>(Kind.STRINGS) {
+			@Override
+			Object get(Resource object) {
+				return object.getTags();
+			}
+		});
+		resources.put("certname", new FieldAccessor<Resource>(Kind.STRING) {
+			@Override
+			Object get(Resource object) {
+				return object.getCertname();
+			}
+		});
+		resources.put("type", new FieldAccessor<Resource>(Kind.STRING) {
+			@Override
+			Object get(Resource object) {
+				return object.getType();
+			}
+		});
+		resources.put("title", new FieldAccessor<Resource>(Kind.STRING) {
+			@Override
+			Object get(Resource object) {
+				return object.getTitle();
+			}
+		});
+		resources.put("exported", new FieldAccessor<Resource>(Kind.BOOLEAN) {
+			@Override
+			Object get(Resource object) {
+				return object.isExported();
+			}
+		});
+		resources.put("file", new FieldAccessor<Resource>(Kind.STRING) {
+			@Override
+			Object get(Resource object) {
+				return object.getFile();
+			}
+		});
+		resources.put("line", new FieldAccessor<Resource>(Kind.NUMBER) {
+			@Override
+			Object get(Resource object) {
+				return object.getLine();
+			}
+		});
+		ACCESSORS.put(Resource.class, resources);
+
+		Map<String, FieldAccessor<?>> events = new HashMap<String, FieldAccessor<?>>();
+		events.put("certname", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getCertname();
+			}
+		});
+		events.put("report", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getReport();
+			}
+		});
+		events.put("status", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				Event.Status status = object.getStatus();
+				return status == null
+						? null
+						: status.name();
+			}
+		});
+		events.put("timestamp", new FieldAccessor<Event>(Kind.DATE) {
+			@Override
+			Object get(Event object) {
+				return object.getTimestamp();
+			}
+		});
+		events.put("run-start-time", new FieldAccessor<Event>(Kind.DATE) {
+			@Override
+			Object get(Event object) {
+				return object.getRunStartTime();
+			}
+		});
+		events.put("run-end-time", new FieldAccessor<Event>(Kind.DATE) {
+			@Override
+			Object get(Event object) {
+				return object.getRunEndTime();
+			}
+		});
+		events.put("report-receive-time", new FieldAccessor<Event>(Kind.DATE) {
+			@Override
+			Object get(Event object) {
+				return object.getReportReceiveTime();
+			}
+		});
+		events.put("resource-type", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getResourceType();
+			}
+		});
+		events.put("resource-title", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getResourceTitle();
+			}
+		});
+		events.put("property", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getProperty();
+			}
+		});
+		events.put("new-value", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getNewValue();
+			}
+		});
+		events.put("old-value", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getOldValue();
+			}
+		});
+		events.put("message", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getMessage();
+			}
+		});
+		events.put("file", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getFile();
+			}
+		});
+		events.put("line", new FieldAccessor<Event>(Kind.NUMBER) {
+			@Override
+			Object get(Event object) {
+				return Integer.valueOf(object.getLine());
+			}
+		});
+		events.put("containing-class", new FieldAccessor<Event>(Kind.STRING) {
+			@Override
+			Object get(Event object) {
+				return object.getContainingClass();
+			}
+		});
+		ACCESSORS.put(Event.class, events);
+
+		Map<String, FieldAccessor<?>> eventCounts = new HashMap<String, FieldAccessor<?>>();
+		eventCounts.put("failures", new FieldAccessor<EventCount>(Kind.NUMBER) {
+			@Override
+			Object get(EventCount object) {
+				return Integer.valueOf(object.getFailures());
+			}
+		});
+		eventCounts.put("successes", new FieldAccessor<EventCount>(Kind.NUMBER) {
+			@Override
+			Object get(EventCount object) {
+				return Integer.valueOf(object.getSuccesses());
+			}
+		});
+		eventCounts.put("noops", new FieldAccessor<EventCount>(Kind.NUMBER) {
+			@Override
+			Object get(EventCount object) {
+				return Integer.valueOf(object.getNoops());
+			}
+		});
+		eventCounts.put("skips", new FieldAccessor<EventCount>(Kind.NUMBER) {
+			@Override
+			Object get(EventCount object) {
+				return Integer.valueOf(object.getSkips());
+			}
+		});
+		ACCESSORS.put(EventCount.class, eventCounts);
+
+		Map<String, FieldAccessor<?>> reports = new HashMap<String, FieldAccessor<?>>();
+		reports.put("end-time", new FieldAccessor<Report>(Kind.DATE) {
+			@Override
+			Object get(Report object) {
+				return object.getEndTime();
+			}
+		});
+		reports.put("puppet-version", new FieldAccessor<Report>(Kind.STRING) {
+			@Override
+			Object get(Report object) {
+				return object.getPuppetVersion();
+			}
+		});
+		reports.put("receive-time", new FieldAccessor<Report>(Kind.DATE) {
+			@Override
+			Object get(Report object) {
+				return object.getReceiveTime();
+			}
+		});
+		reports.put("configuration-version", new FieldAccessor<Report>(Kind.STRING) {
+			@Override
+			Object get(Report object) {
+				return object.getConfigurationVersion();
+			}
+		});
+		reports.put("start-time", new FieldAccessor<Report>(Kind.DATE) {
+			@Override
+			Object get(Report object) {
+				return object.getStartTime();
+			}
+		});
+		reports.put("hash", new FieldAccessor<Report>(Kind.STRING) {
+			@Override
+			Object get(Report object) {
+				return object.getHash();
+			}
+		});
+		reports.put("certname", new FieldAccessor<Report>(Kind.STRING) {
+			@Override
+			Object get(Report object) {
+				return object.getCertname();
+			}
+		});
+		reports.put("report-format", new FieldAccessor<Report>(Kind.NUMBER) {
+			@Override
+			Object get(Report object) {
+				return Integer.valueOf(object.getReportFormat());
+			}
+		});
+		reports.put("transaction-uuid", new FieldAccessor<Report>(Kind.STRING) {
+			@Override
+			Object get(Report object) {
+				UUID uuid = object.getTransactionUUID();
+				return uuid == null
+						? null
+						: uuid.toString();
+			}
+		});
+		ACCESSORS.put(Report.class, reports);
+	}
+
+	/**
+	 * @param type
+	 *            The model class
+	 * @param fieldName
+	 *            The name of a field of the model class
+	 * @return The accessor or <code>null</code> if the field can't be read from instances of the class
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> FieldAccessor<T> forField(Class<T> type, String fieldName) {
+		Map<String, FieldAccessor<?>> accessors = ACCESSORS.get(type);
+		return accessors == null
+				? null
+				: (FieldAccessor<T>) accessors.get(fieldName);
+	}
+
+	private final Kind kind;
+
+	FieldAccessor(Kind kind) {
+		this.kind = kind;
+	}
+
+	/**
+	 * @param object
+	 *            The object to read from
+	 * @return The value of the field, possibly <code>null</code>
+	 */
+	abstract Object get(T object);
+
+	/**
+	 * @return The type of the values returned by {@link #get(Object)}
+	 */
+	Kind getKind() {
+		return kind;
+	}
+}
@@ -27,6 +27,14 @@ public class OrderBy<T> implements Parameters<T> {
 			this.descending = descending;
 		}
 
+		Field<T> getField() {
+			return field;
+		}
+
+		boolean isDescending() {
+			return descending;
+		}
+
 		void toJSON(StringBuilder result) {
 			result.append("{\"field\":");
 			field.toJSON(result);
@@ -53,6 +61,14 @@ public class OrderBy<T> implements Parameters<T> {
 			queryParams.put("order-by", toString());
 	}
 
+	List<OrderByField<T>> getFields() {
+		return fields;
+	}
+
+	Expression<T> getQuery() {
+		return query;
+	}
+
 	public void toJSON(StringBuilder result) {
 		result.append('[');
 		int top = fields.size();
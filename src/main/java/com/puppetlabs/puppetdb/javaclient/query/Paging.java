@@ -67,7 +67,7 @@ public class Paging<T> implements Parameters<T> {
 		if(limit > 0 && limit < Integer.MAX_VALUE)
 			queryParams.put("limit", Integer.toString(limit));
 		if(offset > 0 && offset <= Integer.MAX_VALUE)
-			queryParams.put("map", Integer.toString(offset));
+			queryParams.put("offset", Integer.toString(offset));
 		if(includeTotal)
 			queryParams.put("include-total", "true");
 	}
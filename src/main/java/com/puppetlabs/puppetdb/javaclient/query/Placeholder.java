@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.query;
+
+/**
+ * A named value in a {@link PreparedQuery} template that is bound each time the query is
+ * used. Placeholders are created with {@link Query#placeholder(String)} and are used as the
+ * value of an {@link Query#eq(Identifier, Object) equality} comparison.
+ */
+public final class Placeholder {
+	// Never present in JSON since control characters are always escaped
+	static final char MARKER = '\0';
+
+	private final String name;
+
+	Placeholder(String name) {
+		if(name == null || name.length() == 0 || name.indexOf(MARKER) >= 0)
+			throw new IllegalArgumentException("Invalid placeholder name");
+		this.name = name;
+	}
+
+	void appendMarker(StringBuilder bld) {
+		bld.append(MARKER);
+		bld.append(name);
+		bld.append(MARKER);
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return '?' + name;
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.query;
+
+/**
+ * A condition that is evaluated in-process against model objects. Predicates are obtained by
+ * compiling an {@link Expression} using {@link Query#compile(Expression, Class)} and are thread safe.
+ * 
+ * @param <T>
+ *            The model class that the predicate applies to
+ */
+public interface Predicate<T> {
+	/**
+	 * @param object
+	 *            The object to test
+	 * @return <code>true</code> if the object satisfies the condition
+	 */
+	boolean matches(T object);
+}
@@ -0,0 +1,537 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.query;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider.DateJsonAdapter;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.FieldAccessor.Kind;
+import com.puppetlabs.puppetdb.javaclient.query.FieldAccessor.ParameterAccessor;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Binary;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Ident;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Literal;
+import com.puppetlabs.puppetdb.javaclient.query.Query.NAry;
+import com.puppetlabs.puppetdb.javaclient.query.Query.QualifiedIdent;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Unary;
+
+/**
+ * Compiles expressions into {@link Predicate predicates}. All work that doesn't depend on the
+ * tested object, such as finding the field accessors, converting the literals and compiling the
+ * regular expressions, is done once by the compiler. Comparisons follow PuppetDB: a field that is
+ * <code>null</code> never matches a comparison, and <code>&lt;</code>, <code>&lt;=</code>,
+ * <code>&gt;</code> and <code>&gt;=</code> only match values that are numbers or timestamps.
+ * <p>
+ * PuppetDB evaluates queries in SQL, so such a comparison is unknown rather than false, and so is
+ * its negation. The compiled terms use the same three-valued logic. <code>["not", ["=", field, x]]</code>
+ * hence doesn't match an object where the field is <code>null</code>. Only <code>["=", field, null]</code>
+ * tests for <code>null</code>.
+ * </p>
+ */
+final class PredicateCompiler {
+	private static class And<T> extends Term<T> {
+		private final Term<T>[] terms;
+
+		And(Term<T>[] terms) {
+			this.terms = terms;
+		}
+
+		@Override
+		Truth evaluate(T object) {
+			Truth result = Truth.TRUE;
+			for(Term<T> term : terms) {
+				Truth truth = term.evaluate(object);
+				if(truth == Truth.FALSE)
+					return truth;
+				if(truth == Truth.UNKNOWN)
+					result = truth;
+			}
+			return result;
+		}
+	}
+
+	private static class BooleanEquals<T> extends FieldPredicate<T> {
+		private final Boolean value;
+
+		BooleanEquals(FieldAccessor<T> accessor, Boolean value) {
+			super(accessor);
+			this.value = value;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			return value.equals(actual);
+		}
+	}
+
+	private static class CollectionContains<T> extends FieldPredicate<T> {
+		private final String value;
+
+		CollectionContains(FieldAccessor<T> accessor, String value) {
+			super(accessor);
+			this.value = value;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			return ((Collection<?>) actual).contains(value);
+		}
+	}
+
+	private static class CollectionMatch<T> extends FieldPredicate<T> {
+		private final Pattern pattern;
+
+		CollectionMatch(FieldAccessor<T> accessor, Pattern pattern) {
+			super(accessor);
+			this.pattern = pattern;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			for(Object element : (Collection<?>) actual)
+				if(element != null && pattern.matcher(element.toString()).find())
+					return true;
+			return false;
+		}
+	}
+
+	private enum Comparison {
+		LT {
+			@Override
+			boolean accept(int result) {
+				return result < 0;
+			}
+		},
+		LE {
+			@Override
+			boolean accept(int result) {
+				return result <= 0;
+			}
+		},
+		GT {
+			@Override
+			boolean accept(int result) {
+				return result > 0;
+			}
+		},
+		GE {
+			@Override
+			boolean accept(int result) {
+				return result >= 0;
+			}
+		};
+
+		static Comparison forOperator(String operator) {
+			if("<".equals(operator))
+				return LT;
+			if("<=".equals(operator))
+				return LE;
+			if(">".equals(operator))
+				return GT;
+			if(">=".equals(operator))
+				return GE;
+			return null;
+		}
+
+		abstract boolean accept(int result);
+	}
+
+	private static class DateCompare<T> extends FieldPredicate<T> {
+		private final long time;
+
+		private final Comparison comparison;
+
+		DateCompare(FieldAccessor<T> accessor, long time, Comparison comparison) {
+			super(accessor);
+			this.time = time;
+			this.comparison = comparison;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			long actualTime = ((Date) actual).getTime();
+			return comparison.accept(actualTime < time
+					? -1
+					: actualTime == time
+							? 0
+							: 1);
+		}
+	}
+
+	private static class DateEquals<T> extends FieldPredicate<T> {
+		private final long time;
+
+		DateEquals(FieldAccessor<T> accessor, long time) {
+			super(accessor);
+			this.time = time;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			return ((Date) actual).getTime() == time;
+		}
+	}
+
+	/**
+	 * Base class for predicates that test the value of one field. The outcome is unknown when the value
+	 * is <code>null</code> or can't be compared.
+	 */
+	private static abstract class FieldPredicate<T> extends Term<T> {
+		private final FieldAccessor<T> accessor;
+
+		FieldPredicate(FieldAccessor<T> accessor) {
+			this.accessor = accessor;
+		}
+
+		@Override
+		Truth evaluate(T object) {
+			Object actual = accessor.get(object);
+			if(actual == null || !isComparable(actual))
+				return Truth.UNKNOWN;
+			return Truth.of(matchesValue(actual));
+		}
+
+		boolean isComparable(Object actual) {
+			return true;
+		}
+
+		abstract boolean matchesValue(Object actual);
+	}
+
+	private static class IsNull<T> extends Term<T> {
+		private final FieldAccessor<T> accessor;
+
+		IsNull(FieldAccessor<T> accessor) {
+			this.accessor = accessor;
+		}
+
+		@Override
+		Truth evaluate(T object) {
+			return Truth.of(accessor.get(object) == null);
+		}
+	}
+
+	private static class Not<T> extends Term<T> {
+		private final Term<T> term;
+
+		Not(Term<T> term) {
+			this.term = term;
+		}
+
+		@Override
+		Truth evaluate(T object) {
+			return term.evaluate(object).not();
+		}
+	}
+
+	private static class NumberCompare<T> extends FieldPredicate<T> {
+		private final double value;
+
+		private final Comparison comparison;
+
+		NumberCompare(FieldAccessor<T> accessor, double value, Comparison comparison) {
+			super(accessor);
+			this.value = value;
+			this.comparison = comparison;
+		}
+
+		@Override
+		boolean isComparable(Object actual) {
+			return !Double.isNaN(toNumber(actual));
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			return comparison.accept(Double.compare(toNumber(actual), value));
+		}
+	}
+
+	private static class NumberEquals<T> extends FieldPredicate<T> {
+		private final double value;
+
+		NumberEquals(FieldAccessor<T> accessor, double value) {
+			super(accessor);
+			this.value = value;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			return toNumber(actual) == value;
+		}
+	}
+
+	private static class Or<T> extends Term<T> {
+		private final Term<T>[] terms;
+
+		Or(Term<T>[] terms) {
+			this.terms = terms;
+		}
+
+		@Override
+		Truth evaluate(T object) {
+			Truth result = Truth.FALSE;
+			for(Term<T> term : terms) {
+				Truth truth = term.evaluate(object);
+				if(truth == Truth.TRUE)
+					return truth;
+				if(truth == Truth.UNKNOWN)
+					result = truth;
+			}
+			return result;
+		}
+	}
+
+	private static class StringEquals<T> extends FieldPredicate<T> {
+		private final String value;
+
+		StringEquals(FieldAccessor<T> accessor, String value) {
+			super(accessor);
+			this.value = value;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			return value.equals(actual);
+		}
+	}
+
+	private static class StringMatch<T> extends FieldPredicate<T> {
+		private final Pattern pattern;
+
+		StringMatch(FieldAccessor<T> accessor, Pattern pattern) {
+			super(accessor);
+			this.pattern = pattern;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			return pattern.matcher(actual.toString()).find();
+		}
+	}
+
+	/**
+	 * Base class of the compiled terms. Only a term that is true matches.
+	 */
+	private static abstract class Term<T> implements Predicate<T> {
+		abstract Truth evaluate(T object);
+
+		@Override
+		public final boolean matches(T object) {
+			return evaluate(object) == Truth.TRUE;
+		}
+	}
+
+	/**
+	 * The outcome of a term under the three-valued logic of SQL.
+	 */
+	private enum Truth {
+		TRUE, FALSE, UNKNOWN;
+
+		static Truth of(boolean value) {
+			return value
+					? TRUE
+					: FALSE;
+		}
+
+		Truth not() {
+			switch(this) {
+				case TRUE:
+					return FALSE;
+				case FALSE:
+					return TRUE;
+				default:
+					return UNKNOWN;
+			}
+		}
+	}
+
+	private static class ValueEquals<T> extends FieldPredicate<T> {
+		private final Object value;
+
+		ValueEquals(FieldAccessor<T> accessor, Object value) {
+			super(accessor);
+			this.value = value;
+		}
+
+		@Override
+		boolean matchesValue(Object actual) {
+			if(actual instanceof Number && value instanceof Number)
+				return ((Number) actual).doubleValue() == ((Number) value).doubleValue();
+			return actual.toString().equals(value.toString());
+		}
+	}
+
+	private static final Predicate<Object> ALWAYS = new Predicate<Object>() {
+		@Override
+		public boolean matches(Object object) {
+			return true;
+		}
+	};
+
+	/**
+	 * Compiles an expression into a predicate.
+	 * 
+	 * @param expression
+	 *            The expression or <code>null</code> for a predicate that matches everything
+	 * @param type
+	 *            The model class that the expression applies to
+	 * @return The compiled predicate
+	 * @throws IllegalArgumentException
+	 *             if the expression can't be evaluated locally
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> Predicate<T> compile(Expression<T> expression, Class<T> type) {
+		return expression == null
+				? (Predicate<T>) ALWAYS
+				: compileTerm(expression, type);
+	}
+
+	private static <T> Term<T> compileComparison(String operator, FieldAccessor<T> accessor, Object literal, Expression<?> term) {
+		if("=".equals(operator)) {
+			if(literal == null)
+				return new IsNull<T>(accessor);
+			switch(accessor.getKind()) {
+				case BOOLEAN:
+					return new BooleanEquals<T>(accessor, Boolean.valueOf(literal.toString()));
+				case DATE:
+					return new DateEquals<T>(accessor, toDate(literal, term).getTime());
+				case NUMBER:
+					double number = toNumber(literal);
+					if(Double.isNaN(number))
+						throw new IllegalArgumentException("Not a number in query term: " + term);
+					return new NumberEquals<T>(accessor, number);
+				case STRING:
+					return new StringEquals<T>(accessor, literal.toString());
+				case STRINGS:
+					return new CollectionContains<T>(accessor, literal.toString());
+				default:
+					return new ValueEquals<T>(accessor, literal);
+			}
+		}
+
+		if("~".equals(operator)) {
+			if(literal == null || accessor.getKind() == Kind.DATE || accessor.getKind() == Kind.BOOLEAN)
+				throw unsupported(term);
+			Pattern pattern;
+			try {
+				pattern = Pattern.compile(literal.toString());
+			}
+			catch(PatternSyntaxException e) {
+				throw new IllegalArgumentException("Bad regular expression in query term: " + term, e);
+			}
+			return accessor.getKind() == Kind.STRINGS
+					? new CollectionMatch<T>(accessor, pattern)
+					: new StringMatch<T>(accessor, pattern);
+		}
+
+		Comparison comparison = Comparison.forOperator(operator);
+		if(comparison == null || literal == null || accessor.getKind() == Kind.BOOLEAN || accessor.getKind() == Kind.STRINGS)
+			throw unsupported(term);
+		if(accessor.getKind() == Kind.DATE)
+			return new DateCompare<T>(accessor, toDate(literal, term).getTime(), comparison);
+		double number = toNumber(literal);
+		if(Double.isNaN(number))
+			throw new IllegalArgumentException("Not a number in query term: " + term);
+		return new NumberCompare<T>(accessor, number, comparison);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Term<T> compileTerm(Expression<?> term, Class<T> type) {
+		if(term instanceof NAry) {
+			NAry<?> nary = (NAry<?>) term;
+			Expression<?>[] expressions = nary.getExpressions();
+			Term<T>[] terms = (Term<T>[]) new Term<?>[expressions.length];
+			for(int idx = 0; idx < terms.length; ++idx)
+				terms[idx] = compileTerm(expressions[idx], type);
+			if("and".equals(nary.getOperator()))
+				return new And<T>(terms);
+			if("or".equals(nary.getOperator()))
+				return new Or<T>(terms);
+		}
+		else if(term instanceof Unary) {
+			Unary<?> unary = (Unary<?>) term;
+			if("not".equals(unary.getOperator()))
+				return new Not<T>(compileTerm(unary.getExpression(), type));
+		}
+		else if(term instanceof Binary) {
+			Binary<?> binary = (Binary<?>) term;
+			Expression<?> rhs = binary.getRhs();
+			if(rhs instanceof Literal && !(rhs instanceof Ident) && !(((Literal<?>) rhs).getLiteral() instanceof Placeholder))
+				return compileComparison(binary.getOperator(), getAccessor(binary.getLhs(), type, term), ((Literal<?>) rhs).getLiteral(), term);
+		}
+		throw unsupported(term);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> FieldAccessor<T> getAccessor(Identifier<?> identifier, Class<T> type, Expression<?> term) {
+		FieldAccessor<T> accessor = null;
+		if(identifier instanceof Ident)
+			accessor = FieldAccessor.forField(type, (String) ((Ident<?>) identifier).getLiteral());
+		else if(identifier instanceof QualifiedIdent && type == Resource.class) {
+			String[] qualifiedName = (String[]) ((QualifiedIdent<?>) identifier).getLiteral();
+			if("parameter".equals(qualifiedName[0]))
+				accessor = (FieldAccessor<T>) new ParameterAccessor(qualifiedName[1]);
+		}
+		if(accessor == null)
+			throw new IllegalArgumentException("The query term can't be evaluated on a " + type.getSimpleName() + ": " + term);
+		return accessor;
+	}
+
+	private static Date toDate(Object literal, Expression<?> term) {
+		if(literal instanceof Date)
+			return (Date) literal;
+		try {
+			return new DateJsonAdapter().deserialize(new JsonPrimitive(literal.toString()), Date.class, null);
+		}
+		catch(JsonParseException e) {
+			throw new IllegalArgumentException("Not a timestamp in query term: " + term, e);
+		}
+	}
+
+	/**
+	 * Converts a number or a string that represents a number.
+	 * 
+	 * @param value
+	 *            The value to convert
+	 * @return The numeric value or {@link Double#NaN} if the value isn't a number
+	 */
+	static double toNumber(Object value) {
+		if(value instanceof Number)
+			return ((Number) value).doubleValue();
+		if(!(value instanceof String))
+			return Double.NaN;
+		String str = (String) value;
+		int len = str.length();
+		if(len == 0 || !Character.isDigit(str.charAt(len - 1)) && str.charAt(len - 1) != '.')
+			return Double.NaN;
+		char first = str.charAt(0);
+		if(!Character.isDigit(first) && first != '-' && first != '+' && first != '.')
+			return Double.NaN;
+		try {
+			return Double.parseDouble(str);
+		}
+		catch(NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static IllegalArgumentException unsupported(Expression<?> term) {
+		return new IllegalArgumentException("The query term can't be evaluated locally: " + term);
+	}
+
+	private PredicateCompiler() {
+	}
+}
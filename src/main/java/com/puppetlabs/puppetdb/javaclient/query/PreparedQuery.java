@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.puppetlabs.puppetdb.javaclient.impl.JsonLiteralWriter;
+
+/**
+ * <p>
+ * A query template with named {@link Placeholder placeholders}. The template is optimized and
+ * serialized once. Binding values splices their JSON between the pre-serialized fragments of
+ * the template, so the expression tree isn't rebuilt or walked for each use.
+ * </p>
+ * 
+ * <pre>
+ * PreparedQuery&lt;Event&gt; failures = PreparedQuery.prepare(and(
+ * 	eq(Event.CERTNAME, placeholder(&quot;certname&quot;)),
+ * 	eq(Event.STATUS, &quot;failure&quot;)));
+ * List&lt;Event&gt; events = client.getEvents(failures.bind(&quot;node1.example.com&quot;));
+ * </pre>
+ * <p>
+ * Instances are immutable and can be shared between threads. The bound expressions can be
+ * sent to PuppetDB and combined with other expressions but can't be {@link Query#compile(Expression, Class) compiled}.
+ * </p>
+ * 
+ * @param <T>
+ *            The type of the queried entries
+ */
+public final class PreparedQuery<T> {
+	/**
+	 * An expression with bound values in serialized form
+	 */
+	private static class BoundExpression<T> implements Expression<T> {
+		private final String json;
+
+		BoundExpression(String json) {
+			this.json = json;
+		}
+
+		@Override
+		public void appendTo(Map<String, String> queryParameters) {
+			// The template was optimized when it was prepared
+			queryParameters.put("query", json); //$NON-NLS-1$
+		}
+
+		@Override
+		public void toJSON(StringBuilder result) {
+			result.append(json);
+		}
+
+		@Override
+		public String toString() {
+			return json;
+		}
+	}
+
+	/**
+	 * Prepares a template. The template is optimized in the same way as expressions that are sent
+	 * to PuppetDB.
+	 * 
+	 * @param template
+	 *            An expression that contains {@link Query#placeholder(String) placeholders}
+	 * @return The prepared query
+	 */
+	public static <T> PreparedQuery<T> prepare(Expression<T> template) {
+		StringBuilder bld = new StringBuilder();
+		Query.optimize(template).toJSON(bld);
+		return new PreparedQuery<T>(bld.toString());
+	}
+
+	private final String[] fragments;
+
+	// Index into names for each slot between two fragments
+	private final int[] slots;
+
+	private final String[] names;
+
+	private final int fragmentsLength;
+
+	private PreparedQuery(String json) {
+		List<String> fragmentList = new ArrayList<String>();
+		List<String> nameList = new ArrayList<String>();
+		List<Integer> slotList = new ArrayList<Integer>();
+		int start = 0;
+		int length = 0;
+		for(;;) {
+			int open = json.indexOf(Placeholder.MARKER, start);
+			if(open < 0)
+				break;
+			int close = json.indexOf(Placeholder.MARKER, open + 1);
+			String fragment = json.substring(start, open);
+			fragmentList.add(fragment);
+			length += fragment.length();
+
+			String name = json.substring(open + 1, close);
+			int nameIndex = nameList.indexOf(name);
+			if(nameIndex < 0) {
+				nameIndex = nameList.size();
+				nameList.add(name);
+			}
+			slotList.add(Integer.valueOf(nameIndex));
+			start = close + 1;
+		}
+		String last = json.substring(start);
+		fragmentList.add(last);
+		length += last.length();
+
+		fragments = fragmentList.toArray(new String[fragmentList.size()]);
+		names = nameList.toArray(new String[nameList.size()]);
+		slots = new int[slotList.size()];
+		for(int idx = 0; idx < slots.length; ++idx)
+			slots[idx] = slotList.get(idx).intValue();
+		fragmentsLength = length;
+	}
+
+	/**
+	 * Binds values to the placeholders by name.
+	 * 
+	 * @param values
+	 *            A value for each placeholder name
+	 * @return The bound expression
+	 * @throws IllegalArgumentException
+	 *             if a placeholder has no value
+	 */
+	public Expression<T> bind(Map<String, ?> values) {
+		Object[] ordered = new Object[names.length];
+		for(int idx = 0; idx < names.length; ++idx) {
+			String name = names[idx];
+			if(!values.containsKey(name))
+				throw new IllegalArgumentException("No value bound to placeholder '" + name + '\'');
+			ordered[idx] = values.get(name);
+		}
+		return splice(ordered);
+	}
+
+	/**
+	 * Binds values to the placeholders in the order given by {@link #getPlaceholderNames()}, i.e.
+	 * the order in which they first appear in the optimized template.
+	 * 
+	 * @param values
+	 *            One value for each placeholder name
+	 * @return The bound expression
+	 * @throws IllegalArgumentException
+	 *             if the number of values doesn't match the number of placeholder names
+	 */
+	public Expression<T> bind(Object... values) {
+		if(values.length != names.length)
+			throw new IllegalArgumentException("Expected " + names.length + " values but got " + values.length);
+		return splice(values);
+	}
+
+	/**
+	 * @return The distinct placeholder names in the order in which they first appear in the optimized template
+	 */
+	public List<String> getPlaceholderNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	private Expression<T> splice(Object[] values) {
+		StringBuilder bld = new StringBuilder(fragmentsLength + 32 * slots.length);
+		bld.append(fragments[0]);
+		for(int idx = 0; idx < slots.length; ++idx) {
+			JsonLiteralWriter.appendLiteral(bld, values[slots[idx]]);
+			bld.append(fragments[idx + 1]);
+		}
+		return new BoundExpression<T>(bld.toString());
+	}
+
+	/**
+	 * @return The template in JSON form with placeholders written as <code>?name</code>
+	 */
+	@Override
+	public String toString() {
+		StringBuilder bld = new StringBuilder(fragments[0]);
+		for(int idx = 0; idx < slots.length; ++idx) {
+			bld.append('?');
+			bld.append(names[slots[idx]]);
+			bld.append(fragments[idx + 1]);
+		}
+		return bld.toString();
+	}
+}
@@ -12,10 +12,11 @@ package com.puppetlabs.puppetdb.javaclient.query;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
+import com.puppetlabs.puppetdb.javaclient.impl.JsonLiteralWriter;
 import com.puppetlabs.puppetdb.javaclient.model.Fact;
 import com.puppetlabs.puppetdb.javaclient.model.Node;
 import com.puppetlabs.puppetdb.javaclient.model.Resource;
@@ -26,12 +27,79 @@ import com.puppetlabs.puppetdb.javaclient.query.OrderBy.OrderByField;
  */
 public abstract class Query {
 	static abstract class AbstractExpression<T> implements Expression<T> {
+		/**
+		 * Writes an expression, using its memoized JSON when available but without memoizing it
+		 */
+		static void write(Expression<?> expression, StringBuilder bld) {
+			if(expression instanceof AbstractExpression) {
+				AbstractExpression<?> ae = (AbstractExpression<?>) expression;
+				String cached = ae.json;
+				if(cached == null)
+					ae.writeJSON(bld);
+				else
+					bld.append(cached);
+			}
+			else
+				expression.toJSON(bld);
+		}
+
+		private volatile String json;
+
+		private volatile String query;
+
+		/**
+		 * Appends the {@link ExpressionOptimizer optimized} form of this expression. The optimized
+		 * form is computed once.
+		 * 
+		 * @throws IllegalArgumentException
+		 *             if the expression contains a {@link Placeholder} since it must be bound by a
+		 *             {@link PreparedQuery} first
+		 */
 		@Override
 		public void appendTo(Map<String, String> queryParameters) {
-			StringBuilder bld = new StringBuilder();
-			toJSON(bld);
-			queryParameters.put("query", bld.toString());
+			String q = query;
+			if(q == null) {
+				Expression<T> optimized = ExpressionOptimizer.optimize(this);
+				if(optimized == this)
+					q = getJSON();
+				else {
+					// Only the query is kept, the optimized tree is discarded
+					StringBuilder bld = new StringBuilder();
+					write(optimized, bld);
+					q = bld.toString();
+				}
+				int marker = q.indexOf(Placeholder.MARKER);
+				if(marker >= 0)
+					throw new IllegalArgumentException("Placeholder '" + q.substring(marker + 1, q.indexOf(Placeholder.MARKER, marker + 1)) + //$NON-NLS-1$
+							"' is not bound. Use PreparedQuery to bind it"); //$NON-NLS-1$
+				query = q;
+			}
+			queryParameters.put("query", q);
 		}
+
+		/**
+		 * Returns the JSON form of this expression. The expression is immutable so the
+		 * JSON is computed once.
+		 * 
+		 * @return The JSON form
+		 */
+		String getJSON() {
+			String j = json;
+			if(j == null) {
+				StringBuilder bld = new StringBuilder();
+				writeJSON(bld);
+				j = bld.toString();
+				json = j;
+			}
+			return j;
+		}
+
+		@Override
+		public void toJSON(StringBuilder bld) {
+			bld.append(getJSON());
+		}
+
+		abstract void writeJSON(StringBuilder bld);
 	}
 
 	static class Binary<T> extends OpExpression<T> {
@@ -49,9 +117,17 @@ public abstract class Query {
 
 		@Override
 		void appendPredicateValue(StringBuilder bld) {
-			lhs.toJSON(bld);
+			write(lhs, bld);
 			bld.append(',');
-			rhs.toJSON(bld);
+			write(rhs, bld);
+		}
+
+		Identifier<T> getLhs() {
+			return lhs;
+		}
+
+		Expression<?> getRhs() {
+			return rhs;
 		}
 	}
 
@@ -65,12 +141,28 @@ public abstract class Query {
 		private final Object literal;
 
 		Literal(Object literal) {
-			this.literal = literal;
+			// Dates are mutable and the JSON is memoized
+			this.literal = literal != null && literal.getClass() == Date.class
+					? new Date(((Date) literal).getTime())
+					: literal;
+		}
+
+		Object getLiteral() {
+			return literal;
 		}
 
 		@Override
 		public void toJSON(StringBuilder bld) {
-			bld.append(GsonProvider.toJSON(literal));
+			// Cheaper to write than to memoize
+			writeJSON(bld);
+		}
+
+		@Override
+		void writeJSON(StringBuilder bld) {
+			if(literal instanceof Placeholder)
+				((Placeholder) literal).appendMarker(bld);
+			else
+				JsonLiteralWriter.appendLiteral(bld, literal);
 		}
 	}
 
@@ -98,12 +190,16 @@ public abstract class Query {
 		@Override
 		void appendPredicateValue(StringBuilder bld) {
 			int top = expressions.length;
-			expressions[0].toJSON(bld);
+			write(expressions[0], bld);
 			for(int idx = 1; idx < top; ++idx) {
 				bld.append(',');
-				expressions[idx].toJSON(bld);
+				write(expressions[idx], bld);
 			}
 		}
+
+		Expression<?>[] getExpressions() {
+			return expressions;
+		}
 	}
 
 	static abstract class OpExpression<T> extends AbstractExpression<T> {
@@ -115,21 +211,23 @@ public abstract class Query {
 
 		abstract void appendPredicateValue(StringBuilder query);
 
+		String getOperator() {
+			return operator;
+		}
+
 		@Override
-		public void toJSON(StringBuilder bld) {
+		public String toString() {
+			return getJSON();
+		}
+
+		@Override
+		void writeJSON(StringBuilder bld) {
 			bld.append("[\"");
 			bld.append(operator);
 			bld.append("\",");
 			appendPredicateValue(bld);
 			bld.append(']');
 		}
-
-		@Override
-		public String toString() {
-			StringBuilder bld = new StringBuilder();
-			toJSON(bld);
-			return bld.toString();
-		}
 	}
 
 	static class QualifiedIdent<T> extends Literal<T> implements Identifier<T> {
@@ -150,7 +248,11 @@ public abstract class Query {
 
 		@Override
 		void appendPredicateValue(StringBuilder bld) {
-			expression.toJSON(bld);
+			write(expression, bld);
+		}
+
+		Expression<T> getExpression() {
+			return expression;
 		}
 	}
 
@@ -193,6 +295,23 @@ public abstract class Query {
 		return new NAry<T>(expressions, "and");
 	}
 
+	/**
+	 * Compiles an expression into a predicate that is evaluated in-process against model objects,
+	 * e.g. to filter cached or streamed data without asking PuppetDB. Sub-queries and fields that
+	 * only PuppetDB can evaluate, such as <code>latest-report</code>, are not supported.
+	 * 
+	 * @param expression
+	 *            The expression to compile or <code>null</code> for a predicate that matches everything
+	 * @param type
+	 *            The model class that the expression applies to, e.g. <code>Node.class</code>
+	 * @return The compiled predicate
+	 * @throws IllegalArgumentException
+	 *             if the expression can't be evaluated locally
+	 */
+	public static <T> Predicate<T> compile(Expression<T> expression, Class<T> type) {
+		return PredicateCompiler.compile(expression, type);
+	}
+
 	/**
 	 * <b>Matches if:</b> the field’s actual value is exactly the same as the provided value. Note that this
 	 * does not coerce values — the provided value must be the same data type as the field. In particular, be aware that:
@@ -233,6 +352,19 @@ public abstract class Query {
 		return new Ident<T>(fieldName);
 	}
 
+	/**
+	 * <b>Matches if:</b> the timestamp field is greater than the provided point in time.
+	 *
+	 * @param identifier
+	 *            The identifier denoting a timestamp field
+	 * @param value
+	 *            The point in time to compare with the identified value
+	 * @return The <code>&gt;</code> expression
+	 */
+	public static <T> Expression<T> gt(Identifier<T> identifier, Date value) {
+		return new Binary<T>(identifier, new Literal<Object>(value), ">");
+	}
+
 	/**
 	 * <b>Matches if:</b> the field is greater than the provided value. Coerces the field to float or integer; if it
 	 * can’t be coerced, the operator will not match.
@@ -247,6 +379,19 @@ public abstract class Query {
 		return new Binary<T>(identifier, new Literal<Object>(value), ">");
 	}
 
+	/**
+	 * <b>Matches if:</b> the timestamp field is greater than or equal to the provided point in time.
+	 *
+	 * @param identifier
+	 *            The identifier denoting a timestamp field
+	 * @param value
+	 *            The point in time to compare with the identified value
+	 * @return The <code>&gt;=</code> expression
+	 */
+	public static <T> Expression<T> gtEq(Identifier<T> identifier, Date value) {
+		return new Binary<T>(identifier, new Literal<Object>(value), ">=");
+	}
+
 	/**
 	 * <b>Matches if:</b> the field is greater than or equal to the provided value. Coerces the field to float or integer; if it
 	 * can’t be coerced, the operator will not match.
@@ -297,6 +442,19 @@ public abstract class Query {
 		return in(field, subQueryField, subQuery, "select-resources");
 	}
 
+	/**
+	 * <b>Matches if:</b> the timestamp field is less than the provided point in time.
+	 *
+	 * @param identifier
+	 *            The identifier denoting a timestamp field
+	 * @param value
+	 *            The point in time to compare with the identified value
+	 * @return The <code>&lt;</code> expression
+	 */
+	public static <T> Expression<T> lt(Identifier<T> identifier, Date value) {
+		return new Binary<T>(identifier, new Literal<Object>(value), "<");
+	}
+
 	/**
 	 * <b>Matches if:</b> the field is less than the provided value. Coerces the field to float or integer; if it
 	 * can’t be coerced, the operator will not match.
@@ -311,6 +469,19 @@ public abstract class Query {
 		return new Binary<T>(identifier, new Literal<Object>(value), "<");
 	}
 
+	/**
+	 * <b>Matches if:</b> the timestamp field is less than or equal to the provided point in time.
+	 *
+	 * @param identifier
+	 *            The identifier denoting a timestamp field
+	 * @param value
+	 *            The point in time to compare with the identified value
+	 * @return The <code>&lt;=</code> expression
+	 */
+	public static <T> Expression<T> ltEq(Identifier<T> identifier, Date value) {
+		return new Binary<T>(identifier, new Literal<Object>(value), "<=");
+	}
+
 	/**
 	 * <b>Matches if:</b> the field is less than or equal to the provided value. Coerces the field to float or integer; if it
 	 * can’t be coerced, the operator will not match.
@@ -358,6 +529,20 @@ public abstract class Query {
 		return new Unary<T>(expression, "not");
 	}
 
+	/**
+	 * Returns the optimized form of an expression, i.e. the form that is sent to PuppetDB
+	 * when the expression is used as a query parameter. Nested <code>and</code> and <code>or</code>
+	 * expressions are flattened, duplicate terms are removed, double negations are eliminated and
+	 * terms that can never match, or always match, are reduced.
+	 * 
+	 * @param expression
+	 *            The expression to optimize
+	 * @return The optimized expression or <code>expression</code> itself if it can't be improved
+	 */
+	public static <T> Expression<T> optimize(Expression<T> expression) {
+		return ExpressionOptimizer.optimize(expression);
+	}
+
 	/**
 	 * <b>Matches if: at least one</b> of its arguments would match..
 	 *
@@ -478,4 +663,16 @@ public abstract class Query {
 	public static Identifier<Resource> parameter(String parameterName) {
 		return new QualifiedIdent<Resource>("parameter", parameterName);
 	}
+
+	/**
+	 * Creates a named placeholder to use as the value of an {@link #eq(Identifier, Object) equality}
+	 * comparison in a {@link PreparedQuery} template.
+	 *
+	 * @param name
+	 *            The name of the placeholder
+	 * @return The placeholder
+	 */
+	public static Placeholder placeholder(String name) {
+		return new Placeholder(name);
+	}
 }
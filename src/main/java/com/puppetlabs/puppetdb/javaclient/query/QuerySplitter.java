@@ -0,0 +1,475 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.OrderBy.OrderByField;
+import com.puppetlabs.puppetdb.javaclient.query.Query.AbstractExpression;
+import com.puppetlabs.puppetdb.javaclient.query.Query.Ident;
+import com.puppetlabs.puppetdb.javaclient.query.Query.NAry;
+
+/**
+ * <p>
+ * Splits a query that is too large to be sent in one GET request into several smaller queries and
+ * merges their results. A query can be split when its {@link Query#optimize(Expression) optimized}
+ * expression is an <code>or</code>, or an <code>and</code> that contains an <code>or</code>. The
+ * terms of that <code>or</code> are partitioned into chunks so that the URL encoded
+ * <code>query</code> parameter of each chunk stays within the given limit.
+ * </p>
+ * <p>
+ * The chunks may match the same entry so the merged result is deduplicated on the fields that
+ * identify an entry, e.g. the certname and name of a fact. Only nodes, facts, resources, events and
+ * reports can be deduplicated, so queries for other types are not split. When the query has an
+ * {@link OrderBy} the results are merged so that the order is retained and {@link Paging} is applied
+ * to the merged result. Queries that ask for the total count, or that are ordered by a field that
+ * can't be evaluated locally, are not split.
+ * </p>
+ * <p>
+ * The ordered merge compares field values in Java: strings by {@link String#compareTo(String)},
+ * i.e. by UTF-16 code unit, numbers numerically and <code>null</code> last. PuppetDB orders
+ * strings by the collation of its database, which may differ, e.g. for mixed case or non-ASCII
+ * values. Each chunk then arrives in the server's order but the merged result interleaves them
+ * by the Java order, and paging applies to that order.
+ * </p>
+ * 
+ * @param <T>
+ *            The type of the queried entries
+ */
+public final class QuerySplitter<T> {
+	/**
+	 * The current position in the result of one chunk
+	 */
+	private static class Cursor<T> {
+		final List<T> entries;
+
+		final int chunk;
+
+		int position;
+
+		Cursor(List<T> entries, int chunk) {
+			this.entries = entries;
+			this.chunk = chunk;
+		}
+
+		T current() {
+			return entries.get(position);
+		}
+	}
+
+	/**
+	 * Compares entries by one field
+	 */
+	private static class FieldComparator<T> implements Comparator<T> {
+		private final FieldAccessor<T> accessor;
+
+		private final boolean descending;
+
+		FieldComparator(FieldAccessor<T> accessor, boolean descending) {
+			this.accessor = accessor;
+			this.descending = descending;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		public int compare(T a, T b) {
+			Object va = accessor.get(a);
+			Object vb = accessor.get(b);
+			int cmp;
+			if(va == null || vb == null)
+				// PuppetDB sorts null values last in ascending order
+				cmp = va == null
+						? vb == null
+								? 0
+								: 1
+						: -1;
+			else if(va instanceof Number)
+				cmp = Double.compare(((Number) va).doubleValue(), ((Number) vb).doubleValue());
+			else
+				cmp = ((Comparable) va).compareTo(vb);
+			return descending
+					? -cmp
+					: cmp;
+		}
+	}
+
+	/**
+	 * Extracts the fields that identify an entry
+	 */
+	private static abstract class Identity<T> {
+		abstract Object of(T entry);
+	}
+
+	private static final String AND = "and"; //$NON-NLS-1$
+
+	private static final String OR = "or"; //$NON-NLS-1$
+
+	// The length of an encoded comma
+	private static final int COMMA_LENGTH = 3;
+
+	private static final Map<Class<?>, Identity<?>> IDENTITIES = new HashMap<Class<?>, Identity<?>>();
+
+	static {
+		IDENTITIES.put(Node.class, new Identity<Node>() {
+			@Override
+			Object of(Node entry) {
+				return entry.getName();
+			}
+		});
+		IDENTITIES.put(Fact.class, new Identity<Fact>() {
+			@Override
+			Object of(Fact entry) {
+				return Arrays.asList(entry.getCertname(), entry.getName());
+			}
+		});
+		IDENTITIES.put(Resource.class, new Identity<Resource>() {
+			@Override
+			Object of(Resource entry) {
+				return Arrays.asList(entry.getCertname(), entry.getType(), entry.getTitle());
+			}
+		});
+		IDENTITIES.put(Event.class, new Identity<Event>() {
+			@Override
+			Object of(Event entry) {
+				return Arrays.asList(entry.getReport(), entry.getResourceType(), entry.getResourceTitle(), entry.getProperty());
+			}
+		});
+		IDENTITIES.put(Report.class, new Identity<Report>() {
+			@Override
+			Object of(Report entry) {
+				return entry.getHash();
+			}
+		});
+	}
+
+	private static <T> Comparator<T> createComparator(List<OrderByField<T>> fields, Class<T> type) {
+		final List<Comparator<T>> comparators = new ArrayList<Comparator<T>>(fields.size());
+		for(OrderByField<T> field : fields) {
+			if(!(field.getField() instanceof Ident))
+				return null;
+			FieldAccessor<T> accessor = FieldAccessor.forField(type, (String) ((Ident<T>) field.getField()).getLiteral());
+			if(accessor == null)
+				return null;
+			switch(accessor.getKind()) {
+				case BOOLEAN:
+				case DATE:
+				case NUMBER:
+				case STRING:
+					comparators.add(new FieldComparator<T>(accessor, field.isDescending()));
+					break;
+				default:
+					return null;
+			}
+		}
+		return new Comparator<T>() {
+			@Override
+			public int compare(T a, T b) {
+				for(Comparator<T> comparator : comparators) {
+					int cmp = comparator.compare(a, b);
+					if(cmp != 0)
+						return cmp;
+				}
+				return 0;
+			}
+		};
+	}
+
+	/**
+	 * Creates a splitter for the given query parameters.
+	 * 
+	 * @param params
+	 *            The query parameters. Can be <code>null</code>
+	 * @param type
+	 *            The type of the queried entries, e.g. <code>Fact.class</code>
+	 * @param maxLength
+	 *            The maximum length of the URL encoded <code>query</code> parameter of each chunk
+	 * @return The splitter or <code>null</code> if the query is within the limit or can't be split
+	 */
+	public static <T> QuerySplitter<T> create(Parameters<T> params, Class<T> type, int maxLength) {
+		if(params == null || maxLength <= 0)
+			return null;
+
+		@SuppressWarnings("unchecked")
+		Identity<T> identity = (Identity<T>) IDENTITIES.get(type);
+		if(identity == null)
+			return null;
+
+		Paging<T> paging = null;
+		Parameters<T> inner = params;
+		if(params instanceof Paging) {
+			paging = (Paging<T>) params;
+			if(paging.isIncludeTotal())
+				return null;
+			inner = paging.getParameters();
+		}
+
+		OrderBy<T> orderBy = null;
+		Expression<T> query;
+		if(inner instanceof OrderBy) {
+			orderBy = (OrderBy<T>) inner;
+			query = orderBy.getQuery();
+		}
+		else if(inner instanceof Expression)
+			query = (Expression<T>) inner;
+		else
+			return null;
+		if(query == null)
+			return null;
+
+		Comparator<T> comparator = null;
+		if(orderBy != null && orderBy.getFields() != null && !orderBy.getFields().isEmpty()) {
+			comparator = createComparator(orderBy.getFields(), type);
+			if(comparator == null)
+				return null;
+		}
+
+		query = Query.optimize(query);
+		int length = encodedLength(toJSON(query));
+		if(length <= maxLength)
+			return null;
+
+		// Locate the disjunction to split, possibly within a conjunction
+		NAry<?> disjunction = null;
+		Expression<?>[] conjuncts = null;
+		int position = -1;
+		if(isOperator(query, OR))
+			disjunction = (NAry<?>) query;
+		else if(isOperator(query, AND)) {
+			conjuncts = ((NAry<?>) query).getExpressions();
+			int longest = 0;
+			for(int idx = 0; idx < conjuncts.length; ++idx) {
+				if(!isOperator(conjuncts[idx], OR))
+					continue;
+				int conjunctLength = encodedLength(toJSON(conjuncts[idx]));
+				if(conjunctLength > longest) {
+					longest = conjunctLength;
+					position = idx;
+				}
+			}
+			if(position >= 0)
+				disjunction = (NAry<?>) conjuncts[position];
+		}
+		if(disjunction == null)
+			return null;
+
+		int overhead = length - encodedLength(toJSON(disjunction)) + encodedLength("[\"or\",]"); //$NON-NLS-1$
+		List<List<Expression<T>>> groups = new ArrayList<List<Expression<T>>>();
+		List<Expression<T>> group = new ArrayList<Expression<T>>();
+		int groupLength = overhead;
+		for(Expression<?> term : disjunction.getExpressions()) {
+			int termLength = encodedLength(toJSON(term));
+			if(overhead + termLength > maxLength)
+				// A single term is too large
+				return null;
+			if(!group.isEmpty()) {
+				if(groupLength + COMMA_LENGTH + termLength > maxLength) {
+					groups.add(group);
+					group = new ArrayList<Expression<T>>();
+					groupLength = overhead;
+				}
+				else
+					groupLength += COMMA_LENGTH;
+			}
+			@SuppressWarnings("unchecked")
+			Expression<T> typedTerm = (Expression<T>) term;
+			group.add(typedTerm);
+			groupLength += termLength;
+		}
+		groups.add(group);
+		if(groups.size() < 2)
+			return null;
+
+		int offset = 0;
+		int limit = 0;
+		if(paging != null) {
+			offset = Math.max(0, paging.getOffset());
+			if(paging.getLimit() > 0 && paging.getLimit() < Integer.MAX_VALUE)
+				limit = paging.getLimit();
+		}
+
+		List<Parameters<T>> chunks = new ArrayList<Parameters<T>>(groups.size());
+		for(List<Expression<T>> terms : groups) {
+			Expression<T> chunk = terms.size() == 1
+					? terms.get(0)
+					: new NAry<T>(terms, OR);
+			if(conjuncts != null) {
+				List<Expression<T>> expressions = new ArrayList<Expression<T>>(conjuncts.length);
+				for(int idx = 0; idx < conjuncts.length; ++idx) {
+					@SuppressWarnings("unchecked")
+					Expression<T> conjunct = idx == position
+							? chunk
+							: (Expression<T>) conjuncts[idx];
+					expressions.add(conjunct);
+				}
+				chunk = new NAry<T>(expressions, AND);
+			}
+
+			Parameters<T> chunkParams;
+			if(orderBy != null) {
+				OrderBy<T> chunkOrderBy = new OrderBy<T>(chunk, orderBy.getFields());
+				chunkParams = limit > 0
+						? new Paging<T>(chunkOrderBy, 0, (int) Math.min(Integer.MAX_VALUE - 1, (long) offset + limit), false)
+						: chunkOrderBy;
+			}
+			else
+				chunkParams = limit > 0
+						? new Paging<T>(chunk, 0, (int) Math.min(Integer.MAX_VALUE - 1, (long) offset + limit), false)
+						: chunk;
+			chunks.add(chunkParams);
+		}
+		return new QuerySplitter<T>(chunks, identity, comparator, offset, limit);
+	}
+
+	/**
+	 * Computes the length of a string after encoding it the way query parameters are encoded.
+	 */
+	private static int encodedLength(String str) {
+		int length = 0;
+		int top = str.length();
+		for(int idx = 0; idx < top; ++idx) {
+			char c = str.charAt(idx);
+			if(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == ' ' || c == '-' || c == '_' || c == '.' ||
+					c == '*')
+				++length;
+			else if(c < 0x80)
+				length += 3;
+			else if(c < 0x800)
+				length += 6;
+			else if(Character.isHighSurrogate(c)) {
+				length += 12;
+				++idx;
+			}
+			else
+				length += 9;
+		}
+		return length;
+	}
+
+	private static boolean isOperator(Expression<?> expression, String operator) {
+		return expression instanceof NAry && operator.equals(((NAry<?>) expression).getOperator());
+	}
+
+	private static String toJSON(Expression<?> expression) {
+		StringBuilder bld = new StringBuilder();
+		AbstractExpression.write(expression, bld);
+		return bld.toString();
+	}
+
+	private final List<Parameters<T>> chunks;
+
+	private final Identity<T> identity;
+
+	private final Comparator<T> comparator;
+
+	private final int offset;
+
+	private final int limit;
+
+	private QuerySplitter(List<Parameters<T>> chunks, Identity<T> identity, Comparator<T> comparator, int offset, int limit) {
+		this.chunks = Collections.unmodifiableList(chunks);
+		this.identity = identity;
+		this.comparator = comparator;
+		this.offset = offset;
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns the parameters of each chunk. The chunks can be sent concurrently. Their
+	 * results must be passed to {@link #merge(List)} in the same order.
+	 * 
+	 * @return The chunks
+	 */
+	public List<Parameters<T>> getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * @return <code>true</code> if the results are merged so that the requested order is retained,
+	 *         as far as the Java ordering of the values agrees with the ordering of PuppetDB
+	 */
+	public boolean isOrdered() {
+		return comparator != null;
+	}
+
+	/**
+	 * Merges the results of all chunks into one result, removes duplicates, and applies the
+	 * offset and limit of the original query.
+	 * 
+	 * @param results
+	 *            The result of each chunk, in the order of {@link #getChunks()}
+	 * @return The merged result
+	 */
+	public List<T> merge(List<List<T>> results) {
+		Set<Object> seen = new HashSet<Object>();
+		List<T> merged = new ArrayList<T>();
+		int[] skip = new int[] { offset };
+		if(comparator == null) {
+			for(List<T> result : results)
+				for(T entry : result)
+					if(!offer(entry, seen, merged, skip))
+						return merged;
+			return merged;
+		}
+
+		PriorityQueue<Cursor<T>> queue = new PriorityQueue<Cursor<T>>(Math.max(1, results.size()), new Comparator<Cursor<T>>() {
+			@Override
+			public int compare(Cursor<T> a, Cursor<T> b) {
+				int cmp = comparator.compare(a.current(), b.current());
+				return cmp == 0
+						? a.chunk - b.chunk
+						: cmp;
+			}
+		});
+		int chunk = 0;
+		for(List<T> result : results) {
+			if(!result.isEmpty())
+				queue.add(new Cursor<T>(result, chunk));
+			++chunk;
+		}
+		while(!queue.isEmpty()) {
+			Cursor<T> cursor = queue.poll();
+			if(!offer(cursor.current(), seen, merged, skip))
+				break;
+			if(++cursor.position < cursor.entries.size())
+				queue.add(cursor);
+		}
+		return merged;
+	}
+
+	/**
+	 * Adds the entry to the merged result unless it has been seen before.
+	 * 
+	 * @return <code>false</code> when the limit has been reached
+	 */
+	private boolean offer(T entry, Set<Object> seen, List<T> merged, int[] skip) {
+		if(!seen.add(identity.of(entry)))
+			return true;
+		if(skip[0] > 0)
+			--skip[0];
+		else
+			merged.add(entry);
+		return limit <= 0 || merged.size() < limit;
+	}
+}
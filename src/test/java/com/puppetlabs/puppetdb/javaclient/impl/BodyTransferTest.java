@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.APIException;
+import com.puppetlabs.puppetdb.javaclient.ProgressListener;
+
+@SuppressWarnings("javadoc")
+public class BodyTransferTest {
+	/**
+	 * Delivers the first <code>limit</code> bytes and then fails as a broken connection would
+	 */
+	private static class BrokenStream extends FilterInputStream {
+		private int remaining;
+
+		BrokenStream(byte[] bytes, int limit) {
+			super(new ByteArrayInputStream(bytes));
+			remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(remaining == 0)
+				throw new IOException("Connection reset");
+			int count = super.read(b, off, Math.min(len, remaining));
+			remaining -= count;
+			return count;
+		}
+	}
+
+	/**
+	 * Returns a transfer whose first response broke off after 5000 bytes
+	 */
+	private static BodyTransfer brokenTransfer(String... headers) throws IOException {
+		byte[] bytes = payload(10000);
+		BodyTransfer transfer = new BodyTransfer(Channels.newChannel(new ByteArrayOutputStream()), null);
+		HttpResponse first = response(HttpStatus.SC_OK, bytes);
+		first.addHeader("Accept-Ranges", "bytes");
+		for(int idx = 0; idx < headers.length; idx += 2)
+			first.addHeader(headers[idx], headers[idx + 1]);
+		transfer.accept(first);
+		try {
+			transfer.copy(new BrokenStream(bytes, 5000));
+			fail("the connection breaks");
+		}
+		catch(IOException e) {
+		}
+		assertEquals(5000, transfer.getTransferred());
+		return transfer;
+	}
+
+	private static byte[] payload(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static HttpResponse response(int status, byte[] body) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+		response.setEntity(new ByteArrayEntity(body));
+		return response;
+	}
+
+	private File file;
+
+	private FileChannel channel;
+
+	@After
+	public void after() throws IOException {
+		channel.close();
+		file.delete();
+	}
+
+	@Before
+	public void before() throws IOException {
+		file = File.createTempFile("transfer", ".json");
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+	}
+
+	@Test
+	public void channelRoundTrip() throws IOException {
+		byte[] bytes = payload(200000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BodyTransfer transfer = new BodyTransfer(Channels.newChannel(out), null);
+		transfer.accept(response(HttpStatus.SC_OK, bytes));
+		transfer.copy(new ByteArrayInputStream(bytes));
+		assertEquals(bytes.length, transfer.getTransferred());
+		assertArrayEquals(bytes, out.toByteArray());
+	}
+
+	@Test
+	public void fileRoundTrip() throws IOException {
+		byte[] bytes = payload(3 * 1024 * 1024 + 17);
+		final long[] progress = { 0, 0 };
+		BodyTransfer transfer = new BodyTransfer(channel, new ProgressListener() {
+			@Override
+			public void progress(long transferred, long total) {
+				assertTrue(transferred > progress[0]);
+				progress[0] = transferred;
+				progress[1] = total;
+			}
+		});
+		transfer.accept(response(HttpStatus.SC_OK, bytes));
+		transfer.copy(new ByteArrayInputStream(bytes));
+		assertEquals(bytes.length, transfer.getTransferred());
+		assertEquals(bytes.length, progress[0]);
+		assertEquals(bytes.length, progress[1]);
+		assertEquals(bytes.length, channel.position());
+		assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void prematureEnd() throws IOException {
+		byte[] bytes = payload(1000);
+		BodyTransfer transfer = new BodyTransfer(channel, null);
+		transfer.accept(response(HttpStatus.SC_OK, bytes));
+		try {
+			transfer.copy(new ByteArrayInputStream(bytes, 0, 600));
+			fail("the body is truncated");
+		}
+		catch(EOFException e) {
+		}
+		assertEquals(600, transfer.getTransferred());
+		assertFalse("resume needs Accept-Ranges", transfer.canResume());
+	}
+
+	@Test
+	public void resume() throws IOException {
+		byte[] bytes = payload(500000);
+		BodyTransfer transfer = new BodyTransfer(channel, null);
+		HttpResponse first = response(HttpStatus.SC_OK, bytes);
+		first.addHeader("Accept-Ranges", "bytes");
+		first.addHeader("ETag", "\"v1\"");
+		transfer.accept(first);
+		try {
+			transfer.copy(new BrokenStream(bytes, 123457));
+			fail("the connection breaks");
+		}
+		catch(IOException e) {
+		}
+
+		// Bytes read by the failing transferFrom call are discarded and requested again
+		int resumeAt = (int) transfer.getTransferred();
+		assertTrue(resumeAt > 0 && resumeAt <= 123457);
+		assertTrue(transfer.canResume());
+
+		HttpGet request = new HttpGet("/v3/resources");
+		transfer.prepareResume(request);
+		assertEquals("bytes=" + resumeAt + '-', request.getFirstHeader("Range").getValue());
+		assertEquals("\"v1\"", request.getFirstHeader("If-Range").getValue());
+
+		byte[] rest = Arrays.copyOfRange(bytes, resumeAt, bytes.length);
+		HttpResponse second = response(HttpStatus.SC_PARTIAL_CONTENT, rest);
+		second.addHeader("Content-Range", "bytes " + resumeAt + '-' + (bytes.length - 1) + '/' + bytes.length);
+		transfer.accept(second);
+		transfer.copy(new ByteArrayInputStream(rest));
+		assertEquals(bytes.length, transfer.getTransferred());
+		assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void resumeRejectsChangedResource() throws IOException {
+		byte[] bytes = payload(100000);
+		BodyTransfer transfer = new BodyTransfer(channel, null);
+		HttpResponse first = response(HttpStatus.SC_OK, bytes);
+		first.addHeader("Accept-Ranges", "bytes");
+		first.addHeader("ETag", "\"v1\"");
+		transfer.accept(first);
+		try {
+			transfer.copy(new BrokenStream(bytes, 50000));
+			fail("the connection breaks");
+		}
+		catch(IOException e) {
+		}
+		assertTrue(transfer.getTransferred() > 0);
+		transfer.prepareResume(new HttpGet("/v3/resources"));
+		try {
+			// The server ignored If-Range and sent the whole, changed, resource
+			transfer.accept(response(HttpStatus.SC_OK, bytes));
+			fail("a full response can't resume a transfer");
+		}
+		catch(APIException e) {
+		}
+	}
+
+	@Test
+	public void resumeRejectsChangedEntityTag() throws IOException {
+		BodyTransfer transfer = brokenTransfer("ETag", "\"v1\"");
+		transfer.prepareResume(new HttpGet("/v3/resources"));
+		HttpResponse second = response(HttpStatus.SC_PARTIAL_CONTENT, new byte[5000]);
+		second.addHeader("Content-Range", "bytes 5000-9999/10000");
+		second.addHeader("ETag", "\"v2\"");
+		try {
+			transfer.accept(second);
+			fail("the partial content belongs to another representation");
+		}
+		catch(APIException e) {
+		}
+	}
+
+	@Test
+	public void resumeRequiresStrongValidator() throws IOException {
+		assertFalse("no validator", brokenTransfer().canResume());
+		assertFalse("weak entity tag", brokenTransfer("ETag", "W/\"v1\"").canResume());
+		assertFalse("modified within the second of the response", brokenTransfer(
+			"Last-Modified", "Sat, 19 Oct 2013 10:00:00 GMT", "Date", "Sat, 19 Oct 2013 10:00:00 GMT").canResume());
+
+		BodyTransfer transfer = brokenTransfer(
+			"Last-Modified", "Sat, 19 Oct 2013 10:00:00 GMT", "Date", "Sat, 19 Oct 2013 10:00:05 GMT");
+		assertTrue(transfer.canResume());
+		HttpGet request = new HttpGet("/v3/resources");
+		transfer.prepareResume(request);
+		assertEquals("Sat, 19 Oct 2013 10:00:00 GMT", request.getFirstHeader("If-Range").getValue());
+	}
+
+	@Test
+	public void restartWhenNothingWasTransferred() throws IOException {
+		byte[] bytes = payload(1000);
+		BodyTransfer transfer = new BodyTransfer(channel, null);
+		transfer.accept(response(HttpStatus.SC_OK, bytes));
+		try {
+			transfer.copy(new BrokenStream(bytes, 0));
+			fail("the connection breaks");
+		}
+		catch(IOException e) {
+		}
+		assertTrue("a transfer that wrote nothing can start over", transfer.canResume());
+		HttpGet request = new HttpGet("/v3/resources");
+		transfer.prepareResume(request);
+		assertNull(request.getFirstHeader("Range"));
+	}
+}
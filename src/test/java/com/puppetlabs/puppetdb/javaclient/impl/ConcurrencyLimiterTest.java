@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.APIException;
+
+@SuppressWarnings("javadoc")
+public class ConcurrencyLimiterTest {
+	private static final String NODES = "/nodes";
+
+	private static final String CATALOGS = "/catalogs/*";
+
+	private static void fill(ConcurrencyLimiter limiter) {
+		while(limiter.tryAcquire())
+			;
+	}
+
+	@Test
+	public void backoff() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20);
+		limiter.adjust(NODES, 1000, false);
+		Thread.sleep(1);
+		limiter.adjust(NODES, 10000, false);
+		assertEquals(9, limiter.getLimit());
+
+		// Slow responses to requests sent within the same round trip count as one signal
+		limiter.adjust(NODES, TimeUnit.SECONDS.toNanos(10), false);
+		assertEquals(9, limiter.getLimit());
+	}
+
+	@Test
+	public void failureBacksOff() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20);
+		Thread.sleep(1);
+		limiter.adjust(NODES, 1000, true);
+		assertEquals(9, limiter.getLimit());
+	}
+
+	@Test
+	public void floor() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 4);
+		for(int idx = 0; idx < 50; ++idx)
+			limiter.adjust(NODES, 0, true);
+		assertEquals(1, limiter.getLimit());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+	}
+
+	@Test
+	public void increase() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20);
+		assertEquals(10, limiter.getLimit());
+		for(int idx = 0; idx < 5; ++idx) {
+			fill(limiter);
+			limiter.adjust(NODES, 1000, false);
+		}
+		assertEquals(15, limiter.getLimit());
+		for(int idx = 0; idx < 50; ++idx) {
+			fill(limiter);
+			limiter.adjust(NODES, 1000, false);
+		}
+		assertEquals(20, limiter.getLimit());
+		assertEquals(20, limiter.getInFlight());
+	}
+
+	@Test
+	public void initialLimit() {
+		assertEquals(10, new ConcurrencyLimiter("test", 20).getLimit());
+		assertEquals(1, new ConcurrencyLimiter("test", 1).getLimit());
+		assertEquals(1, new ConcurrencyLimiter("test", 0).getLimit());
+	}
+
+	@Test
+	public void latencyBaselinePerPath() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20);
+		limiter.adjust(NODES, 1000, false);
+		Thread.sleep(1);
+
+		// A catalog query that is a thousand times slower than a node query is normal for catalogs
+		limiter.adjust(CATALOGS, 1000000, false);
+		limiter.adjust(CATALOGS, 1200000, false);
+		limiter.adjust(NODES, 1100, false);
+		assertEquals(10, limiter.getLimit());
+
+		Thread.sleep(10);
+		limiter.adjust(CATALOGS, 5000000, false);
+		assertEquals(9, limiter.getLimit());
+	}
+
+	@Test(timeout = 10000)
+	public void queueTimeout() throws IOException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2);
+		limiter.acquire(1000);
+		long start = System.nanoTime();
+		try {
+			limiter.acquire(50);
+			fail("no slot is available");
+		}
+		catch(APIException e) {
+		}
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(0, limiter.getQueueLength());
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test(timeout = 10000)
+	public void releaseWakesWaiter() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2);
+		limiter.acquire(1000);
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					limiter.acquire(5000);
+					acquired.countDown();
+				}
+				catch(IOException e) {
+				}
+			}
+		};
+		waiter.start();
+		while(limiter.getQueueLength() == 0)
+			Thread.sleep(1);
+		limiter.release();
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	public void unusedLimitDoesNotGrow() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20);
+		for(int idx = 0; idx < 50; ++idx)
+			limiter.adjust(NODES, 1000, false);
+		assertEquals(10, limiter.getLimit());
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class DefaultClientMetricsTest {
+	private static int countRequestBeans() throws MalformedObjectNameException {
+		return ManagementFactory.getPlatformMBeanServer().queryNames(
+			new ObjectName(ManagementSupport.DOMAIN + ":type=Requests,*"), null).size();
+	}
+
+	@Test
+	public void metricsArePerNormalizedPath() {
+		DefaultClientMetrics metrics = new DefaultClientMetrics();
+		try {
+			metrics.forPath("/v3/nodes/a.example.com/facts").callStarted();
+			metrics.forPath("/v3/nodes/b.example.com/facts").callStarted();
+			assertEquals(1, metrics.getSnapshot().size());
+			assertEquals(2, metrics.getSnapshot().get("/nodes/*/facts").getInFlight());
+		}
+		finally {
+			metrics.shutdown();
+		}
+	}
+
+	@Test
+	public void normalizePath() {
+		assertEquals("/nodes", DefaultClientMetrics.normalizePath("/v3/nodes"));
+		assertEquals("/nodes/*", DefaultClientMetrics.normalizePath("/v3/nodes/a.example.com"));
+		assertEquals("/nodes/*/facts", DefaultClientMetrics.normalizePath("/v3/nodes/a.example.com/facts"));
+		assertEquals("/nodes/*/facts/*", DefaultClientMetrics.normalizePath("/v3/nodes/a.example.com/facts/osfamily"));
+		assertEquals("/nodes/*/resources/*", DefaultClientMetrics.normalizePath("/v3/nodes/a.example.com/resources/File"));
+		assertEquals("/facts/*/*", DefaultClientMetrics.normalizePath("/v3/facts/osfamily/RedHat"));
+		assertEquals("/resources/*/*", DefaultClientMetrics.normalizePath("/v3/resources/File/etc"));
+		assertEquals("/experimental/*", DefaultClientMetrics.normalizePath("/experimental/report"));
+		assertEquals("/commands", DefaultClientMetrics.normalizePath("/v3/commands/"));
+		assertEquals("/v3x/*", DefaultClientMetrics.normalizePath("/v3x/nodes"));
+		assertEquals("/", DefaultClientMetrics.normalizePath("/v3"));
+		assertEquals("/", DefaultClientMetrics.normalizePath("/"));
+	}
+
+	@Test
+	public void shutdownUnregistersBeans() throws MalformedObjectNameException {
+		int before = countRequestBeans();
+		DefaultClientMetrics metrics = new DefaultClientMetrics();
+		metrics.forPath("/v3/nodes");
+		metrics.forPath("/v3/facts");
+		assertEquals(before + 2, countRequestBeans());
+
+		metrics.shutdown();
+		assertEquals(before, countRequestBeans());
+
+		// Paths used after shutdown are measured but not published
+		metrics.forPath("/v3/catalogs/a.example.com");
+		assertEquals(before, countRequestBeans());
+		assertEquals(3, metrics.getSnapshot().size());
+	}
+}
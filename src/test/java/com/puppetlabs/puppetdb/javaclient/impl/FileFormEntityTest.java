@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+
+@SuppressWarnings("javadoc")
+public class FileFormEntityTest {
+	private static byte[] readAll(InputStream in, int chunkSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			if(chunkSize == 1)
+				for(int b = in.read(); b >= 0; b = in.read())
+					out.write(b);
+			else {
+				byte[] buf = new byte[chunkSize];
+				int n;
+				while((n = in.read(buf, 0, chunkSize)) >= 0)
+					out.write(buf, 0, n);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] written(HttpEntity entity) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		return out.toByteArray();
+	}
+
+	private File file;
+
+	@After
+	public void after() {
+		file.delete();
+	}
+
+	private void assertSameForm(String payload) throws IOException {
+		Files.write(file.toPath(), payload.getBytes(HttpConnector.UTF_8));
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("command", "replace catalog");
+		params.put("payload", null);
+		params.put("checksum", "a&b=c%20d+e");
+
+		List<NameValuePair> pairs = new ArrayList<NameValuePair>();
+		pairs.add(new BasicNameValuePair("command", "replace catalog"));
+		pairs.add(new BasicNameValuePair("payload", payload));
+		pairs.add(new BasicNameValuePair("checksum", "a&b=c%20d+e"));
+		byte[] expected = written(new UrlEncodedFormEntity(pairs, HttpConnector.UTF_8.name()));
+
+		FileFormEntity entity = new FileFormEntity(params, "payload", file.toPath());
+		assertEquals(expected.length, entity.getContentLength());
+		assertArrayEquals(expected, written(entity));
+		assertArrayEquals("Should be repeatable", expected, written(entity));
+		assertArrayEquals(expected, readAll(entity.getContent(), 1));
+		assertArrayEquals(expected, readAll(entity.getContent(), 1000));
+		assertArrayEquals(expected, readAll(entity.getContent(), 8192));
+	}
+
+	@Before
+	public void before() throws IOException {
+		file = File.createTempFile("form", ".json");
+	}
+
+	@Test
+	public void empty() throws IOException {
+		assertSameForm("");
+	}
+
+	@Test
+	public void large() throws IOException {
+		// Crosses the buffer boundaries with multi-byte characters
+		StringBuilder bld = new StringBuilder();
+		for(int idx = 0; bld.length() < 40000; ++idx)
+			bld.appendCodePoint(idx % 0x800 + (idx % 7 == 0
+					? 0x1F600
+					: 0));
+		assertSameForm(bld.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingParameter() throws IOException {
+		new FileFormEntity(new LinkedHashMap<String, String>(), "payload", file.toPath());
+	}
+
+	@Test
+	public void reservedAndNonASCII() throws IOException {
+		assertSameForm("{\"title\":\"/etc/a b?c=d&e=%20+f#g\",\"node\":\"nöde ✓ 😀\",\"misc\":\"*-._~!'()\\n\t\r\"}");
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.metrics.HistogramSnapshot;
+
+@SuppressWarnings("javadoc")
+public class HistogramTest {
+	@Test
+	public void bucketBounds() {
+		for(long value = 0; value < 16; ++value) {
+			assertEquals(value, Histogram.bucketIndex(value));
+			assertEquals(value, Histogram.bucketUpperBound((int) value));
+		}
+		assertEquals(0, Histogram.bucketIndex(-5));
+		assertEquals(16, Histogram.bucketIndex(16));
+		assertEquals(16, Histogram.bucketIndex(17));
+		assertEquals(17, Histogram.bucketIndex(18));
+		assertEquals(17, Histogram.bucketUpperBound(16));
+	}
+
+	@Test
+	public void bucketsAreContiguous() {
+		int last = Histogram.bucketIndex(Long.MAX_VALUE);
+		for(int idx = 1; idx <= last; ++idx)
+			assertEquals(idx, Histogram.bucketIndex(Histogram.bucketUpperBound(idx - 1) + 1));
+		assertEquals(Long.MAX_VALUE, Histogram.bucketUpperBound(last));
+	}
+
+	@Test
+	public void bucketError() {
+		for(long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			long upper = Histogram.bucketUpperBound(Histogram.bucketIndex(value));
+			assertTrue(upper >= value);
+			assertTrue("relative error of " + value, (upper - value) <= value / 8);
+		}
+	}
+
+	@Test
+	public void empty() {
+		HistogramSnapshot snapshot = new Histogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMax());
+		assertEquals(0, snapshot.getP50());
+		assertEquals(0, snapshot.getP999());
+	}
+
+	@Test
+	public void percentiles() {
+		Histogram histogram = new Histogram();
+		for(int value = 100; value > 0; --value)
+			histogram.record(value);
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(100, snapshot.getCount());
+		assertEquals(5050, snapshot.getSum());
+		assertEquals(100, snapshot.getMax());
+
+		// Reported as the upper bound of the bucket that holds the value of the rank
+		assertEquals(51, snapshot.getP50());
+		assertEquals(95, snapshot.getP90());
+		assertEquals(100, snapshot.getP99());
+		assertEquals(100, snapshot.getP999());
+	}
+
+	@Test
+	public void singleValue() {
+		Histogram histogram = new Histogram();
+		histogram.record(1000000);
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1000000, snapshot.getP50());
+		assertEquals(1000000, snapshot.getMax());
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.puppetlabs.puppetdb.javaclient.CoalescingPolicy;
+
+@SuppressWarnings("javadoc")
+public class RequestCoalescerTest {
+	private static final URI NODES = URI.create("/v3/nodes");
+
+	private static final Type TYPE = new TypeToken<List<Map<String, String>>>() {
+	}.getType();
+
+	private static final int WAITERS = 5;
+
+	private static List<Map<String, String>> nodes() {
+		List<Map<String, String>> nodes = new ArrayList<Map<String, String>>();
+		nodes.add(Collections.singletonMap("name", "a.example.com"));
+		nodes.add(Collections.singletonMap("name", "b.example.com"));
+		return nodes;
+	}
+
+	private final AtomicInteger executions = new AtomicInteger();
+
+	private final CountDownLatch leaderStarted = new CountDownLatch(1);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private ExecutorService executor;
+
+	private DefaultClientMetrics metrics;
+
+	@After
+	public void after() {
+		release.countDown();
+		executor.shutdownNow();
+		metrics.shutdown();
+	}
+
+	private void awaitWaiters() throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while(metrics.forPath(NODES.getPath()).getCoalescedCount() < WAITERS) {
+			assertTrue("waiters arrive", System.currentTimeMillis() < end);
+			Thread.sleep(1);
+		}
+	}
+
+	@Before
+	public void before() {
+		executor = Executors.newCachedThreadPool();
+		metrics = new DefaultClientMetrics();
+	}
+
+	private RequestCoalescer.Call<List<Map<String, String>>> blockingCall(final List<Map<String, String>> result,
+			final IOException failure) {
+		return new RequestCoalescer.Call<List<Map<String, String>>>() {
+			@Override
+			public List<Map<String, String>> execute(int[] totalCount) throws IOException {
+				executions.incrementAndGet();
+				leaderStarted.countDown();
+				try {
+					release.await();
+				}
+				catch(InterruptedException e) {
+					throw new IOException(e);
+				}
+				if(failure != null)
+					throw failure;
+				return result;
+			}
+		};
+	}
+
+	@Test(timeout = 10000)
+	public void copy() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer(new Gson(), metrics, CoalescingPolicy.COPY);
+		List<Map<String, String>> result = nodes();
+		List<Future<List<Map<String, String>>>> futures = start(coalescer, blockingCall(result, null));
+		assertSame(result, futures.get(0).get());
+		for(int idx = 1; idx <= WAITERS; ++idx) {
+			List<Map<String, String>> copy = futures.get(idx).get();
+			assertEquals(result, copy);
+			assertNotSame(result.get(0), copy.get(0));
+		}
+		assertEquals(1, executions.get());
+	}
+
+	@Test(timeout = 10000)
+	public void failureIsShared() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer(new Gson(), metrics, CoalescingPolicy.SHARE);
+		IOException failure = new IOException("Connection refused");
+		List<Future<List<Map<String, String>>>> futures = start(coalescer, blockingCall(null, failure));
+		for(Future<List<Map<String, String>>> future : futures)
+			try {
+				future.get();
+			}
+			catch(ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		assertEquals(1, executions.get());
+
+		// A failure is not retained
+		List<Map<String, String>> result = nodes();
+		assertSame(result, coalescer.execute(NODES, TYPE, null, blockingCall(result, null)));
+		assertEquals(2, executions.get());
+	}
+
+	@Test(timeout = 10000)
+	public void share() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer(new Gson(), metrics, CoalescingPolicy.SHARE);
+		List<Map<String, String>> result = nodes();
+		List<Future<List<Map<String, String>>>> futures = start(coalescer, blockingCall(result, null));
+		List<List<Map<String, String>>> results = new ArrayList<List<Map<String, String>>>();
+		for(Future<List<Map<String, String>>> future : futures)
+			results.add(future.get());
+		assertEquals(1, executions.get());
+		assertSame(result, results.get(0));
+
+		// Each waiter owns its list. The elements are shared.
+		for(int idx = 1; idx <= WAITERS; ++idx) {
+			assertNotSame(result, results.get(idx));
+			assertSame(result.get(0), results.get(idx).get(0));
+		}
+		results.get(1).clear();
+		Collections.reverse(results.get(2));
+		assertEquals(nodes(), result);
+		assertEquals(nodes(), results.get(3));
+	}
+
+	/**
+	 * Starts a leader that blocks until released and the given number of waiters
+	 */
+	private List<Future<List<Map<String, String>>>> start(final RequestCoalescer coalescer,
+			final RequestCoalescer.Call<List<Map<String, String>>> call) throws InterruptedException {
+		Callable<List<Map<String, String>>> query = new Callable<List<Map<String, String>>>() {
+			@Override
+			public List<Map<String, String>> call() throws IOException {
+				return coalescer.execute(NODES, TYPE, null, call);
+			}
+		};
+		List<Future<List<Map<String, String>>>> futures = new ArrayList<Future<List<Map<String, String>>>>();
+		futures.add(executor.submit(query));
+		assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+		for(int idx = 0; idx < WAITERS; ++idx)
+			futures.add(executor.submit(query));
+		awaitWaiters();
+		release.countDown();
+		return futures;
+	}
+
+	@Test(timeout = 10000)
+	public void totalCountIsShared() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer(new Gson(), metrics, CoalescingPolicy.SHARE);
+		final RequestCoalescer.Call<List<Map<String, String>>> call = new RequestCoalescer.Call<List<Map<String, String>>>() {
+			@Override
+			public List<Map<String, String>> execute(int[] totalCount) throws IOException {
+				executions.incrementAndGet();
+				leaderStarted.countDown();
+				try {
+					release.await();
+				}
+				catch(InterruptedException e) {
+					throw new IOException(e);
+				}
+				totalCount[0] = 42;
+				return nodes();
+			}
+		};
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		Callable<Integer> query = new Callable<Integer>() {
+			@Override
+			public Integer call() throws IOException {
+				int[] totalCount = { -1 };
+				coalescer.execute(NODES, TYPE, totalCount, call);
+				return totalCount[0];
+			}
+		};
+		futures.add(executor.submit(query));
+		assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+		for(int idx = 0; idx < WAITERS; ++idx)
+			futures.add(executor.submit(query));
+		awaitWaiters();
+		release.countDown();
+		for(Future<Integer> future : futures)
+			assertEquals(Integer.valueOf(42), future.get());
+		assertEquals(1, executions.get());
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class RequestHedgerTest {
+	@Test
+	public void budgetAccumulatesWithQueries() {
+		RequestHedger hedger = new RequestHedger(95, 10, 1);
+		try {
+			assertFalse(hedger.tryAcquire());
+			for(int idx = 0; idx < 9; ++idx)
+				hedger.queryStarted();
+			assertFalse("nine queries at ten percent is less than one hedge", hedger.tryAcquire());
+			hedger.queryStarted();
+			assertTrue(hedger.tryAcquire());
+			assertFalse(hedger.tryAcquire());
+		}
+		finally {
+			hedger.shutdown();
+		}
+	}
+
+	@Test
+	public void budgetIsCapped() {
+		RequestHedger hedger = new RequestHedger(95, 100, 1);
+		try {
+			for(int idx = 0; idx < 1000; ++idx)
+				hedger.queryStarted();
+			int granted = 0;
+			while(hedger.tryAcquire())
+				++granted;
+			assertEquals(10, granted);
+		}
+		finally {
+			hedger.shutdown();
+		}
+	}
+
+	@Test
+	public void delayFollowsPercentile() {
+		RequestHedger hedger = new RequestHedger(90, 10, 1);
+		try {
+			assertEquals(-1, hedger.getDelay("/v3/nodes"));
+			for(int idx = 1; idx <= 100; ++idx)
+				hedger.recordLatency("/v3/nodes", idx);
+			assertEquals(91, hedger.getDelay("/v3/nodes"));
+		}
+		finally {
+			hedger.shutdown();
+		}
+	}
+
+	@Test
+	public void delayIsLearnedPerPath() {
+		RequestHedger hedger = new RequestHedger(90, 10, 1);
+		try {
+			for(int idx = 1; idx <= 100; ++idx) {
+				hedger.recordLatency("/v3/nodes", idx);
+				hedger.recordLatency("/v3/catalogs", idx * 1000);
+			}
+			assertEquals(91, hedger.getDelay("/v3/nodes"));
+			assertEquals(91000, hedger.getDelay("/v3/catalogs"));
+			assertEquals(-1, hedger.getDelay("/v3/facts"));
+		}
+		finally {
+			hedger.shutdown();
+		}
+	}
+
+	@Test
+	public void noBudget() {
+		RequestHedger hedger = new RequestHedger(95, 0, 1);
+		try {
+			for(int idx = 0; idx < 1000; ++idx)
+				hedger.queryStarted();
+			assertFalse(hedger.tryAcquire());
+		}
+		finally {
+			hedger.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void shutdownStopsScheduling() throws InterruptedException {
+		RequestHedger hedger = new RequestHedger(95, 10, 1);
+		final CountDownLatch ran = new CountDownLatch(1);
+		hedger.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		}, TimeUnit.MILLISECONDS.toNanos(1));
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+		hedger.shutdown();
+		try {
+			hedger.schedule(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, 0);
+			fail("hedges can't be scheduled after shutdown");
+		}
+		catch(RejectedExecutionException e) {
+		}
+	}
+
+	@Test
+	public void windowNeedsMinimumSamples() {
+		LatencyWindow window = new LatencyWindow(50);
+		for(int idx = 0; idx < 31; ++idx)
+			window.record(100);
+		assertEquals(-1, window.getPercentile());
+		window.record(100);
+		assertEquals(100, window.getPercentile());
+	}
+
+	@Test
+	public void windowPercentiles() {
+		LatencyWindow median = new LatencyWindow(50);
+		LatencyWindow p99 = new LatencyWindow(99);
+		for(int idx = 100; idx > 0; --idx) {
+			median.record(idx);
+			p99.record(idx);
+		}
+		assertEquals(51, median.getPercentile());
+		assertEquals(100, p99.getPercentile());
+	}
+
+	@Test
+	public void windowRecomputesPeriodically() {
+		LatencyWindow window = new LatencyWindow(50);
+		for(int idx = 0; idx < 32; ++idx)
+			window.record(10);
+		assertEquals(10, window.getPercentile());
+
+		// The cached value is kept for fifteen more samples
+		for(int idx = 0; idx < 15; ++idx)
+			window.record(1000);
+		assertEquals(10, window.getPercentile());
+		for(int idx = 0; idx < 20; ++idx)
+			window.record(1000);
+		assertEquals(1000, window.getPercentile());
+	}
+
+	@Test
+	public void windowWrapsAround() {
+		LatencyWindow window = new LatencyWindow(99);
+		for(int idx = 0; idx < 512; ++idx)
+			window.record(1000000);
+		assertEquals(1000000, window.getPercentile());
+
+		// The old samples are overwritten once the window is full
+		for(int idx = 0; idx < 512; ++idx)
+			window.record(1);
+		assertEquals(1, window.getPercentile());
+	}
+}
@@ -10,44 +10,100 @@
  */
 package com.puppetlabs.puppetdb.javaclient.test;
 
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import com.puppetlabs.puppetdb.javaclient.APIPreferences;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
 import com.puppetlabs.puppetdb.javaclient.HttpConnector;
 import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.cache.FactChangeListener;
+import com.puppetlabs.puppetdb.javaclient.cache.FactReplica;
+import com.puppetlabs.puppetdb.javaclient.cache.NodeFacts;
+import com.puppetlabs.puppetdb.javaclient.command.CatalogWriter;
+import com.puppetlabs.puppetdb.javaclient.command.ReportWriter;
+import com.puppetlabs.puppetdb.javaclient.export.ExportOptions;
+import com.puppetlabs.puppetdb.javaclient.export.ExportResult;
+import com.puppetlabs.puppetdb.javaclient.export.NDJSONExporter;
 import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
 import com.puppetlabs.puppetdb.javaclient.impl.PuppetDBClientImpl;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Edge;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Relationship;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.ResourceSpec;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Event.Status;
 import com.puppetlabs.puppetdb.javaclient.model.Fact;
 import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
 import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
 
 @SuppressWarnings("javadoc")
 public class APIMockTest {
+	private static final int MAX_QUERY_LENGTH = 4096;
+
 	private static Injector injector;
 
 	@BeforeClass
 	public static void beforeClass() {
+		final BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setMaxQueryLength(MAX_QUERY_LENGTH);
 		injector = Guice.createInjector(new AbstractModule() {
 			@Override
 			protected void configure() {
+				bind(APIPreferences.class).toInstance(preferences);
 				bind(Gson.class).toProvider(GsonProvider.class);
-				bind(HttpConnector.class).to(MockConnector.class);
+				bind(HttpConnector.class).to(MockConnector.class).in(Singleton.class);
 				bind(PuppetDBClient.class).to(PuppetDBClientImpl.class);
 			}
 		});
 	}
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static ResourceSpec spec(String type, String title) {
+		ResourceSpec spec = new ResourceSpec();
+		spec.setType(type);
+		spec.setTitle(title);
+		return spec;
+	}
+
 	private PuppetDBClient client;
 
 	@Before
@@ -55,6 +111,128 @@ public class APIMockTest {
 		client = injector.getInstance(PuppetDBClient.class);
 	}
 
+	@Test
+	public void exportFacts() throws Exception {
+		ExportOptions options = new ExportOptions(folder.getRoot().toPath());
+		options.setPageSize(5);
+		options.setMaxFileSize(200);
+		options.setCompress(true);
+		ExportResult result = injector.getInstance(NDJSONExporter.class).exportFacts(null, options);
+		assertEquals("should export all facts in mock", 12, result.getRecordCount());
+		assertTrue("should split into several files", result.getFiles().size() > 1);
+
+		Gson gson = injector.getInstance(Gson.class);
+		int lines = 0;
+		long bytes = 0;
+		for(Path file : result.getFiles()) {
+			assertTrue("should be gzip compressed", file.getFileName().toString().endsWith(".ndjson.gz"));
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), "UTF-8"));
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					assertNotNull("each line should be a fact", gson.fromJson(line, Fact.class).getCertname());
+					bytes += line.length() + 1;
+					++lines;
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		assertEquals("should write one line per fact", 12, lines);
+		assertEquals("should count all bytes", result.getByteCount(), bytes);
+	}
+
+	@Test
+	public void exportFactsByCertname() throws Exception {
+		ExportOptions options = new ExportOptions(folder.getRoot().toPath());
+		options.setSplitByCertname(true);
+		ExportResult result = injector.getInstance(NDJSONExporter.class).exportFacts(null, options);
+		for(Path file : result.getFiles()) {
+			String certname = file.getFileName().toString().replaceFirst("^facts-(.*)-\\d+\\.ndjson$", "$1");
+			for(String line : Files.readAllLines(file, HttpConnector.UTF_8))
+				assertEquals("should only contain facts of one node", certname, new Gson().fromJson(line, Fact.class).getCertname());
+		}
+	}
+
+	@Test
+	public void factReplica() throws Exception {
+		FactReplica replica = injector.getInstance(FactReplica.class);
+
+		final List<String> changed = new ArrayList<String>();
+		replica.addListener(new FactChangeListener() {
+			@Override
+			public void factsChanged(String certname, NodeFacts previous, NodeFacts current) {
+				changed.add(certname);
+			}
+		});
+		replica.sync();
+		assertTrue("should be bootstrapped by first sync", replica.isBootstrapped());
+		assertEquals("should only contain active nodes", 1, replica.getNodes().size());
+		NodeFacts facts = replica.getNode("a.example.com");
+		assertNotNull("should contain the active node", facts);
+		assertEquals("should contain all facts of node", 4, facts.getFacts().size());
+		assertEquals("Fedora", facts.getValue("operatingsystem"));
+		assertEquals("should notify about the new node", Arrays.asList("a.example.com"), changed);
+
+		replica.sync();
+		assertEquals("should not fetch facts of unchanged nodes", 1, replica.getFetchCount());
+		assertEquals("should not notify when nothing changed", 1, changed.size());
+	}
+
+	@Test
+	public void factReplicaSnapshot() throws Exception {
+		HttpConnector connector = injector.getInstance(HttpConnector.class);
+		FactReplica replica = new FactReplica(connector, client, new BasicAPIPreferences());
+		replica.sync();
+		Path file = folder.getRoot().toPath().resolve("facts.snapshot");
+		replica.saveSnapshot(file);
+
+		FactReplica loaded = new FactReplica(connector, client, new BasicAPIPreferences());
+		final List<String> changed = new ArrayList<String>();
+		loaded.addListener(new FactChangeListener() {
+			@Override
+			public void factsChanged(String certname, NodeFacts previous, NodeFacts current) {
+				changed.add(certname);
+			}
+		});
+		loaded.loadSnapshot(file);
+		assertTrue("should be bootstrapped by the snapshot", loaded.isBootstrapped());
+		assertEquals("should notify about loaded nodes", Arrays.asList("a.example.com"), changed);
+		NodeFacts facts = loaded.getNode("a.example.com");
+		assertEquals("should have the same timestamp", replica.getNode("a.example.com").getTimestamp(), facts.getTimestamp());
+		assertEquals("should have the same facts", replica.getNode("a.example.com").getFacts(), facts.getFacts());
+
+		loaded.sync();
+		assertEquals("should not fetch facts of unchanged nodes", 0, loaded.getFetchCount());
+	}
+
+	@Test
+	public void factReplicaSnapshotCorrupt() throws Exception {
+		HttpConnector connector = injector.getInstance(HttpConnector.class);
+		FactReplica replica = new FactReplica(connector, client, new BasicAPIPreferences());
+		replica.sync();
+		Path file = folder.getRoot().toPath().resolve("facts.snapshot");
+		replica.saveSnapshot(file);
+
+		// Damage a fact value in the payload of the record
+		byte[] bytes = Files.readAllBytes(file);
+		String content = new String(bytes, "ISO-8859-1");
+		bytes[content.indexOf("Fedora")] = 'f';
+		Files.write(file, bytes);
+
+		NodeFacts before = replica.getNode("a.example.com");
+		try {
+			replica.loadSnapshot(file);
+			fail("should reject a damaged record");
+		}
+		catch(IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("a.example.com"));
+		}
+		assertSame("should leave the replica unchanged", before, replica.getNode("a.example.com"));
+		assertEquals("Fedora", replica.getNode("a.example.com").getValue("operatingsystem"));
+	}
+
 	@Test
 	public void getActiveNodes() throws Exception {
 		List<Node> nodes = client.getActiveNodes(null);
@@ -77,6 +255,29 @@ public class APIMockTest {
 		assertEquals("should return all facts in mock", 12, facts.size());
 	}
 
+	@Test
+	public void getFactsSplitQuery() throws Exception {
+		List<Expression<Fact>> certnames = new ArrayList<Expression<Fact>>();
+		for(int idx = 0; idx < 1000; ++idx)
+			certnames.add(eq(Fact.CERTNAME, "node" + idx + ".example.com"));
+		MockConnector connector = (MockConnector) injector.getInstance(HttpConnector.class);
+		connector.clearQueries();
+		List<Fact> facts = client.getFacts(or(certnames));
+		assertEquals("should merge and deduplicate the results of all chunks", 12, facts.size());
+
+		List<String> queries = connector.getQueries();
+		assertTrue("should send more than one chunk", queries.size() > 1);
+		Set<String> sent = new HashSet<String>();
+		for(String query : queries) {
+			assertTrue("should keep each chunk within the limit", URLEncoder.encode(query, "UTF-8").length() <= MAX_QUERY_LENGTH);
+			List<?> or = injector.getInstance(Gson.class).fromJson(query, List.class);
+			assertEquals("should send a disjunction", "or", or.get(0));
+			for(Object term : or.subList(1, or.size()))
+				assertTrue("should send each certname once", sent.add(((List<?>) term).get(2).toString()));
+		}
+		assertEquals("should send every certname", certnames.size(), sent.size());
+	}
+
 	@Test
 	public void getNamedFacts() throws Exception {
 		List<Fact> facts = client.getFacts(null, "kernel");
@@ -104,4 +305,104 @@ public class APIMockTest {
 		assertNotNull("should not return a null list", users);
 		assertEquals("should return two user resources", 2, users.size());
 	}
+
+	@Test
+	public void replaceCatalogStreamed() throws Exception {
+		List<Resource> resources = new ArrayList<Resource>();
+		List<Edge> edges = new ArrayList<Edge>();
+		for(int idx = 0; idx < 500; ++idx) {
+			Resource resource = new Resource();
+			resource.setType("File");
+			resource.setTitle("/etc/<conf> & 'quotes' \"" + idx + "\" \u00e9\u2028");
+			resource.setExported(Boolean.valueOf(idx % 7 == 0));
+			resource.setFile("/etc/puppet/manifests/site.pp");
+			resource.setLine(Integer.valueOf(idx));
+			resource.setTags(Arrays.asList("file", "class"));
+			resource.setParameters(Collections.<String, Object> singletonMap("mode", idx % 2 == 0
+					? "0644"
+					: Double.valueOf(0.5 * idx)));
+			resources.add(resource);
+
+			Edge edge = new Edge();
+			edge.setSource(spec("Class", "Main"));
+			edge.setTarget(spec("File", resource.getTitle()));
+			edge.setRelationship(Relationship.values()[idx % Relationship.values().length]);
+			edges.add(edge);
+		}
+		Catalog catalog = new Catalog();
+		catalog.setMetadata(new Catalog.Metadata());
+		Catalog.Data data = new Catalog.Data();
+		data.setName("a.example.com");
+		data.setVersion("1380000000");
+		data.setTransactionUUID(UUID.randomUUID().toString());
+		data.setResources(resources);
+		data.setEdges(edges);
+		catalog.setData(data);
+		MockConnector connector = (MockConnector) injector.getInstance(HttpConnector.class);
+		client.replaceCatalog(catalog);
+		Map<String, String> expected = connector.getLastPost();
+
+		// Resources and edges are interleaved and the first resources come with the header
+		data.setResources(new ArrayList<Resource>(resources.subList(0, 10)));
+		data.setEdges(null);
+		CatalogWriter writer = client.newCatalogWriter(catalog);
+		assertEquals(10, data.getResources().size());
+		assertNull(data.getEdges());
+		for(int idx = 0; idx < 500; ++idx) {
+			writer.addEdge(edges.get(idx));
+			if(idx >= 10)
+				writer.addResource(resources.get(idx));
+		}
+		assertEquals(500, writer.getEdgeCount());
+		assertEquals(500, writer.getResourceCount());
+		writer.submit();
+		Map<String, String> actual = connector.getLastPost();
+		assertEquals(expected.get("payload"), actual.get("payload"));
+		assertEquals(expected.get("checksum"), actual.get("checksum"));
+		assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+	}
+
+	@Test
+	public void storeReportStreamed() throws Exception {
+		Report report = new Report();
+		report.setCertname("a.example.com");
+		report.setPuppetVersion("3.4.2");
+		report.setConfigurationVersion("1380000000");
+		report.setReportFormat(4);
+		report.setStartTime(new Date(1380000000000L));
+		report.setEndTime(new Date(1380000060000L));
+		List<Event> events = new ArrayList<Event>();
+		for(int idx = 0; idx < 2000; ++idx) {
+			Event event = new Event();
+			event.setMessage("changed 'content' from <{md5}" + idx + "> to \"x\"");
+			event.setStatus(idx % 5 == 0
+					? Status.failure
+					: Status.success);
+			event.setTimestamp(new Date(1380000000000L + idx));
+			event.setResourceType("File");
+			event.setResourceTitle("/tmp/file" + idx);
+			events.add(event);
+		}
+		report.setResourceEvents(events);
+		MockConnector connector = (MockConnector) injector.getInstance(HttpConnector.class);
+		client.storeReport(report);
+		Map<String, String> expected = connector.getLastPost();
+
+		report.setResourceEvents(null);
+		ReportWriter writer = client.newReportWriter(report);
+		for(Event event : events)
+			writer.addEvent(event);
+		assertEquals(2000, writer.getEventCount());
+		writer.submit();
+		assertNull(report.getResourceEvents());
+		assertEquals(expected.get("payload"), connector.getLastPost().get("payload"));
+		assertEquals(expected.get("checksum"), connector.getLastPost().get("checksum"));
+
+		// An abandoned writer can be closed
+		report.setResourceEvents(events.subList(0, 3));
+		writer = client.newReportWriter(report);
+		assertEquals(3, writer.getEventCount());
+		assertSame(events.get(0), report.getResourceEvents().get(0));
+		writer.close();
+	}
 }
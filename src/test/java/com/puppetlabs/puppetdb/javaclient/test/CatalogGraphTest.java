@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.index.CatalogGraph;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Edge;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.Relationship;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.ResourceSpec;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+
+@SuppressWarnings("javadoc")
+public class CatalogGraphTest {
+	private static Edge edge(String source, String target, Relationship relationship) {
+		Edge edge = new Edge();
+		edge.setSource(spec(source));
+		edge.setTarget(spec(target));
+		edge.setRelationship(relationship);
+		return edge;
+	}
+
+	private static Catalog newCatalog(List<Resource> resources, List<Edge> edges) {
+		Catalog.Data data = new Catalog.Data();
+		data.setName("node.example.com");
+		data.setResources(resources);
+		data.setEdges(edges);
+		Catalog catalog = new Catalog();
+		catalog.setData(data);
+		return catalog;
+	}
+
+	private static Resource resource(String ref) {
+		ResourceSpec spec = spec(ref);
+		Resource resource = new Resource();
+		resource.setType(spec.getType());
+		resource.setTitle(spec.getTitle());
+		return resource;
+	}
+
+	/**
+	 * Reference implementation that walks the edges by string key
+	 */
+	private static Set<String> slowImpact(List<Edge> edges, String start, Set<Relationship> relationships) {
+		Map<String, List<String>> targets = new HashMap<String, List<String>>();
+		for(Edge edge : edges) {
+			if(!relationships.contains(edge.getRelationship()))
+				continue;
+			String source = edge.getSource().getType() + '[' + edge.getSource().getTitle() + ']';
+			List<String> list = targets.get(source);
+			if(list == null) {
+				list = new ArrayList<String>();
+				targets.put(source, list);
+			}
+			list.add(edge.getTarget().getType() + '[' + edge.getTarget().getTitle() + ']');
+		}
+		Set<String> seen = new HashSet<String>();
+		Deque<String> queue = new ArrayDeque<String>();
+		seen.add(start);
+		queue.add(start);
+		while(!queue.isEmpty()) {
+			List<String> list = targets.get(queue.poll());
+			if(list != null)
+				for(String target : list)
+					if(seen.add(target))
+						queue.add(target);
+		}
+		return seen;
+	}
+
+	private static ResourceSpec spec(String ref) {
+		int bracket = ref.indexOf('[');
+		ResourceSpec spec = new ResourceSpec();
+		spec.setType(ref.substring(0, bracket));
+		spec.setTitle(ref.substring(bracket + 1, ref.length() - 1));
+		return spec;
+	}
+
+	private static Set<String> toRefs(CatalogGraph graph, BitSet ids) {
+		Set<String> refs = new HashSet<String>();
+		for(int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+			refs.add(graph.getType(id) + '[' + graph.getTitle(id) + ']');
+		return refs;
+	}
+
+	private void assertTopological(CatalogGraph graph, List<Edge> edges, int[] order) {
+		assertNotNull(order);
+		assertEquals(graph.size(), order.length);
+		int[] position = new int[graph.size()];
+		for(int idx = 0; idx < order.length; ++idx)
+			position[order[idx]] = idx;
+		for(Edge edge : edges) {
+			int source = graph.getId(edge.getSource().getType(), edge.getSource().getTitle());
+			int target = graph.getId(edge.getTarget().getType(), edge.getTarget().getTitle());
+			assertTrue(position[source] < position[target]);
+		}
+	}
+
+	@Test
+	public void testCycle() {
+		List<Resource> resources = new ArrayList<Resource>();
+		resources.add(resource("Package[ntp]"));
+		resources.add(resource("File[/etc/ntp.conf]"));
+		resources.add(resource("Service[ntpd]"));
+		List<Edge> edges = new ArrayList<Edge>();
+		edges.add(edge("Package[ntp]", "File[/etc/ntp.conf]", Relationship.before));
+		edges.add(edge("File[/etc/ntp.conf]", "Service[ntpd]", Relationship.notifies));
+		edges.add(edge("Service[ntpd]", "Package[ntp]", Relationship.required_by));
+		CatalogGraph graph = CatalogGraph.fromCatalog(newCatalog(resources, edges));
+
+		assertNull(graph.getTopologicalOrder());
+		assertArrayEquals(new int[] { 0, 1, 2 }, graph.findCycle());
+
+		// Without the closing relationship, there is no cycle
+		assertNull(graph.findCycle(Relationship.before, Relationship.notifies));
+		assertArrayEquals(new int[] { 0, 1, 2 }, graph.getTopologicalOrder(Relationship.before, Relationship.notifies));
+	}
+
+	@Test
+	public void testGraph() {
+		List<Resource> resources = new ArrayList<Resource>();
+		resources.add(resource("Class[Ntp]"));
+		resources.add(resource("Service[ntpd]"));
+		resources.add(resource("File[/etc/ntp.conf]"));
+		resources.add(resource("Package[ntp]"));
+		List<Edge> edges = new ArrayList<Edge>();
+		edges.add(edge("Class[Ntp]", "Package[ntp]", Relationship.contains));
+		edges.add(edge("Class[Ntp]", "File[/etc/ntp.conf]", Relationship.contains));
+		edges.add(edge("Class[Ntp]", "Service[ntpd]", Relationship.contains));
+		edges.add(edge("Package[ntp]", "File[/etc/ntp.conf]", Relationship.before));
+		edges.add(edge("File[/etc/ntp.conf]", "Service[ntpd]", Relationship.subscription_of));
+		edges.add(edge("User[ntp]", "Package[ntp]", Relationship.required_by));
+		CatalogGraph graph = CatalogGraph.fromCatalog(newCatalog(resources, edges));
+
+		assertEquals(5, graph.size());
+		assertEquals(6, graph.getEdgeCount(null));
+		assertEquals(3, graph.getEdgeCount(Relationship.contains));
+		int ntpClass = graph.getId("Class", "Ntp");
+		int service = graph.getId("Service", "ntpd");
+		int file = graph.getId("File", "/etc/ntp.conf");
+		int pkg = graph.getId("Package", "ntp");
+		int user = graph.getId("User", "ntp");
+		assertEquals(0, ntpClass);
+		assertEquals(4, user);
+		assertEquals(-1, graph.getId("User", "root"));
+		assertEquals("Package", graph.getResource(pkg).getType());
+		assertNull(graph.getResource(user));
+
+		assertArrayEquals(new int[] { pkg, file, service }, graph.getTargets(ntpClass, Relationship.contains));
+		assertArrayEquals(new int[] { file }, graph.getSources(service, Relationship.subscription_of));
+		assertArrayEquals(new int[0], graph.getTargets(service, Relationship.notifies));
+
+		assertTrue(graph.isReachable(user, service));
+		assertFalse(graph.isReachable(service, user));
+		assertFalse(graph.isReachable(user, service, Relationship.required_by, Relationship.before));
+		assertTrue(graph.isReachable(file, file, Relationship.notifies));
+
+		BitSet impact = graph.getImpact(pkg);
+		assertEquals(3, impact.cardinality());
+		assertTrue(impact.get(pkg) && impact.get(file) && impact.get(service));
+		assertEquals(2, graph.getImpact(pkg, Relationship.before).cardinality());
+
+		BitSet changed = new BitSet();
+		changed.set(file);
+		BitSet dependencies = graph.getDependencies(changed);
+		assertEquals(4, dependencies.cardinality());
+		assertFalse(dependencies.get(service));
+
+		assertTopological(graph, edges, graph.getTopologicalOrder());
+		assertNull(graph.findCycle());
+	}
+
+	@Test
+	public void testRandomGraph() {
+		Random random = new Random(7);
+		List<Resource> resources = new ArrayList<Resource>();
+		int size = 2000;
+		for(int idx = 0; idx < size; ++idx)
+			resources.add(resource("File[/etc/file" + idx + "]"));
+
+		// Edges only point from lower to higher numbers, so the graph is acyclic
+		List<Edge> edges = new ArrayList<Edge>();
+		Relationship[] relationships = Relationship.values();
+		for(int idx = 0; idx < size * 3; ++idx) {
+			int a = random.nextInt(size);
+			int b = random.nextInt(size);
+			if(a == b)
+				continue;
+			edges.add(edge("File[/etc/file" + Math.min(a, b) + "]", "File[/etc/file" + Math.max(a, b) + "]", relationships[random.nextInt(relationships.length)]));
+		}
+		CatalogGraph graph = CatalogGraph.fromCatalog(newCatalog(resources, edges));
+		assertEquals(size, graph.size());
+		assertEquals(edges.size(), graph.getEdgeCount(null));
+		assertTopological(graph, edges, graph.getTopologicalOrder());
+
+		Set<Relationship> all = new HashSet<Relationship>();
+		for(Relationship relationship : relationships)
+			all.add(relationship);
+		Set<Relationship> ordering = new HashSet<Relationship>();
+		ordering.add(Relationship.before);
+		ordering.add(Relationship.notifies);
+		for(int idx = 0; idx < 50; ++idx) {
+			String ref = "File[/etc/file" + random.nextInt(size) + "]";
+			int id = graph.getId("File", ref.substring(5, ref.length() - 1));
+			assertEquals(slowImpact(edges, ref, all), toRefs(graph, graph.getImpact(id)));
+			assertEquals(slowImpact(edges, ref, ordering), toRefs(graph, graph.getImpact(id, Relationship.before, Relationship.notifies)));
+			int other = random.nextInt(size);
+			assertEquals(slowImpact(edges, ref, all).contains("File[/etc/file" + other + "]"), graph.isReachable(id, other));
+		}
+
+		// Reversing an existing edge creates a cycle
+		Edge first = edges.get(0);
+		edges.add(edge(first.getTarget().getType() + '[' + first.getTarget().getTitle() + ']', first.getSource().getType() + '[' + first.getSource().getTitle() + ']', Relationship.before));
+		graph = CatalogGraph.fromCatalog(newCatalog(resources, edges));
+		assertNull(graph.getTopologicalOrder());
+		int[] cycle = graph.findCycle();
+		assertNotNull(cycle);
+		for(int idx = 0; idx < cycle.length; ++idx) {
+			int next = cycle[(idx + 1) % cycle.length];
+			boolean edgeFound = false;
+			for(Relationship relationship : relationships)
+				for(int target : graph.getTargets(cycle[idx], relationship))
+					edgeFound |= target == next;
+			assertTrue(edgeFound);
+		}
+	}
+}
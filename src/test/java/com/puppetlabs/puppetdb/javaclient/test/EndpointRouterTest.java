@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.puppetlabs.puppetdb.javaclient.AbstractAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.ServiceEndpoint;
+import com.puppetlabs.puppetdb.javaclient.impl.DefaultModule;
+import com.puppetlabs.puppetdb.javaclient.impl.HttpComponentsConnector;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+@SuppressWarnings({ "javadoc", "restriction" })
+public class EndpointRouterTest {
+	private static int countHealthCheckThreads() {
+		int count = 0;
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+			if(thread.isAlive() && "PuppetDB endpoint health check".equals(thread.getName()))
+				++count;
+		return count;
+	}
+
+	private LocalServer primary;
+
+	private LocalServer replica;
+
+	private Injector injector;
+
+	private PuppetDBClient client;
+
+	@After
+	public void after() {
+		client.close();
+		primary.stop();
+		replica.stop();
+	}
+
+	@Before
+	public void before() throws IOException {
+		primary = new LocalServer();
+		replica = new LocalServer();
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setServiceHostname("127.0.0.1");
+		preferences.setServicePort(primary.getPort());
+		preferences.addReplicaEndpoint(new ServiceEndpoint("127.0.0.1", replica.getPort()));
+		preferences.setHealthCheckInterval(50);
+		preferences.setEjectionThreshold(2);
+		injector = Guice.createInjector(new DefaultModule(preferences));
+		client = injector.getInstance(PuppetDBClient.class);
+	}
+
+	/**
+	 * Sends queries until the replica receives one or the time is out
+	 */
+	private boolean replicaReceivesQueries(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while(System.currentTimeMillis() < end) {
+			replica.reset();
+			for(int idx = 0; idx < 10; ++idx)
+				try {
+					client.getActiveNodes(null);
+				}
+				catch(IOException e) {
+					// The replica fails until it has been ejected
+				}
+			if(replica.countRequests("/v3/nodes") > 0)
+				return true;
+			Thread.sleep(20);
+		}
+		return false;
+	}
+
+	@Test(timeout = 10000)
+	public void abstractPreferences() throws IOException {
+		final int port = primary.getPort();
+		PuppetDBClient minimal = Guice.createInjector(new DefaultModule(new AbstractAPIPreferences() {
+			@Override
+			public File getCaCertPEM() {
+				return null;
+			}
+
+			@Override
+			public File getCertPEM() {
+				return null;
+			}
+
+			@Override
+			public int getConnectTimeout() {
+				return BasicAPIPreferences.DEFAULT_CONNECTION_TIMEOUT;
+			}
+
+			@Override
+			public File getPrivateKeyPEM() {
+				return null;
+			}
+
+			@Override
+			public String getServiceHostname() {
+				return "127.0.0.1";
+			}
+
+			@Override
+			public int getServicePort() {
+				return port;
+			}
+
+			@Override
+			public int getSoTimeout() {
+				return BasicAPIPreferences.DEFAULT_READ_TIMEOUT;
+			}
+
+			@Override
+			public boolean isAllowAllHosts() {
+				return false;
+			}
+		})).getInstance(PuppetDBClient.class);
+		try {
+			assertEquals(Collections.emptyList(), minimal.getActiveNodes(null));
+			assertEquals(1, primary.countRequests("/v3/nodes"));
+		}
+		finally {
+			minimal.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void closeStopsHealthChecks() throws Exception {
+		assertTrue(countHealthCheckThreads() > 0);
+		client.close();
+		while(countHealthCheckThreads() > 0)
+			Thread.sleep(10);
+	}
+
+	@Test(timeout = 10000)
+	public void commandsGoToPrimary() throws IOException {
+		HttpConnector connector = injector.getInstance(HttpConnector.class);
+		for(int idx = 0; idx < 10; ++idx)
+			connector.post("/commands/", Collections.singletonMap("payload", "{}"), null);
+		assertEquals(10, primary.countRequests("/v3/commands/"));
+		assertEquals(0, replica.countRequests("/v3/commands/"));
+	}
+
+	@Test(timeout = 10000)
+	public void ejectionAndReadmission() throws Exception {
+		replica.setResponse(500, "[]");
+		replica.setHealthStatus(500);
+
+		// Health checks and failed queries eject the replica
+		long end = System.currentTimeMillis() + 5000;
+		boolean ejected = false;
+		while(!ejected && System.currentTimeMillis() < end) {
+			Thread.sleep(100);
+			replica.reset();
+			for(int idx = 0; idx < 10; ++idx)
+				try {
+					client.getActiveNodes(null);
+				}
+				catch(IOException e) {
+				}
+			ejected = replica.countRequests("/v3/nodes") == 0;
+		}
+		assertTrue("replica is ejected", ejected);
+
+		// All queries succeed on the primary while the replica is out
+		primary.reset();
+		for(int idx = 0; idx < 10; ++idx)
+			client.getActiveNodes(null);
+		assertEquals(10, primary.countRequests("/v3/nodes"));
+
+		// A passed health check readmits the replica
+		replica.setResponse(200, "[]");
+		replica.setHealthStatus(200);
+		assertTrue("replica is readmitted", replicaReceivesQueries(5000));
+	}
+
+	@Test(timeout = 10000)
+	public void queriesAreDistributed() throws IOException {
+		for(int idx = 0; idx < 20; ++idx)
+			client.getActiveNodes(null);
+		assertTrue(primary.countRequests("/v3/nodes") > 0);
+		assertTrue(replica.countRequests("/v3/nodes") > 0);
+		assertEquals(20, primary.countRequests("/v3/nodes") + replica.countRequests("/v3/nodes"));
+	}
+
+	@Test(timeout = 10000)
+	public void resumeStaysOnEndpoint() throws IOException {
+		// Breaks off every full response halfway and serves the rest as partial content
+		HttpHandler handler = new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] half = new byte[5000];
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+				if(exchange.getRequestHeaders().getFirst("Range") == null) {
+					exchange.sendResponseHeaders(200, 10000);
+					OutputStream out = exchange.getResponseBody();
+					out.write(half);
+					out.flush();
+					// The server drops the connection of a failed exchange
+					throw new IllegalStateException("connection reset");
+				}
+				exchange.getResponseHeaders().set("Content-Range", "bytes 5000-9999/10000");
+				exchange.sendResponseHeaders(206, half.length);
+				exchange.getResponseBody().write(half);
+			}
+		};
+		primary.setHandler(handler);
+		replica.setHandler(handler);
+		HttpConnector connector = injector.getInstance(HttpConnector.class);
+		for(int idx = 0; idx < 10; ++idx) {
+			primary.reset();
+			replica.reset();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			connector.download("/resources", null, out);
+			assertEquals(10000, out.size());
+			int onPrimary = primary.countRequests("/v3/resources");
+			int onReplica = replica.countRequests("/v3/resources");
+			assertEquals(2, onPrimary + onReplica);
+			assertTrue("the resumed request goes to the same endpoint", onPrimary == 0 || onReplica == 0);
+		}
+	}
+
+	@Test
+	public void singletonConnector() {
+		assertSame(injector.getInstance(HttpConnector.class), injector.getInstance(HttpComponentsConnector.class));
+		assertSame(client, injector.getInstance(PuppetDBClient.class));
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gt;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.events.EventCountAggregator;
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
+import com.puppetlabs.puppetdb.javaclient.model.AggregatedEventCount;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog.ResourceSpec;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount.CountBy;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount.SummarizeBy;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Query;
+
+@SuppressWarnings("javadoc")
+public class EventCountAggregatorTest {
+	private static final String[] CLASSES = { "Apache", "Ntp", "Ssh", null };
+
+	private static final List<Event> events = new ArrayList<Event>();
+
+	@BeforeClass
+	public static void beforeClass() {
+		Random random = new Random(7);
+		Event.Status[] statuses = Event.Status.values();
+		for(int idx = 0; idx < 2000; ++idx) {
+			Event event = new Event();
+			event.setCertname("node" + random.nextInt(20) + ".example.com");
+			event.setResourceType(random.nextBoolean()
+					? "File"
+					: "Service");
+			event.setResourceTitle("title" + random.nextInt(15));
+			event.setContainingClass(CLASSES[random.nextInt(CLASSES.length)]);
+			event.setStatus(statuses[random.nextInt(statuses.length)]);
+			events.add(event);
+		}
+	}
+
+	private static int countIf(boolean condition) {
+		return condition
+				? 1
+				: 0;
+	}
+
+	/**
+	 * Computes the counts the way PuppetDB does it in SQL: group the matching events by subject and sum
+	 * up the statuses, after selecting distinct certname, status and subject when counting by certname.
+	 */
+	private static List<EventCount> reference(Expression<Event> eventQuery, SummarizeBy summarizeBy, CountBy countBy,
+			Expression<EventCount> countsFilter) {
+		Map<String, EventCount> rows = new LinkedHashMap<String, EventCount>();
+		Set<String> distinct = new HashSet<String>();
+		for(Event event : events) {
+			if(!Query.compile(eventQuery, Event.class).matches(event))
+				continue;
+			String type = summarizeBy == SummarizeBy.resource
+					? event.getResourceType()
+					: null;
+			String title = summarizeBy == SummarizeBy.resource
+					? event.getResourceTitle()
+					: summarizeBy == SummarizeBy.containing_class
+							? event.getContainingClass()
+							: event.getCertname();
+			String subject = type + "/" + title;
+			if(countBy == CountBy.certname && !distinct.add(event.getCertname() + "/" + event.getStatus() + "/" + subject))
+				continue;
+			EventCount row = rows.get(subject);
+			if(row == null) {
+				row = new EventCount();
+				row.setSubjectType(summarizeBy.toString());
+				row.setSubject(new ResourceSpec());
+				row.getSubject().setType(type);
+				row.getSubject().setTitle(title);
+				rows.put(subject, row);
+			}
+			Event.Status status = event.getStatus();
+			row.setFailures(row.getFailures() + countIf(status == Event.Status.failure));
+			row.setSuccesses(row.getSuccesses() + countIf(status == Event.Status.success));
+			row.setNoops(row.getNoops() + countIf(status == Event.Status.noop));
+			row.setSkips(row.getSkips() + countIf(status == Event.Status.skipped));
+		}
+		List<EventCount> result = new ArrayList<EventCount>();
+		for(EventCount row : rows.values())
+			if(Query.compile(countsFilter, EventCount.class).matches(row))
+				result.add(row);
+		return result;
+	}
+
+	@Test
+	public void testAggregated() {
+		EventCountAggregator aggregator = new EventCountAggregator(null, SummarizeBy.certname, CountBy.resource);
+		aggregator.addAll(events);
+		List<EventCount> rows = reference(null, SummarizeBy.certname, CountBy.resource, gt(EventCount.FAILURES, 100));
+		AggregatedEventCount aggregated = aggregator.getAggregatedEventCounts(gt(EventCount.FAILURES, 100));
+		assertEquals(rows.size(), aggregated.getTotal());
+		assertEquals(rows.size(), aggregated.getFailures());
+		int skips = 0;
+		for(EventCount row : rows)
+			if(row.getSkips() > 0)
+				++skips;
+		assertEquals(skips, aggregated.getSkips());
+	}
+
+	@Test
+	public void testAllCombinations() {
+		List<Expression<Event>> queries = new ArrayList<Expression<Event>>();
+		queries.add(null);
+		queries.add(eq(Event.RESOURCE_TYPE, "File"));
+		for(Expression<Event> eventQuery : queries)
+			for(SummarizeBy summarizeBy : SummarizeBy.values())
+				for(CountBy countBy : CountBy.values()) {
+					EventCountAggregator aggregator = new EventCountAggregator(eventQuery, summarizeBy, countBy);
+					aggregator.addAll(events);
+					String message = eventQuery + " " + summarizeBy + " " + countBy;
+					assertEquals(message, GsonProvider.toJSON(reference(eventQuery, summarizeBy, countBy, null)),
+						GsonProvider.toJSON(aggregator.getEventCounts(null)));
+				}
+	}
+
+	@Test
+	public void testCountsFilter() {
+		EventCountAggregator aggregator = new EventCountAggregator(null, SummarizeBy.containing_class, CountBy.certname);
+		aggregator.addAll(events);
+		Expression<EventCount> filter = gt(EventCount.NOOPS, 19);
+		assertEquals(GsonProvider.toJSON(reference(null, SummarizeBy.containing_class, CountBy.certname, filter)),
+			GsonProvider.toJSON(aggregator.getEventCounts(filter)));
+	}
+
+	@Test
+	public void testIncremental() {
+		EventCountAggregator aggregator = new EventCountAggregator(null, SummarizeBy.resource, CountBy.certname);
+		for(int idx = 0; idx < events.size(); idx += 300)
+			aggregator.eventsReceived(events.subList(idx, Math.min(events.size(), idx + 300)));
+		assertEquals(events.size(), aggregator.getEventCount());
+		assertEquals(GsonProvider.toJSON(reference(null, SummarizeBy.resource, CountBy.certname, null)),
+			GsonProvider.toJSON(aggregator.getEventCounts(null)));
+
+		aggregator.clear();
+		assertEquals(0, aggregator.getEventCounts(null).size());
+		assertEquals(0, aggregator.getAggregatedEventCounts(null).getTotal());
+	}
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.events.EventTail;
+import com.puppetlabs.puppetdb.javaclient.events.EventTailListener;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Parameters;
+import com.puppetlabs.puppetdb.javaclient.query.Query;
+
+@SuppressWarnings("javadoc")
+public class EventTailTest {
+	/**
+	 * Answers <code>/events</code> and <code>/server-time</code> queries from in-memory data. The
+	 * server clock is ahead of the local clock by {@link EventTailTest#SKEW}.
+	 */
+	private class FakeServer extends StubClient {
+		@Override
+		public List<Event> getEvents(Parameters<Event> params) {
+			Expression<Event> query = (Expression<Event>) params;
+			queries.add(query.toString());
+			List<Event> result = new ArrayList<Event>();
+			synchronized(events) {
+				for(Event event : events)
+					if(Query.compile(query, Event.class).matches(event))
+						result.add(event);
+			}
+			return result;
+		}
+
+		@Override
+		public Date getServerTime() {
+			return new Date(System.currentTimeMillis() + SKEW);
+		}
+	}
+
+	private static final long SKEW = 3600000;
+
+	private static final int OVERLAP = 60000;
+
+	private final List<Event> events = new ArrayList<Event>();
+
+	private final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+
+	private final LinkedBlockingQueue<List<Event>> received = new LinkedBlockingQueue<List<Event>>();
+
+	private BasicAPIPreferences preferences;
+
+	private EventTail tail;
+
+	private Event addEvent(String report, String title, String status, long receiveTime) {
+		Event event = new Event();
+		event.setCertname("node1.example.com");
+		event.setReport(report);
+		event.setResourceType("File");
+		event.setResourceTitle(title);
+		event.setProperty("ensure");
+		event.setStatus(Event.Status.valueOf(status));
+		event.setReportReceiveTime(new Date(receiveTime));
+		event.setTimestamp(new Date(receiveTime - 1000));
+		synchronized(events) {
+			events.add(event);
+		}
+		return event;
+	}
+
+	@After
+	public void after() {
+		tail.shutdown();
+	}
+
+	@Before
+	public void before() {
+		preferences = new BasicAPIPreferences();
+		preferences.setEventTailOverlap(OVERLAP);
+		preferences.setEventTailPollInterval(3600000);
+		preferences.setEventTailQueueCapacity(1);
+		tail = newTail(null);
+	}
+
+	private EventTail newTail(Expression<Event> filter) {
+		EventTail newTail = new EventTail(new FakeServer(), filter, preferences);
+		newTail.addListener(new EventTailListener() {
+			@Override
+			public void eventsReceived(List<Event> batch) {
+				received.add(batch);
+			}
+		});
+		return newTail;
+	}
+
+	private List<Event> nextBatch() throws InterruptedException {
+		return received.poll(5, TimeUnit.SECONDS);
+	}
+
+	private long serverNow() {
+		return System.currentTimeMillis() + SKEW;
+	}
+
+	@Test(timeout = 10000)
+	public void testBackpressure() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		tail.addListener(new EventTailListener() {
+			@Override
+			public void eventsReceived(List<Event> batch) {
+				entered.countDown();
+				try {
+					release.await();
+				}
+				catch(InterruptedException e) {
+				}
+			}
+		});
+		tail.start(new Date(serverNow() - 10000));
+		while(tail.getPollCount() == 0)
+			Thread.sleep(10);
+
+		// The listener blocks on the first batch, the second fits in the queue, the third must wait
+		addEvent("r1", "/a", "success", serverNow());
+		assertEquals(1, tail.poll());
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		addEvent("r2", "/b", "success", serverNow());
+		assertEquals(1, tail.poll());
+		addEvent("r3", "/c", "success", serverNow());
+		Thread poller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					tail.poll();
+				}
+				catch(Exception e) {
+				}
+			}
+		};
+		Date watermark = tail.getWatermark();
+		poller.start();
+		poller.join(200);
+		assertTrue("poll waits for the listeners", poller.isAlive());
+		assertEquals(watermark, tail.getWatermark());
+
+		release.countDown();
+		poller.join(5000);
+		assertFalse(poller.isAlive());
+		assertEquals("/a", nextBatch().get(0).getResourceTitle());
+		assertEquals("/b", nextBatch().get(0).getResourceTitle());
+		assertEquals("/c", nextBatch().get(0).getResourceTitle());
+	}
+
+	@Test(timeout = 10000)
+	public void testClockSkew() throws Exception {
+		assertNull(tail.getWatermark());
+		assertEquals(-1, tail.getLag());
+		tail.start();
+		long skew = tail.getClockSkew();
+		assertTrue("skew " + skew, Math.abs(skew - SKEW) < 1000);
+		long watermark = tail.getWatermark().getTime();
+		assertTrue(Math.abs(watermark - serverNow()) < 1000);
+		assertTrue(tail.getLag() < 1000);
+	}
+
+	@Test(timeout = 10000)
+	public void testFilter() throws Exception {
+		tail = newTail(eq(Event.STATUS, "failure"));
+		long start = serverNow() - 10000;
+		addEvent("r1", "/a", "success", start + 1);
+		addEvent("r1", "/b", "failure", start + 1);
+		tail.start(new Date(start));
+		List<Event> batch = nextBatch();
+		assertEquals(1, batch.size());
+		assertEquals("/b", batch.get(0).getResourceTitle());
+		assertTrue(queries.get(0), queries.get(0).startsWith("[\"and\",[\"=\",\"status\",\"failure\"],[\">=\",\"report-receive-time\""));
+	}
+
+	@Test(timeout = 10000)
+	public void testOverlapAndDedupe() throws Exception {
+		long start = serverNow() - 10 * OVERLAP;
+		addEvent("r1", "/old", "failure", start - 1);
+		addEvent("r1", "/a", "failure", start);
+		addEvent("r2", "/b", "success", start + 1000);
+		tail.start(new Date(start));
+
+		List<Event> batch = nextBatch();
+		assertEquals(2, batch.size());
+		assertEquals("/a", batch.get(0).getResourceTitle());
+		assertEquals("/b", batch.get(1).getResourceTitle());
+
+		// Events older than the overlap are considered complete. The batch is delivered before the
+		// poll moves the watermark
+		while(tail.getWatermark().getTime() == start)
+			Thread.sleep(10);
+		long watermark = tail.getWatermark().getTime();
+		assertTrue(watermark > start + 1000);
+		assertTrue(Math.abs(serverNow() - OVERLAP - watermark) < 1000);
+
+		// A recent event is seen by the next poll, and once more within the overlap
+		addEvent("r3", "/c", "failure", serverNow() - 1000);
+		assertEquals(1, tail.poll());
+		assertEquals("/c", nextBatch().get(0).getResourceTitle());
+		assertEquals(0, tail.poll());
+		assertEquals(1, tail.getDuplicateCount());
+
+		// A report that is stored late but within the overlap is still picked up
+		addEvent("r4", "/d", "failure", serverNow() - OVERLAP / 2);
+		assertEquals(1, tail.poll());
+		assertEquals("/d", nextBatch().get(0).getResourceTitle());
+
+		// The count is updated when the listeners have returned
+		while(tail.getDeliveredCount() < 4)
+			Thread.sleep(10);
+		assertEquals(4, tail.getDeliveredCount());
+	}
+
+	@Test(timeout = 10000)
+	public void testRestartRetainsWatermark() throws Exception {
+		tail.start(new Date(serverNow() - 5000));
+		while(tail.getPollCount() == 0)
+			Thread.sleep(10);
+		Date watermark = tail.getWatermark();
+		tail.shutdown();
+		tail.start();
+		assertEquals(watermark, tail.getWatermark());
+	}
+}
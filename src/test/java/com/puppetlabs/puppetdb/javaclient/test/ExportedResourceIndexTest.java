@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.match;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.not;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
+import com.puppetlabs.puppetdb.javaclient.index.ExportedResourceIndex;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Parameters;
+import com.puppetlabs.puppetdb.javaclient.query.Query;
+
+@SuppressWarnings("javadoc")
+public class ExportedResourceIndexTest {
+	/**
+	 * Answers <code>/nodes</code> and <code>/resources</code> queries from in-memory data
+	 */
+	private class FakeServer extends StubClient {
+		@Override
+		public List<Node> getActiveNodes(Parameters<Node> query) {
+			return new ArrayList<Node>(nodes.values());
+		}
+
+		@Override
+		public List<Resource> getResources(Parameters<Resource> params, String... resourceQualifiers) {
+			Expression<Resource> query = (Expression<Resource>) params;
+			queries.add(query.toString());
+			return filter(resources, query);
+		}
+	}
+
+	private static final int NODE_COUNT = 40;
+
+	private static List<Resource> filter(List<Resource> resources, Expression<Resource> query) {
+		List<Resource> result = new ArrayList<Resource>();
+		for(Resource resource : resources)
+			if(Query.compile(query, Resource.class).matches(resource))
+				result.add(resource);
+		return result;
+	}
+
+	private static Resource newResource(String certname, String type, String title, boolean exported, String... tags) {
+		Resource resource = new Resource();
+		resource.setCertname(certname);
+		resource.setType(type);
+		resource.setTitle(title);
+		resource.setExported(Boolean.valueOf(exported));
+		resource.setTags(Arrays.asList(tags));
+		return resource;
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+	private final List<Resource> resources = new ArrayList<Resource>();
+
+	private final List<String> queries = new ArrayList<String>();
+
+	private ExportedResourceIndex index;
+
+	private PuppetDBClient client;
+
+	private void addNode(String certname, long timestamp) {
+		Node node = new Node();
+		node.setName(certname);
+		node.setCatalogTimestamp(new Date(timestamp));
+		nodes.put(certname, node);
+		Resource host = newResource(certname, "Nagios_host", certname, true, "nagios", "monitoring");
+		host.setFile("/etc/puppet/manifests/site.pp");
+		host.setLine(Integer.valueOf(12));
+		host.setParameters(Collections.<String, Object> singletonMap("address", "10.0.0.1"));
+		resources.add(host);
+		resources.add(newResource(certname, "Sshkey", certname, true, "ssh"));
+		resources.add(newResource(certname, "File", "/etc/motd", false, "file"));
+	}
+
+	private void assertSelect(Expression<Resource> query) {
+		List<Resource> expected = filter(filter(resources, eq(Resource.EXPORTED, true)), query);
+		List<Resource> actual = index.select(query);
+		assertEquals(query.toString(), expected.size(), actual.size());
+		assertTrue(query.toString(), actual.containsAll(expected));
+	}
+
+	@Before
+	public void before() {
+		for(int idx = 0; idx < NODE_COUNT; ++idx)
+			addNode(String.format("node%02d.example.com", idx), 1000);
+
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		client = new FakeServer();
+		index = new ExportedResourceIndex(client, preferences);
+	}
+
+	@Test
+	public void testBootstrap() throws Exception {
+		assertFalse(index.isBootstrapped());
+		assertEquals(0, index.select(null).size());
+		index.sync();
+		assertTrue(index.isBootstrapped());
+		assertEquals(1, index.getFetchCount());
+		assertEquals(NODE_COUNT * 2, index.size());
+		assertEquals("[\"=\",\"exported\",true]", queries.get(0));
+	}
+
+	@Test
+	public void testIncrementalSync() throws Exception {
+		index.sync();
+		index.sync();
+		assertEquals("no fetch when no catalog changed", 1, index.getFetchCount());
+
+		nodes.get("node03.example.com").setCatalogTimestamp(new Date(2000));
+		resources.add(newResource("node03.example.com", "Nagios_service", "ping", true, "nagios"));
+		addNode("node99.example.com", 2000);
+		index.sync();
+		assertEquals(2, index.getFetchCount());
+		String query = queries.get(1);
+		assertTrue(query, query.contains("node03.example.com"));
+		assertTrue(query, query.contains("node99.example.com"));
+		assertFalse(query, query.contains("node04.example.com"));
+		assertEquals(1, index.select(eq(Resource.TYPE, "Nagios_service")).size());
+		assertEquals(NODE_COUNT + 1, index.select(eq(Resource.TYPE, "Nagios_host")).size());
+
+		nodes.remove("node05.example.com");
+		index.sync();
+		assertEquals("removal requires no fetch", 2, index.getFetchCount());
+		assertEquals(0, index.select(eq(Resource.CERTNAME, "node05.example.com")).size());
+		assertEquals(NODE_COUNT, index.select(eq(Resource.TYPE, "Nagios_host")).size());
+	}
+
+	@Test
+	public void testManyChangesFetchAll() throws Exception {
+		index.sync();
+		for(Iterator<Node> itor = nodes.values().iterator(); itor.hasNext();)
+			itor.next().setCatalogTimestamp(new Date(3000));
+		index.sync();
+		assertEquals("[\"=\",\"exported\",true]", queries.get(1));
+		assertEquals(NODE_COUNT * 2, index.size());
+	}
+
+	@Test
+	public void testSelect() throws Exception {
+		index.sync();
+		assertSelect(and(eq(Resource.EXPORTED, true), eq(Resource.TYPE, "Nagios_host")));
+		assertSelect(and(eq(Resource.TYPE, "Sshkey"), eq(Resource.TITLE, "node07.example.com")));
+		assertSelect(and(eq(Resource.TAG, "nagios"), not(eq(Resource.CERTNAME, "node01.example.com"))));
+		assertSelect(and(eq(Resource.TAG, "monitoring"), eq(Resource.CERTNAME, "node11.example.com")));
+		assertSelect(or(eq(Resource.TYPE, "Sshkey"), match(Resource.TITLE, "node1[0-9]")));
+		assertSelect(eq(Resource.TYPE, "File"));
+		assertSelect(eq(Resource.TYPE, "Unknown"));
+		assertSelect(eq(Resource.TAG, "unknown"));
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		index.sync();
+		Path file = folder.getRoot().toPath().resolve("exported.snapshot");
+		index.saveSnapshot(file);
+
+		ExportedResourceIndex loaded = new ExportedResourceIndex(client, new BasicAPIPreferences());
+		loaded.loadSnapshot(file);
+		assertTrue(loaded.isBootstrapped());
+		assertEquals(index.getLastSyncTime(), loaded.getLastSyncTime());
+		assertEquals(index.size(), loaded.size());
+		List<Resource> expected = index.select(null);
+		List<Resource> actual = loaded.select(null);
+		assertEquals(GsonProvider.toJSON(expected), GsonProvider.toJSON(actual));
+
+		loaded.sync();
+		assertEquals("unchanged nodes are not fetched", 0, loaded.getFetchCount());
+		nodes.get("node02.example.com").setCatalogTimestamp(new Date(5000));
+		loaded.sync();
+		assertEquals(1, loaded.getFetchCount());
+		assertTrue(queries.get(1), queries.get(1).contains("node02.example.com"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testSnapshotCorrupt() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("exported.snapshot");
+		Files.write(file, "not a snapshot".getBytes("UTF-8"));
+		index.loadSnapshot(file);
+	}
+
+	@Test
+	public void testStaleness() throws Exception {
+		assertEquals(-1, index.getStaleness());
+		assertEquals(0, index.getLastSyncTime());
+
+		long before = System.currentTimeMillis();
+		index.select(eq(Resource.TYPE, "Sshkey"), 60000);
+		assertTrue(index.isBootstrapped());
+		long syncTime = index.getLastSyncTime();
+		assertTrue(syncTime >= before);
+		assertTrue(index.getStaleness() >= 0);
+
+		index.select(eq(Resource.TYPE, "Sshkey"), 60000);
+		assertEquals("fresh enough, no sync", syncTime, index.getLastSyncTime());
+		assertEquals(1, index.getFetchCount());
+
+		Thread.sleep(5);
+		index.select(eq(Resource.TYPE, "Sshkey"), 0);
+		assertTrue("too stale, synchronized", index.getLastSyncTime() > syncTime);
+		assertEquals("nothing changed so nothing fetched", 1, index.getFetchCount());
+	}
+}
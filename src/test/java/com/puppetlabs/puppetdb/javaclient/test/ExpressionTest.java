@@ -14,17 +14,87 @@ import static com.puppetlabs.puppetdb.javaclient.model.Resource.TAG;
 import static com.puppetlabs.puppetdb.javaclient.model.Resource.TITLE;
 import static com.puppetlabs.puppetdb.javaclient.model.Resource.TYPE;
 import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.compile;
 import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.fact;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.inFacts;
 import static com.puppetlabs.puppetdb.javaclient.query.Query.match;
 import static com.puppetlabs.puppetdb.javaclient.query.Query.not;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.optimize;
 import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
 import static com.puppetlabs.puppetdb.javaclient.query.Query.parameter;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.placeholder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Predicate;
+import com.puppetlabs.puppetdb.javaclient.query.PreparedQuery;
+
 @SuppressWarnings("javadoc")
 public class ExpressionTest {
+	private static final String[] VALUES = { "a", "b", "c" };
+
+	private static List<Fact> allFacts() {
+		List<String> values = new ArrayList<String>(Arrays.asList(VALUES));
+		values.add(null);
+		List<Fact> facts = new ArrayList<Fact>();
+		for(String certname : VALUES)
+			for(String name : VALUES)
+				for(String value : values) {
+					Fact fact = new Fact();
+					fact.setCertname(certname);
+					fact.setName(name);
+					fact.setValue(value);
+					facts.add(fact);
+				}
+		return facts;
+	}
+
+	private static Expression<Fact> randomExpression(Random random, int depth) {
+		int choice = random.nextInt(depth > 0
+				? 6
+				: 2);
+		String value = VALUES[random.nextInt(VALUES.length)];
+		switch(choice) {
+			case 0:
+				return eq(random.nextBoolean()
+						? Fact.NAME
+						: Fact.VALUE, value);
+			case 1:
+				return match(Fact.CERTNAME, value);
+			case 2:
+			case 3:
+				return not(randomExpression(random, depth - 1));
+			default:
+				List<Expression<Fact>> terms = new ArrayList<Expression<Fact>>();
+				for(int idx = 2 + random.nextInt(3); idx > 0; --idx)
+					terms.add(randomExpression(random, depth - 1));
+				return choice == 4
+						? and(terms)
+						: or(terms);
+		}
+	}
+
+	private static String sent(Expression<?> expression) {
+		Map<String, String> params = new HashMap<String, String>();
+		expression.appendTo(params);
+		return params.get("query");
+	}
+
 	@Test
 	public void testAnd() {
 		assertEquals(
@@ -37,16 +107,139 @@ public class ExpressionTest {
 		assertEquals("Should produce JSON for equal", "[\"=\",\"type\",\"User\"]", eq(TYPE, "User").toString());
 	}
 
+	@Test
+	public void testEqualDateCopied() {
+		Date date = new Date(0);
+		Expression<Event> query = eq(Event.TIMESTAMP, date);
+		String json = query.toString();
+		date.setTime(1000000);
+		assertEquals("Should not be affected by changes to the date", json, query.toString());
+	}
+
 	@Test
 	public void testMatch() {
 		assertEquals("Should produce JSON for match", "[\"~\",\"tag\",\"magical\"]", match(TAG, "magical").toString());
 	}
 
+	@Test
+	public void testMemoized() {
+		Expression<Node> query = and(eq(fact("kernel"), "Linux"), not(not(eq(Node.NAME, "foo"))));
+		assertSame("Should memoize the JSON", query.toString(), query.toString());
+		assertSame("Should memoize the optimized query", sent(query), sent(query));
+	}
+
 	@Test
 	public void testNot() {
 		assertEquals("Should produce JSON for not", "[\"not\",[\"=\",\"title\",\"foo\"]]", not(eq(TITLE, "foo")).toString());
 	}
 
+	@Test
+	public void testOptimizeContradiction() {
+		assertEquals(
+			"Should reduce and with a term and its negation", "[\"and\",[\"=\",\"name\",\"a\"],[\"not\",[\"=\",\"name\",\"a\"]]]",
+			optimize(and(eq(Fact.NAME, "a"), or(eq(Fact.VALUE, "x"), eq(Fact.VALUE, "y")), not(eq(Fact.NAME, "a")))).toString());
+		assertEquals(
+			"Should reduce and with different values for the same field", "[\"and\",[\"=\",\"name\",\"a\"],[\"=\",\"name\",\"b\"]]",
+			optimize(and(eq(Fact.NAME, "a"), eq(Fact.CERTNAME, "x"), eq(Fact.NAME, "b"))).toString());
+		assertEquals(
+			"Should drop a contradiction from or", "[\"=\",\"certname\",\"x\"]",
+			optimize(or(eq(Fact.CERTNAME, "x"), and(eq(Fact.NAME, "a"), eq(Fact.NAME, "b")))).toString());
+		assertEquals(
+			"Should not treat tags as single valued", "[\"and\",[\"=\",\"tag\",\"a\"],[\"=\",\"tag\",\"b\"]]",
+			optimize(and(eq(TAG, "a"), eq(TAG, "b"))).toString());
+	}
+
+	@Test
+	public void testOptimizeDoubleNot() {
+		assertEquals(
+			"Should remove double negation", "[\"=\",\"title\",\"foo\"]", optimize(not(not(eq(TITLE, "foo")))).toString());
+		assertEquals(
+			"Should keep single negation", "[\"not\",[\"=\",\"title\",\"foo\"]]",
+			optimize(not(not(not(eq(TITLE, "foo"))))).toString());
+	}
+
+	@Test
+	public void testOptimizeDuplicates() {
+		assertEquals(
+			"Should remove duplicate terms", "[\"or\",[\"=\",\"type\",\"User\"],[\"~\",\"tag\",\"magical\"]]",
+			optimize(or(eq(TYPE, "User"), match(TAG, "magical"), eq(TYPE, "User"))).toString());
+		assertEquals(
+			"Should collapse to the single remaining term", "[\"=\",\"type\",\"User\"]",
+			optimize(and(eq(TYPE, "User"), eq(TYPE, "User"))).toString());
+	}
+
+	@Test
+	public void testOptimizeEquivalence() {
+		List<Fact> facts = allFacts();
+		Random random = new Random(4711);
+		for(int round = 0; round < 2000; ++round) {
+			Expression<Fact> expression = randomExpression(random, 4);
+			Expression<Fact> optimized = optimize(expression);
+			Predicate<Fact> expected = compile(expression, Fact.class);
+			Predicate<Fact> actual = compile(optimized, Fact.class);
+
+			// The negations tell false from unknown
+			Predicate<Fact> expectedNot = compile(not(expression), Fact.class);
+			Predicate<Fact> actualNot = compile(not(optimized), Fact.class);
+			for(Fact fact : facts) {
+				assertEquals(expression + " => " + optimized, expected.matches(fact), actual.matches(fact));
+				assertEquals("not " + expression + " => " + optimized, expectedNot.matches(fact), actualNot.matches(fact));
+			}
+			assertEquals("Should be stable", optimized.toString(), optimize(optimized).toString());
+		}
+	}
+
+	@Test
+	public void testOptimizeFlatten() {
+		assertEquals(
+			"Should flatten nested and", "[\"and\",[\"=\",\"type\",\"User\"],[\"=\",\"title\",\"foo\"],[\"~\",\"tag\",\"magical\"]]",
+			optimize(and(eq(TYPE, "User"), and(eq(TITLE, "foo"), match(TAG, "magical")))).toString());
+		assertEquals(
+			"Should not flatten or into and",
+			"[\"and\",[\"=\",\"type\",\"User\"],[\"or\",[\"=\",\"title\",\"foo\"],[\"~\",\"tag\",\"magical\"]]]",
+			optimize(and(eq(TYPE, "User"), or(eq(TITLE, "foo"), match(TAG, "magical")))).toString());
+	}
+
+	@Test
+	public void testOptimizeNullable() {
+		Expression<Fact> tautology = or(eq(Fact.VALUE, "a"), not(eq(Fact.VALUE, "a")));
+		assertEquals("Should not fold a tautology on a nullable field", tautology.toString(), optimize(tautology).toString());
+		Expression<Node> deactivated = or(eq(Node.DEACTIVATED, "2013-01-01T00:00:00Z"), not(eq(Node.DEACTIVATED, "2013-01-01T00:00:00Z")));
+		assertEquals("Should not fold a tautology on a timestamp", deactivated.toString(), optimize(deactivated).toString());
+		Expression<Node> timestamps = and(eq(Node.FACTS_TIMESTAMP, "2013-01-01T00:00:00Z"), eq(Node.FACTS_TIMESTAMP, "2013-01-01T00:00:00.000Z"));
+		assertEquals("Should not treat different timestamp strings as a contradiction", timestamps.toString(), optimize(timestamps).toString());
+		Expression<Node> facts = and(eq(fact("kernel"), "Linux"), eq(fact("kernel"), "windows"));
+		assertEquals("Should not treat comparisons of facts as a contradiction", facts.toString(), optimize(facts).toString());
+		assertEquals(
+			"Should fold a tautology on a field that is never null", "[\"=\",\"certname\",\"x\"]",
+			optimize(and(eq(Fact.CERTNAME, "x"), or(eq(Fact.NAME, "a"), not(eq(Fact.NAME, "a"))))).toString());
+	}
+
+	@Test
+	public void testOptimizeSubQuery() {
+		Expression<Node> query = inFacts(
+			Node.NAME, Fact.CERTNAME, and(eq(Fact.NAME, "kernel"), and(eq(Fact.VALUE, "Linux"), eq(Fact.NAME, "kernel"))));
+		assertEquals(
+			"Should optimize sub-queries",
+			"[\"in\",\"name\",[\"extract\",\"certname\",[\"select-facts\",[\"and\",[\"=\",\"name\",\"kernel\"],[\"=\",\"value\",\"Linux\"]]]]]",
+			optimize(query).toString());
+	}
+
+	@Test
+	public void testOptimizeUnchanged() {
+		Expression<Node> query = and(eq(fact("kernel"), "Linux"), not(eq(Node.NAME, "foo")));
+		assertSame("Should return the expression itself", query, optimize(query));
+		assertEquals("Should send the expression as is", query.toString(), sent(query));
+	}
+
+	@Test
+	public void testOptimizeWhenSent() {
+		assertEquals(
+			"Should send the optimized expression", "[\"=\",\"title\",\"foo\"]", sent(not(not(eq(TITLE, "foo")))));
+		assertEquals(
+			"Should keep toString as built", "[\"not\",[\"not\",[\"=\",\"title\",\"foo\"]]]", not(not(eq(TITLE, "foo"))).toString());
+	}
+
 	@Test
 	public void testOr() {
 		assertEquals(
@@ -67,4 +260,53 @@ public class ExpressionTest {
 			"Should produce JSON for parameterMatch", "[\"~\",[\"parameter\",\"home\"],\"foobar\"]",
 			match(parameter("home"), "foobar").toString());
 	}
+
+	@Test
+	public void testPrepared() {
+		PreparedQuery<Event> prepared = PreparedQuery.prepare(and(
+			eq(Event.CERTNAME, placeholder("certname")),
+			eq(Event.STATUS, "failure"),
+			not(not(eq(Event.RESOURCE_TITLE, placeholder("title"))))));
+		assertEquals("Should list placeholders", Arrays.asList("certname", "title"), prepared.getPlaceholderNames());
+		assertEquals(
+			"Should show the optimized template",
+			"[\"and\",[\"=\",\"certname\",?certname],[\"=\",\"status\",\"failure\"],[\"=\",\"resource-title\",?title]]",
+			prepared.toString());
+
+		Expression<Event> expected = and(
+			eq(Event.CERTNAME, "node \"1\""),
+			eq(Event.STATUS, "failure"),
+			eq(Event.RESOURCE_TITLE, "/etc/<hosts>"));
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("certname", "node \"1\"");
+		values.put("title", "/etc/<hosts>");
+		assertEquals("Should bind by name", sent(expected), sent(prepared.bind(values)));
+		assertEquals("Should bind by position", sent(expected), sent(prepared.bind("node \"1\"", "/etc/<hosts>")));
+		assertEquals(
+			"Should splice into other expressions", "[\"not\"," + expected.toString() + ']',
+			not(prepared.bind("node \"1\"", "/etc/<hosts>")).toString());
+		assertEquals(
+			"Should send bound expressions that are combined", "[\"not\"," + expected.toString() + ']',
+			sent(not(prepared.bind("node \"1\"", "/etc/<hosts>"))));
+	}
+
+	@Test
+	public void testPreparedRepeatedPlaceholder() {
+		PreparedQuery<Fact> prepared = PreparedQuery.prepare(or(
+			eq(Fact.CERTNAME, placeholder("node")),
+			eq(Fact.VALUE, placeholder("node"))));
+		assertEquals(
+			"Should bind every occurrence", "[\"or\",[\"=\",\"certname\",7],[\"=\",\"value\",7]]",
+			prepared.bind(Integer.valueOf(7)).toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPreparedUnbound() {
+		PreparedQuery.prepare(eq(Fact.CERTNAME, placeholder("node"))).bind(new HashMap<String, Object>());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnboundPlaceholder() {
+		sent(and(eq(Fact.NAME, "kernel"), eq(Fact.CERTNAME, placeholder("node"))));
+	}
 }
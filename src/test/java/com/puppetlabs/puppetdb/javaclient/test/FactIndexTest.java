@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.fact;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gt;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gtEq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.inFacts;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.lt;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.match;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.not;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.index.FactIndex;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+
+@SuppressWarnings("javadoc")
+public class FactIndexTest {
+	private static final String[] OPERATING_SYSTEMS = { "RedHat", "Debian", "Fedora", "CentOS" };
+
+	private static final int NODE_COUNT = 500;
+
+	private static FactIndex index;
+
+	@BeforeClass
+	public static void beforeClass() {
+		List<Fact> facts = new ArrayList<Fact>();
+		for(int idx = 0; idx < NODE_COUNT; ++idx) {
+			String certname = certname(idx);
+			facts.add(newFact(certname, "operatingsystem", os(idx)));
+			facts.add(newFact(certname, "memorysize_mb", Integer.toString(memory(idx))));
+			facts.add(newFact(certname, "uptime", idx + " days"));
+			if(idx % 7 == 0)
+				facts.add(newFact(certname, "is_virtual", "true"));
+		}
+		index = FactIndex.fromFacts(facts);
+	}
+
+	private static String certname(int idx) {
+		return String.format("node%04d.example.com", idx);
+	}
+
+	private static int memory(int idx) {
+		return 1024 * (idx % 100);
+	}
+
+	private static Fact newFact(String certname, String name, String value) {
+		Fact fact = new Fact();
+		fact.setCertname(certname);
+		fact.setName(name);
+		fact.setValue(value);
+		return fact;
+	}
+
+	private static String os(int idx) {
+		return OPERATING_SYSTEMS[idx % OPERATING_SYSTEMS.length];
+	}
+
+	@Test
+	public void factQuery() {
+		List<String> expected = new ArrayList<String>();
+		for(int idx = 0; idx < NODE_COUNT; ++idx)
+			if(os(idx).equals("RedHat"))
+				expected.add(certname(idx));
+		assertEquals(
+			"Should select nodes with a fact value", expected,
+			index.select(and(eq(Fact.NAME, "operatingsystem"), eq(Fact.VALUE, "RedHat"))));
+		assertEquals(
+			"Should count nodes with a fact value", expected.size(),
+			index.count(and(eq(Fact.NAME, "operatingsystem"), eq(Fact.VALUE, "RedHat"))));
+	}
+
+	@Test
+	public void factQueryPerFact() {
+		// No single fact has both names so nothing can match
+		assertEquals(
+			"Should evaluate fact queries one fact at a time", 0,
+			index.count(and(eq(Fact.NAME, "operatingsystem"), eq(Fact.NAME, "uptime"))));
+		assertEquals(
+			"Should complement within the fact name", NODE_COUNT - NODE_COUNT / OPERATING_SYSTEMS.length,
+			index.count(and(eq(Fact.NAME, "operatingsystem"), not(eq(Fact.VALUE, "RedHat")))));
+	}
+
+	@Test
+	public void factRange() {
+		List<String> expected = new ArrayList<String>();
+		for(int idx = 0; idx < NODE_COUNT; ++idx)
+			if(memory(idx) >= 64000 && memory(idx) < 90000)
+				expected.add(certname(idx));
+		assertEquals(
+			"Should select numeric ranges", expected,
+			index.select(and(eq(Fact.NAME, "memorysize_mb"), gtEq(Fact.VALUE, 64000), lt(Fact.VALUE, 90000))));
+		assertEquals("Should not compare non-numeric values", 0, index.count(and(eq(Fact.NAME, "uptime"), gt(Fact.VALUE, 0))));
+	}
+
+	@Test
+	public void nodeQuery() {
+		List<String> expected = new ArrayList<String>();
+		for(int idx = 0; idx < NODE_COUNT; ++idx)
+			if(os(idx).equals("RedHat") && memory(idx) > 64000 || idx % 7 == 0 && !os(idx).equals("Debian"))
+				expected.add(certname(idx));
+		assertEquals(
+			"Should combine fact comparisons", expected, index.selectNodes(or(
+				and(eq(fact("operatingsystem"), "RedHat"), gt(fact("memorysize_mb"), 64000)),
+				and(eq(fact("is_virtual"), "true"), not(eq(fact("operatingsystem"), "Debian"))))));
+	}
+
+	@Test
+	public void nodeSubQuery() {
+		List<String> expected = new ArrayList<String>();
+		for(int idx = 0; idx < NODE_COUNT; ++idx)
+			if(idx % 7 == 0 && idx % 10 == 3)
+				expected.add(certname(idx));
+		assertEquals("Should evaluate fact sub-queries", expected, index.selectNodes(and(
+			inFacts(Node.NAME, Fact.CERTNAME, and(eq(Fact.NAME, "is_virtual"), eq(Fact.VALUE, "true"))),
+			match(Node.NAME, "3\\.example"))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedField() {
+		index.selectNodes(eq(Node.FACTS_TIMESTAMP, "2013-01-01"));
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.Guice;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.ServiceEndpoint;
+import com.puppetlabs.puppetdb.javaclient.impl.DefaultModule;
+
+@SuppressWarnings("javadoc")
+public class HedgingTest {
+	private static int countHedgingThreads() {
+		int count = 0;
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+			if(thread.isAlive() && "PuppetDB hedged request".equals(thread.getName()))
+				++count;
+		return count;
+	}
+
+	private LocalServer primary;
+
+	private LocalServer replica;
+
+	private PuppetDBClient client;
+
+	@After
+	public void after() {
+		client.close();
+		primary.stop();
+		replica.stop();
+	}
+
+	@Before
+	public void before() throws IOException {
+		primary = new LocalServer();
+		replica = new LocalServer();
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setServiceHostname("127.0.0.1");
+		preferences.setServicePort(primary.getPort());
+		preferences.addReplicaEndpoint(new ServiceEndpoint("127.0.0.1", replica.getPort()));
+		preferences.setHealthCheckInterval(0);
+		preferences.setHedgingPercentile(50);
+		preferences.setHedgingBudget(100);
+		client = Guice.createInjector(new DefaultModule(preferences)).getInstance(PuppetDBClient.class);
+
+		// Teach the hedger the normal latency
+		for(int idx = 0; idx < 40; ++idx)
+			client.getActiveNodes(null);
+	}
+
+	@Test(timeout = 10000)
+	public void closeStopsHedging() throws Exception {
+		primary.setDelay(200);
+		for(int idx = 0; idx < 4; ++idx)
+			client.getActiveNodes(null);
+		assertTrue(countHedgingThreads() > 0);
+		client.close();
+		while(countHedgingThreads() > 0)
+			Thread.sleep(10);
+	}
+
+	@Test(timeout = 10000)
+	public void hedgeWinsAndLoserIsAborted() throws IOException {
+		primary.setDelay(5000);
+		primary.reset();
+		replica.reset();
+		for(int idx = 0; idx < 6; ++idx) {
+			long start = System.currentTimeMillis();
+			assertEquals(Collections.emptyList(), client.getActiveNodes(null));
+
+			// The caller waits for its own request until it is aborted, so an early return means that
+			// the slow request lost the race and was cancelled
+			assertTrue(System.currentTimeMillis() - start < 2000);
+		}
+		assertTrue("the slow endpoint received queries", primary.countRequests("/v3/nodes") > 0);
+		assertEquals(6, replica.countRequests("/v3/nodes"));
+	}
+}
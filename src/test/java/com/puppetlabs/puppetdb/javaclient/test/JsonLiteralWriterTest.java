@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
+import com.puppetlabs.puppetdb.javaclient.impl.JsonLiteralWriter;
+
+@SuppressWarnings("javadoc")
+public class JsonLiteralWriterTest {
+	private static void assertSameAsGson(Object literal) {
+		StringBuilder bld = new StringBuilder();
+		JsonLiteralWriter.appendLiteral(bld, literal);
+		assertEquals("should produce the same JSON as Gson", GsonProvider.toJSON(literal), bld.toString());
+	}
+
+	@Test
+	public void allCharacters() {
+		for(char c = 0; c < Character.MAX_VALUE; ++c)
+			assertSameAsGson("a" + c + "b");
+		assertSameAsGson("");
+		assertSameAsGson("mixed \"quotes\", \\back\\slashes\\, <tags> & 'apostrophes' =   å😀");
+	}
+
+	@Test
+	public void dates() {
+		Random random = new Random(42);
+		for(int idx = 0; idx < 20000; ++idx)
+			// Years 1000 to 11000, to include both delegated and directly written dates
+			assertSameAsGson(new Date((long) ((random.nextDouble() * 10000 - 970) * 365.2425 * 24 * 3600 * 1000)));
+		assertSameAsGson(new Date(0));
+		assertSameAsGson(new Date(-1));
+		assertSameAsGson(new Date(1000000));
+	}
+
+	@Test
+	public void numbersAndBooleans() {
+		Object[] literals = new Object[] {
+				0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, (short) 7, (byte) -3, 0.0, -0.0, 1.0, 0.1, 1e20,
+				1.5e-10, Double.MAX_VALUE, Double.MIN_VALUE, 1.1f, -3.25f, Float.MAX_VALUE, new BigDecimal("123.4500"),
+				new BigInteger("123456789012345678901234567890"), Boolean.TRUE, Boolean.FALSE, null };
+		for(Object literal : literals)
+			assertSameAsGson(literal);
+	}
+
+	@Test
+	public void stringArrays() {
+		assertSameAsGson(new String[] { "fact", "operatingsystem" });
+		assertSameAsGson(new String[] { "parameter", "a\"b<c>" });
+		assertSameAsGson(new String[] { "x", null });
+		assertSameAsGson(new String[0]);
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A PuppetDB stand-in on a local port. Every request is recorded and answered with the configured
+ * status, body and delay, or by a custom handler. Health checks of <code>/v3/version</code> are
+ * answered with their own status so that an endpoint can fail queries but pass health checks and
+ * vice versa.
+ */
+@SuppressWarnings("restriction")
+public class LocalServer {
+	static {
+		// Avoids a delayed acknowledgement on each small response
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	/**
+	 * Sends a response with a JSON body.
+	 * 
+	 * @param exchange
+	 *            The exchange to respond to
+	 * @param status
+	 *            The status code
+	 * @param body
+	 *            The body
+	 * @throws IOException
+	 */
+	public static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(HttpConnector.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", HttpConnector.CONTENT_TYPE_JSON);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final List<String> requests = new ArrayList<String>();
+
+	private final List<String> bodies = new ArrayList<String>();
+
+	private volatile int status = 200;
+
+	private volatile String body = "[]";
+
+	private volatile long delay;
+
+	private volatile int healthStatus = 200;
+
+	private volatile HttpHandler handler;
+
+	/**
+	 * Starts the server on a free port of the loopback interface.
+	 * 
+	 * @throws IOException
+	 */
+	public LocalServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleExchange(exchange);
+				}
+				finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * @param path
+	 *            A path, such as <code>/v3/nodes</code>
+	 * @return The number of requests for the path
+	 */
+	public int countRequests(String path) {
+		int count = 0;
+		for(String request : getRequests())
+			if(request.endsWith(' ' + path) || request.contains(' ' + path + '?'))
+				++count;
+		return count;
+	}
+
+	/**
+	 * @return The bodies of all requests in the order they were received
+	 */
+	public List<String> getBodies() {
+		synchronized(requests) {
+			return new ArrayList<String>(bodies);
+		}
+	}
+
+	/**
+	 * @return The port that the server listens to
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return The method and URI of all requests in the order they were received
+	 */
+	public List<String> getRequests() {
+		synchronized(requests) {
+			return new ArrayList<String>(requests);
+		}
+	}
+
+	void handleExchange(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		byte[] buf = new byte[4096];
+		int cnt;
+		while((cnt = in.read(buf)) > 0)
+			content.write(buf, 0, cnt);
+		synchronized(requests) {
+			requests.add(exchange.getRequestMethod() + ' ' + exchange.getRequestURI());
+			bodies.add(new String(content.toByteArray(), HttpConnector.UTF_8));
+		}
+
+		if("/v3/version".equals(exchange.getRequestURI().getPath())) {
+			respond(exchange, healthStatus, "{\"version\":\"1.6.0\"}");
+			return;
+		}
+		if(delay > 0)
+			try {
+				Thread.sleep(delay);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		HttpHandler custom = handler;
+		if(custom != null)
+			custom.handle(exchange);
+		else
+			respond(exchange, status, body);
+	}
+
+	/**
+	 * Forgets all recorded requests
+	 */
+	public void reset() {
+		synchronized(requests) {
+			requests.clear();
+			bodies.clear();
+		}
+	}
+
+	/**
+	 * @param delay
+	 *            The number of milliseconds to wait before each response
+	 */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * @param handler
+	 *            A handler that answers all requests except health checks, or <code>null</code> to
+	 *            answer with the configured status and body
+	 */
+	public void setHandler(HttpHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * @param healthStatus
+	 *            The status returned to health checks
+	 */
+	public void setHealthStatus(int healthStatus) {
+		this.healthStatus = healthStatus;
+	}
+
+	/**
+	 * @param status
+	 *            The status of the responses
+	 * @param body
+	 *            The body of the responses
+	 */
+	public void setResponse(int status, String body) {
+		this.status = status;
+		this.body = body;
+	}
+
+	/**
+	 * Stops the server immediately
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
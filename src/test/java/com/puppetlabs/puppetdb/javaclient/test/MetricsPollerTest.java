@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.metrics.MetricsPoller;
+import com.puppetlabs.puppetdb.javaclient.metrics.MetricsSnapshot;
+
+@SuppressWarnings("javadoc")
+public class MetricsPollerTest {
+	/**
+	 * Answers <code>/metrics</code> requests from in-memory data and keeps track of the concurrency
+	 */
+	private class FakeServer extends StubClient {
+		@Override
+		public Map<String, Object> getMetric(String name) throws IOException {
+			int current = concurrent.incrementAndGet();
+			synchronized(maxConcurrent) {
+				if(current > maxConcurrent.get())
+					maxConcurrent.set(current);
+			}
+			try {
+				if(gate != null)
+					gate.await();
+				Thread.sleep(2);
+				if(failing.contains(name))
+					throw new IOException("Connection refused");
+				// Like the real client on 404
+				Map<String, Object> attrs = mbeans.get(name);
+				return attrs == null
+						? Collections.<String, Object> emptyMap()
+						: attrs;
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			finally {
+				concurrent.decrementAndGet();
+			}
+		}
+
+		@Override
+		public Map<String, String> getMetrics() {
+			listCount.incrementAndGet();
+			Map<String, String> list = new LinkedHashMap<String, String>();
+			for(String name : mbeans.keySet())
+				list.put(name, "/metrics/mbean/" + name);
+			return list;
+		}
+	}
+
+	private static final String COMMANDS = "com.puppetlabs.puppetdb.command:type=global,name=processed";
+
+	private static final String QUEUE = "org.apache.activemq:BrokerName=localhost,Type=Queue,Destination=com.puppetlabs.puppetdb.commands";
+
+	private static Map<String, Object> attributes(Object... keyValues) {
+		Map<String, Object> attrs = new LinkedHashMap<String, Object>();
+		for(int idx = 0; idx < keyValues.length; idx += 2)
+			attrs.put((String) keyValues[idx], keyValues[idx + 1]);
+		return attrs;
+	}
+
+	private final Map<String, Map<String, Object>> mbeans = new ConcurrentHashMap<String, Map<String, Object>>();
+
+	private final Set<String> failing = new HashSet<String>();
+
+	private final AtomicInteger listCount = new AtomicInteger();
+
+	private final AtomicInteger concurrent = new AtomicInteger();
+
+	private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+	private volatile CountDownLatch gate;
+
+	private BasicAPIPreferences preferences;
+
+	private PuppetDBClient client;
+
+	private MetricsPoller poller;
+
+	@After
+	public void after() {
+		poller.shutdown();
+	}
+
+	@Before
+	public void before() {
+		mbeans.put(COMMANDS, attributes("Count", Double.valueOf(100), "MeanRate", Double.valueOf(1.5), "LatencyUnit", "seconds"));
+		mbeans.put(QUEUE, attributes("QueueSize", Double.valueOf(7), "UseCache", Boolean.TRUE, "Usage", attributes("max", Double.valueOf(64), "used", Double.valueOf(12), "name", "memory")));
+
+		preferences = new BasicAPIPreferences();
+		client = new FakeServer();
+		poller = new MetricsPoller(client, preferences);
+	}
+
+	@Test
+	public void testBoundedParallelism() throws Exception {
+		for(int idx = 0; idx < 40; ++idx)
+			mbeans.put("test:name=gauge" + idx, attributes("Value", Double.valueOf(idx)));
+		preferences.setMetricsPollParallelism(3);
+		poller.shutdown();
+		poller = new MetricsPoller(client, preferences);
+		MetricsSnapshot snapshot = poller.poll();
+		assertEquals(46, snapshot.size());
+		assertTrue("Too many concurrent requests: " + maxConcurrent.get(), maxConcurrent.get() <= 3);
+		assertEquals(17.0, snapshot.getValue("test:name=gauge17", "Value"), 0);
+	}
+
+	@Test
+	public void testFailedMBean() throws Exception {
+		failing.add(QUEUE);
+		MetricsSnapshot snapshot = poller.poll();
+		assertEquals(1, snapshot.getFailedCount());
+		assertEquals(2, snapshot.size());
+		assertTrue(Double.isNaN(snapshot.getValue(QUEUE, "QueueSize")));
+
+		// A failure doesn't invalidate the list of MBeans
+		failing.clear();
+		snapshot = poller.poll();
+		assertEquals(0, snapshot.getFailedCount());
+		assertEquals(6, snapshot.size());
+		assertEquals(1, listCount.get());
+	}
+
+	@Test
+	public void testFlatten() throws Exception {
+		MetricsSnapshot snapshot = poller.poll();
+		assertEquals(0, snapshot.getFailedCount());
+		assertEquals(6, snapshot.size());
+		assertEquals(100.0, snapshot.getValue(COMMANDS, "Count"), 0);
+		assertEquals(1.5, snapshot.getValue(COMMANDS, "MeanRate"), 0);
+		assertEquals(-1, snapshot.indexOf(MetricsSnapshot.sampleName(COMMANDS, "LatencyUnit")));
+		assertEquals(1.0, snapshot.getValue(QUEUE, "UseCache"), 0);
+		assertEquals(64.0, snapshot.getValue(QUEUE, "Usage.max"), 0);
+		assertEquals(12.0, snapshot.getValue(QUEUE, "Usage.used"), 0);
+		assertEquals(-1, snapshot.indexOf(MetricsSnapshot.sampleName(QUEUE, "Usage.name")));
+		for(int idx = 0; idx < snapshot.size(); ++idx)
+			assertTrue(Double.isNaN(snapshot.getRate(idx)));
+	}
+
+	@Test
+	public void testMBeanListCached() throws Exception {
+		poller.poll();
+		poller.poll();
+		poller.poll();
+		assertEquals(1, listCount.get());
+		assertEquals(1, poller.getMBeanListFetchCount());
+
+		poller.invalidateMBeans();
+		poller.poll();
+		assertEquals(2, listCount.get());
+	}
+
+	@Test
+	public void testNonBlockingSnapshot() throws Exception {
+		final MetricsSnapshot first = poller.poll();
+		gate = new CountDownLatch(1);
+		Thread scraper = new Thread() {
+			@Override
+			public void run() {
+				try {
+					poller.poll();
+				}
+				catch(IOException e) {
+				}
+			}
+		};
+		scraper.start();
+		while(concurrent.get() == 0)
+			Thread.sleep(1);
+
+		// The scrape is stuck but the previous snapshot is still readable
+		assertSame(first, poller.getSnapshot());
+		gate.countDown();
+		scraper.join(TimeUnit.SECONDS.toMillis(10));
+		assertEquals(2, poller.getPollCount());
+		assertTrue(first != poller.getSnapshot());
+	}
+
+	@Test
+	public void testRates() throws Exception {
+		assertNull(poller.getSnapshot());
+		MetricsSnapshot first = poller.poll();
+		Thread.sleep(20);
+		mbeans.get(COMMANDS).put("Count", Double.valueOf(160));
+		MetricsSnapshot second = poller.poll();
+		assertSame(second, poller.getSnapshot());
+
+		double seconds = (second.getTime() - first.getTime()) / 1000.0;
+		assertEquals(60 / seconds, second.getRate(COMMANDS, "Count"), 1e-9);
+		assertEquals(0.0, second.getRate(QUEUE, "QueueSize"), 0);
+
+		// A new sample has no rate while the others keep theirs
+		mbeans.get(QUEUE).put("ConsumerCount", Double.valueOf(1));
+		Thread.sleep(5);
+		MetricsSnapshot third = poller.poll();
+		assertEquals(7, third.size());
+		assertTrue(Double.isNaN(third.getRate(QUEUE, "ConsumerCount")));
+		assertEquals(0.0, third.getRate(COMMANDS, "Count"), 0);
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		poller.start();
+		poller.shutdown();
+		int count = poller.getPollCount();
+		poller.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(poller.getPollCount() == count && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertTrue("Should scrape again after a restart", poller.getPollCount() > count);
+		poller.shutdown();
+		assertEquals("Should poll after a shutdown", 0, poller.poll().getFailedCount());
+	}
+
+	@Test
+	public void testVanishedMBean() throws Exception {
+		poller.poll();
+		mbeans.remove(QUEUE);
+		MetricsSnapshot snapshot = poller.poll();
+		assertEquals(1, snapshot.getFailedCount());
+		assertEquals(2, snapshot.size());
+
+		// The list of MBeans is refreshed after an MBean has vanished
+		snapshot = poller.poll();
+		assertEquals(2, listCount.get());
+		assertEquals(0, snapshot.getFailedCount());
+	}
+}
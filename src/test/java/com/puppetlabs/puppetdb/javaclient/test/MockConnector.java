@@ -13,15 +13,21 @@ package com.puppetlabs.puppetdb.javaclient.test;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,13 +35,17 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpResponseException;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
+import com.puppetlabs.puppetdb.javaclient.ContentHandler;
 import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.ProgressListener;
 import com.puppetlabs.puppetdb.javaclient.impl.GsonProvider;
 import com.puppetlabs.puppetdb.javaclient.query.Paging;
 
 @SuppressWarnings("javadoc")
 public class MockConnector implements HttpConnector {
+	private static final Type LIST_OBJECT = new TypeToken<List<Object>>() {}.getType();
 
 	private static boolean isCollectionType(Type type) {
 		if(type instanceof ParameterizedType) {
@@ -48,6 +58,10 @@ public class MockConnector implements HttpConnector {
 
 	private final Gson gson;
 
+	private Map<String, String> lastPost;
+
+	private final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+
 	@Inject
 	MockConnector(Gson gson) {
 		this.gson = gson;
@@ -57,6 +71,14 @@ public class MockConnector implements HttpConnector {
 	public void abortCurrentRequest() {
 	}
 
+	public void clearQueries() {
+		queries.clear();
+	}
+
+	@Override
+	public void close() {
+	}
+
 	@Override
 	public void delete(String urlStr) throws IOException {
 	}
@@ -65,6 +87,17 @@ public class MockConnector implements HttpConnector {
 	public void download(String urlStr, Map<String, String> params, OutputStream output) throws IOException {
 	}
 
+	@Override
+	public long download(String urlStr, Map<String, String> params, Path file, ProgressListener listener) throws IOException {
+		return 0;
+	}
+
+	@Override
+	public long download(String urlStr, Map<String, String> params, WritableByteChannel channel, ProgressListener listener)
+			throws IOException {
+		return 0;
+	}
+
 	private void flattenMaps(Map<?, ?> map, List<Object> result) {
 		for(Object v : map.values()) {
 			if(v instanceof Map)
@@ -78,6 +111,8 @@ public class MockConnector implements HttpConnector {
 
 	@Override
 	public <V> V get(String urlStr, Map<String, String> params, Type type) throws IOException {
+		if(params != null && params.containsKey("query"))
+			queries.add(params.get("query"));
 		InputStream mockResponses = getClass().getResourceAsStream("/mock_responses.json");
 		assertNotNull("Unable to open 'mock_responses.json'", mockResponses);
 		Object mocks;
@@ -140,6 +175,22 @@ public class MockConnector implements HttpConnector {
 		return get(urlStr, queryParams, type);
 	}
 
+	/**
+	 * @return The <code>query</code> parameters of the GET requests received since {@link #clearQueries()}
+	 */
+	public List<String> getQueries() {
+		synchronized(queries) {
+			return new ArrayList<String>(queries);
+		}
+	}
+
+	/**
+	 * @return The parameters of the latest post or <code>null</code>
+	 */
+	public Map<String, String> getLastPost() {
+		return lastPost;
+	}
+
 	@Override
 	public <V> V patch(String urlStr, Map<String, String> params, Class<V> type) throws IOException {
 		return null;
@@ -147,9 +198,17 @@ public class MockConnector implements HttpConnector {
 
 	@Override
 	public <V> V post(String urlStr, Map<String, String> params, Class<V> type) throws IOException {
+		lastPost = params;
 		return null;
 	}
 
+	@Override
+	public <V> V postForm(String urlStr, Map<String, String> params, String fileParam, Path file, Class<V> type) throws IOException {
+		Map<String, String> form = new LinkedHashMap<String, String>(params);
+		form.put(fileParam, new String(Files.readAllBytes(file), UTF_8));
+		return post(urlStr, form, type);
+	}
+
 	@Override
 	public <V> V postUpload(String urlStr, Map<String, String> stringParts, InputStream in, String mimeType, String fileName,
 			long fileSize, Class<V> type) throws IOException {
@@ -161,6 +220,19 @@ public class MockConnector implements HttpConnector {
 		return null;
 	}
 
+	@Override
+	public <V> V stream(String urlStr, Map<String, String> params, ContentHandler<V> handler) throws IOException {
+		List<Object> all = get(urlStr, params, LIST_OBJECT);
+		int offset = params != null && params.containsKey("offset")
+				? Integer.parseInt(params.get("offset"))
+				: 0;
+		int limit = params != null && params.containsKey("limit")
+				? Integer.parseInt(params.get("limit"))
+				: all.size();
+		List<Object> page = all.subList(Math.min(offset, all.size()), Math.min(offset + limit, all.size()));
+		return handler.handleContent(new ByteArrayInputStream(gson.toJson(page).getBytes(UTF_8)));
+	}
+
 	@Override
 	public String toJSON(Object object) {
 		return GsonProvider.toJSON(object);
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.cache.NodeCache;
+import com.puppetlabs.puppetdb.javaclient.impl.DefaultModule;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+@SuppressWarnings({ "javadoc", "restriction" })
+public class NodeCacheTest {
+	/**
+	 * The timestamps reported for each active node, as <code>facts|catalog</code>
+	 */
+	private final Map<String, String> activeNodes = new ConcurrentHashMap<String, String>();
+
+	private volatile int nodesStatus = 200;
+
+	private LocalServer server;
+
+	private PuppetDBClient client;
+
+	private NodeCache cache;
+
+	@After
+	public void after() {
+		cache.shutdown();
+		client.close();
+		server.stop();
+	}
+
+	@Before
+	public void before() throws IOException {
+		server = new LocalServer();
+		server.setHandler(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if(!"/v3/nodes".equals(exchange.getRequestURI().getPath())) {
+					LocalServer.respond(exchange, 200, "[]");
+					return;
+				}
+				StringBuilder bld = new StringBuilder("[");
+				for(Map.Entry<String, String> node : activeNodes.entrySet()) {
+					String[] timestamps = node.getValue().split("\\|");
+					if(bld.length() > 1)
+						bld.append(',');
+					bld.append("{\"name\":\"").append(node.getKey());
+					bld.append("\",\"facts_timestamp\":\"2014-01-0").append(timestamps[0]).append("T00:00:00.000Z\"");
+					bld.append(",\"catalog_timestamp\":\"2014-01-0").append(timestamps[1]).append("T00:00:00.000Z\"}");
+				}
+				bld.append(']');
+				LocalServer.respond(exchange, nodesStatus, bld.toString());
+			}
+		});
+		activeNodes.put("a.example.com", "1|1");
+		activeNodes.put("b.example.com", "1|1");
+
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setServiceHostname("127.0.0.1");
+		preferences.setServicePort(server.getPort());
+		preferences.setNodeCacheSweepInterval(600000);
+		Injector injector = Guice.createInjector(new DefaultModule(preferences));
+		client = injector.getInstance(PuppetDBClient.class);
+		cache = injector.getInstance(NodeCache.class);
+	}
+
+	private int factRequests(String node) {
+		return server.countRequests("/v3/nodes/" + node + "/facts");
+	}
+
+	@Test(timeout = 10000)
+	public void catalogChangeKeepsFacts() throws IOException {
+		cache.getNodeFacts(null, "a.example.com");
+		cache.getNodeResources(null, "a.example.com");
+		activeNodes.put("a.example.com", "1|2");
+		cache.sweep();
+		cache.getNodeFacts(null, "a.example.com");
+		cache.getNodeResources(null, "a.example.com");
+		assertEquals(1, factRequests("a.example.com"));
+		assertEquals(2, server.countRequests("/v3/nodes/a.example.com/resources"));
+	}
+
+	@Test(timeout = 10000)
+	public void deactivatedNodeIsDropped() throws IOException {
+		cache.getNodeFacts(null, "b.example.com");
+		activeNodes.remove("b.example.com");
+		cache.sweep();
+		cache.getNodeFacts(null, "b.example.com");
+		cache.getNodeFacts(null, "b.example.com");
+		assertEquals(3, factRequests("b.example.com"));
+	}
+
+	@Test(timeout = 10000)
+	public void factChangeKeepsResources() throws IOException {
+		cache.getNodeFacts(null, "a.example.com");
+		cache.getNodeResources(null, "a.example.com");
+		cache.getNodeFacts(null, "b.example.com");
+		activeNodes.put("a.example.com", "2|1");
+		cache.sweep();
+		cache.getNodeFacts(null, "a.example.com");
+		cache.getNodeResources(null, "a.example.com");
+		cache.getNodeFacts(null, "b.example.com");
+		assertEquals(2, factRequests("a.example.com"));
+		assertEquals(1, factRequests("b.example.com"));
+		assertEquals(1, server.countRequests("/v3/nodes/a.example.com/resources"));
+		assertEquals(1, cache.getInvalidationCount());
+	}
+
+	@Test(timeout = 10000)
+	public void hitAndMiss() throws IOException {
+		List<Fact> first = cache.getNodeFacts(null, "a.example.com");
+		List<Fact> second = cache.getNodeFacts(null, "a.example.com");
+		assertEquals(first, second);
+		cache.getNodeFacts(null, "a.example.com", "kernel");
+		cache.getNodeFacts(null, "a.example.com", "kernel");
+		assertEquals(2, factRequests("a.example.com") + server.countRequests("/v3/nodes/a.example.com/facts/kernel"));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(1, server.countRequests("/v3/nodes"));
+	}
+
+	@Test(timeout = 10000)
+	public void inactiveNodeIsNotCached() throws IOException {
+		cache.getNodeFacts(null, "c.example.com");
+		cache.getNodeFacts(null, "c.example.com");
+		assertEquals(2, factRequests("c.example.com"));
+		assertEquals(0, cache.getHitCount());
+	}
+
+	@Test(timeout = 10000)
+	public void listsAreUnmodifiable() throws IOException {
+		List<Fact> facts = cache.getNodeFacts(null, "a.example.com");
+		try {
+			facts.add(new Fact());
+			fail("cached lists can't be modified");
+		}
+		catch(UnsupportedOperationException e) {
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void periodicSweepExpiresFacts() throws Exception {
+		cache.shutdown();
+		client.close();
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setServiceHostname("127.0.0.1");
+		preferences.setServicePort(server.getPort());
+		preferences.setNodeCacheSweepInterval(20);
+		Injector injector = Guice.createInjector(new DefaultModule(preferences));
+		client = injector.getInstance(PuppetDBClient.class);
+		cache = injector.getInstance(NodeCache.class);
+
+		cache.getNodeFacts(null, "a.example.com");
+		cache.getNodeFacts(null, "a.example.com");
+		assertEquals(1, factRequests("a.example.com"));
+		activeNodes.put("a.example.com", "2|1");
+		while(cache.getInvalidationCount() == 0)
+			Thread.sleep(5);
+		cache.getNodeFacts(null, "a.example.com");
+		assertEquals(2, factRequests("a.example.com"));
+	}
+
+	@Test(timeout = 10000)
+	public void shutdownDropsEverything() throws IOException {
+		cache.getNodeFacts(null, "a.example.com");
+		cache.shutdown();
+
+		// The cache starts over with a new sweep
+		cache.getNodeFacts(null, "a.example.com");
+		assertEquals(2, factRequests("a.example.com"));
+		assertEquals(2, server.countRequests("/v3/nodes"));
+	}
+
+	@Test(timeout = 10000)
+	public void sweepFailureBypassesCache() throws IOException {
+		cache.getNodeFacts(null, "a.example.com");
+		nodesStatus = 500;
+		try {
+			cache.sweep();
+			fail("the sweep fails");
+		}
+		catch(IOException e) {
+		}
+		cache.getNodeFacts(null, "a.example.com");
+		cache.getNodeFacts(null, "a.example.com");
+		assertEquals(3, factRequests("a.example.com"));
+
+		// A successful sweep enables the cache again
+		nodesStatus = 200;
+		cache.sweep();
+		cache.getNodeFacts(null, "a.example.com");
+		cache.getNodeFacts(null, "a.example.com");
+		assertEquals(4, factRequests("a.example.com"));
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.compile;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.gt;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.inFacts;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.lt;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.ltEq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.match;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.not;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.parameter;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.index.FactIndex;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Predicate;
+
+@SuppressWarnings("javadoc")
+public class PredicateTest {
+	private static Fact newFact(String certname, String name, String value) {
+		Fact fact = new Fact();
+		fact.setCertname(certname);
+		fact.setName(name);
+		fact.setValue(value);
+		return fact;
+	}
+
+	@Test
+	public void dates() {
+		Event event = new Event();
+		event.setTimestamp(new Date(1000000));
+		event.setStatus(Event.Status.failure);
+		assertTrue(compile(eq(Event.TIMESTAMP, new Date(1000000)), Event.class).matches(event));
+		assertTrue(compile(eq(Event.TIMESTAMP, "1970-01-01T00:16:40.000Z"), Event.class).matches(event));
+		assertFalse(compile(and(eq(Event.STATUS, "failure"), not(eq(Event.RUN_START_TIME, null))), Event.class).matches(event));
+		assertTrue("Should compare null fields as null", compile(eq(Event.RUN_START_TIME, null), Event.class).matches(event));
+	}
+
+	@Test
+	public void factsAgreeWithIndex() {
+		List<Fact> facts = new ArrayList<Fact>();
+		for(int idx = 0; idx < 200; ++idx) {
+			String certname = "node" + idx;
+			facts.add(newFact(certname, "memorysize_mb", Integer.toString(idx * 512)));
+			facts.add(newFact(certname, "kernel", idx % 3 == 0
+					? "windows"
+					: "Linux"));
+		}
+		FactIndex index = FactIndex.fromFacts(facts);
+
+		@SuppressWarnings("unchecked")
+		List<Expression<Fact>> queries = Arrays.asList(
+			and(eq(Fact.NAME, "kernel"), eq(Fact.VALUE, "Linux")),
+			and(eq(Fact.NAME, "memorysize_mb"), gt(Fact.VALUE, 64000), not(match(Fact.CERTNAME, "1$"))),
+			or(and(eq(Fact.NAME, "kernel"), match(Fact.VALUE, "^win")), lt(Fact.VALUE, 2048)));
+		for(Expression<Fact> query : queries) {
+			Predicate<Fact> predicate = compile(query, Fact.class);
+			List<String> certnames = new ArrayList<String>();
+			for(Fact fact : facts)
+				if(predicate.matches(fact) && !certnames.contains(fact.getCertname()))
+					certnames.add(fact.getCertname());
+			Collections.sort(certnames);
+			assertEquals("Should select the same nodes as the index for " + query, index.select(query), certnames);
+		}
+	}
+
+	@Test
+	public void nullsAreUnknown() {
+		Fact fact = newFact("a", "kernel", null);
+		assertFalse(compile(eq(Fact.VALUE, "Linux"), Fact.class).matches(fact));
+		assertFalse("Should not match the negation of a null comparison", compile(not(eq(Fact.VALUE, "Linux")), Fact.class).matches(fact));
+		assertFalse(compile(not(lt(Fact.VALUE, 10)), Fact.class).matches(newFact("a", "kernel", "Linux")));
+		assertFalse(compile(not(and(eq(Fact.NAME, "kernel"), eq(Fact.VALUE, "Linux"))), Fact.class).matches(fact));
+		assertTrue(compile(not(and(eq(Fact.NAME, "uptime"), eq(Fact.VALUE, "Linux"))), Fact.class).matches(fact));
+		assertFalse(compile(or(eq(Fact.VALUE, "Linux"), not(eq(Fact.VALUE, "Linux"))), Fact.class).matches(fact));
+		assertTrue(compile(or(eq(Fact.NAME, "kernel"), eq(Fact.VALUE, "Linux")), Fact.class).matches(fact));
+		assertTrue(compile(not(eq(Fact.VALUE, null)), Fact.class).matches(newFact("a", "kernel", "Linux")));
+		assertFalse(compile(not(eq(Fact.VALUE, null)), Fact.class).matches(fact));
+	}
+
+	@Test
+	public void numbers() {
+		Predicate<Fact> predicate = compile(and(eq(Fact.NAME, "memorysize_mb"), gt(Fact.VALUE, 64000)), Fact.class);
+		assertTrue(predicate.matches(newFact("a", "memorysize_mb", "128000")));
+		assertFalse(predicate.matches(newFact("a", "memorysize_mb", "32000")));
+		assertFalse("Should not compare non-numeric values", predicate.matches(newFact("a", "memorysize_mb", "large")));
+		assertFalse("Should not match null values", predicate.matches(newFact("a", "memorysize_mb", null)));
+		assertTrue(compile(ltEq(Fact.VALUE, 1.5), Fact.class).matches(newFact("a", "b", "1.5")));
+	}
+
+	@Test
+	public void resources() {
+		Resource resource = new Resource();
+		resource.setType("File");
+		resource.setTitle("/etc/hosts");
+		resource.setTags(Arrays.asList("file", "hosts"));
+		resource.setExported(Boolean.TRUE);
+		resource.setLine(Integer.valueOf(12));
+		resource.setParameters(Collections.<String, Object> singletonMap("ensure", "present"));
+		assertTrue(compile(and(eq(Resource.TYPE, "File"), eq(Resource.TAG, "hosts"), eq(Resource.EXPORTED, true)), Resource.class).matches(resource));
+		assertTrue(compile(match(Resource.TAG, "^ho"), Resource.class).matches(resource));
+		assertTrue(compile(eq(Resource.LINE, 12), Resource.class).matches(resource));
+		assertTrue(compile(eq(parameter("ensure"), "present"), Resource.class).matches(resource));
+		assertFalse(compile(eq(parameter("mode"), "0644"), Resource.class).matches(resource));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedField() {
+		compile(eq(Event.LATEST_REPORT, true), Event.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedSubQuery() {
+		compile(inFacts(Node.NAME, Fact.CERTNAME, eq(Fact.NAME, "kernel")), Node.class);
+	}
+}
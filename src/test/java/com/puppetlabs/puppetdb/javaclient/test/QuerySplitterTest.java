@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static com.puppetlabs.puppetdb.javaclient.query.Query.and;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.eq;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.or;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.orderBy;
+import static com.puppetlabs.puppetdb.javaclient.query.Query.orderByField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Paging;
+import com.puppetlabs.puppetdb.javaclient.query.Parameters;
+import com.puppetlabs.puppetdb.javaclient.query.QuerySplitter;
+
+@SuppressWarnings("javadoc")
+public class QuerySplitterTest {
+	private static Expression<Fact> certnames(int count) {
+		List<Expression<Fact>> terms = new ArrayList<Expression<Fact>>();
+		for(int idx = 0; idx < count; ++idx)
+			terms.add(eq(Fact.CERTNAME, "node" + idx + ".example.com"));
+		return or(terms);
+	}
+
+	private static Fact newFact(String certname, String value) {
+		Fact fact = new Fact();
+		fact.setCertname(certname);
+		fact.setName("kernel");
+		fact.setValue(value);
+		return fact;
+	}
+
+	private static Map<String, String> toMap(Parameters<?> params) {
+		Map<String, String> map = new HashMap<String, String>();
+		params.appendTo(map);
+		return map;
+	}
+
+	@Test
+	public void chunksStayWithinLimit() throws Exception {
+		Expression<Fact> query = and(eq(Fact.NAME, "kernel"), certnames(500));
+		QuerySplitter<Fact> splitter = QuerySplitter.create(query, Fact.class, 2000);
+		assertNotNull("should split a large query", splitter);
+		assertTrue("should produce several chunks", splitter.getChunks().size() > 1);
+
+		Set<String> terms = new HashSet<String>();
+		for(Parameters<Fact> chunk : splitter.getChunks()) {
+			String json = toMap(chunk).get("query");
+			assertTrue("should stay within the limit", URLEncoder.encode(json, "UTF-8").length() <= 2000);
+			assertTrue("should retain the conjunction", json.startsWith("[\"and\",[\"=\",\"name\",\"kernel\"],"));
+			for(String term : json.split("\\],\\["))
+				if(term.contains("certname"))
+					assertTrue("should not repeat a term", terms.add(term.replaceAll("[\\[\\]]", "")));
+		}
+		assertEquals("should include every term", 500, terms.size());
+	}
+
+	@Test
+	public void mergeDeduplicates() {
+		QuerySplitter<Fact> splitter = QuerySplitter.create(certnames(500), Fact.class, 1000);
+		assertNotNull("should split a large query", splitter);
+		List<List<Fact>> results = new ArrayList<List<Fact>>();
+		results.add(Arrays.asList(newFact("a", "Linux"), newFact("b", "Linux")));
+		results.add(Arrays.asList(newFact("b", "Darwin"), newFact("c", "Linux")));
+		List<Fact> merged = splitter.merge(results);
+		assertEquals("should remove duplicates by certname and name", 3, merged.size());
+		assertEquals("should keep the first occurrence", "Linux", merged.get(1).getValue());
+		assertEquals("should keep the order of the chunks", "c", merged.get(2).getCertname());
+	}
+
+	@Test
+	public void mergeOrdered() {
+		Paging<Fact> paging = new Paging<Fact>(orderBy(certnames(500), orderByField(Fact.CERTNAME, true)), 1, 3, false);
+		QuerySplitter<Fact> splitter = QuerySplitter.create(paging, Fact.class, 1000);
+		assertNotNull("should split a large ordered query", splitter);
+		assertTrue("should merge in order", splitter.isOrdered());
+		for(Parameters<Fact> chunk : splitter.getChunks())
+			assertEquals("should ask each chunk for offset + limit entries", "4", toMap(chunk).get("limit"));
+
+		List<List<Fact>> results = new ArrayList<List<Fact>>();
+		results.add(Arrays.asList(newFact("e", "Linux"), newFact("c", "Linux"), newFact("a", "Linux")));
+		results.add(Arrays.asList(newFact("f", "Linux"), newFact("c", "Linux"), newFact("b", "Linux")));
+		results.add(Arrays.asList(newFact("d", "Linux")));
+		List<Fact> merged = splitter.merge(results);
+		assertEquals("should apply the limit", 3, merged.size());
+		assertEquals("should skip the offset", "e", merged.get(0).getCertname());
+		assertEquals("should merge in descending order", "d", merged.get(1).getCertname());
+		assertEquals("should remove duplicates", "c", merged.get(2).getCertname());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void notSplit() {
+		assertNull("should not split a small query", QuerySplitter.create(certnames(10), Fact.class, 4096));
+		assertNull(
+			"should not split a large query that isn't a disjunction",
+			QuerySplitter.create(eq(Fact.VALUE, new String(new char[5000]).replace('\0', 'x')), Fact.class, 4096));
+		assertNull(
+			"should not split when the total count is requested",
+			QuerySplitter.create(new Paging<Fact>(certnames(500), 0, 10, true), Fact.class, 1000));
+		assertNull("should not split when splitting is disabled", QuerySplitter.create(certnames(500), Fact.class, 0));
+		assertNull(
+			"should not split entries that can't be deduplicated",
+			QuerySplitter.create((Parameters<Object>) (Parameters<?>) certnames(500), Object.class, 1000));
+	}
+}
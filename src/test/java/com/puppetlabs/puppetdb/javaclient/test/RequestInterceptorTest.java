@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.ContentHandler;
+import com.puppetlabs.puppetdb.javaclient.HttpConnector;
+import com.puppetlabs.puppetdb.javaclient.RequestContext;
+import com.puppetlabs.puppetdb.javaclient.RequestInterceptor;
+import com.puppetlabs.puppetdb.javaclient.impl.DefaultModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+@SuppressWarnings({ "javadoc", "restriction" })
+public class RequestInterceptorTest {
+	/**
+	 * Records each callback as <code>name:callback</code>
+	 */
+	private class Recorder implements RequestInterceptor {
+		private final String name;
+
+		private volatile Throwable error;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void beforeSend(RequestContext context) {
+			record("before");
+			context.setHeader("X-" + name, "yes");
+		}
+
+		@Override
+		public void onComplete(RequestContext context) {
+			record("complete");
+		}
+
+		@Override
+		public void onError(RequestContext context, Throwable error) {
+			this.error = error;
+			record("error");
+		}
+
+		@Override
+		public void onHeaders(RequestContext context) {
+			record("headers " + context.getStatusCode());
+		}
+
+		void record(String callback) {
+			synchronized(events) {
+				events.add(name + ':' + callback);
+			}
+		}
+	}
+
+	private static final Map<String, String> NO_PARAMS = null;
+
+	private final List<String> events = new ArrayList<String>();
+
+	private LocalServer server;
+
+	private Recorder first;
+
+	private Recorder second;
+
+	private HttpConnector connector;
+
+	@After
+	public void after() {
+		connector.close();
+		server.stop();
+	}
+
+	@Before
+	public void before() throws IOException {
+		server = new LocalServer();
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setServiceHostname("127.0.0.1");
+		preferences.setServicePort(server.getPort());
+		first = new Recorder("A");
+		second = new Recorder("B");
+		DefaultModule module = new DefaultModule(preferences);
+		module.addInterceptor(first);
+		module.addInterceptor(second);
+		Injector injector = Guice.createInjector(module);
+		connector = injector.getInstance(HttpConnector.class);
+	}
+
+	private List<String> getEvents() {
+		synchronized(events) {
+			return new ArrayList<String>(events);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void errorStatus() throws IOException {
+		server.setResponse(404, "not found");
+		try {
+			connector.get("/nodes", NO_PARAMS, List.class);
+			fail("404 is an error");
+		}
+		catch(HttpResponseException e) {
+			assertSame(e, first.error);
+			assertSame(e, second.error);
+		}
+		assertEquals(Arrays.asList("A:before", "B:before", "A:headers 404", "B:headers 404", "A:error", "B:error"), getEvents());
+	}
+
+	@Test(timeout = 10000)
+	public void headersAreAdded() throws IOException {
+		server.setHandler(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				LocalServer.respond(exchange, 200, "[\"" + exchange.getRequestHeaders().getFirst("X-A") + "\",\"" +
+						exchange.getRequestHeaders().getFirst("X-B") + "\"]");
+			}
+		});
+		assertEquals(Arrays.asList("yes", "yes"), connector.get("/nodes", NO_PARAMS, List.class));
+	}
+
+	@Test(timeout = 10000)
+	public void order() throws IOException {
+		connector.get("/nodes", NO_PARAMS, List.class);
+		assertEquals(
+			Arrays.asList("A:before", "B:before", "A:headers 200", "B:headers 200", "A:complete", "B:complete"), getEvents());
+	}
+
+	@Test(timeout = 10000)
+	public void runtimeFailure() throws IOException {
+		final IllegalStateException failure = new IllegalStateException("broken handler");
+		try {
+			connector.stream("/nodes", null, new ContentHandler<Object>() {
+				@Override
+				public Object handleContent(InputStream content) {
+					throw failure;
+				}
+			});
+			fail("the handler fails");
+		}
+		catch(IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		assertSame(failure, first.error);
+		assertSame(failure, second.error);
+		assertEquals(Arrays.asList("A:before", "B:before", "A:headers 200", "B:headers 200", "A:error", "B:error"), getEvents());
+	}
+
+	@Test(timeout = 10000)
+	public void veto() throws IOException {
+		connector.close();
+		server.reset();
+		final IllegalStateException veto = new IllegalStateException("vetoed");
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setServiceHostname("127.0.0.1");
+		preferences.setServicePort(server.getPort());
+		DefaultModule module = new DefaultModule(preferences);
+		module.addInterceptor(first);
+		module.addInterceptor(new Recorder("V") {
+			@Override
+			public void beforeSend(RequestContext context) {
+				super.beforeSend(context);
+				throw veto;
+			}
+		});
+		module.addInterceptor(second);
+		connector = Guice.createInjector(module).getInstance(HttpConnector.class);
+		try {
+			connector.get("/nodes", NO_PARAMS, List.class);
+			fail("the request is vetoed");
+		}
+		catch(IllegalStateException e) {
+			assertSame(veto, e);
+		}
+		assertTrue(server.getRequests().isEmpty());
+		assertSame(veto, first.error);
+		assertSame(veto, second.error);
+		assertEquals(Arrays.asList("A:before", "V:before", "A:error", "V:error", "B:error"), getEvents());
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.puppetlabs.puppetdb.javaclient.BasicAPIPreferences;
+import com.puppetlabs.puppetdb.javaclient.cache.ResponseCache;
+import com.puppetlabs.puppetdb.javaclient.impl.DefaultResponseCache;
+
+@SuppressWarnings("javadoc")
+public class ResponseCacheTest {
+	/**
+	 * Returns a new list with one fact for each load. The value is the load number.
+	 */
+	private static class CountingLoader implements ResponseCache.Loader<List<Map<String, String>>> {
+		final AtomicInteger loads = new AtomicInteger();
+
+		@Override
+		public List<Map<String, String>> load(int[] totalCount, long[] size) {
+			int load = loads.incrementAndGet();
+			if(totalCount != null)
+				totalCount[0] = 100 + load;
+			size[0] = 100;
+			return facts(Integer.toString(load));
+		}
+	}
+
+	private static final Type TYPE = new TypeToken<List<Map<String, String>>>() {
+	}.getType();
+
+	private static final URI KERNEL = URI.create("/v3/facts/kernel");
+
+	private static List<Map<String, String>> facts(String value) {
+		Map<String, String> fact = new HashMap<String, String>();
+		fact.put("name", "kernel");
+		fact.put("value", value);
+		List<Map<String, String>> facts = new ArrayList<Map<String, String>>();
+		facts.add(fact);
+		return facts;
+	}
+
+	private DefaultResponseCache cache;
+
+	private final CountingLoader loader = new CountingLoader();
+
+	@After
+	public void after() {
+		if(cache != null)
+			cache.close();
+	}
+
+	@Test
+	public void closeUnregistersBean() throws Exception {
+		ObjectName pattern = new ObjectName("com.puppetlabs.puppetdb.javaclient:type=ResponseCache,*");
+		int before = ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size();
+		open(60000, 0);
+		assertEquals(before + 1, ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size());
+		cache.close();
+		assertEquals(before, ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size());
+	}
+
+	@Test
+	public void expiry() throws Exception {
+		open(50, 0);
+		assertEquals("1", get(KERNEL).get(0).get("value"));
+		assertEquals("1", get(KERNEL).get(0).get("value"));
+		Thread.sleep(80);
+		assertEquals("2", get(KERNEL).get(0).get("value"));
+		assertEquals(2, loader.loads.get());
+	}
+
+	private List<Map<String, String>> get(URI uri) throws IOException {
+		return cache.get(uri, TYPE, null, loader);
+	}
+
+	@Test
+	public void hitAndMiss() throws IOException {
+		open(60000, 0);
+		assertEquals(facts("1"), get(KERNEL));
+		assertEquals(facts("1"), get(KERNEL));
+		assertEquals(facts("2"), get(URI.create("/v3/facts/osfamily")));
+		assertEquals(2, loader.loads.get());
+		assertEquals(1, cache.getStatistics().getHitCount());
+		assertEquals(2, cache.getStatistics().getMissCount());
+		assertEquals(2, cache.getStatistics().getEntryCount());
+	}
+
+	@Test
+	public void invalidate() throws IOException {
+		open(60000, 0);
+		get(KERNEL);
+		cache.invalidate("/facts");
+		get(KERNEL);
+		assertEquals(2, loader.loads.get());
+		cache.invalidateAll();
+		assertEquals(0, cache.getStatistics().getEntryCount());
+	}
+
+	@Test
+	public void isolation() throws IOException {
+		open(60000, 0);
+
+		// Modifying the loaded result doesn't affect the cache
+		List<Map<String, String>> loaded = get(KERNEL);
+		loaded.get(0).put("value", "changed");
+		loaded.add(facts("extra").get(0));
+
+		// Each hit is a new instance
+		List<Map<String, String>> first = get(KERNEL);
+		List<Map<String, String>> second = get(KERNEL);
+		assertEquals(facts("1"), first);
+		assertNotSame(first, second);
+		assertNotSame(first.get(0), second.get(0));
+		first.clear();
+		assertEquals(facts("1"), second);
+		assertEquals(facts("1"), get(KERNEL));
+		assertEquals(1, loader.loads.get());
+	}
+
+	private void open(int ttl, int staleTime) {
+		BasicAPIPreferences preferences = new BasicAPIPreferences();
+		preferences.setCacheTimeToLive("/facts", ttl);
+		preferences.setCacheStaleTime(staleTime);
+		cache = new DefaultResponseCache(preferences, new Gson());
+	}
+
+	@Test(timeout = 10000)
+	public void staleRefresh() throws Exception {
+		open(50, 60000);
+		get(KERNEL);
+		Thread.sleep(80);
+
+		// The stale response is returned while a background request refreshes it
+		assertEquals(facts("1"), get(KERNEL));
+		while(!facts("2").equals(get(KERNEL)))
+			Thread.sleep(5);
+		assertEquals(2, loader.loads.get());
+		assertTrue(cache.getStatistics().getStaleHitCount() > 0);
+	}
+
+	@Test
+	public void totalCount() throws IOException {
+		open(60000, 0);
+		int[] totalCount = { -1 };
+		cache.get(KERNEL, TYPE, totalCount, loader);
+		assertEquals(101, totalCount[0]);
+		totalCount[0] = -1;
+		cache.get(KERNEL, TYPE, totalCount, loader);
+		assertEquals(101, totalCount[0]);
+		assertEquals(1, loader.loads.get());
+	}
+
+	@Test
+	public void uncachedPath() throws IOException {
+		open(60000, 0);
+		URI nodes = URI.create("/v3/nodes");
+		get(nodes);
+		get(nodes);
+		assertEquals(2, loader.loads.get());
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2013 Puppet Labs, Inc. and other contributors, as listed below.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License, Version 2.0
+ * which accompanies this distribution, and is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Contributors:
+ *   Puppet Labs
+ */
+package com.puppetlabs.puppetdb.javaclient.test;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.puppetlabs.puppetdb.javaclient.PuppetDBClient;
+import com.puppetlabs.puppetdb.javaclient.command.CatalogWriter;
+import com.puppetlabs.puppetdb.javaclient.command.ReportWriter;
+import com.puppetlabs.puppetdb.javaclient.model.AggregatedEventCount;
+import com.puppetlabs.puppetdb.javaclient.model.Catalog;
+import com.puppetlabs.puppetdb.javaclient.model.Event;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount.CountBy;
+import com.puppetlabs.puppetdb.javaclient.model.EventCount.SummarizeBy;
+import com.puppetlabs.puppetdb.javaclient.model.Fact;
+import com.puppetlabs.puppetdb.javaclient.model.Facts;
+import com.puppetlabs.puppetdb.javaclient.model.Node;
+import com.puppetlabs.puppetdb.javaclient.model.Report;
+import com.puppetlabs.puppetdb.javaclient.model.Resource;
+import com.puppetlabs.puppetdb.javaclient.query.Expression;
+import com.puppetlabs.puppetdb.javaclient.query.Parameters;
+
+/**
+ * A client whose methods throw {@link UnsupportedOperationException}. Tests extend it and override
+ * the methods that the code under test is expected to call, so that any other call fails the test.
+ */
+@SuppressWarnings("javadoc")
+public class StubClient implements PuppetDBClient {
+	private static UnsupportedOperationException unsupported(String method) {
+		return new UnsupportedOperationException(method);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public UUID deactivateNode(String node) throws IOException {
+		throw unsupported("deactivateNode");
+	}
+
+	@Override
+	public List<Node> getActiveNodes(Parameters<Node> query) throws IOException {
+		throw unsupported("getActiveNodes");
+	}
+
+	@Override
+	public AggregatedEventCount getAggregatedEventCounts(Expression<EventCount> eventCountQuery, Expression<Event> eventQuery,
+			SummarizeBy summarizeBy, CountBy countBy) throws IOException {
+		throw unsupported("getAggregatedEventCounts");
+	}
+
+	@Override
+	public List<EventCount> getEventCounts(Parameters<EventCount> params, Expression<Event> eventQuery, SummarizeBy summarizeBy,
+			CountBy countBy) throws IOException {
+		throw unsupported("getEventCounts");
+	}
+
+	@Override
+	public List<Event> getEvents(Parameters<Event> query) throws IOException {
+		throw unsupported("getEvents");
+	}
+
+	@Override
+	public List<String> getFactNames() throws IOException {
+		throw unsupported("getFactNames");
+	}
+
+	@Override
+	public List<Fact> getFacts(Parameters<Fact> query, String... factQualifiers) throws IOException {
+		throw unsupported("getFacts");
+	}
+
+	@Override
+	public Map<String, Object> getMetric(String metricName) throws IOException {
+		throw unsupported("getMetric");
+	}
+
+	@Override
+	public Map<String, String> getMetrics() throws IOException {
+		throw unsupported("getMetrics");
+	}
+
+	@Override
+	public List<Fact> getNodeFacts(Parameters<Fact> query, String node, String... factQualifiers) throws IOException {
+		throw unsupported("getNodeFacts");
+	}
+
+	@Override
+	public List<Resource> getNodeResources(Parameters<Resource> query, String node, String... resourceQualifiers) throws IOException {
+		throw unsupported("getNodeResources");
+	}
+
+	@Override
+	public Node getNodeStatus(String node) throws IOException {
+		throw unsupported("getNodeStatus");
+	}
+
+	@Override
+	public List<Report> getReports(Parameters<Report> query) throws IOException {
+		throw unsupported("getReports");
+	}
+
+	@Override
+	public List<Resource> getResources(Parameters<Resource> query, String... resourceQualifiers) throws IOException {
+		throw unsupported("getResources");
+	}
+
+	@Override
+	public Date getServerTime() throws IOException {
+		throw unsupported("getServerTime");
+	}
+
+	@Override
+	public String getVersion() throws IOException {
+		throw unsupported("getVersion");
+	}
+
+	@Override
+	public CatalogWriter newCatalogWriter(Catalog header) throws IOException {
+		throw unsupported("newCatalogWriter");
+	}
+
+	@Override
+	public ReportWriter newReportWriter(Report header) throws IOException {
+		throw unsupported("newReportWriter");
+	}
+
+	@Override
+	public UUID replaceCatalog(Catalog catalog) throws IOException {
+		throw unsupported("replaceCatalog");
+	}
+
+	@Override
+	public UUID replaceFacts(Facts facts) throws IOException {
+		throw unsupported("replaceFacts");
+	}
+
+	@Override
+	public UUID storeReport(Report report) throws IOException {
+		throw unsupported("storeReport");
+	}
+}